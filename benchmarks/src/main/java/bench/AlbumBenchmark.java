@@ -0,0 +1,78 @@
+package bench;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import model.Album;
+import model.Photo;
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Album edits and the date range shown for each album, on albums of
+ * several sizes owned by a user, so library bookkeeping is included.
+ *
+ * @author Prayrit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlbumBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private Album album;
+    private Album other;
+    private List<Photo> loose;
+    private Photo shared;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        User u = new User("bench");
+        u.createAlbum("big");
+        u.createAlbum("other");
+        album = u.getAlbums().get("big");
+        other = u.getAlbums().get("other");
+        for (Photo p : Libraries.photos(size, 1)) album.addPhoto(p);
+        loose = Libraries.photos(1024, 2);
+        shared = album.photoAt(size / 2);
+    }
+
+    /** A photo new to the library, added and removed again. */
+    @Benchmark
+    public boolean addRemoveNew() {
+        Photo p = loose.get(next++ & 1023);
+        return album.addPhoto(p) & album.removePhoto(p);
+    }
+
+    /** A photo already in the library, added to and removed from a second album. */
+    @Benchmark
+    public boolean addRemoveShared() {
+        return other.addPhoto(shared) & other.removePhoto(shared);
+    }
+
+    @Benchmark
+    public LocalDateTime startDate() {
+        return album.getStartDate();
+    }
+
+    @Benchmark
+    public LocalDateTime endDate() {
+        return album.getEndDate();
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import model.Photo;
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import search.AdminSearch;
+import search.PhotoBitmap;
+import search.PhotoColumns;
+import search.Query;
+import search.QueryParser;
+
+/**
+ * Full scans of one library with {@link Query#matches(Photo)} over the
+ * photo objects against {@link PhotoColumns#scan(Query)} over the columnar
+ * snapshot, for tag, date, caption and path predicates, and the admin
+ * portal's search run both ways. {@link Footprint} compares the memory the
+ * two forms take.
+ *
+ * @author Prayrit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnsBenchmark {
+    @Param({"10000", "200000"})
+    public int photos;
+
+    @Param({"person:person3", "date:2012-03..2012-09", "caption~sunset", "path~album1"})
+    public String query;
+
+    private User user;
+    private List<Photo> library;
+    private PhotoColumns columns;
+    private Query q;
+
+    private static final AdminSearch.Listener IGNORE = new AdminSearch.Listener() {
+        @Override
+        public void hits(List<AdminSearch.Hit> batch) {}
+
+        @Override
+        public void userDone(AdminSearch.UserStats stats) {}
+
+        @Override
+        public void finished(boolean cancelled) {}
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        user = Libraries.user(photos, 4);
+        library = user.getLibraryPhotos();
+        columns = PhotoColumns.forUser(user);
+        q = QueryParser.parse(query).rewrite();
+        if (!Arrays.equals(columns.scan(q).toArray(), objects().toArray())) throw new IllegalStateException("scans disagree for " + query);
+    }
+
+    @Benchmark
+    public PhotoBitmap objects() {
+        PhotoBitmap out = new PhotoBitmap();
+        for (Photo p : library) if (q.matches(p)) out.add(p.getId());
+        return out;
+    }
+
+    @Benchmark
+    public PhotoBitmap columns() { return columns.scan(q); }
+
+    @Benchmark
+    public AdminSearch adminObjects() { return admin(false); }
+
+    @Benchmark
+    public AdminSearch adminColumns() { return admin(true); }
+
+    private AdminSearch admin(boolean columnar) {
+        AdminSearch s = new AdminSearch(q, List.of(user), IGNORE).useColumns(columnar).start();
+        s.await();
+        return s;
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import model.User;
+import org.openjdk.jol.info.GraphLayout;
+import search.PhotoColumns;
+
+/**
+ * Retained heap of one user's library held as photo objects and as a
+ * {@link PhotoColumns} snapshot, measured by walking each object graph with
+ * JOL. Results are printed and written as JSON next to the JMH results.
+ *
+ * <pre>./gradlew :benchmarks:footprint [-Pfootprint.photos=10000,200000]</pre>
+ *
+ * @author Prayrit
+ */
+public final class Footprint {
+    private Footprint() {}
+
+    /**
+     * @param args output file, then library sizes in photos (multiples of
+     *        {@link Libraries#ALBUM_SIZE})
+     * @throws IOException if the results cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path out = Path.of(args[0]);
+        List<String> rows = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            int photos = Integer.parseInt(args[i]);
+            User u = Libraries.user(photos, 4);
+            // the user graph is the object model: albums, library registry, photos, strings, dates, tag ids
+            long objects = GraphLayout.parseInstance(u).totalSize();
+            long columns = GraphLayout.parseInstance(PhotoColumns.of(u)).totalSize();
+            System.out.printf("%8d photos: objects %,d bytes (%d per photo), columns %,d bytes (%d per photo), %.1fx%n",
+                photos, objects, objects / photos, columns, columns / photos, (double) objects / columns);
+            rows.add(String.format("{\"photos\":%d,\"objectBytes\":%d,\"columnBytes\":%d}", photos, objects, columns));
+        }
+        Files.createDirectories(out.toAbsolutePath().getParent());
+        Files.writeString(out, "[" + String.join(",\n", rows) + "]\n", StandardCharsets.UTF_8);
+        System.out.println("Footprint results saved to " + out);
+    }
+}
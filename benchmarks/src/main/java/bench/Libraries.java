@@ -0,0 +1,81 @@
+package bench;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import model.DataStore;
+import model.LibraryGenerator;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * Fixed-seed libraries for the benchmarks, made by {@link LibraryGenerator}
+ * without image files, so nothing depends on the machine's disk contents.
+ *
+ * @author Prayrit
+ */
+final class Libraries {
+    /** Photos per album. */
+    static final int ALBUM_SIZE = 1000;
+    /** Albums per user. */
+    static final int ALBUMS_PER_USER = 10;
+
+    private static final String[] LOCATIONS = {"home", "paris", "rome", "beach", "office"};
+
+    private Libraries() {}
+
+    /**
+     * A generated user whose albums hold the given number of photos between
+     * them.
+     *
+     * @param photos photos in the library, a multiple of {@link #ALBUM_SIZE}
+     * @param seed random seed
+     * @return the user
+     * @throws IOException never, as no image files are written
+     */
+    static User user(int photos, long seed) throws IOException {
+        DataStore ds = new LibraryGenerator().seed(seed).users(1)
+            .albumsPerUser(Math.max(1, photos / ALBUM_SIZE)).photosPerAlbum(Math.min(photos, ALBUM_SIZE)).generate();
+        return ds.getUser("user0");
+    }
+
+    /**
+     * A generated datastore holding the given number of photos, spread over
+     * users of up to {@link #ALBUMS_PER_USER} full albums each.
+     *
+     * @param photos photos in all, a multiple of {@link #ALBUM_SIZE}
+     * @return the datastore
+     * @throws IOException never, as no image files are written
+     */
+    static DataStore store(int photos) throws IOException {
+        int albums = Math.max(1, photos / ALBUM_SIZE);
+        int users = Math.max(1, albums / ALBUMS_PER_USER);
+        return new LibraryGenerator().seed(0).users(users).albumsPerUser(albums / users).photosPerAlbum(ALBUM_SIZE).generate();
+    }
+
+    /**
+     * Unowned photos, not yet in any album.
+     *
+     * @param n how many
+     * @param seed random seed
+     * @return the photos
+     */
+    static List<Photo> photos(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<Photo> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) list.add(photo("loose/" + seed + "/" + i, rnd));
+        return list;
+    }
+
+    private static Photo photo(String path, Random rnd) {
+        Photo p = new Photo("/nonexistent/" + path + ".jpg");
+        p.setCaption("caption " + rnd.nextInt(1000));
+        p.setDateTime(LocalDateTime.of(2010, 1, 1, 0, 0).plusMinutes(rnd.nextInt(10 * 365 * 24 * 60)));
+        p.addTag(new Tag("person", "person" + (int) Math.floor(Math.pow(rnd.nextDouble(), 3) * 200)));
+        p.addTag(new Tag("location", LOCATIONS[rnd.nextInt(LOCATIONS.length)]));
+        return p;
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import model.DataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and loading the datastore file at several library sizes, as the
+ * app does on every change and at start-up.
+ *
+ * @author Prayrit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int photos;
+
+    private DataStore store;
+    private File saved;
+    private File scratch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        store = Libraries.store(photos);
+        saved = File.createTempFile("bench-load", ".dat");
+        scratch = File.createTempFile("bench-save", ".dat");
+        store.save(saved);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        saved.delete();
+        scratch.delete();
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        store.save(scratch);
+    }
+
+    @Benchmark
+    public DataStore load() throws Exception {
+        return DataStore.load(saved);
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import model.Photo;
+import model.Tag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Photo construction, which reads the file date, and tag hashing, which
+ * every tag set and index lookup pays.
+ *
+ * @author Prayrit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhotoBenchmark {
+    private File file;
+    private String missing;
+    private final Tag[] tags = new Tag[256];
+    private final Set<Tag> tagSet = new HashSet<>();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = File.createTempFile("bench-photo", ".jpg");
+        missing = file.getPath() + ".missing";
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = new Tag(i % 3 == 0 ? "location" : "person", "value number " + i);
+            if (i % 2 == 0) tagSet.add(tags[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Photo constructExisting() { return new Photo(file.getPath()); }
+
+    @Benchmark
+    public Photo constructMissing() { return new Photo(missing); }
+
+    /** Hash of a tag made afresh, as when a tag is typed or read. */
+    @Benchmark
+    public int tagHashNew() {
+        Tag t = tags[next++ & 255];
+        return new Tag(t.getName(), t.getValue()).hashCode();
+    }
+
+    @Benchmark
+    public boolean tagSetLookup() { return tagSet.contains(tags[next++ & 255]); }
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import search.Query;
+import search.QueryParser;
+import search.SearchEngine;
+import search.SearchResults;
+
+/**
+ * The tag and date searches of the search view, run through the engine the
+ * view uses. The result cache is cleared before each search, so every call
+ * evaluates the query.
+ *
+ * @author Prayrit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"10000", "100000"})
+    public int photos;
+
+    private SearchEngine engine;
+    private final Query tag = QueryParser.parse("person:person3");
+    private final Query twoTags = QueryParser.parse("person:person3 OR location:rome");
+    private final Query date = QueryParser.parse("date:2012-03..2012-09");
+    private final Query tagAndDate = QueryParser.parse("location:paris AND date:2015");
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        User u = Libraries.user(photos, 3);
+        engine = SearchEngine.forUser(u);
+    }
+
+    @Benchmark
+    public SearchResults tag() { return run(tag); }
+
+    @Benchmark
+    public SearchResults twoTags() { return run(twoTags); }
+
+    @Benchmark
+    public SearchResults date() { return run(date); }
+
+    @Benchmark
+    public SearchResults tagAndDate() { return run(tagAndDate); }
+
+    private SearchResults run(Query q) {
+        engine.getCache().clear();
+        return engine.search(q);
+    }
+}
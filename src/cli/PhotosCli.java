@@ -0,0 +1,439 @@
+package cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import model.Album;
+import model.Backup;
+import model.BatchResult;
+import model.DataStore;
+import model.LibraryDump;
+import model.Photo;
+import model.Tag;
+import model.User;
+import search.Query;
+import search.QueryParser;
+
+/**
+ * Headless command-line entry point for scripted work on the photo data,
+ * such as nightly imports on a server without a display.
+ *
+ * <p>Commands use the model directly and never start JavaFX. Results are
+ * written to standard output as line-delimited records (see
+ * {@link RecordWriter}); messages go to standard error. The data is saved
+ * once, after a command that changed it. The exit status is {@link #OK},
+ * {@link #FAILED}, {@link #USAGE} or {@link #IO_ERROR}.</p>
+ *
+ * <pre>
+ * photos-cli [--data DIR] COMMAND ARGS...
+ *   users                              list users
+ *   user-add USER                      create a user
+ *   user-delete USER                   delete a user
+ *   albums USER                        list a user's albums
+ *   import USER ALBUM PATH...          add image files, and directories recursively
+ *   tag USER QUERY NAME:VALUE          tag the photos matching a query
+ *   untag USER QUERY NAME:VALUE        remove a tag from the matching photos
+ *   query USER QUERY                   list the photos matching a query
+ *   export USER QUERY DIR              copy the matching photo files into DIR
+ *   dump [FILE]                        write every user as JSON Lines (see {@link LibraryDump})
+ *   load FILE                          add the users of a dump; existing users are kept
+ * </pre>
+ *
+ * @author Prayrit
+ */
+public final class PhotosCli {
+    /** Exit status: the command succeeded. */
+    public static final int OK = 0;
+    /** Exit status: the command ran but failed, wholly or for some items. */
+    public static final int FAILED = 1;
+    /** Exit status: the command line was not understood. */
+    public static final int USAGE = 2;
+    /** Exit status: the data could not be saved. */
+    public static final int IO_ERROR = 3;
+
+    /** File name extensions imported, as in the album view's file chooser. */
+    static final List<String> IMAGE_EXTENSIONS = List.of(".jpg", ".jpeg", ".png", ".gif", ".bmp");
+
+    private static final String USAGE_TEXT = String.join(System.lineSeparator(),
+        "usage: PhotosCli [--data DIR] COMMAND ARGS...",
+        "  users                              list users",
+        "  user-add USER                      create a user",
+        "  user-delete USER                   delete a user",
+        "  albums USER                        list a user's albums",
+        "  import USER ALBUM PATH...          add image files, and directories recursively",
+        "  tag USER QUERY NAME:VALUE          tag the photos matching a query",
+        "  untag USER QUERY NAME:VALUE        remove a tag from the matching photos",
+        "  query USER QUERY                   list the photos matching a query",
+        "  export USER QUERY DIR              copy the matching photo files into DIR",
+        "  dump [FILE]                        write every user as JSON Lines",
+        "  load FILE                          add the users of a dump; existing users are kept",
+        "  backup DIR [--full]                back up what changed since the last backup into DIR",
+        "  backups DIR                        list the snapshots in a backup directory",
+        "  restore DIR [SNAPSHOT]             replace every user with a snapshot, by default the latest");
+
+    private final RecordWriter out;
+    private final PrintStream stdout;
+    private final PrintStream err;
+    private DataStore store;
+    private boolean changed;
+
+    private PhotosCli(PrintStream out, PrintStream err) {
+        this.out = new RecordWriter(out);
+        this.stdout = out;
+        this.err = err;
+    }
+
+    /**
+     * Run a command and exit with its status.
+     *
+     * @param args command line
+     */
+    public static void main(String[] args) { System.exit(run(args, System.out, System.err)); }
+
+    /**
+     * Run a command.
+     *
+     * @param args command line
+     * @param out receives the records
+     * @param err receives messages
+     * @return exit status
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (args[i].equals("--data") && i + 1 < args.length) {
+                // read once, when the datastore class is first used
+                System.setProperty("photos.data", args[i + 1]);
+                i += 2;
+            } else {
+                return usage(err, "unknown option " + args[i]);
+            }
+        }
+        if (i == args.length) return usage(err, null);
+        PhotosCli cli = new PhotosCli(out, err);
+        int status = cli.dispatch(args[i], Arrays.copyOfRange(args, i + 1, args.length));
+        cli.out.flush();
+        if (status != USAGE && cli.changed) {
+            try {
+                cli.store.save();
+            } catch (Exception ex) {
+                err.println("photos: cannot save: " + ex.getMessage());
+                return IO_ERROR;
+            }
+        }
+        return status;
+    }
+
+    private int dispatch(String command, String[] a) {
+        switch (command) {
+            case "users": return a.length == 0 ? users() : usage(err, "users takes no arguments");
+            case "user-add": return a.length == 1 ? userAdd(a[0]) : usage(err, "user-add USER");
+            case "user-delete": return a.length == 1 ? userDelete(a[0]) : usage(err, "user-delete USER");
+            case "albums": return a.length == 1 ? albums(a[0]) : usage(err, "albums USER");
+            case "import": return a.length >= 3 ? importPaths(a[0], a[1], Arrays.copyOfRange(a, 2, a.length)) : usage(err, "import USER ALBUM PATH...");
+            case "tag": return a.length == 3 ? tag(a[0], a[1], a[2], true) : usage(err, "tag USER QUERY NAME:VALUE");
+            case "untag": return a.length == 3 ? tag(a[0], a[1], a[2], false) : usage(err, "untag USER QUERY NAME:VALUE");
+            case "query": return a.length == 2 ? query(a[0], a[1]) : usage(err, "query USER QUERY");
+            case "export": return a.length == 3 ? export(a[0], a[1], Path.of(a[2])) : usage(err, "export USER QUERY DIR");
+            case "dump": return a.length <= 1 ? dump(a.length == 0 ? null : Path.of(a[0])) : usage(err, "dump [FILE]");
+            case "load": return a.length == 1 ? load(Path.of(a[0])) : usage(err, "load FILE");
+            case "backup":
+                if (a.length == 1 || a.length == 2 && a[1].equals("--full")) return backup(Path.of(a[0]), a.length == 2);
+                return usage(err, "backup DIR [--full]");
+            case "backups": return a.length == 1 ? backups(Path.of(a[0])) : usage(err, "backups DIR");
+            case "restore":
+                if (a.length == 1) return restore(Path.of(a[0]), 0);
+                if (a.length == 2 && a[1].matches("[1-9][0-9]{0,8}")) return restore(Path.of(a[0]), Integer.parseInt(a[1]));
+                return usage(err, "restore DIR [SNAPSHOT]");
+            default: return usage(err, "unknown command " + command);
+        }
+    }
+
+    private static int usage(PrintStream err, String problem) {
+        if (problem != null) err.println("photos: " + problem);
+        err.println(USAGE_TEXT);
+        return USAGE;
+    }
+
+    /** The datastore, loaded on first use; its start-up messages go to standard error. */
+    private DataStore store() {
+        if (store == null) {
+            PrintStream stdout = System.out;
+            System.setOut(err);
+            try {
+                store = DataStore.getInstance();
+            } finally {
+                System.setOut(stdout);
+            }
+        }
+        return store;
+    }
+
+    private User user(String name) {
+        User u = store().getUser(name);
+        if (u == null) err.println("photos: no such user: " + name);
+        return u;
+    }
+
+    private static boolean special(String name) { return name.equals("admin") || name.equals("stock"); }
+
+    private int users() {
+        for (User u : store().getUsers().values()) out.record(u.getUsername(), u.getAlbums().size(), u.getPhotoCount());
+        return OK;
+    }
+
+    private int userAdd(String name) {
+        String username = name.trim().toLowerCase();
+        if (username.isEmpty() || special(username)) {
+            err.println("photos: cannot create user: " + name);
+            return FAILED;
+        }
+        if (!store().addUser(new User(username))) {
+            err.println("photos: user already exists: " + username);
+            return FAILED;
+        }
+        changed = true;
+        out.record("created", username);
+        return OK;
+    }
+
+    private int userDelete(String name) {
+        if (special(name.toLowerCase())) {
+            err.println("photos: cannot delete special user: " + name);
+            return FAILED;
+        }
+        if (!store().deleteUser(name)) {
+            err.println("photos: no such user: " + name);
+            return FAILED;
+        }
+        changed = true;
+        out.record("deleted", name.toLowerCase());
+        return OK;
+    }
+
+    private int albums(String username) {
+        User u = user(username);
+        if (u == null) return FAILED;
+        for (Album a : u.getAlbums().values()) {
+            out.record(a.getName(), a.size(), a.getStartDate(), a.getEndDate(), a.getSortOrder().name());
+        }
+        return OK;
+    }
+
+    private int importPaths(String username, String albumName, String[] paths) {
+        User u = user(username);
+        if (u == null) return FAILED;
+        if (u.getAlbums().get(albumName) == null) {
+            if (!u.createAlbum(albumName)) {
+                err.println("photos: " + albumName + " is a smart album");
+                return FAILED;
+            }
+            changed = true;
+        }
+        Album album = u.getAlbums().get(albumName);
+        // photos already in the library are shared, not duplicated
+        Map<String, Photo> known = new HashMap<>();
+        for (Photo p : u.getLibraryPhotos()) known.put(p.getFilePath(), p);
+        List<Photo> photos = new ArrayList<>();
+        boolean missing = false;
+        for (String arg : paths) {
+            Path path = Path.of(arg).toAbsolutePath().normalize();
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(f -> Files.isRegularFile(f) && isImage(f)).sorted()
+                        .forEach(f -> photos.add(known.computeIfAbsent(f.toString(), Photo::new)));
+                } catch (IOException | RuntimeException ex) {
+                    err.println("photos: cannot read " + path + ": " + ex.getMessage());
+                    missing = true;
+                }
+            } else if (Files.isRegularFile(path) && isImage(path)) {
+                photos.add(known.computeIfAbsent(path.toString(), Photo::new));
+            } else {
+                out.record("missing", path);
+                missing = true;
+            }
+        }
+        BatchResult r = u.copyAll(photos, album);
+        for (BatchResult.Item item : r.getItems()) {
+            out.record(item.getOutcome() == BatchResult.Outcome.DONE ? "added" : "exists", item.getPhoto().getFilePath());
+        }
+        if (r.anyDone()) changed = true;
+        err.println("photos: " + r);
+        return missing ? FAILED : OK;
+    }
+
+    private static boolean isImage(Path f) {
+        String name = f.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String ext : IMAGE_EXTENSIONS) if (name.endsWith(ext)) return true;
+        return false;
+    }
+
+    private int tag(String username, String queryText, String tagText, boolean add) {
+        User u = user(username);
+        if (u == null) return FAILED;
+        List<Photo> photos = matching(u, queryText);
+        if (photos == null) return USAGE;
+        String[] parts = tagText.split(":", 2);
+        if (parts.length < 2 || parts[0].trim().isEmpty() || parts[1].trim().isEmpty()) {
+            return usage(err, "tag must be NAME:VALUE, e.g. person:Alice");
+        }
+        String name = parts[0].trim();
+        Tag t = new Tag(name, parts[1].trim());
+        // as in the album view, a photo has at most one location
+        BatchResult r = add ? u.addTagToAll(photos, t, name.equalsIgnoreCase("location")) : u.removeTagFromAll(photos, t);
+        for (BatchResult.Item item : r.getItems()) {
+            out.record(item.getOutcome().name().toLowerCase(Locale.ROOT), item.getPhoto().getFilePath());
+        }
+        if (r.anyDone()) changed = true;
+        err.println("photos: " + r);
+        return OK;
+    }
+
+    private int query(String username, String queryText) {
+        User u = user(username);
+        if (u == null) return FAILED;
+        List<Photo> photos = matching(u, queryText);
+        if (photos == null) return USAGE;
+        for (Photo p : photos) out.photo(p);
+        return OK;
+    }
+
+    private int export(String username, String queryText, Path dir) {
+        User u = user(username);
+        if (u == null) return FAILED;
+        List<Photo> photos = matching(u, queryText);
+        if (photos == null) return USAGE;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException ex) {
+            err.println("photos: cannot create " + dir + ": " + ex.getMessage());
+            return FAILED;
+        }
+        boolean failed = false;
+        for (Photo p : photos) {
+            Path src = Path.of(p.getFilePath());
+            Path dst = target(dir, src.getFileName().toString(), p.getId());
+            try {
+                Files.copy(src, dst);
+                out.record("copied", src, dst);
+            } catch (IOException ex) {
+                out.record("failed", src, ex.getMessage());
+                failed = true;
+            }
+        }
+        return failed ? FAILED : OK;
+    }
+
+    private int dump(Path file) {
+        List<User> users = new ArrayList<>(store().getUsers().values());
+        try {
+            long records;
+            if (file == null) {
+                records = LibraryDump.write(users, stdout);
+            } else {
+                try (OutputStream os = Files.newOutputStream(file)) {
+                    records = LibraryDump.write(users, os);
+                }
+            }
+            err.println("photos: wrote " + users.size() + " users, " + records + " records");
+            return OK;
+        } catch (IOException ex) {
+            err.println("photos: cannot write " + (file == null ? "dump" : file) + ": " + ex.getMessage());
+            return FAILED;
+        }
+    }
+
+    private int load(Path file) {
+        store(); // tags are read into the loaded data's dictionary
+        List<User> users;
+        try (InputStream is = Files.newInputStream(file)) {
+            users = LibraryDump.read(is);
+        } catch (IOException ex) {
+            err.println("photos: cannot load " + file + ": " + ex.getMessage());
+            return FAILED;
+        }
+        for (User u : users) {
+            if (store().addUser(u)) {
+                changed = true;
+                out.record("loaded", u.getUsername(), u.getAlbums().size(), u.getPhotoCount());
+            } else {
+                out.record("exists", u.getUsername());
+            }
+        }
+        return OK;
+    }
+
+    private int backup(Path dir, boolean full) {
+        try {
+            Backup.Snapshot s = Backup.backup(new ArrayList<>(store().getUsers().values()), dir, full);
+            if (s == null) out.record("unchanged");
+            else out.record("snapshot", s.getNumber(), s.isFull() ? "full" : "incremental", s.getUsers(), s.getAlbums(), s.getBytes());
+            return OK;
+        } catch (IOException ex) {
+            err.println("photos: cannot back up to " + dir + ": " + ex.getMessage());
+            return FAILED;
+        }
+    }
+
+    private int backups(Path dir) {
+        try {
+            for (Backup.Snapshot s : Backup.list(dir)) {
+                out.record(s.getNumber(), s.getCreated(), s.isFull() ? "full" : "incremental", s.getUsers(), s.getAlbums(), s.getBytes());
+            }
+            return OK;
+        } catch (IOException ex) {
+            err.println("photos: cannot read " + dir + ": " + ex.getMessage());
+            return FAILED;
+        }
+    }
+
+    private int restore(Path dir, int snapshot) {
+        store(); // tags are read into the loaded data's dictionary
+        List<User> users;
+        try {
+            users = Backup.restore(dir, snapshot);
+        } catch (IOException ex) {
+            err.println("photos: cannot restore from " + dir + ": " + ex.getMessage());
+            return FAILED;
+        }
+        for (String name : new ArrayList<>(store().getUsers().keySet())) store().deleteUser(name);
+        for (User u : users) {
+            store().addUser(u);
+            out.record("restored", u.getUsername(), u.getAlbums().size(), u.getPhotoCount());
+        }
+        changed = true;
+        return OK;
+    }
+
+    /** File in dir to copy to; on a name clash the photo id is added before the extension. */
+    private static Path target(Path dir, String name, int id) {
+        Path t = dir.resolve(name);
+        if (!Files.exists(t)) return t;
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? dir.resolve(name + "-" + id) : dir.resolve(name.substring(0, dot) + "-" + id + name.substring(dot));
+    }
+
+    /** Library photos matching a query, in id order, or null after reporting a bad query. */
+    private List<Photo> matching(User u, String queryText) {
+        Query q;
+        try {
+            q = QueryParser.parse(queryText).rewrite();
+        } catch (IllegalArgumentException ex) {
+            usage(err, "bad query: " + ex.getMessage());
+            return null;
+        }
+        List<Photo> out = new ArrayList<>();
+        for (Photo p : u.getLibraryPhotos()) if (q.matches(p)) out.add(p);
+        return out;
+    }
+}
@@ -0,0 +1,72 @@
+package cli;
+
+import java.io.PrintStream;
+import java.util.StringJoiner;
+import model.Photo;
+import model.Tag;
+
+/**
+ * Writes command output as line-delimited records: one line per record,
+ * fields separated by tabs. Tabs, line breaks and backslashes inside a
+ * field are escaped as {@code \t}, {@code \n}, {@code \r} and
+ * {@code \\}, so every record is exactly one line.
+ *
+ * @author Prayrit
+ */
+final class RecordWriter {
+    private final PrintStream out;
+    private long records;
+
+    /**
+     * @param out stream to write to
+     */
+    RecordWriter(PrintStream out) { this.out = out; }
+
+    /**
+     * Write one record.
+     *
+     * @param fields field values; null is written as an empty field
+     */
+    void record(Object... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append('\t');
+            if (fields[i] != null) escape(fields[i].toString(), sb);
+        }
+        out.println(sb);
+        records++;
+    }
+
+    /**
+     * Write a photo as {@code id, path, date, caption, tags}, with the tags
+     * as {@code name:value} pairs separated by {@code ;}.
+     *
+     * @param p photo
+     */
+    void photo(Photo p) {
+        StringJoiner tags = new StringJoiner(";");
+        for (Tag t : p.getTags()) tags.add(t.toString());
+        record(p.getId(), p.getFilePath(), p.getDateTime(), p.getCaption(), tags);
+    }
+
+    /**
+     * @return records written so far
+     */
+    long getRecords() { return records; }
+
+    /** Flush the underlying stream. */
+    void flush() { out.flush(); }
+
+    private static void escape(String s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\\': sb.append("\\\\"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+}
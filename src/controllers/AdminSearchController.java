@@ -0,0 +1,163 @@
+package controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.stage.Stage;
+import model.DataStore;
+import search.AdminSearch;
+import search.Query;
+import search.QueryParser;
+
+/**
+ * Controller for the admin search screen. Runs a query over the photos of
+ * every user in the background and lists matches as they are found.
+ *
+ * <p>Alongside the matches the screen shows how long each user's library
+ * took to scan, slowest first, so unusually large users stand out. A running
+ * search can be cancelled.</p>
+ *
+ * @author Zach
+ */
+public class AdminSearchController {
+    /** FX-injected query input. */
+    @FXML public TextField queryField;
+    /** FX-injected buttons to start and cancel a search and to go back. */
+    @FXML public Button searchButton, cancelButton, backButton;
+    /** FX-injected progress text. */
+    @FXML public Label statusLabel;
+    /** FX-injected list of matches, one per user and photo. */
+    @FXML public ListView<AdminSearch.Hit> resultsListView;
+    /** FX-injected list of per-user scan statistics. */
+    @FXML public ListView<AdminSearch.UserStats> statsListView;
+
+    private final ObservableList<AdminSearch.Hit> results = FXCollections.observableArrayList();
+    private final ObservableList<AdminSearch.UserStats> stats = FXCollections.observableArrayList();
+    private final List<AdminSearch.Hit> pending = new ArrayList<>();
+    private volatile AdminSearch running;
+    private long started;
+
+    @FXML
+    void initialize() {
+        resultsListView.setItems(results);
+        statsListView.setItems(stats);
+    }
+
+    /**
+     * Parse the query and start searching every user's photos.
+     */
+    @FXML
+    public void handleSearch() {
+        String text = queryField.getText();
+        if (text == null || text.isBlank()) {
+            new Alert(Alert.AlertType.ERROR, "Please enter a query").showAndWait();
+            return;
+        }
+        Query q;
+        try {
+            q = QueryParser.parse(text);
+        } catch (IllegalArgumentException ex) {
+            new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
+            return;
+        }
+        if (running != null) running.cancel();
+        results.clear();
+        stats.clear();
+        synchronized (pending) { pending.clear(); }
+        searchButton.setDisable(true);
+        cancelButton.setDisable(false);
+        statusLabel.setText("Searching...");
+        started = System.nanoTime();
+        Progress progress = new Progress();
+        running = new AdminSearch(q, DataStore.getInstance().getUsers().values(), progress).useColumns(true);
+        progress.search = running;
+        running.start();
+    }
+
+    /**
+     * Stop the running search.
+     */
+    @FXML
+    public void handleCancel() {
+        if (running != null) running.cancel();
+    }
+
+    private void drainPending() {
+        List<AdminSearch.Hit> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        results.addAll(batch);
+        statusLabel.setText("Searching... " + results.size() + " matches so far");
+    }
+
+    /**
+     * Listener for one search; updates from a search that has since been
+     * replaced are dropped.
+     */
+    private final class Progress implements AdminSearch.Listener {
+        private AdminSearch search;
+
+        @Override
+        public void hits(List<AdminSearch.Hit> batch) {
+            boolean schedule;
+            synchronized (pending) {
+                if (search != running) return;
+                schedule = pending.isEmpty();
+                pending.addAll(batch);
+            }
+            // one FX update drains everything queued since the last one
+            if (schedule) Platform.runLater(AdminSearchController.this::drainPending);
+        }
+
+        @Override
+        public void userDone(AdminSearch.UserStats s) {
+            Platform.runLater(() -> {
+                if (search != running) return;
+                stats.add(s);
+                stats.sort((a, b) -> Long.compare(b.getNanos(), a.getNanos()));
+            });
+        }
+
+        @Override
+        public void finished(boolean cancelled) {
+            Platform.runLater(() -> {
+                if (search != running) return;
+                drainPending();
+                double ms = (System.nanoTime() - started) / 1e6;
+                statusLabel.setText(String.format("%s: %d matches in %.0f ms", cancelled ? "Cancelled" : "Done", results.size(), ms));
+                searchButton.setDisable(false);
+                cancelButton.setDisable(true);
+                running = null;
+            });
+        }
+    }
+
+    /**
+     * Cancel any running search and return to the admin portal.
+     */
+    @FXML
+    public void handleBack() {
+        handleCancel();
+        try {
+            Stage st = (Stage) backButton.getScene().getWindow();
+            Parent p = FXMLLoader.load(getClass().getResource("/controllers/Admin_Portal.fxml"));
+            st.setScene(new Scene(p));
+            st.setTitle("Admin Portal");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
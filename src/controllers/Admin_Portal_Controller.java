@@ -17,6 +17,7 @@ import javafx.scene.input.MouseEvent;
 import javafx.stage.Stage;
 import model.DataStore;
 import model.User;
+import search.SearchEngine;
 
 /**
  * Controller for the admin portal UI. Allows adding and deleting users
@@ -38,6 +39,8 @@ public class Admin_Portal_Controller {
     @FXML private Button Add_User_Button;
     /** Button to delete a user. */
     @FXML private Button Delete_User_Button;
+    /** Button to open the search over all users' photos. */
+    @FXML private Button search_users_button;
     /** Button to logout admin and return to login. */
     @FXML private Button logout_admin_button;
     /** List view showing configured users. */
@@ -109,7 +112,9 @@ public class Admin_Portal_Controller {
         Optional<javafx.scene.control.ButtonType> result = confirmDialog.showAndWait();
         
         if (result.isPresent() && result.get() == javafx.scene.control.ButtonType.OK) {
+            User deleted = DataStore.getInstance().getUser(selectedUser);
             DataStore.getInstance().deleteUser(selectedUser);
+            if (deleted != null) SearchEngine.release(deleted);
             try {
                 DataStore.getInstance().save();
                 new Alert(Alert.AlertType.INFORMATION, "User deleted successfully").showAndWait();
@@ -140,6 +145,23 @@ public class Admin_Portal_Controller {
         }
     }
 
+    @FXML
+    /**
+     * Open the search over every user's photos.
+     *
+     * @param event action event from the UI
+     */
+    void search_Users(ActionEvent event) {
+        try {
+            Stage st = (Stage) search_users_button.getScene().getWindow();
+            Parent p = FXMLLoader.load(getClass().getResource("/controllers/admin_search.fxml"));
+            st.setScene(new Scene(p));
+            st.setTitle("Admin Portal - Search All Users");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     @FXML
     /**
      * Record the currently-selected user in the list view.
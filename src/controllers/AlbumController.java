@@ -1,5 +1,6 @@
 package controllers;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
@@ -10,13 +11,24 @@ import javafx.scene.Scene;
 import javafx.stage.FileChooser;
 import javafx.fxml.FXMLLoader;
 import javafx.stage.Stage;
+import export.ArchiveExport;
+import export.ArchiveFormat;
 import model.Album;
+import model.BatchResult;
 import model.DataStore;
 import model.Photo;
+import model.SortOrder;
 import model.Tag;
 import model.User;
+import search.HashJob;
+import search.PerceptualHash;
+import search.SearchEngine;
+import search.SearchResults;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,7 +37,9 @@ import java.util.Optional;
  * performing operations such as add, remove, copy, move, tag, and navigation.
  *
  * <p>Handles photo selection, preview, tagging and operations that move or
- * copy photos between albums for the active user.</p>
+ * copy photos between albums for the active user. Several photos can be
+ * selected; copy, move, remove and tag operations then apply to all of them
+ * as one batch with a single save.</p>
  *
  * @author Zach
  */
@@ -34,7 +48,9 @@ public class AlbumController {
     @FXML public Button backButton;
     /** FX-injected label showing album name. */
     @FXML public Label albumNameLabel;
-    /** FX-injected list view of photos in the album. */
+    /** FX-injected chooser of the album's sort order. */
+    @FXML public ComboBox<SortOrder> sortBox;
+    /** FX-injected list view of photos in the album; allows multiple selection. */
     @FXML public ListView<Photo> photoListView;
     /** FX-injected ImageView displaying the selected photo. */
     @FXML public ImageView photoView;
@@ -48,9 +64,17 @@ public class AlbumController {
     @FXML public Button prevButton, nextButton;
     /** FX-injected album action buttons (add/remove/copy/move/recaption/tag). */
     @FXML public Button addButton, removeButton, copyButton, moveButton, recapButton, addTagButton, removeTagButton;
+    /** FX-injected button listing photos that look like the selected one. */
+    @FXML public Button similarButton;
+    /** FX-injected button writing the album to a ZIP or TAR archive. */
+    @FXML public Button exportButton;
+
+    /** Largest perceptual hash distance between photos reported as similar. */
+    private static final int SIMILAR_DISTANCE = 10;
 
     private User user;
     private Album album;
+    private SearchEngine engine; // null until built off the FX thread
     private int currentIndex = -1;
 
     /**
@@ -62,17 +86,55 @@ public class AlbumController {
     public void setContext(User u, Album a) {
         this.user = u; this.album = a;
         albumNameLabel.setText(a.getName());
+        sortBox.getItems().setAll(SortOrder.values());
+        sortBox.setValue(a.getSortOrder());
+        photoListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        refreshPhotos();
+        // index and hash the library in the background so "Similar" has something to compare
+        // against; tagging and "Similar" wait for the index
+        addTagButton.setDisable(true);
+        similarButton.setDisable(true);
+        SearchEngine.forUserLater(u, Platform::runLater, e -> {
+            engine = e;
+            addTagButton.setDisable(false);
+            similarButton.setDisable(false);
+            // the library is only edited on the FX thread, so new hashes are saved there too
+            e.hashLibrary(() -> Platform.runLater(this::saveHashes));
+        });
+    }
+
+    private void saveHashes() {
+        try {
+            DataStore.getInstance().save();
+        } catch (Exception ex) {
+            new Alert(Alert.AlertType.ERROR, "Could not save photo hashes: " + ex.getMessage()).show();
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Show the album in the order chosen in the sort box; the choice is
+     * saved with the album.
+     */
+    @FXML
+    public void handleSort() {
+        SortOrder o = sortBox.getValue();
+        if (album == null || o == null || o == album.getSortOrder()) return;
+        album.setSortOrder(o);
+        try { DataStore.getInstance().save(); } catch (Exception ex) {}
         refreshPhotos();
     }
 
     private void refreshPhotos() {
-        photoListView.setItems(FXCollections.observableArrayList(album.getPhotos()));
+        // virtual list: rows are read a page at a time as they scroll into view
+        PagedPhotoList rows = new PagedPhotoList(album, user);
+        photoListView.setItems(FXCollections.observableList(rows));
         photoListView.setCellFactory(lv -> new ListCell<>() {
             @Override
             protected void updateItem(Photo p, boolean empty) {
                 super.updateItem(p, empty);
                 if (empty || p==null) { setText(null); setGraphic(null); }
-                else { setText(p.getCaption().isEmpty() ? new File(p.getFilePath()).getName() : p.getCaption()); }
+                else { setText(rows.label(getIndex())); }
             }
         });
 
@@ -90,7 +152,7 @@ public class AlbumController {
     private void showPhoto(int idx) {
         if (idx < 0 || idx >= album.getPhotos().size()) return;
         currentIndex = idx;
-        Photo p = album.getPhotos().get(idx);
+        Photo p = album.photoAt(idx);
         try {
             Image img = new Image(new File(p.getFilePath()).toURI().toString());
             photoView.setImage(img);
@@ -135,29 +197,29 @@ public class AlbumController {
 
 
     /**
-     * Copy the currently selected photo to another album.
+     * Copy the selected photos to another album.
      */
     @FXML
     public void handleCopy() {
-        int sel = photoListView.getSelectionModel().getSelectedIndex();
-        if (sel < 0) return;
-        Photo photo = album.getPhotos().get(sel);
-        showAlbumSelector(photo, false);
+        List<Photo> photos = selectedPhotos();
+        if (photos.isEmpty()) return;
+        showAlbumSelector(photos, false);
     }
 
 
     /**
-     * Move the currently selected photo to another album.
+     * Move the selected photos to another album.
      */
     @FXML
     public void handleMove() {
-        int sel = photoListView.getSelectionModel().getSelectedIndex();
-        if (sel < 0) return;
-        Photo photo = album.getPhotos().get(sel);
-        showAlbumSelector(photo, true);
+        List<Photo> photos = selectedPhotos();
+        if (photos.isEmpty()) return;
+        showAlbumSelector(photos, true);
     }
 
-    private void showAlbumSelector(Photo photo, boolean isMove) {
+    private List<Photo> selectedPhotos() { return new ArrayList<>(photoListView.getSelectionModel().getSelectedItems()); }
+
+    private void showAlbumSelector(List<Photo> photos, boolean isMove) {
         List<String> albumNames = user.getAlbums().values().stream()
             .filter(a -> !a.equals(album))
             .map(Album::getName)
@@ -167,27 +229,27 @@ public class AlbumController {
             return;
         }
         ChoiceDialog<String> dialog = new ChoiceDialog<>(albumNames.get(0), albumNames);
-        dialog.setHeaderText("Select target album to " + (isMove ? "move" : "copy") + " photo to");
+        dialog.setHeaderText("Select target album to " + (isMove ? "move " : "copy ") + photos.size() + " photo(s) to");
         Optional<String> result = dialog.showAndWait();
         result.ifPresent(targetAlbumName -> {
             Album targetAlbum = user.getAlbums().get(targetAlbumName);
             if (targetAlbum != null) {
-                if (isMove) {
-                    album.removePhoto(photo);
-                }
-                targetAlbum.addPhoto(photo);
+                BatchResult r = isMove ? user.moveAll(photos, album, targetAlbum) : user.copyAll(photos, targetAlbum);
                 try { DataStore.getInstance().save(); } catch (Exception ex) {}
                 refreshPhotos();
+                if (!r.allDone()) new Alert(Alert.AlertType.INFORMATION, r.toString()).showAndWait();
             }
         });
     }
 
+    /**
+     * Remove the selected photos from the album.
+     */
     @FXML
     public void handleRemove() {
-        int sel = photoListView.getSelectionModel().getSelectedIndex();
-        if (sel < 0) return;
-        Photo p = album.getPhotos().get(sel);
-        album.removePhoto(p);
+        List<Photo> photos = selectedPhotos();
+        if (photos.isEmpty()) return;
+        user.removeAll(photos, album);
         try { DataStore.getInstance().save(); } catch (Exception ex) {}
         refreshPhotos();
     }
@@ -200,7 +262,7 @@ public class AlbumController {
     public void handleRecaption() {
         int sel = photoListView.getSelectionModel().getSelectedIndex();
         if (sel < 0) return;
-        Photo p = album.getPhotos().get(sel);
+        Photo p = album.photoAt(sel);
         TextInputDialog d = new TextInputDialog(p.getCaption());
         d.setHeaderText("Set caption");
         Optional<String> res = d.showAndWait();
@@ -213,15 +275,16 @@ public class AlbumController {
 
 
     /**
-     * Prompt for and add a tag to the selected photo.
+     * Prompt for a tag and add it to the selected photos.
      */
     @FXML
     public void handleAddTag() {
-        int sel = photoListView.getSelectionModel().getSelectedIndex();
-        if (sel < 0) return;
-        Photo p = album.getPhotos().get(sel);
+        List<Photo> photos = selectedPhotos();
+        if (photos.isEmpty() || engine == null) return;
+        int sel = currentIndex;
         TextInputDialog d = new TextInputDialog();
-        d.setHeaderText("Add tag (format: name:value)\nExample: person:Alice or location:New Brunswick");
+        d.setHeaderText("Add tag to " + photos.size() + " photo(s) (format: name:value)\nExample: person:Alice or location:New Brunswick");
+        AutoComplete.tags(d.getEditor(), engine);
         Optional<String> res = d.showAndWait();
         res.ifPresent(s -> {
             String[] parts = s.split(":",2);
@@ -232,16 +295,11 @@ public class AlbumController {
             String name = parts[0].trim();
             String value = parts[1].trim();
             // Only allow one value for location, but allow multiple for person
-            if (name.equalsIgnoreCase("location")) {
-                // Remove any existing location tag
-                p.getTags().removeIf(t -> t.getName().equalsIgnoreCase("location"));
-            }
-            Tag t = new Tag(name, value);
-            if (p.getTags().contains(t)) {
+            BatchResult r = user.addTagToAll(photos, new Tag(name, value), name.equalsIgnoreCase("location"));
+            if (!r.anyDone()) {
                 new Alert(Alert.AlertType.INFORMATION, "Tag already present").showAndWait();
                 return;
             }
-            p.addTag(t);
             try { DataStore.getInstance().save(); } catch (Exception ex) {}
             showPhoto(sel);
         });
@@ -249,24 +307,104 @@ public class AlbumController {
 
 
     /**
-     * Remove the selected tag from the selected photo.
+     * Remove the tag selected in the tag list from the selected photos.
      */
     @FXML
     public void handleRemoveTag() {
-        int sel = photoListView.getSelectionModel().getSelectedIndex();
+        List<Photo> photos = selectedPhotos();
         int tsel = tagsListView.getSelectionModel().getSelectedIndex();
-        if (sel < 0 || tsel < 0) return;
-        Photo p = album.getPhotos().get(sel);
+        if (photos.isEmpty() || tsel < 0) return;
+        int sel = currentIndex;
         List<String> tags = tagsListView.getItems();
         String chosen = tags.get(tsel);
         String[] parts = chosen.split(":",2);
         Tag t = new Tag(parts[0], parts.length>1?parts[1]:"");
-        p.removeTag(t);
+        user.removeTagFromAll(photos, t);
         try { DataStore.getInstance().save(); } catch (Exception ex) {}
         showPhoto(sel);
     }
 
 
+    /**
+     * List photos of the user that look like the selected one, such as burst
+     * shots, edited copies and re-saved files.
+     */
+    @FXML
+    public void handleSimilar() {
+        int sel = photoListView.getSelectionModel().getSelectedIndex();
+        if (sel < 0 || engine == null) return;
+        Photo p = album.photoAt(sel);
+        if (!p.hasPerceptualHash()) {
+            try {
+                engine.setPerceptualHash(p, PerceptualHash.of(Path.of(p.getFilePath())));
+            } catch (IOException ex) {
+                new Alert(Alert.AlertType.ERROR, "Cannot read image: " + ex.getMessage()).showAndWait();
+                return;
+            }
+        }
+        SearchResults similar = engine.similar(p, SIMILAR_DISTANCE);
+        HashJob job = engine.getHashJob();
+        ListView<Photo> list = new ListView<>(FXCollections.observableList(similar));
+        list.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(Photo q, boolean empty) {
+                super.updateItem(q, empty);
+                if (empty || q == null) { setText(null); return; }
+                String name = q.getCaption().isEmpty() ? new File(q.getFilePath()).getName() : q.getCaption();
+                setText(name + " (distance " + PerceptualHash.distance(p.getPerceptualHash(), q.getPerceptualHash()) + ")");
+            }
+        });
+        Alert a = new Alert(Alert.AlertType.INFORMATION);
+        a.setHeaderText(similar.size() + " similar photos"
+            + (job == null || job.isFinished() ? "" : " so far (" + job + ")"));
+        a.getDialogPane().setContent(list);
+        a.showAndWait();
+    }
+
+    /**
+     * Write the album, in its display order, to a ZIP or TAR archive with a
+     * manifest of captions, dates and tags. The files are copied in the
+     * background.
+     */
+    @FXML
+    public void handleExport() {
+        FileChooser fc = new FileChooser();
+        fc.setInitialFileName(album.getName() + ".zip");
+        fc.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("ZIP archive", "*.zip"),
+            new FileChooser.ExtensionFilter("TAR archive", "*.tar"));
+        File f = fc.showSaveDialog(exportButton.getScene().getWindow());
+        if (f == null) return;
+        ArchiveFormat format = f.getName().toLowerCase().endsWith(".tar") ? ArchiveFormat.TAR : ArchiveFormat.ZIP;
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < album.size(); i++) photos.add(album.photoAt(i));
+        ArchiveExport export = new ArchiveExport(photos, format);
+        exportButton.setDisable(true);
+        Thread t = new Thread(() -> {
+            String message;
+            Alert.AlertType type = Alert.AlertType.INFORMATION;
+            try {
+                ArchiveExport.Result r = export.writeTo(f.toPath());
+                message = "Exported " + r.getFiles() + " photos to " + f.getName();
+                if (!r.getProblems().isEmpty()) {
+                    type = Alert.AlertType.WARNING;
+                    message += "\n\n" + String.join("\n", r.getProblems());
+                }
+            } catch (IOException ex) {
+                type = Alert.AlertType.ERROR;
+                message = "Export failed: " + ex.getMessage();
+            }
+            Alert.AlertType shown = type;
+            String text = message;
+            Platform.runLater(() -> {
+                exportButton.setDisable(false);
+                new Alert(shown, text).showAndWait();
+            });
+        }, "album-export");
+        t.setDaemon(true);
+        t.start();
+    }
+
     /**
      * Show previous photo in the album.
      */
@@ -0,0 +1,105 @@
+package controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import javafx.geometry.Side;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextField;
+import search.SearchEngine;
+import search.TagTrie;
+
+/**
+ * Drop-down suggestions under a text field.
+ *
+ * <p>While the field has focus, every edit asks a source for completions of
+ * the current text and lists them in a popup below the field; choosing one
+ * replaces the text. The helpers wire tag name and tag value fields to a
+ * user's {@link SearchEngine}, which suggests the tags already in use, most
+ * used first, so the same tag is not spelled several ways.</p>
+ *
+ * @author Zach
+ */
+public final class AutoComplete {
+    /** Suggestions shown at once. */
+    private static final int LIMIT = 8;
+
+    private AutoComplete() {}
+
+    /**
+     * Show suggestions for a field.
+     *
+     * @param field text field to complete
+     * @param source completions for the current text; each suggestion's text
+     *               becomes the field text when chosen
+     */
+    public static void attach(TextField field, Function<String, List<TagTrie.Suggestion>> source) {
+        ContextMenu popup = new ContextMenu();
+        field.textProperty().addListener((obs, was, now) -> {
+            if (!field.isFocused()) return;
+            List<TagTrie.Suggestion> suggestions = source.apply(now == null ? "" : now);
+            popup.getItems().clear();
+            for (TagTrie.Suggestion s : suggestions) {
+                if (s.getText().equals(now)) continue;
+                MenuItem item = new MenuItem(s.getText() + "  (" + s.getCount() + ")");
+                item.setOnAction(e -> {
+                    field.setText(s.getText());
+                    field.positionCaret(s.getText().length());
+                });
+                popup.getItems().add(item);
+            }
+            if (popup.getItems().isEmpty()) popup.hide();
+            else if (!popup.isShowing()) popup.show(field, Side.BOTTOM, 0, 0);
+        });
+        field.focusedProperty().addListener((obs, was, now) -> {
+            if (!now) popup.hide();
+        });
+    }
+
+    /**
+     * Suggest tag names in use.
+     *
+     * @param field tag name field
+     * @param engine engine of the active user
+     */
+    public static void tagNames(TextField field, SearchEngine engine) {
+        attach(field, text -> engine.suggestTagNames(text.trim(), LIMIT));
+    }
+
+    /**
+     * Suggest values in use for the tag name typed in another field.
+     *
+     * @param field tag value field
+     * @param nameField field holding the tag name
+     * @param engine engine of the active user
+     */
+    public static void tagValues(TextField field, TextField nameField, SearchEngine engine) {
+        attach(field, text -> engine.suggestTagValues(nameField.getText().trim(), text.trim(), LIMIT));
+    }
+
+    /**
+     * Suggest whole tags written as {@code name:value}: names until a colon
+     * is typed, then values of that name.
+     *
+     * @param field tag field
+     * @param engine engine of the active user
+     */
+    public static void tags(TextField field, SearchEngine engine) {
+        attach(field, text -> {
+            int colon = text.indexOf(':');
+            List<TagTrie.Suggestion> out = new ArrayList<>();
+            if (colon < 0) {
+                for (TagTrie.Suggestion s : engine.suggestTagNames(text.trim(), LIMIT)) {
+                    out.add(new TagTrie.Suggestion(s.getText() + ":", s.getCount()));
+                }
+            } else {
+                String name = text.substring(0, colon).trim();
+                for (TagTrie.Suggestion s : engine.suggestTagValues(name, text.substring(colon + 1).trim(), LIMIT)) {
+                    out.add(new TagTrie.Suggestion(name + ":" + s.getText(), s.getCount()));
+                }
+            }
+            return out;
+        });
+    }
+}
@@ -11,6 +11,7 @@ import javafx.scene.control.ListView;
 import javafx.scene.control.TextInputDialog;
 import javafx.stage.Stage;
 import model.Album;
+import model.AlbumStats;
 import model.DataStore;
 import model.User;
 
@@ -86,9 +87,11 @@ public class MainController {
         DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd");
         albumListView.setItems(FXCollections.observableArrayList(
                 user.getAlbums().values().stream().map(a -> {
+                    // stats are maintained by the album, so this does not visit its photos
+                    AlbumStats st = a.getStats();
                     String range="";
-                    if (a.getStartDate() != null && a.getEndDate()!=null) range = " ("+a.getStartDate().format(fmt)+" - "+a.getEndDate().format(fmt)+")";
-                    return a.getName() + " [" + a.size() + "]" + range;
+                    if (st.getStartDate() != null) range = " ("+st.getStartDate().format(fmt)+" - "+st.getEndDate().format(fmt)+")";
+                    return a.getName() + " [" + st.getCount() + "]" + range;
                 }).toList()
         ));
     }
@@ -1,5 +1,6 @@
 package controllers;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -11,14 +12,21 @@ import javafx.scene.control.ListView;
 import javafx.scene.control.TextInputDialog;
 import javafx.stage.Stage;
 import model.Album;
+import model.AlbumStats;
 import model.DataStore;
+import model.SmartAlbum;
 import model.User;
+import search.LiveAlbum;
+import search.SearchEngine;
 
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
- * Controller for the non-admin user main view. Lists albums and provides
+ * Controller for the non-admin user main view. Lists albums (including
+ * smart albums defined by a saved search) and provides
  * create/delete/rename/open/search/logout actions for the active user.
  *
  * <p>Similar to {@link controllers.MainController} but used by the
@@ -61,15 +69,30 @@ public class NonAdmin_Controller {
     }
 
     private User user;
+    private SearchEngine engine; // null until built off the FX thread
 
     /**
-     * Set the active user for this view and refresh the album list.
+     * Set the active user for this view and refresh the album list. Smart
+     * albums are listed as not evaluated until the search engine has been
+     * built and their queries run in the background.
      *
      * @param u active user
      */
     public void setUser(User u) {
         this.user = u;
         refresh();
+        SearchEngine.forUserLater(u, Platform::runLater, e -> {
+            engine = e;
+            List<SmartAlbum> smart = new ArrayList<>(u.getSmartAlbums().values());
+            Thread t = new Thread(() -> {
+                for (SmartAlbum s : smart) {
+                    try { e.smartAlbum(s).size(); } catch (IllegalArgumentException ex) {}
+                }
+                Platform.runLater(this::refresh);
+            }, "smart-albums");
+            t.setDaemon(true);
+            t.start();
+        });
     }
 
     /**
@@ -85,13 +108,32 @@ public class NonAdmin_Controller {
     private void refresh() {
         if (user == null) return;
         DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        albumListView.setItems(FXCollections.observableArrayList(
+        List<String> items = new ArrayList<>(
                 user.getAlbums().values().stream().map(a -> {
+                    // stats are maintained by the album, so this does not visit its photos
+                    AlbumStats st = a.getStats();
                     String range="";
-                    if (a.getStartDate() != null && a.getEndDate()!=null) range = " ("+a.getStartDate().format(fmt)+" - "+a.getEndDate().format(fmt)+")";
-                    return a.getName() + " [" + a.size() + "]" + range;
-                }).toList()
-        ));
+                    if (st.getStartDate() != null) range = " ("+st.getStartDate().format(fmt)+" - "+st.getEndDate().format(fmt)+")";
+                    return a.getName() + " [" + st.getCount() + "]" + range;
+                }).toList());
+        // smart album counts and ranges are kept current by the search engine
+        // once their queries have run; they are never run here
+        for (SmartAlbum s : user.getSmartAlbums().values()) {
+            String line;
+            try {
+                LiveAlbum v = engine == null ? null : engine.smartAlbum(s);
+                if (v == null || !v.isEvaluated()) {
+                    items.add(s.getName() + " [not evaluated] {smart: " + s.getQuery() + "}");
+                    continue;
+                }
+                String range = v.getStartDate() == null ? "" : " (" + v.getStartDate().format(fmt) + " - " + v.getEndDate().format(fmt) + ")";
+                line = s.getName() + " [" + v.size() + "]" + range;
+            } catch (IllegalArgumentException ex) {
+                line = s.getName() + " [invalid query]";
+            }
+            items.add(line + " {smart: " + s.getQuery() + "}");
+        }
+        albumListView.setItems(FXCollections.observableArrayList(items));
     }
     
 
@@ -123,7 +165,7 @@ public class NonAdmin_Controller {
         String sel = albumListView.getSelectionModel().getSelectedItem();
         if (sel == null) return;
         String name = sel.split(" ")[0];
-        if (!user.deleteAlbum(name)) {
+        if (!(user.getSmartAlbums().containsKey(name) ? user.deleteSmartAlbum(name) : user.deleteAlbum(name))) {
             new Alert(Alert.AlertType.ERROR, "Failed to delete album").showAndWait();
         }
         try { DataStore.getInstance().save(); } catch (Exception ex) {}
@@ -170,6 +212,11 @@ public class NonAdmin_Controller {
         String sel = albumListView.getSelectionModel().getSelectedItem();
         if (sel == null) return;
         String name = sel.split(" ")[0];
+        SmartAlbum smart = user.getSmartAlbums().get(name);
+        if (smart != null) {
+            openSmartAlbum(smart);
+            return;
+        }
         try {
             Stage st = (Stage) openButton.getScene().getWindow();
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/controllers/album.fxml"));
@@ -183,6 +230,25 @@ public class NonAdmin_Controller {
         }
     }
 
+    /**
+     * Show a smart album's photos in the search view, where its query can
+     * be refined.
+     */
+    private void openSmartAlbum(SmartAlbum album) {
+        try {
+            Stage st = (Stage) openButton.getScene().getWindow();
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/controllers/search.fxml"));
+            Parent p = loader.load();
+            SearchController controller = loader.getController();
+            controller.setUser(user);
+            controller.openSmartAlbum(album);
+            st.setScene(new Scene(p));
+            st.setTitle("Smart Album: " + album.getName() + " - " + user.getUsername());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
     /**
      * Save datastore and return to the login screen.
      */
@@ -0,0 +1,79 @@
+package controllers;
+
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import model.Photo;
+import model.PhotoPage;
+import model.PhotoPager;
+import model.User;
+
+/**
+ * Virtual list over a {@link PhotoPager} for backing a ListView.
+ *
+ * <p>Nothing is copied when the list is created; rows are fetched a page at
+ * a time as the view asks for them, and the last few pages are kept. The
+ * cached pages are dropped when the pager's version changes. Cells should
+ * use {@link #label(int)}, which reads the page, and only resolve the photo
+ * with {@link #get(int)} when it is needed.</p>
+ *
+ * @author Zach
+ */
+class PagedPhotoList extends AbstractList<Photo> implements RandomAccess {
+    /** Rows fetched per page. */
+    static final int PAGE_SIZE = 256;
+    /** Pages kept. */
+    static final int CACHED_PAGES = 8;
+
+    private final PhotoPager pager;
+    private final User user;
+    private final Map<Integer, PhotoPage> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PhotoPage> eldest) { return size() > CACHED_PAGES; }
+    };
+    private long version;
+
+    /**
+     * @param pager photos to show
+     * @param user owner of the photos, used to resolve ids
+     */
+    PagedPhotoList(PhotoPager pager, User user) {
+        this.pager = pager;
+        this.user = user;
+        this.version = pager.getVersion();
+    }
+
+    @Override
+    public int size() { return pager.size(); }
+
+    @Override
+    public Photo get(int index) {
+        PhotoPage p = pageOf(index);
+        return user.getPhoto(p.getId(index - p.getOffset()));
+    }
+
+    /**
+     * @param index row
+     * @return text to show for the row
+     */
+    String label(int index) {
+        PhotoPage p = pageOf(index);
+        return p.getLabel(index - p.getOffset());
+    }
+
+    private PhotoPage pageOf(int index) {
+        if (index < 0 || index >= pager.size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + pager.size());
+        if (pager.getVersion() != version) {
+            pages.clear();
+            version = pager.getVersion();
+        }
+        int k = index / PAGE_SIZE;
+        PhotoPage p = pages.get(k);
+        if (p == null) {
+            p = pager.page(k * PAGE_SIZE, PAGE_SIZE);
+            pages.put(k, p);
+        }
+        return p;
+    }
+}
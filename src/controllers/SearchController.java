@@ -1,6 +1,9 @@
 package controllers;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.fxml.FXMLLoader;
@@ -10,22 +13,32 @@ import javafx.stage.Stage;
 import model.Album;
 import model.DataStore;
 import model.Photo;
+import model.SmartAlbum;
 import model.Tag;
 import model.User;
+import search.Facets;
+import search.LiveAlbum;
+import search.Query;
+import search.QueryParser;
+import search.ResultSink;
+import search.SearchEngine;
+import search.SearchResults;
 
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * Controller for searching photos by date range or tags. Produces a result
  * album from search results and allows navigation back to the main view.
  *
  * <p>Search results may be persisted into a new album for the active
- * user. Supports AND/OR semantics for tag searches.</p>
+ * user, or the search itself saved as a smart album that stays current.
+ * Supports AND/OR semantics for tag searches. Searches run on a background
+ * thread and show their results as they are found; a search can be
+ * cancelled, and is when its criteria are edited.</p>
  *
  * @author Zach
  */
@@ -40,13 +53,35 @@ public class SearchController {
     @FXML public TextField tag2NameField, tag2ValueField;
     /** FX-injected radio buttons for AND/OR search semantics. */
     @FXML public RadioButton andRadio, orRadio;
+    /** FX-injected query language input. */
+    @FXML public TextField queryField;
+    /** FX-injected buttons to run or explain the query. */
+    @FXML public Button searchQueryButton, explainButton;
+    /** FX-injected caption text input; every word must appear in a caption. */
+    @FXML public TextField captionField;
+    /** FX-injected button searching captions for the words in the caption field. */
+    @FXML public Button searchCaptionButton;
+    /** FX-injected progress text of the running or last search. */
+    @FXML public Label statusLabel;
+    /** FX-injected button stopping a running search, keeping what it found. */
+    @FXML public Button cancelSearchButton;
     /** FX-injected list view of search results. */
     @FXML public ListView<Photo> resultsListView;
+    /** FX-injected breakdown of the results by tag and month; values are clickable. */
+    @FXML public TreeView<Object> facetsTreeView;
     /** FX-injected action buttons for searching and creating albums from results. */
-    @FXML public Button searchDateButton, searchTagButton, createAlbumButton, backButton;
+    @FXML public Button searchDateButton, searchTagButton, createAlbumButton, saveSmartAlbumButton, backButton;
 
     private User user;
-    private List<Photo> searchResults = new ArrayList<>();
+    private SearchEngine engine;
+    /** Values listed per tag name in the refine panel. */
+    private static final int FACET_VALUES = 8;
+
+    private SearchResults searchResults;
+    private Query currentQuery;
+    private Task<SearchResults> running;
+    private final ObservableList<Photo> shown = FXCollections.observableArrayList();
+    private final List<Photo> pending = new ArrayList<>();
 
     /**
      * Set the active user for search operations.
@@ -55,6 +90,113 @@ public class SearchController {
      */
     public void setUser(User u) {
         this.user = u;
+        this.engine = SearchEngine.forUser(u);
+        this.searchResults = SearchResults.empty(u);
+        AutoComplete.tagNames(tag1NameField, engine);
+        AutoComplete.tagValues(tag1ValueField, tag1NameField, engine);
+        AutoComplete.tagNames(tag2NameField, engine);
+        AutoComplete.tagValues(tag2ValueField, tag2NameField, engine);
+    }
+
+    @FXML
+    void initialize() {
+        // editing the criteria of a running search stops it; the next search replaces it
+        for (TextField f : new TextField[] {queryField, captionField, tag1NameField, tag1ValueField, tag2NameField, tag2ValueField}) {
+            f.textProperty().addListener((obs, was, now) -> handleCancelSearch());
+        }
+        startDatePicker.valueProperty().addListener((obs, was, now) -> handleCancelSearch());
+        endDatePicker.valueProperty().addListener((obs, was, now) -> handleCancelSearch());
+        facetsTreeView.setRoot(new TreeItem<>());
+        facetsTreeView.setCellFactory(tv -> new TreeCell<>() {
+            @Override
+            protected void updateItem(Object item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    setText(null);
+                } else if (item instanceof Facets.Value) {
+                    Facets.Value v = (Facets.Value) item;
+                    setText(v.getLabel() + " (" + v.getCount() + ")");
+                } else {
+                    setText(item.toString());
+                }
+            }
+        });
+        facetsTreeView.setOnMouseClicked(e -> {
+            TreeItem<Object> item = facetsTreeView.getSelectionModel().getSelectedItem();
+            if (item != null && item.getValue() instanceof Facets.Value) refine((Facets.Value) item.getValue());
+        });
+        resultsListView.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(Photo p, boolean empty) {
+                super.updateItem(p, empty);
+                if (empty || p == null) {
+                    setText(null);
+                    setGraphic(null);
+                } else {
+                    setText(p.getCaption().isEmpty() ? p.getFilePath() : p.getCaption());
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the query typed in the query field and populate the results list.
+     */
+    @FXML
+    public void handleSearchByQuery() {
+        String q = queryField.getText();
+        if (q == null || q.isBlank()) {
+            new Alert(Alert.AlertType.ERROR, "Please enter a query").showAndWait();
+            return;
+        }
+        Query query;
+        try {
+            query = QueryParser.parse(q);
+        } catch (IllegalArgumentException ex) {
+            new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
+            return;
+        }
+        runSearch(query);
+    }
+
+    /**
+     * Search captions for every word typed in the caption field, best
+     * matches first.
+     */
+    @FXML
+    public void handleSearchByCaption() {
+        String text = captionField.getText() == null ? "" : captionField.getText().trim();
+        if (text.isEmpty()) {
+            new Alert(Alert.AlertType.ERROR, "Please enter caption text").showAndWait();
+            return;
+        }
+        runSearch(new Query.CaptionContains(text));
+    }
+
+    /**
+     * Show the execution plan chosen for the query in the query field.
+     */
+    @FXML
+    public void handleExplain() {
+        String q = queryField.getText();
+        if (q == null || q.isBlank()) {
+            new Alert(Alert.AlertType.ERROR, "Please enter a query").showAndWait();
+            return;
+        }
+        String plan;
+        try {
+            plan = engine.explain(q);
+        } catch (IllegalArgumentException ex) {
+            new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
+            return;
+        }
+        TextArea area = new TextArea(plan);
+        area.setEditable(false);
+        area.setStyle("-fx-font-family: monospace;");
+        Alert a = new Alert(Alert.AlertType.INFORMATION);
+        a.setHeaderText("Query plan");
+        a.getDialogPane().setContent(area);
+        a.showAndWait();
     }
 
     /**
@@ -73,18 +215,7 @@ public class SearchController {
             new Alert(Alert.AlertType.ERROR, "Start date must be before end date").showAndWait();
             return;
         }
-        searchResults.clear();
-        for (Album album : user.getAlbums().values()) {
-            for (Photo photo : album.getPhotos()) {
-                LocalDateTime photoDate = photo.getDateTime();
-                if (!photoDate.toLocalDate().isBefore(start) && !photoDate.toLocalDate().isAfter(end)) {
-                    if (!searchResults.contains(photo)) {
-                        searchResults.add(photo);
-                    }
-                }
-            }
-        }
-        updateResultsList();
+        runSearch(new Query.DateRange(start, end));
     }
 
     /**
@@ -99,40 +230,12 @@ public class SearchController {
             new Alert(Alert.AlertType.ERROR, "At least one tag must be provided").showAndWait();
             return;
         }
-        boolean isAnd = andRadio.isSelected();
-        searchResults.clear();
-        for (Album album : user.getAlbums().values()) {
-            for (Photo photo : album.getPhotos()) {
-                boolean matches = false;
-                if (isAnd) {
-                    boolean match1 = photo.getTags().stream()
-                        .anyMatch(t -> t.getName().equalsIgnoreCase(name1) && t.getValue().equalsIgnoreCase(value1));
-                    String name2 = tag2NameField.getText().trim();
-                    String value2 = tag2ValueField.getText().trim();
-                    boolean match2 = true;
-                    if (!name2.isEmpty() && !value2.isEmpty()) {
-                        match2 = photo.getTags().stream()
-                            .anyMatch(t -> t.getName().equalsIgnoreCase(name2) && t.getValue().equalsIgnoreCase(value2));
-                    }
-                    matches = match1 && match2;
-                } else {
-                    boolean match1 = photo.getTags().stream()
-                        .anyMatch(t -> t.getName().equalsIgnoreCase(name1) && t.getValue().equalsIgnoreCase(value1));
-                    String name2 = tag2NameField.getText().trim();
-                    String value2 = tag2ValueField.getText().trim();
-                    boolean match2 = false;
-                    if (!name2.isEmpty() && !value2.isEmpty()) {
-                        match2 = photo.getTags().stream()
-                            .anyMatch(t -> t.getName().equalsIgnoreCase(name2) && t.getValue().equalsIgnoreCase(value2));
-                    }
-                    matches = match1 || match2;
-                }
-                if (matches && !searchResults.contains(photo)) {
-                    searchResults.add(photo);
-                }
-            }
-        }
-        updateResultsList();
+        List<Query> terms = new ArrayList<>();
+        terms.add(new Query.TagTerm(name1, value1));
+        String name2 = tag2NameField.getText().trim();
+        String value2 = tag2ValueField.getText().trim();
+        if (!name2.isEmpty() && !value2.isEmpty()) terms.add(new Query.TagTerm(name2, value2));
+        runSearch(andRadio.isSelected() ? new Query.And(terms) : new Query.Or(terms));
     }
 
 
@@ -156,28 +259,181 @@ public class SearchController {
                 return;
             }
             Album newAlbum = user.getAlbums().get(albumName);
-            for (Photo photo : searchResults) {
-                newAlbum.addPhoto(photo);
+            searchResults.getIds().forEach(id -> {
+                Photo photo = user.getPhoto(id);
+                if (photo != null) newAlbum.addPhoto(photo);
+            });
+            try { DataStore.getInstance().save(); } catch (Exception ex) {}
+            new Alert(Alert.AlertType.INFORMATION, "Album created with " + newAlbum.getPhotos().size() + " photos").showAndWait();
+        }
+    }
+
+    /**
+     * Save the last search as a smart album, whose photos follow later tag,
+     * caption and date edits.
+     */
+    @FXML
+    public void handleSaveSmartAlbum() {
+        if (currentQuery == null) {
+            new Alert(Alert.AlertType.ERROR, "Run a search first").showAndWait();
+            return;
+        }
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setHeaderText("Enter smart album name for: " + currentQuery);
+        Optional<String> result = dialog.showAndWait();
+        if (result.isPresent()) {
+            String albumName = result.get().trim();
+            if (albumName.isEmpty()) return;
+            if (!user.createSmartAlbum(albumName, currentQuery.toString())) {
+                new Alert(Alert.AlertType.ERROR, "Album name already exists").showAndWait();
+                return;
             }
             try { DataStore.getInstance().save(); } catch (Exception ex) {}
-            new Alert(Alert.AlertType.INFORMATION, "Album created with " + searchResults.size() + " photos").showAndWait();
+            new Alert(Alert.AlertType.INFORMATION, "Smart album created").showAndWait();
         }
     }
 
-    private void updateResultsList() {
-        resultsListView.setItems(FXCollections.observableArrayList(searchResults));
-        resultsListView.setCellFactory(lv -> new ListCell<>() {
+    /**
+     * Show the photos of a smart album, running its query if it has not
+     * been run yet this session.
+     *
+     * @param album smart album of the active user
+     */
+    public void openSmartAlbum(SmartAlbum album) {
+        LiveAlbum view;
+        try {
+            view = engine.smartAlbum(album);
+        } catch (IllegalArgumentException ex) {
+            new Alert(Alert.AlertType.ERROR, "Invalid smart album query: " + ex.getMessage()).showAndWait();
+            return;
+        }
+        handleCancelSearch();
+        queryField.setText(view.getQuery().toString());
+        currentQuery = view.getQuery();
+        searchResults = view.photos();
+        resultsListView.setItems(FXCollections.observableList(searchResults));
+        statusLabel.setText("Smart album " + album.getName() + ": " + searchResults.size() + " photos");
+        showFacets(engine.facets(searchResults, FACET_VALUES));
+    }
+
+    /**
+     * Stop the running search, keeping the results shown so far.
+     */
+    @FXML
+    public void handleCancelSearch() {
+        if (running != null) running.cancel();
+    }
+
+    /**
+     * Run a search in the background, replacing any search still running.
+     * Matches are appended to the results list in batches as they are
+     * found; when the search completes the list is replaced by the full,
+     * ranked result.
+     */
+    private void runSearch(Query query) {
+        handleCancelSearch();
+        currentQuery = query;
+        searchResults = SearchResults.empty(user);
+        facetsTreeView.getRoot().getChildren().clear();
+        shown.clear();
+        synchronized (pending) { pending.clear(); }
+        resultsListView.setItems(shown);
+        statusLabel.setText("Searching...");
+        cancelSearchButton.setDisable(false);
+        // an album is made from a finished search or what a stopped one found
+        createAlbumButton.setDisable(true);
+
+        Task<SearchResults> task = new Task<>() {
             @Override
-            protected void updateItem(Photo p, boolean empty) {
-                super.updateItem(p, empty);
-                if (empty || p == null) {
-                    setText(null);
-                    setGraphic(null);
-                } else {
-                    setText(p.getCaption().isEmpty() ? p.getFilePath() : p.getCaption());
-                }
+            protected SearchResults call() {
+                Task<SearchResults> self = this;
+                return engine.search(query, new ResultSink() {
+                    @Override
+                    public void batch(List<Photo> photos) {
+                        boolean schedule;
+                        synchronized (pending) {
+                            if (self.isCancelled()) return;
+                            schedule = pending.isEmpty();
+                            pending.addAll(photos);
+                        }
+                        // one FX update drains everything queued since the last one
+                        if (schedule) Platform.runLater(SearchController.this::drainPending);
+                    }
+
+                    @Override
+                    public boolean isCancelled() { return self.isCancelled(); }
+                });
             }
+        };
+        running = task;
+        task.setOnSucceeded(e -> {
+            if (running != task) return;
+            searchResults = task.getValue();
+            // wraps the result without copying it; rows resolve their photo when shown
+            resultsListView.setItems(FXCollections.observableList(searchResults));
+            statusLabel.setText(String.format("%d results (first after %.0f ms)",
+                searchResults.size(), engine.getFirstResultLatency().getLastMillis()));
+            showFacets(engine.facets(searchResults, FACET_VALUES));
+            cancelSearchButton.setDisable(true);
+            createAlbumButton.setDisable(false);
+            running = null;
+        });
+        task.setOnCancelled(e -> finishPartial(task, "Cancelled"));
+        task.setOnFailed(e -> {
+            finishPartial(task, "Search failed");
+            if (task.getException() != null) task.getException().printStackTrace();
         });
+        Thread t = new Thread(task, "photo-search");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void showFacets(Facets facets) {
+        List<TreeItem<Object>> groups = new ArrayList<>();
+        for (Map.Entry<String, List<Facets.Value>> e : facets.getTags().entrySet()) {
+            groups.add(facetGroup(e.getKey(), e.getValue(), true));
+        }
+        if (!facets.getMonths().isEmpty()) {
+            groups.add(facetGroup("month", facets.getMonths(), facets.getMonths().size() <= 12));
+        }
+        facetsTreeView.getRoot().getChildren().setAll(groups);
+    }
+
+    private static TreeItem<Object> facetGroup(String name, List<Facets.Value> values, boolean expanded) {
+        TreeItem<Object> group = new TreeItem<>(name);
+        for (Facets.Value v : values) group.getChildren().add(new TreeItem<>(v));
+        group.setExpanded(expanded);
+        return group;
+    }
+
+    /**
+     * Narrow the last search to one facet value.
+     */
+    private void refine(Facets.Value value) {
+        if (currentQuery == null) return;
+        Query q = new Query.And(List.of(currentQuery, value.getRefinement())).rewrite();
+        queryField.setText(q.toString());
+        runSearch(q);
+    }
+
+    private void finishPartial(Task<SearchResults> task, String what) {
+        if (running != task) return;
+        drainPending();
+        searchResults = SearchResults.of(user, shown);
+        statusLabel.setText(what + " - showing " + shown.size() + " results found so far");
+        cancelSearchButton.setDisable(true);
+        createAlbumButton.setDisable(false);
+        running = null;
+    }
+
+    private void drainPending() {
+        List<Photo> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        shown.addAll(batch);
+        if (running != null) statusLabel.setText("Searching... " + shown.size() + " results so far");
     }
 
     /**
@@ -185,6 +441,7 @@ public class SearchController {
      */
     @FXML
     public void handleBack() {
+        handleCancelSearch();
         try {
             Stage stage = (Stage) backButton.getScene().getWindow();
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/controllers/NonAdminController.fxml"));
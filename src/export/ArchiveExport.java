@@ -0,0 +1,418 @@
+package export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import model.Photo;
+import model.Tag;
+
+/**
+ * Streams a set of photos, such as an album or a search result, into a
+ * ZIP or TAR archive: a {@code manifest.tsv} with each photo's caption,
+ * date and tags, followed by the files under {@code photos/}.
+ *
+ * <p>Memory stays flat however large the export. File bodies are never
+ * held whole: a few reader threads read the next {@link #READ_AHEAD}
+ * files in parallel into a fixed pool of direct buffers, and the writer
+ * drains them in order into the archive. Each file being read owns
+ * {@link #SLOT_BUFFERS} buffers, so a slow destination stalls the readers
+ * instead of letting data pile up. A TAR written to a file skips the
+ * buffers entirely and is copied by the operating system with
+ * {@link FileChannel#transferTo}.</p>
+ *
+ * <p>A photo whose file cannot be opened is left out and reported in the
+ * {@link Result}. A file that changes size while being read is cut or
+ * zero-padded to the size it had when opened, so the archive stays
+ * well-formed.</p>
+ *
+ * @author Prayrit
+ */
+public final class ArchiveExport {
+    /** Files read ahead of the one being written. */
+    static final int READ_AHEAD = 4;
+    /** Buffers each file being read may fill before the writer drains them. */
+    static final int SLOT_BUFFERS = 4;
+    /** Size of each direct read buffer. */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    /** Name of the manifest entry. */
+    public static final String MANIFEST = "manifest.tsv";
+
+    /** Outcome of an export. */
+    public static final class Result {
+        private final int files;
+        private final long bytes;
+        private final List<String> problems;
+
+        Result(int files, long bytes, List<String> problems) {
+            this.files = files;
+            this.bytes = bytes;
+            this.problems = Collections.unmodifiableList(problems);
+        }
+
+        /**
+         * @return photo files written
+         */
+        public int getFiles() { return files; }
+
+        /**
+         * @return archive size in bytes
+         */
+        public long getBytes() { return bytes; }
+
+        /**
+         * @return one message per photo left out or cut short
+         */
+        public List<String> getProblems() { return problems; }
+
+        @Override
+        public String toString() {
+            return files + " files, " + bytes + " bytes" + (problems.isEmpty() ? "" : ", " + problems.size() + " problems");
+        }
+    }
+
+    /** One photo to export and its name in the archive. */
+    private static final class Item {
+        final Photo photo;
+        final Path path;
+        final String entry;
+
+        Item(Photo photo, String entry) {
+            this.photo = photo;
+            this.path = Path.of(photo.getFilePath());
+            this.entry = entry;
+        }
+    }
+
+    /** What a reader hands the writer: a start, a filled buffer, or an end. */
+    private static final class Chunk {
+        static final Chunk END = new Chunk(null, 0, null, null);
+
+        final ByteBuffer buffer;
+        final long size;
+        final FileTime modified;
+        final IOException error;
+
+        private Chunk(ByteBuffer buffer, long size, FileTime modified, IOException error) {
+            this.buffer = buffer;
+            this.size = size;
+            this.modified = modified;
+            this.error = error;
+        }
+    }
+
+    /** Buffers and hand-off queue of one file being read ahead. */
+    private static final class Slot {
+        final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(SLOT_BUFFERS);
+        final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(SLOT_BUFFERS + 2);
+
+        Slot() {
+            for (int i = 0; i < SLOT_BUFFERS; i++) free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+    }
+
+    private final List<Item> items = new ArrayList<>();
+    private final ArchiveFormat format;
+    private final byte[] manifest;
+    private volatile boolean cancelled;
+    private volatile int filesDone;
+
+    /**
+     * Snapshot the photos' details; only the files are read when writing,
+     * so the export may run on another thread.
+     *
+     * @param photos photos in archive order; duplicates are written once
+     * @param format archive format
+     */
+    public ArchiveExport(List<Photo> photos, ArchiveFormat format) {
+        this.format = format;
+        Set<Photo> seen = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        for (Photo p : photos) {
+            if (!seen.add(p)) continue;
+            String name = Path.of(p.getFilePath()).getFileName().toString();
+            if (!names.add(name)) {
+                int dot = name.lastIndexOf('.');
+                name = dot < 0 ? name + "-" + p.getId() : name.substring(0, dot) + "-" + p.getId() + name.substring(dot);
+                names.add(name);
+            }
+            items.add(new Item(p, "photos/" + name));
+        }
+        manifest = manifest();
+    }
+
+    /**
+     * @return archive format
+     */
+    public ArchiveFormat getFormat() { return format; }
+
+    /**
+     * @return photos to export
+     */
+    public int size() { return items.size(); }
+
+    /**
+     * @return photos written or skipped so far, for progress display
+     */
+    public int getFilesDone() { return filesDone; }
+
+    /** Stop the export; the running write fails with an {@link IOException}. */
+    public void cancel() { cancelled = true; }
+
+    /**
+     * Write the archive to a file, replacing it.
+     *
+     * @param file destination
+     * @return outcome
+     * @throws IOException on write failure or cancellation
+     */
+    public Result writeTo(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return writeTo(ch);
+        }
+    }
+
+    /**
+     * Write the archive to a stream, which is flushed but not closed.
+     *
+     * @param out destination
+     * @return outcome
+     * @throws IOException on write failure or cancellation
+     */
+    public Result writeTo(OutputStream out) throws IOException {
+        Result r = writeTo(Channels.newChannel(out));
+        out.flush();
+        return r;
+    }
+
+    /**
+     * Write the archive to a channel, which is not closed.
+     *
+     * @param out destination
+     * @return outcome
+     * @throws IOException on write failure or cancellation
+     */
+    public Result writeTo(WritableByteChannel out) throws IOException {
+        ArchiveWriter w = ArchiveWriter.create(format, out);
+        List<String> problems = new ArrayList<>();
+        filesDone = 0;
+        w.begin(MANIFEST, manifest.length, FileTime.fromMillis(System.currentTimeMillis()));
+        w.write(ByteBuffer.wrap(manifest));
+        w.end();
+        int files = w.canTransfer() ? transferAll(w, problems) : copyAll(w, problems);
+        w.finish();
+        return new Result(files, w.position(), problems);
+    }
+
+    /** Copy the files with the operating system, one after another. */
+    private int transferAll(ArchiveWriter w, List<String> problems) throws IOException {
+        int files = 0;
+        for (Item item : items) {
+            checkCancelled();
+            FileChannel src;
+            try {
+                src = FileChannel.open(item.path, StandardOpenOption.READ);
+            } catch (IOException ex) {
+                problems.add(item.path + ": " + reason(ex));
+                filesDone++;
+                continue;
+            }
+            try (src) {
+                long size = src.size();
+                w.begin(item.entry, size, Files.getLastModifiedTime(item.path));
+                long copied = w.transfer(src, size);
+                if (copied < size) {
+                    zeros(w, size - copied);
+                    problems.add(item.path + ": shrank while being read");
+                }
+                w.end();
+                files++;
+            }
+            filesDone++;
+        }
+        return files;
+    }
+
+    /** Copy the files through the read-ahead buffers. */
+    private int copyAll(ArchiveWriter w, List<String> problems) throws IOException {
+        int ahead = Math.min(READ_AHEAD, items.size());
+        if (ahead == 0) return 0;
+        Slot[] slots = new Slot[ahead];
+        for (int i = 0; i < ahead; i++) slots[i] = new Slot();
+        ExecutorService readers = Executors.newFixedThreadPool(ahead, r -> {
+            Thread t = new Thread(r, "archive-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        int files = 0;
+        try {
+            for (int i = 0; i < ahead; i++) submit(readers, items.get(i), slots[i]);
+            for (int i = 0; i < items.size(); i++) {
+                Item item = items.get(i);
+                Slot slot = slots[i % ahead];
+                Chunk start = take(slot);
+                if (start.error != null) {
+                    problems.add(item.path + ": " + reason(start.error));
+                } else {
+                    w.begin(item.entry, start.size, start.modified);
+                    long written = 0;
+                    boolean failed = false;
+                    for (Chunk c = take(slot); c != Chunk.END; c = take(slot)) {
+                        if (c.error != null) {
+                            problems.add(item.path + ": " + reason(c.error));
+                            failed = true;
+                            continue; // the reader ends the file after an error
+                        }
+                        written += c.buffer.remaining();
+                        w.write(c.buffer);
+                        c.buffer.clear();
+                        slot.free.add(c.buffer);
+                    }
+                    if (written < start.size) {
+                        zeros(w, start.size - written);
+                        if (!failed) problems.add(item.path + ": shrank while being read");
+                    }
+                    w.end();
+                    files++;
+                }
+                // the slot is drained, so the file READ_AHEAD places on may use it
+                if (i + ahead < items.size()) submit(readers, items.get(i + ahead), slot);
+                filesDone++;
+            }
+        } finally {
+            readers.shutdownNow(); // interrupts readers left blocked after a failure
+        }
+        return files;
+    }
+
+    private void submit(ExecutorService readers, Item item, Slot slot) {
+        readers.execute(() -> read(item, slot));
+    }
+
+    /** Reader side: announce the file, fill buffers until its opening size is read, then end it. */
+    private void read(Item item, Slot slot) {
+        try {
+            try (FileChannel ch = FileChannel.open(item.path, StandardOpenOption.READ)) {
+                BasicFileAttributes attrs = Files.readAttributes(item.path, BasicFileAttributes.class);
+                long left = ch.size();
+                slot.filled.put(new Chunk(null, left, attrs.lastModifiedTime(), null));
+                try {
+                    while (left > 0 && !cancelled) {
+                        ByteBuffer b = slot.free.take();
+                        b.limit((int) Math.min(b.capacity(), left));
+                        int n = 0;
+                        try {
+                            while (b.hasRemaining()) {
+                                n = ch.read(b);
+                                if (n < 0) break;
+                            }
+                        } catch (IOException ex) {
+                            // the slot serves later files: its buffer must go back
+                            b.clear();
+                            slot.free.put(b);
+                            throw ex;
+                        }
+                        b.flip();
+                        left -= b.remaining();
+                        if (b.hasRemaining()) slot.filled.put(new Chunk(b, 0, null, null));
+                        else slot.free.put(b);
+                        if (n < 0) break;
+                    }
+                } catch (IOException ex) {
+                    slot.filled.put(new Chunk(null, 0, null, ex));
+                }
+            } catch (IOException ex) {
+                slot.filled.put(new Chunk(null, 0, null, ex)); // could not open: no start
+                return;
+            }
+            slot.filled.put(Chunk.END);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Writer side: the next chunk of a slot, giving up if the export is cancelled. */
+    private Chunk take(Slot slot) throws IOException {
+        try {
+            while (true) {
+                checkCancelled();
+                Chunk c = slot.filled.poll(100, TimeUnit.MILLISECONDS);
+                if (c != null) return c;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted");
+        }
+    }
+
+    private void checkCancelled() throws IOException {
+        if (cancelled) throw new IOException("Export cancelled");
+    }
+
+    private static String reason(IOException ex) {
+        if (ex instanceof NoSuchFileException) return "no such file";
+        if (ex instanceof AccessDeniedException) return "permission denied";
+        return ex.getMessage();
+    }
+
+    private static void zeros(ArchiveWriter w, long n) throws IOException {
+        ByteBuffer z = ByteBuffer.allocate((int) Math.min(n, 64 * 1024));
+        while (n > 0) {
+            z.clear().limit((int) Math.min(z.capacity(), n));
+            n -= z.remaining();
+            w.write(z);
+        }
+    }
+
+    /** {@code entry, path, date, caption, tags} per photo, tab-separated, after a header line. */
+    private byte[] manifest() {
+        StringBuilder sb = new StringBuilder("entry\tpath\tdate\tcaption\ttags\n");
+        for (Item item : items) {
+            Photo p = item.photo;
+            StringJoiner tags = new StringJoiner(";");
+            for (Tag t : p.getTags()) tags.add(t.toString());
+            escape(item.entry, sb).append('\t');
+            escape(p.getFilePath(), sb).append('\t');
+            escape(String.valueOf(p.getDateTime()), sb).append('\t');
+            escape(p.getCaption() == null ? "" : p.getCaption(), sb).append('\t');
+            escape(tags.toString(), sb).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static StringBuilder escape(String s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\\': sb.append("\\\\"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb;
+    }
+}
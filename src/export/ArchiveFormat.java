@@ -0,0 +1,42 @@
+package export;
+
+/**
+ * Container format of an exported archive.
+ *
+ * @author Prayrit
+ */
+public enum ArchiveFormat {
+    /** ZIP with stored (uncompressed) entries; photos are already compressed. */
+    ZIP("zip", "application/zip"),
+    /** POSIX ustar, with pax headers for long names and very large files. */
+    TAR("tar", "application/x-tar");
+
+    private final String extension;
+    private final String contentType;
+
+    ArchiveFormat(String extension, String contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return file name extension, without the dot
+     */
+    public String getExtension() { return extension; }
+
+    /**
+     * @return MIME type
+     */
+    public String getContentType() { return contentType; }
+
+    /**
+     * Format named by a file extension or format name, ignoring case.
+     *
+     * @param name e.g. "zip" or "tar"
+     * @return the format, or null if unknown
+     */
+    public static ArchiveFormat of(String name) {
+        for (ArchiveFormat f : values()) if (f.extension.equalsIgnoreCase(name)) return f;
+        return null;
+    }
+}
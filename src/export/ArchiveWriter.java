@@ -0,0 +1,97 @@
+package export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Writes the entries of one archive to a channel, strictly in sequence:
+ * {@link #begin} an entry with its exact size, {@link #write} its bytes,
+ * {@link #end()} it, and after the last entry {@link #finish()}.
+ *
+ * @author Prayrit
+ */
+abstract class ArchiveWriter {
+    private final WritableByteChannel out;
+    private long position;
+
+    ArchiveWriter(WritableByteChannel out) { this.out = out; }
+
+    static ArchiveWriter create(ArchiveFormat format, WritableByteChannel out) {
+        return format == ArchiveFormat.ZIP ? new ZipWriter(out) : new TarWriter(out);
+    }
+
+    /**
+     * Start an entry.
+     *
+     * @param name path inside the archive, with '/' separators
+     * @param size exact number of bytes that will be written
+     * @param modified modification time
+     * @throws IOException on write failure
+     */
+    abstract void begin(String name, long size, FileTime modified) throws IOException;
+
+    /**
+     * Append entry bytes; the buffer is drained.
+     *
+     * @param b bytes
+     * @throws IOException on write failure
+     */
+    abstract void write(ByteBuffer b) throws IOException;
+
+    /**
+     * Whether entry bodies may be copied with {@link #transfer} instead of
+     * passing through {@link #write}.
+     *
+     * @return true if the format needs no view of the bytes and the target is a file
+     */
+    boolean canTransfer() { return false; }
+
+    /**
+     * Copy an entry body straight from a file, letting the operating system
+     * move the bytes; only when {@link #canTransfer()}.
+     *
+     * @param src source file
+     * @param size bytes to copy from its start
+     * @return bytes copied, less than size if the file is shorter
+     * @throws IOException on read or write failure
+     */
+    long transfer(FileChannel src, long size) throws IOException {
+        long done = 0;
+        while (done < size) {
+            long n = src.transferTo(done, size - done, out);
+            if (n <= 0) break;
+            done += n;
+        }
+        position += done;
+        return done;
+    }
+
+    /**
+     * Finish the current entry.
+     *
+     * @throws IOException on write failure
+     */
+    abstract void end() throws IOException;
+
+    /**
+     * Write the archive trailer. The channel is not closed.
+     *
+     * @throws IOException on write failure
+     */
+    abstract void finish() throws IOException;
+
+    /** Write all of a buffer. */
+    final void put(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) position += out.write(b);
+    }
+
+    /**
+     * @return bytes written to the channel so far
+     */
+    final long position() { return position; }
+
+    final WritableByteChannel channel() { return out; }
+}
@@ -0,0 +1,110 @@
+package export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * POSIX ustar archive. Names longer than the header allows and files of
+ * 8 GiB or more get a pax extended header in front of their entry.
+ *
+ * <p>Nothing in the format depends on the bytes of a body, so when the
+ * target is a file, bodies are copied by the operating system with
+ * {@link FileChannel#transferTo} and never enter the process.</p>
+ *
+ * @author Prayrit
+ */
+final class TarWriter extends ArchiveWriter {
+    private static final int BLOCK = 512;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final ByteBuffer header = ByteBuffer.allocate(BLOCK);
+    private long size;
+
+    TarWriter(WritableByteChannel out) { super(out); }
+
+    @Override
+    void begin(String name, long entrySize, FileTime modified) throws IOException {
+        size = entrySize;
+        long mtime = Math.max(0, modified.toMillis() / 1000);
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        boolean longName = utf8.length > 100 || !ascii(utf8);
+        if (longName || size > MAX_OCTAL_SIZE) {
+            StringBuilder pax = new StringBuilder();
+            if (longName) pax.append(record("path", name));
+            if (size > MAX_OCTAL_SIZE) pax.append(record("size", Long.toString(size)));
+            byte[] body = pax.toString().getBytes(StandardCharsets.UTF_8);
+            header(asciiName("PaxHeaders/", utf8), body.length, mtime, 'x');
+            put(ByteBuffer.wrap(body));
+            pad(body.length);
+        }
+        header(longName ? asciiName("", utf8) : name, Math.min(size, MAX_OCTAL_SIZE), mtime, '0');
+    }
+
+    @Override
+    void write(ByteBuffer b) throws IOException { put(b); }
+
+    @Override
+    boolean canTransfer() { return channel() instanceof FileChannel; }
+
+    @Override
+    void end() throws IOException { pad(size); }
+
+    @Override
+    void finish() throws IOException { put(ByteBuffer.allocate(2 * BLOCK)); }
+
+    private void header(String name, long entrySize, long mtime, char type) throws IOException {
+        header.clear();
+        header.put(new byte[BLOCK]).clear();
+        field(0, 100, name);
+        field(100, 8, "0000644");
+        field(108, 8, "0000000");
+        field(116, 8, "0000000");
+        field(124, 12, String.format("%011o", entrySize));
+        field(136, 12, String.format("%011o", mtime));
+        field(148, 8, "        ");
+        header.put(156, (byte) type);
+        field(257, 6, "ustar");
+        field(263, 2, "00");
+        int sum = 0;
+        for (int i = 0; i < BLOCK; i++) sum += header.get(i) & 0xFF;
+        field(148, 8, String.format("%06o", sum));
+        header.put(155, (byte) ' ');
+        header.position(0).limit(BLOCK);
+        put(header);
+    }
+
+    private void field(int at, int length, String value) {
+        byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < length; i++) header.put(at + i, i < b.length ? b[i] : 0);
+    }
+
+    private void pad(long length) throws IOException {
+        int rest = (int) (length % BLOCK);
+        if (rest != 0) put(ByteBuffer.allocate(BLOCK - rest));
+    }
+
+    /** A pax record, whose leading length counts its own digits. */
+    private static String record(String key, String value) {
+        int body = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3; // space, '=', newline
+        int len = body + Integer.toString(body).length();
+        if (Integer.toString(len).length() != Integer.toString(body).length()) len++;
+        return len + " " + key + "=" + value + "\n";
+    }
+
+    private static boolean ascii(byte[] b) {
+        for (byte c : b) if (c < 0x20) return false; // negative bytes are non-ASCII
+        return true;
+    }
+
+    /** ASCII fallback name for readers without pax support. */
+    private static String asciiName(String prefix, byte[] utf8) {
+        StringBuilder sb = new StringBuilder(prefix);
+        for (byte c : utf8) sb.append(c >= 0x20 ? (char) c : '_');
+        int max = 100;
+        return sb.length() <= max ? sb.toString() : sb.substring(sb.length() - max);
+    }
+}
@@ -0,0 +1,167 @@
+package export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+
+/**
+ * ZIP archive of stored entries, with Zip64 records when a file, the
+ * archive or the entry count outgrows the classic format.
+ *
+ * <p>Sizes are known up front, so only the CRC needs the bytes. On a
+ * seekable channel it is patched into the local header once the body is
+ * written; on a plain stream it follows the body in a data descriptor.
+ * Only the central directory, one small record per entry, is held in
+ * memory.</p>
+ *
+ * @author Prayrit
+ */
+final class ZipWriter extends ArchiveWriter {
+    private static final long MAX32 = 0xFFFFFFFFL;
+
+    private final SeekableByteChannel seekable;
+    private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+    private final ByteBuffer header = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private long entries;
+
+    // current entry
+    private byte[] name;
+    private long size;
+    private int dosTime;
+    private long offset;
+    private boolean zip64;
+
+    ZipWriter(WritableByteChannel out) {
+        super(out);
+        seekable = out instanceof SeekableByteChannel ? (SeekableByteChannel) out : null;
+    }
+
+    @Override
+    void begin(String entryName, long entrySize, FileTime modified) throws IOException {
+        name = entryName.getBytes(StandardCharsets.UTF_8);
+        size = entrySize;
+        dosTime = dosTime(modified);
+        offset = position();
+        zip64 = size >= MAX32;
+        crc.reset();
+        header.clear();
+        header.putInt(0x04034b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) flags());
+        header.putShort((short) 0); // stored
+        header.putInt(dosTime);
+        header.putInt(0); // crc, patched or in the descriptor
+        boolean known = seekable != null;
+        header.putInt(zip64 ? (int) MAX32 : known ? (int) size : 0);
+        header.putInt(zip64 ? (int) MAX32 : known ? (int) size : 0);
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+        if (zip64) {
+            header.putShort((short) 1).putShort((short) 16);
+            header.putLong(known ? size : 0).putLong(known ? size : 0);
+        }
+        header.flip();
+        put(header);
+    }
+
+    @Override
+    void write(ByteBuffer b) throws IOException {
+        int start = b.position();
+        crc.update(b);
+        b.position(start);
+        put(b);
+    }
+
+    @Override
+    void end() throws IOException {
+        int value = (int) crc.getValue();
+        header.clear();
+        if (seekable != null) {
+            long here = seekable.position();
+            header.putInt(value).flip();
+            seekable.position(here - (position() - offset) + 14);
+            while (header.hasRemaining()) seekable.write(header);
+            seekable.position(here);
+        } else {
+            header.putInt(0x08074b50).putInt(value);
+            if (zip64) header.putLong(size).putLong(size);
+            else header.putInt((int) size).putInt((int) size);
+            header.flip();
+            put(header);
+        }
+        boolean bigOffset = offset >= MAX32;
+        int extra = (zip64 ? 16 : 0) + (bigOffset ? 8 : 0);
+        ByteBuffer c = ByteBuffer.allocate(46 + name.length + (extra > 0 ? 4 + extra : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        c.putInt(0x02014b50);
+        c.putShort((short) 45); // made by
+        c.putShort((short) (zip64 || bigOffset ? 45 : 20));
+        c.putShort((short) flags());
+        c.putShort((short) 0);
+        c.putInt(dosTime);
+        c.putInt(value);
+        c.putInt(zip64 ? (int) MAX32 : (int) size);
+        c.putInt(zip64 ? (int) MAX32 : (int) size);
+        c.putShort((short) name.length);
+        c.putShort((short) (extra > 0 ? 4 + extra : 0));
+        c.putShort((short) 0); // comment
+        c.putShort((short) 0); // disk
+        c.putShort((short) 0); // internal attributes
+        c.putInt(0); // external attributes
+        c.putInt(bigOffset ? (int) MAX32 : (int) offset);
+        c.put(name);
+        if (extra > 0) {
+            c.putShort((short) 1).putShort((short) extra);
+            if (zip64) c.putLong(size).putLong(size);
+            if (bigOffset) c.putLong(offset);
+        }
+        central.write(c.array(), 0, c.position());
+        entries++;
+    }
+
+    @Override
+    void finish() throws IOException {
+        long cdOffset = position();
+        put(ByteBuffer.wrap(central.toByteArray()));
+        long cdSize = central.size();
+        boolean big = entries >= 0xFFFF || cdOffset >= MAX32 || cdSize >= MAX32;
+        ByteBuffer b = ByteBuffer.allocate(56 + 20 + 22).order(ByteOrder.LITTLE_ENDIAN);
+        if (big) {
+            long zip64End = position();
+            b.putInt(0x06064b50).putLong(44);
+            b.putShort((short) 45).putShort((short) 45);
+            b.putInt(0).putInt(0);
+            b.putLong(entries).putLong(entries);
+            b.putLong(cdSize).putLong(cdOffset);
+            b.putInt(0x07064b50).putInt(0).putLong(zip64End).putInt(1);
+        }
+        b.putInt(0x06054b50);
+        b.putShort((short) 0).putShort((short) 0);
+        b.putShort((short) Math.min(entries, 0xFFFF)).putShort((short) Math.min(entries, 0xFFFF));
+        b.putInt((int) Math.min(cdSize, MAX32));
+        b.putInt((int) Math.min(cdOffset, MAX32));
+        b.putShort((short) 0);
+        b.flip();
+        put(b);
+    }
+
+    /** UTF-8 names, and a trailing data descriptor when the header cannot be patched. */
+    private int flags() { return 0x0800 | (seekable == null ? 0x0008 : 0); }
+
+    private static int dosTime(FileTime t) {
+        LocalDateTime d = LocalDateTime.ofInstant(t.toInstant(), ZoneId.systemDefault());
+        if (d.getYear() < 1980) return (1 << 21) | (1 << 16); // earliest DOS date
+        if (d.getYear() > 2107) d = LocalDateTime.of(2107, 12, 31, 23, 59, 58);
+        return (d.getYear() - 1980) << 25 | d.getMonthValue() << 21 | d.getDayOfMonth() << 16
+            | d.getHour() << 11 | d.getMinute() << 5 | d.getSecond() >> 1;
+    }
+}
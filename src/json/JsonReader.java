@@ -0,0 +1,283 @@
+package json;
+
+/**
+ * Pull parser over one JSON text, such as a line of a JSON Lines file.
+ * The caller asks for the values it expects in order ({@link #beginObject()},
+ * {@link #nextName()}, {@link #nextString()}, ...), so nothing is built
+ * beyond the strings and numbers it takes; {@link #skipValue()} passes over
+ * anything it does not want.
+ *
+ * <p>Malformed or unexpected input throws {@link IllegalArgumentException}
+ * with the position of the problem.</p>
+ *
+ * @author Prayrit
+ */
+public final class JsonReader {
+    /** Kind of the next value. */
+    public enum Kind { OBJECT, ARRAY, STRING, NUMBER, BOOLEAN, NULL }
+
+    private final CharSequence s;
+    private int pos;
+    private long firstBits = 1; // one bit per open container, lowest is the innermost: no element yet
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * @param text JSON text
+     */
+    public JsonReader(CharSequence text) { this.s = text; }
+
+    /** Start reading an object. */
+    public void beginObject() {
+        element();
+        expect('{');
+        push();
+    }
+
+    /** Finish an object; all its members must have been read. */
+    public void endObject() { close('}'); }
+
+    /** Start reading an array. */
+    public void beginArray() {
+        element();
+        expect('[');
+        push();
+    }
+
+    /** Finish an array; all its elements must have been read. */
+    public void endArray() { close(']'); }
+
+    /**
+     * @return true if the current object or array has another member or element
+     */
+    public boolean hasNext() {
+        skipSpace();
+        return pos < s.length() && s.charAt(pos) != '}' && s.charAt(pos) != ']';
+    }
+
+    /**
+     * @return kind of the next value
+     */
+    public Kind peek() {
+        int save = pos;
+        long bits = firstBits;
+        boolean name = afterName;
+        element();
+        char c = pos < s.length() ? s.charAt(pos) : 0;
+        pos = save;
+        firstBits = bits;
+        afterName = name;
+        switch (c) {
+            case '{': return Kind.OBJECT;
+            case '[': return Kind.ARRAY;
+            case '"': return Kind.STRING;
+            case 't': case 'f': return Kind.BOOLEAN;
+            case 'n': return Kind.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return Kind.NUMBER;
+                throw error("Expected a value");
+        }
+    }
+
+    /**
+     * @return name of the next object member
+     */
+    public String nextName() {
+        if (afterName) throw error("Expected a value");
+        element();
+        String n = string();
+        skipSpace();
+        expect(':');
+        afterName = true;
+        return n;
+    }
+
+    /**
+     * @return next string value
+     */
+    public String nextString() {
+        element();
+        return string();
+    }
+
+    /**
+     * @return next string value, or null for a JSON null
+     */
+    public String nextStringOrNull() {
+        if (peek() != Kind.NULL) return nextString();
+        nextNull();
+        return null;
+    }
+
+    /**
+     * @return next value, an integer number
+     */
+    public long nextLong() {
+        element();
+        int start = pos;
+        if (pos < s.length() && s.charAt(pos) == '-') pos++;
+        while (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') pos++;
+        if (pos == start || (pos == start + 1 && s.charAt(start) == '-')) throw error("Expected a number");
+        try {
+            return Long.parseLong(s, start, pos, 10);
+        } catch (NumberFormatException e) {
+            throw error("Number out of range");
+        }
+    }
+
+    /**
+     * @return next value, an integer number within int range
+     */
+    public int nextInt() {
+        long n = nextLong();
+        if ((int) n != n) throw error("Number out of range");
+        return (int) n;
+    }
+
+    /**
+     * @return next boolean value
+     */
+    public boolean nextBoolean() {
+        element();
+        if (literal("true")) return true;
+        if (literal("false")) return false;
+        throw error("Expected true or false");
+    }
+
+    /** Read a null value. */
+    public void nextNull() {
+        element();
+        if (!literal("null")) throw error("Expected null");
+    }
+
+    /** Pass over the next value, whatever it is. */
+    public void skipValue() {
+        switch (peek()) {
+            case OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case ARRAY:
+                beginArray();
+                while (hasNext()) skipValue();
+                endArray();
+                break;
+            case STRING: nextString(); break;
+            case NUMBER: number(); break;
+            case BOOLEAN: nextBoolean(); break;
+            default: nextNull();
+        }
+    }
+
+    /** Check that nothing but white space follows the value read. */
+    public void end() {
+        skipSpace();
+        if (depth > 0 || pos < s.length()) throw error("Expected end of input");
+    }
+
+    /** Numbers that need not fit a long, such as fractions, are only skipped. */
+    private void number() {
+        element();
+        int start = pos;
+        while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+        if (pos == start) throw error("Expected a number");
+    }
+
+    /** Move to the start of the next value or name, past a separating comma. */
+    private void element() {
+        skipSpace();
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) return;
+        if ((firstBits & 1) == 0) {
+            expect(',');
+            skipSpace();
+        }
+        firstBits &= ~1L;
+    }
+
+    private void push() {
+        if (depth == 63) throw error("Nesting too deep");
+        depth++;
+        firstBits = firstBits << 1 | 1;
+    }
+
+    private void close(char c) {
+        skipSpace();
+        if (depth == 0 || afterName) throw error("Unexpected '" + c + "'");
+        expect(c);
+        depth--;
+        firstBits >>>= 1;
+    }
+
+    private String string() {
+        expect('"');
+        int start = pos;
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c == '"') return s.subSequence(start, pos++).toString();
+            if (c == '\\') break;
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder().append(s, start, pos);
+        while (pos < s.length()) {
+            char c = s.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= s.length()) break;
+            char e = s.charAt(pos++);
+            switch (e) {
+                case '"': case '\\': case '/': sb.append(e); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > s.length()) throw error("Bad escape");
+                    try {
+                        sb.append((char) Integer.parseInt(s, pos, pos + 4, 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("Bad escape");
+                    }
+                    pos += 4;
+                    break;
+                default: throw error("Bad escape");
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private boolean literal(String word) {
+        if (pos + word.length() > s.length()) return false;
+        for (int i = 0; i < word.length(); i++) if (s.charAt(pos + i) != word.charAt(i)) return false;
+        pos += word.length();
+        return true;
+    }
+
+    private void expect(char c) {
+        if (pos >= s.length() || s.charAt(pos) != c) throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    private void skipSpace() {
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') break;
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String what) {
+        return new IllegalArgumentException(what + " at position " + (pos + 1));
+    }
+}
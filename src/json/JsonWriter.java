@@ -0,0 +1,193 @@
+package json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Streaming JSON writer: text is passed on to the underlying writer as
+ * values are added, so output of any size needs no tree in memory. Calls
+ * must nest properly: every {@link #beginObject()} and
+ * {@link #beginArray()} is closed by the matching end call, and inside
+ * objects each value follows a {@link #key(String)}.
+ *
+ * <p>For JSON Lines, write one top-level value per record and end each
+ * with {@link #newline()}.</p>
+ *
+ * @author Prayrit
+ */
+public final class JsonWriter {
+    private static final int FLUSH_AT = 1 << 13;
+
+    private final Writer writer;
+    private final StringBuilder out = new StringBuilder(2 * FLUSH_AT); // pending text, handed over in large pieces
+    private final Deque<Boolean> first = new ArrayDeque<>(); // per open container: no element yet
+    private boolean afterKey;
+
+    /**
+     * @param out destination; text is handed to it in pieces of several kilobytes
+     */
+    public JsonWriter(Writer out) { this.writer = out; }
+
+    /**
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter beginObject() throws IOException { return open('{'); }
+
+    /**
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter endObject() throws IOException { return close('}'); }
+
+    /**
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter beginArray() throws IOException { return open('['); }
+
+    /**
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter endArray() throws IOException { return close(']'); }
+
+    /**
+     * @param k member name
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter key(String k) throws IOException {
+        separate();
+        quote(k);
+        out.append(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * @param s string, or null
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter value(String s) throws IOException {
+        separate();
+        if (s == null) out.append("null");
+        else quote(s);
+        return this;
+    }
+
+    /**
+     * @param n number
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter value(long n) throws IOException {
+        separate();
+        out.append(n);
+        return this;
+    }
+
+    /**
+     * @param b boolean
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter value(boolean b) throws IOException {
+        separate();
+        out.append(b ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Shorthand for {@code key(k).value(v)}; null and non-numbers are
+     * written as strings.
+     *
+     * @param k member name
+     * @param v value
+     * @return this writer
+     * @throws IOException on write failure
+     */
+    public JsonWriter field(String k, Object v) throws IOException {
+        key(k);
+        if (v instanceof Long || v instanceof Integer) return value(((Number) v).longValue());
+        if (v instanceof Boolean) return value((Boolean) v);
+        return value(v == null ? null : v.toString());
+    }
+
+    /**
+     * End a JSON Lines record.
+     *
+     * @return this writer
+     * @throws IOException on write failure
+     * @throws IllegalStateException if a container is still open
+     */
+    public JsonWriter newline() throws IOException {
+        if (!first.isEmpty()) throw new IllegalStateException("Record not closed");
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * Write out pending text and flush the underlying writer.
+     *
+     * @throws IOException on write failure
+     */
+    public void flush() throws IOException {
+        drain();
+        writer.flush();
+    }
+
+    private void drain() throws IOException {
+        writer.append(out);
+        out.setLength(0);
+    }
+
+    private JsonWriter open(char c) throws IOException {
+        separate();
+        out.append(c);
+        first.push(true);
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        first.pop();
+        out.append(c);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (out.length() >= FLUSH_AT) drain();
+        if (afterKey) {
+            afterKey = false;
+            return;
+        }
+        if (first.isEmpty()) return;
+        if (!first.peek()) out.append(',');
+        first.pop();
+        first.push(false);
+    }
+
+    private void quote(String s) throws IOException {
+        out.append('"');
+        int run = 0; // start of the pending run of characters needing no escape
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            out.append(s, run, i);
+            run = i + 1;
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default: out.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.append(s, run, s.length());
+        out.append('"');
+    }
+}
@@ -1,5 +1,9 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -14,15 +18,43 @@ import java.util.List;
     * Album model representing a named collection of photos.
     *
     * <p>Provides operations to add/remove photos and to query album
-    * metadata such as size and date range.</p>
+    * metadata such as size and date range. Photos are kept in an
+    * {@link OrderedPhotoSet}, so membership checks, adds and removes do not
+    * scan the album, and summarised in {@link AlbumStats}, so the metadata
+    * is read without visiting the photos. Views read the photos a page at a
+    * time through {@link PhotoPager}, in the album's {@link SortOrder}. The
+    * sorted order is a permutation of the insertion order, computed when
+    * first needed and kept (and saved) until a photo is added or removed or
+    * the sort key of one of its photos changes.</p>
     *
     * @author Prayrit
     */
-public class Album implements Serializable {
+public class Album implements Serializable, PhotoPager {
     private static final long serialVersionUID = 2L;
 
+    /** Stream layout: photos are written as a plain list, as before. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("photos", List.class),
+        new ObjectStreamField("stats", AlbumStats.class),
+        new ObjectStreamField("sortOrder", SortOrder.class),
+        new ObjectStreamField("order", int[].class),
+        new ObjectStreamField("changes", long.class),
+        new ObjectStreamField("created", long.class),
+    };
+
     private String name;
-    private List<Photo> photos = new ArrayList<>();
+    private OrderedPhotoSet photos = new OrderedPhotoSet();
+    private AlbumStats stats = new AlbumStats();
+    private SortOrder sortOrder = SortOrder.INSERTION;
+    private int[] order;                // positions in sorted order, null until computed
+    // bumped on every change to the album or its photos' details, for Backup
+    private long changes;
+    // tells Backup an album deleted and re-created under the same name from the old one
+    private long created = User.nextCreated(); // 0 in older data files
+    private transient int sortedVersion; // photos.version() when order was computed
+    private transient int sortChanges;   // bumped on every change of the order, for getVersion()
+    private transient User owner; // set by User; receives add/remove notifications
 
     /**
      * Create a new album with the given name.
@@ -46,14 +78,19 @@ public class Album implements Serializable {
      *
      * @param n new name
      */
-    public void setName(String n) { name = n; }
+    public void setName(String n) {
+        name = n;
+        changes++;
+    }
 
     /**
-     * Direct (modifiable) list of photos in the album. Prefer {@link #getPhotosUnmodifiable()} when exposing externally.
+     * Read-only view of the photos in the album, in album order. Change the
+     * album with {@link #addPhoto(Photo)} and {@link #removePhoto(Photo)},
+     * which keep its statistics, change count and owner's library current.
      *
-     * @return list of photos
+     * @return unmodifiable list of photos
      */
-    public List<Photo> getPhotos() { return photos; }
+    public List<Photo> getPhotos() { return Collections.unmodifiableList(photos); }
 
     /**
      * Add a photo to the album if it is not already present.
@@ -62,8 +99,10 @@ public class Album implements Serializable {
      * @return true if added, false if already present
      */
     public boolean addPhoto(Photo p) {
-        if (photos.contains(p)) return false;
-        photos.add(p);
+        if (!photos.add(p)) return false;
+        stats.added(p);
+        changes++;
+        if (owner != null) owner.linked(this, p);
         return true;
     }
 
@@ -73,37 +112,189 @@ public class Album implements Serializable {
      * @param p photo to remove
      * @return true if removed
      */
-    public boolean removePhoto(Photo p) { return photos.remove(p); }
+    public boolean removePhoto(Photo p) {
+        Photo removed = photos.take(p);
+        if (removed == null) return false;
+        stats.removed(removed);
+        changes++;
+        if (owner != null) owner.unlinked(this, removed);
+        return true;
+    }
+
+    /**
+     * Check whether the album holds a photo.
+     *
+     * @param p photo
+     * @return true if a photo with the same file path is in the album
+     */
+    public boolean contains(Photo p) { return photos.contains(p); }
+
+    /** True if this very photo instance is in the album. */
+    boolean holds(Photo p) { return photos.find(p) == p; }
+
+    /**
+     * @return order in which the album shows its photos
+     */
+    public SortOrder getSortOrder() { return sortOrder; }
+
+    /**
+     * Choose the order in which the album shows its photos.
+     *
+     * @param o sort order
+     */
+    public void setSortOrder(SortOrder o) {
+        if (o == sortOrder) return;
+        sortOrder = o;
+        changes++;
+        order = null;
+        sortChanges++;
+    }
+
+    /**
+     * Photo at a position of the album's sort order.
+     *
+     * @param index position in display order
+     * @return the photo
+     */
+    public Photo photoAt(int index) {
+        int[] s = sorted();
+        return photos.get(s == null ? index : s[index]);
+    }
+
+    /** Current permutation for the sort order, or null for insertion order. */
+    private int[] sorted() {
+        if (sortOrder == SortOrder.INSERTION) return null;
+        if (order == null || sortedVersion != photos.version()) {
+            order = PhotoSorter.sort(photos, sortOrder);
+            sortedVersion = photos.version();
+        }
+        return order;
+    }
+
+    /** Called by the owner when a photo's key for the given order changed. */
+    void keyChanged(SortOrder o) {
+        if (o == sortOrder && order != null) {
+            order = null;
+            sortChanges++;
+        }
+    }
+
+    /** Called by the owner when the caption, date or tags of one of its photos changed. */
+    void photoChanged() { changes++; }
+
+    /** Count of changes, compared by {@link Backup} to find albums changed since the last backup. */
+    long getChanges() { return changes; }
+
+    /** Creation time, compared by {@link Backup} to find albums re-created since the last backup. */
+    long getCreated() { return created; }
+
+    /**
+     * Summary statistics of the album, maintained as photos are added,
+     * removed, re-dated and re-tagged through the model.
+     *
+     * @return the album's stats
+     */
+    public AlbumStats getStats() { return stats; }
+
+    /**
+     * @return the user owning this album, or null for a detached album
+     */
+    User getOwner() { return owner; }
+
+    void setOwner(User u) { owner = u; }
 
     /**
      * Number of photos in the album.
      *
      * @return count of photos
      */
+    @Override
     public int size() { return photos.size(); }
 
+    /**
+     * Changes when photos are added or removed or the sort order changes,
+     * or, for an album owned by a user, when anything in the user's library
+     * changes.
+     *
+     * @return current version
+     */
+    @Override
+    public long getVersion() { return (owner != null ? owner.getGeneration() : photos.version()) + sortChanges; }
+
+    @Override
+    public PhotoPage page(int offset, int limit) {
+        int size = photos.size();
+        if (offset < 0 || offset > size) throw new IndexOutOfBoundsException("Offset: " + offset + ", Size: " + size);
+        int end = offset + Math.min(Math.max(limit, 0), size - offset);
+        int[] s = sorted();
+        if (s == null) return PhotoPage.of(offset, size, getVersion(), photos.subList(offset, end));
+        List<Photo> rows = new ArrayList<>(end - offset);
+        for (int i = offset; i < end; i++) rows.add(photos.get(s[i]));
+        return PhotoPage.of(offset, size, getVersion(), rows);
+    }
+
     /**
      * Earliest photo date in the album, or null if none.
      *
      * @return earliest LocalDateTime or null
      */
-    public LocalDateTime getStartDate() {
-        return photos.stream().map(Photo::getDateTime).min(LocalDateTime::compareTo).orElse(null);
-    }
+    public LocalDateTime getStartDate() { return stats.getStartDate(); }
 
     /**
      * Latest photo date in the album, or null if none.
      *
      * @return latest LocalDateTime or null
      */
-    public LocalDateTime getEndDate() {
-        return photos.stream().map(Photo::getDateTime).max(LocalDateTime::compareTo).orElse(null);
-    }
+    public LocalDateTime getEndDate() { return stats.getEndDate(); }
 
     /**
      * Unmodifiable view of the photos list.
      *
      * @return unmodifiable list of photos
      */
-    public List<Photo> getPhotosUnmodifiable() { return Collections.unmodifiableList(photos); }
+    public List<Photo> getPhotosUnmodifiable() { return getPhotos(); }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("name", name);
+        f.put("photos", new ArrayList<>(photos));
+        f.put("stats", stats);
+        f.put("sortOrder", sortOrder);
+        // the saved order is only worth keeping if it is still current
+        f.put("order", order != null && sortedVersion == photos.version() ? order : null);
+        f.put("changes", changes);
+        f.put("created", created);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        name = (String) f.get("name", null);
+        List<Photo> list = (List<Photo>) f.get("photos", null);
+        photos = list == null ? new OrderedPhotoSet() : new OrderedPhotoSet(list);
+        stats = (AlbumStats) f.get("stats", null);
+        // older files have no stats; a count mismatch means the list was edited directly
+        if (stats == null || stats.getCount() != photos.size()) {
+            stats = new AlbumStats();
+            for (Photo p : photos) stats.added(p);
+        }
+        SortOrder so = (SortOrder) f.get("sortOrder", null);
+        sortOrder = so == null ? SortOrder.INSERTION : so;
+        order = (int[]) f.get("order", null);
+        if (order != null && !isPermutation(order, photos.size())) order = null;
+        sortedVersion = photos.version();
+        changes = f.get("changes", 0L);
+        created = f.get("created", 0L);
+    }
+
+    private static boolean isPermutation(int[] a, int n) {
+        if (a.length != n) return false;
+        boolean[] seen = new boolean[n];
+        for (int i : a) {
+            if (i < 0 || i >= n || seen[i]) return false;
+            seen[i] = true;
+        }
+        return true;
+    }
 }
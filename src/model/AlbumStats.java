@@ -0,0 +1,107 @@
+package model;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summary of an album's photos, kept up to date as photos are added,
+ * removed, re-dated or re-tagged so the album list does not have to scan
+ * every photo.
+ *
+ * <p>Dates are held as a multiset (date to number of photos), so the
+ * earliest and latest dates stay correct when the photo holding one of them
+ * is removed. Tag counts are per {@link TagDictionary} id. The stats are
+ * persisted with their album.</p>
+ *
+ * @author Prayrit
+ */
+public class AlbumStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int count;
+    private long totalBytes;
+    private final TreeMap<LocalDateTime, Integer> dates = new TreeMap<>();
+    private final Map<Integer, Integer> tagCounts = new HashMap<>();
+
+    /**
+     * @return number of photos
+     */
+    public int getCount() { return count; }
+
+    /**
+     * @return summed file size of the photos, in bytes
+     */
+    public long getTotalBytes() { return totalBytes; }
+
+    /**
+     * @return earliest photo date, or null if the album is empty
+     */
+    public LocalDateTime getStartDate() { return dates.isEmpty() ? null : dates.firstKey(); }
+
+    /**
+     * @return latest photo date, or null if the album is empty
+     */
+    public LocalDateTime getEndDate() { return dates.isEmpty() ? null : dates.lastKey(); }
+
+    /**
+     * @return unmodifiable map of tag id to number of photos carrying it
+     */
+    public Map<Integer, Integer> getTagCounts() { return Collections.unmodifiableMap(tagCounts); }
+
+    /**
+     * @param tag tag to count
+     * @return number of photos in the album carrying the tag
+     */
+    public int getTagCount(Tag tag) {
+        int id = TagDictionary.getInstance().lookup(tag.getName(), tag.getValue());
+        return id < 0 ? 0 : tagCounts.getOrDefault(id, 0);
+    }
+
+    void added(Photo p) {
+        count++;
+        totalBytes += p.getFileSize();
+        bump(dates, p.getDateTime(), 1);
+        for (int t : p.getTagIds()) bump(tagCounts, t, 1);
+    }
+
+    void removed(Photo p) {
+        count--;
+        totalBytes -= p.getFileSize();
+        bump(dates, p.getDateTime(), -1);
+        for (int t : p.getTagIds()) bump(tagCounts, t, -1);
+    }
+
+    void dateChanged(LocalDateTime before, LocalDateTime after) {
+        bump(dates, before, -1);
+        bump(dates, after, 1);
+    }
+
+    void tagsChanged(int[] before, int[] after) {
+        for (int t : before) bump(tagCounts, t, -1);
+        for (int t : after) bump(tagCounts, t, 1);
+    }
+
+    /** Rekey the tag counts after the album's photos had their tag ids mapped. */
+    void remapTags(int[] map) {
+        Map<Integer, Integer> old = new HashMap<>(tagCounts);
+        tagCounts.clear();
+        for (Map.Entry<Integer, Integer> e : old.entrySet()) tagCounts.put(map[e.getKey()], e.getValue());
+    }
+
+    private static <K> void bump(Map<K, Integer> m, K key, int delta) {
+        // one lookup; returning null removes the entry
+        m.compute(key, (k, v) -> {
+            int n = (v == null ? 0 : v) + delta;
+            return n <= 0 ? null : n;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return count + " photos, " + totalBytes + " bytes, " + getStartDate() + " - " + getEndDate() + ", " + tagCounts.size() + " tags";
+    }
+}
@@ -0,0 +1,400 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import json.JsonReader;
+import json.JsonWriter;
+
+/**
+ * Incremental point-in-time backups of users into a directory.
+ *
+ * <p>Each backup is a snapshot file in the {@link LibraryDump} format. The
+ * first snapshot, and any taken with {@code full}, holds every user.
+ * Later ones hold only what changed since the previous backup: new users
+ * in full, and for other users only the albums added or changed (with the
+ * photos they hold), the names of deleted albums and the smart albums.
+ * Change is detected with counters saved in each user and album, which
+ * the model bumps on every edit; a photo edit counts as a change to every
+ * album holding it, so an unchanged album never needs a newer photo
+ * record. A user or album deleted and re-created under the same name is
+ * told apart by its creation time and written in full. Perceptual hashes
+ * are derived data and do not mark a change; one missing after a restore
+ * is computed again. The cost of a backup is the snapshot written plus a
+ * counter and a creation time per album.</p>
+ *
+ * <p>The directory holds the snapshots, {@code chain.jsonl}, one line per
+ * snapshot in order, and {@code state.jsonl}, the counters as of the last
+ * backup. A snapshot is complete on disk before it joins the chain, and the
+ * state is replaced last, so an interrupted backup at worst makes the next
+ * one repeat some changes. {@link #restore} replays the chain from the
+ * last full snapshot up to the one asked for.</p>
+ *
+ * @author Prayrit
+ */
+public final class Backup {
+    /** Chain manifest file name. */
+    public static final String CHAIN = "chain.jsonl";
+    /** Counters of the last backup. */
+    static final String STATE = "state.jsonl";
+
+    /** One entry of the chain. */
+    public static final class Snapshot {
+        private final int number;
+        private final String file;
+        private final LocalDateTime created;
+        private final boolean full;
+        private final int users;
+        private final int albums;
+        private final long bytes;
+        private final List<String> deletedUsers;
+
+        Snapshot(int number, String file, LocalDateTime created, boolean full, int users, int albums, long bytes, List<String> deletedUsers) {
+            this.number = number;
+            this.file = file;
+            this.created = created;
+            this.full = full;
+            this.users = users;
+            this.albums = albums;
+            this.bytes = bytes;
+            this.deletedUsers = Collections.unmodifiableList(deletedUsers);
+        }
+
+        /**
+         * @return position in the chain, from 1
+         */
+        public int getNumber() { return number; }
+
+        /**
+         * @return snapshot file name within the backup directory
+         */
+        public String getFile() { return file; }
+
+        /**
+         * @return when the snapshot was taken
+         */
+        public LocalDateTime getCreated() { return created; }
+
+        /**
+         * @return true if the snapshot holds every user
+         */
+        public boolean isFull() { return full; }
+
+        /**
+         * @return users written, in full or in part
+         */
+        public int getUsers() { return users; }
+
+        /**
+         * @return albums written
+         */
+        public int getAlbums() { return albums; }
+
+        /**
+         * @return size of the snapshot file
+         */
+        public long getBytes() { return bytes; }
+
+        /**
+         * @return users deleted since the previous snapshot
+         */
+        public List<String> getDeletedUsers() { return deletedUsers; }
+
+        @Override
+        public String toString() {
+            return "#" + number + " " + created + (full ? " full" : " incremental") + ", " + users + " users, "
+                + albums + " albums, " + bytes + " bytes" + (deletedUsers.isEmpty() ? "" : ", deleted " + deletedUsers);
+        }
+    }
+
+    /** Counters of one user as of a backup. */
+    private static final class UserState {
+        final long changes;
+        final long created;
+        final Map<String, Long> albums = new LinkedHashMap<>();
+        final Map<String, Long> albumsCreated = new LinkedHashMap<>();
+
+        UserState(long changes, long created) {
+            this.changes = changes;
+            this.created = created;
+        }
+
+        static UserState of(User u) {
+            UserState s = new UserState(u.getChanges(), u.getCreated());
+            for (Album a : u.getAlbums().values()) {
+                s.albums.put(a.getName(), a.getChanges());
+                s.albumsCreated.put(a.getName(), a.getCreated());
+            }
+            return s;
+        }
+
+        /** Whether an album must be written: new, re-created, or changed since this state. */
+        boolean changed(Album a) {
+            return !Long.valueOf(a.getChanges()).equals(albums.get(a.getName()))
+                || a.getCreated() != albumsCreated.getOrDefault(a.getName(), 0L);
+        }
+    }
+
+    private Backup() {}
+
+    /**
+     * Take a backup of users into a directory, which is created if needed.
+     *
+     * @param users users to back up, normally all of the {@link DataStore}
+     * @param dir backup directory
+     * @param full write every user even if earlier snapshots exist
+     * @return the new snapshot, or null if nothing changed since the last one
+     * @throws IOException on read or write failure
+     */
+    public static Snapshot backup(Collection<User> users, Path dir, boolean full) throws IOException {
+        Files.createDirectories(dir);
+        List<Snapshot> chain = list(dir);
+        Map<String, UserState> before = chain.isEmpty() ? null : readState(dir);
+        full |= before == null;
+        int number = chain.isEmpty() ? 1 : chain.get(chain.size() - 1).getNumber() + 1;
+        String name = String.format("snapshot-%06d.jsonl", number);
+        Path tmp = dir.resolve(name + ".tmp");
+        Map<String, UserState> after = new LinkedHashMap<>();
+        int written = 0, albums = 0;
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            JsonWriter j = LibraryDump.writer(fos);
+            for (User u : users) {
+                synchronized (u) {
+                    UserState now = UserState.of(u);
+                    after.put(u.getUsername(), now);
+                    UserState last = full ? null : before.get(u.getUsername());
+                    if (last == null || last.created != now.created) {
+                        LibraryDump.write(u, j, u.getAlbums().values(), List.of(), false);
+                        written++;
+                        albums += u.getAlbums().size();
+                        continue;
+                    }
+                    List<Album> changed = new ArrayList<>();
+                    for (Album a : u.getAlbums().values()) {
+                        if (last.changed(a)) changed.add(a);
+                    }
+                    List<String> deleted = new ArrayList<>();
+                    for (String a : last.albums.keySet()) if (!now.albums.containsKey(a)) deleted.add(a);
+                    if (now.changes == last.changes && changed.isEmpty() && deleted.isEmpty()) continue;
+                    LibraryDump.write(u, j, changed, deleted, true);
+                    written++;
+                    albums += changed.size();
+                }
+            }
+            j.flush();
+            fos.getFD().sync();
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        List<String> deletedUsers = new ArrayList<>();
+        if (!full) for (String u : before.keySet()) if (!after.containsKey(u)) deletedUsers.add(u);
+        if (!full && written == 0 && deletedUsers.isEmpty()) {
+            Files.delete(tmp);
+            return null;
+        }
+        Path file = dir.resolve(name);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        Snapshot s = new Snapshot(number, name, LocalDateTime.now(), full, written, albums, Files.size(file), deletedUsers);
+        appendChain(dir, s);
+        writeState(dir, after);
+        return s;
+    }
+
+    /**
+     * Snapshots of a backup directory, oldest first.
+     *
+     * @param dir backup directory
+     * @return the chain; empty if there are no backups
+     * @throws IOException on read failure or a damaged manifest
+     */
+    public static List<Snapshot> list(Path dir) throws IOException {
+        List<Snapshot> chain = new ArrayList<>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(dir.resolve(CHAIN), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException ex) {
+            return chain;
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).isBlank()) continue;
+            try {
+                chain.add(snapshot(new JsonReader(lines.get(i))));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException(CHAIN + " line " + (i + 1) + ": " + ex.getMessage());
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Rebuild users as they were at a snapshot, replaying the chain from the
+     * last full snapshot at or before it. The users are new objects, not
+     * yet in the {@link DataStore}.
+     *
+     * @param dir backup directory
+     * @param number snapshot to restore, or 0 for the latest
+     * @return users in their original order
+     * @throws IOException on read failure, or if the chain is broken
+     */
+    public static List<User> restore(Path dir, int number) throws IOException {
+        List<Snapshot> chain = list(dir);
+        if (chain.isEmpty()) throw new IOException("No backups in " + dir);
+        int end = chain.size() - 1;
+        if (number > 0) {
+            while (end >= 0 && chain.get(end).getNumber() != number) end--;
+            if (end < 0) throw new IOException("No snapshot " + number + " in " + dir);
+        }
+        int start = end;
+        while (start >= 0 && !chain.get(start).isFull()) start--;
+        if (start < 0) throw new IOException("No full snapshot before " + chain.get(end).getNumber());
+        Map<String, User> users = new LinkedHashMap<>();
+        for (int i = start; i <= end; i++) {
+            Snapshot s = chain.get(i);
+            for (String u : s.getDeletedUsers()) users.remove(u);
+            try (InputStream in = Files.newInputStream(dir.resolve(s.getFile()))) {
+                for (User u : LibraryDump.read(in, Collections.unmodifiableMap(users))) users.put(u.getUsername(), u);
+            } catch (NoSuchFileException ex) {
+                throw new IOException("snapshot " + s.getNumber() + " is missing: " + s.getFile(), ex);
+            } catch (IOException ex) {
+                throw new IOException(s.getFile() + ": " + ex.getMessage(), ex);
+            }
+        }
+        return new ArrayList<>(users.values());
+    }
+
+    private static Snapshot snapshot(JsonReader j) {
+        int number = 0;
+        String file = null;
+        LocalDateTime created = null;
+        boolean full = false;
+        int users = 0, albums = 0;
+        long bytes = 0;
+        List<String> deleted = new ArrayList<>();
+        j.beginObject();
+        while (j.hasNext()) {
+            switch (j.nextName()) {
+                case "snapshot": number = j.nextInt(); break;
+                case "file": file = j.nextString(); break;
+                case "created": created = LocalDateTime.parse(j.nextString()); break;
+                case "full": full = j.nextBoolean(); break;
+                case "users": users = j.nextInt(); break;
+                case "albums": albums = j.nextInt(); break;
+                case "bytes": bytes = j.nextLong(); break;
+                case "deletedUsers":
+                    j.beginArray();
+                    while (j.hasNext()) deleted.add(j.nextString());
+                    j.endArray();
+                    break;
+                default: j.skipValue();
+            }
+        }
+        j.endObject();
+        if (number <= 0 || file == null) throw new IllegalArgumentException("snapshot without number or file");
+        return new Snapshot(number, file, created, full, users, albums, bytes, deleted);
+    }
+
+    private static void appendChain(Path dir, Snapshot s) throws IOException {
+        StringWriter sw = new StringWriter();
+        JsonWriter j = new JsonWriter(sw);
+        j.beginObject().field("snapshot", s.getNumber()).field("file", s.getFile()).field("created", s.getCreated())
+            .field("full", s.isFull()).field("users", s.getUsers()).field("albums", s.getAlbums()).field("bytes", s.getBytes());
+        j.key("deletedUsers").beginArray();
+        for (String u : s.getDeletedUsers()) j.value(u);
+        j.endArray().endObject().newline().flush();
+        try (FileOutputStream fos = new FileOutputStream(dir.resolve(CHAIN).toFile(), true)) {
+            fos.write(sw.toString().getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+    }
+
+    private static Map<String, UserState> readState(Path dir) throws IOException {
+        Map<String, UserState> state = new HashMap<>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(dir.resolve(STATE), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException ex) {
+            return null; // no usable base: the next backup is full
+        }
+        try {
+            for (String line : lines) {
+                if (line.isBlank()) continue;
+                JsonReader j = new JsonReader(line);
+                String user = null;
+                Long changes = null;
+                long created = 0; // absent before creation times were kept
+                Map<String, Long> albums = null, albumsCreated = null; // the latter absent in older states
+                j.beginObject();
+                while (j.hasNext()) {
+                    switch (j.nextName()) {
+                        case "user": user = j.nextString(); break;
+                        case "changes": changes = j.nextLong(); break;
+                        case "created": created = j.nextLong(); break;
+                        case "albums": albums = counters(j); break;
+                        case "albumsCreated": albumsCreated = counters(j); break;
+                        default: j.skipValue();
+                    }
+                }
+                j.endObject();
+                if (user == null || changes == null) return null;
+                UserState s = new UserState(changes, created);
+                if (albums != null) s.albums.putAll(albums);
+                if (albumsCreated != null) s.albumsCreated.putAll(albumsCreated);
+                state.put(user, s);
+            }
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        return state;
+    }
+
+    /** An object of album names to numbers. */
+    private static Map<String, Long> counters(JsonReader j) {
+        Map<String, Long> m = new LinkedHashMap<>();
+        j.beginObject();
+        while (j.hasNext()) {
+            String a = j.nextName();
+            m.put(a, j.nextLong());
+        }
+        j.endObject();
+        return m;
+    }
+
+    private static void writeState(Path dir, Map<String, UserState> state) throws IOException {
+        Path tmp = dir.resolve(STATE + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+            JsonWriter j = new JsonWriter(w);
+            for (Map.Entry<String, UserState> e : state.entrySet()) {
+                j.beginObject().field("user", e.getKey()).field("changes", e.getValue().changes)
+                    .field("created", e.getValue().created);
+                j.key("albums").beginObject();
+                for (Map.Entry<String, Long> a : e.getValue().albums.entrySet()) j.field(a.getKey(), a.getValue());
+                j.endObject().key("albumsCreated").beginObject();
+                for (Map.Entry<String, Long> a : e.getValue().albumsCreated.entrySet()) j.field(a.getKey(), a.getValue());
+                j.endObject().endObject().newline();
+            }
+            j.flush();
+        }
+        Files.move(tmp, dir.resolve(STATE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
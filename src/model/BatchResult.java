@@ -0,0 +1,88 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-photo outcome of a batch operation on a {@link User}'s albums.
+ *
+ * @author Prayrit
+ */
+public class BatchResult {
+    /**
+     * What happened to one photo.
+     */
+    public enum Outcome {
+        /** The change was applied. */
+        DONE,
+        /** Nothing to do, e.g. the photo was already in the target album or already tagged. */
+        UNCHANGED,
+        /** The photo was not in the source album. */
+        NOT_FOUND
+    }
+
+    /**
+     * Outcome for one photo.
+     */
+    public static final class Item {
+        private final Photo photo;
+        private final Outcome outcome;
+
+        Item(Photo photo, Outcome outcome) {
+            this.photo = photo;
+            this.outcome = outcome;
+        }
+
+        /**
+         * @return photo
+         */
+        public Photo getPhoto() { return photo; }
+
+        /**
+         * @return outcome
+         */
+        public Outcome getOutcome() { return outcome; }
+
+        @Override
+        public String toString() { return photo.getFilePath() + ": " + outcome; }
+    }
+
+    private final String operation;
+    private final List<Item> items = new ArrayList<>();
+    private final int[] counts = new int[Outcome.values().length];
+
+    BatchResult(String operation) { this.operation = operation; }
+
+    void add(Photo p, Outcome o) {
+        items.add(new Item(p, o));
+        counts[o.ordinal()]++;
+    }
+
+    /**
+     * @return outcomes in the order the photos were given
+     */
+    public List<Item> getItems() { return Collections.unmodifiableList(items); }
+
+    /**
+     * @param o outcome
+     * @return number of photos with that outcome
+     */
+    public int count(Outcome o) { return counts[o.ordinal()]; }
+
+    /**
+     * @return true if the change was applied to every photo
+     */
+    public boolean allDone() { return counts[Outcome.DONE.ordinal()] == items.size(); }
+
+    /**
+     * @return true if at least one photo changed
+     */
+    public boolean anyDone() { return counts[Outcome.DONE.ordinal()] > 0; }
+
+    @Override
+    public String toString() {
+        return operation + ": " + count(Outcome.DONE) + " done, " + count(Outcome.UNCHANGED) + " unchanged, "
+            + count(Outcome.NOT_FOUND) + " not found";
+    }
+}
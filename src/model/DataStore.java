@@ -3,6 +3,7 @@ package model;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -10,14 +11,17 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * DataStore manages users and serialization.
  *
  * <p>Provides a singleton access point to the persisted set of users and
- * handles loading/saving of the datastore to {@code data/users.dat}.
+ * handles loading/saving of the datastore to {@code data/users.dat}; the
+ * {@code photos.data} system property names another data directory.
  * The datastore is responsible for ensuring the special built-in
  * "stock" user and album are present on startup.</p>
  *
@@ -26,9 +30,12 @@ import java.util.Map;
 public class DataStore implements Serializable {
     private static final long serialVersionUID = 4L;
 
-    private static final File DATA_DIR = new File("data");
+    private static final File DATA_DIR = new File(System.getProperty("photos.data", "data"));
     private static final File USERS_FILE = new File(DATA_DIR, "users.dat");
 
+    // Serializable object fields are written in name order, so the tag
+    // dictionary precedes the users whose photos refer to its ids.
+    private TagDictionary tagDictionary = TagDictionary.getInstance();
     private Map<String, User> users = new LinkedHashMap<>();
 
     private static DataStore instance;
@@ -55,15 +62,11 @@ public class DataStore implements Serializable {
         try {
             if (!DATA_DIR.exists()) DATA_DIR.mkdirs();
             if (USERS_FILE.exists()) {
-                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(USERS_FILE))) {
-                    Object o = ois.readObject();
-                    if (o instanceof DataStore) {
-                        DataStore ds = (DataStore) o;
-                        // Ensure stock user/album exist even when loading from an existing datastore
-                        ds.ensureStock();
-                        return ds;
-                    }
-                }
+                DataStore ds = read(USERS_FILE);
+                TagDictionary.install(ds.tagDictionary);
+                // Ensure stock user/album exist even when loading from an existing datastore
+                ds.ensureStock();
+                return ds;
             }
         } catch (Exception e) {
             System.err.println("Failed to load datastore, starting fresh: " + e.getMessage());
@@ -73,6 +76,56 @@ public class DataStore implements Serializable {
         return ds;
     }
 
+    /**
+     * Read a datastore saved with {@link #save(File)}. Unlike
+     * {@link #getInstance()} the result is not the shared instance and no
+     * stock user is added; its tags are added to the shared
+     * {@link TagDictionary} rather than replacing it.
+     *
+     * @param file file to read
+     * @return the datastore
+     * @throws Exception if the file cannot be read or holds no datastore
+     */
+    public static DataStore load(File file) throws Exception {
+        DataStore ds = read(file);
+        TagDictionary shared = TagDictionary.getInstance();
+        if (ds.tagDictionary != shared) {
+            int[] map = ds.tagDictionary.mapInto(shared);
+            if (!isIdentity(map)) {
+                Set<Photo> done = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (User u : ds.users.values()) {
+                    for (Album a : u.getAlbums().values()) {
+                        a.getStats().remapTags(map);
+                        for (Photo p : a.getPhotos()) if (done.add(p)) p.remapTags(map);
+                    }
+                }
+            }
+            ds.tagDictionary = shared;
+        }
+        return ds;
+    }
+
+    private static boolean isIdentity(int[] map) {
+        for (int i = 0; i < map.length; i++) if (map[i] != i) return false;
+        return true;
+    }
+
+    private static DataStore read(File file) throws Exception {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+            Object o = ois.readObject();
+            if (!(o instanceof DataStore)) throw new IOException("Not a datastore: " + file);
+            return (DataStore) o;
+        }
+    }
+
+    /**
+     * Create an empty datastore that is not the shared instance, for tools
+     * that build or convert libraries and save them with {@link #save(File)}.
+     *
+     * @return a datastore with no users
+     */
+    public static DataStore create() { return new DataStore(); }
+
     /**
      * Ensure that the special built-in "stock" user and its "stock" album
      * exist and that images from the {@code data/stock} directory are loaded
@@ -111,7 +164,7 @@ public class DataStore implements Serializable {
                     String lower = p.toString().toLowerCase();
                     if (lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png") || lower.endsWith(".gif") || lower.endsWith(".bmp")) {
                         // Use relative path for stock photos: "data/stock/filename"
-                        String relativePath = "data" + File.separator + "stock" + File.separator + p.getFileName().toString();
+                        String relativePath = new File(stockDir, p.getFileName().toString()).getPath();
                         boolean exists = a.getPhotos().stream().anyMatch(ph -> ph.getFilePath().equals(relativePath));
                         if (!exists) {
                             Photo photo = new Photo(relativePath);
@@ -141,7 +194,17 @@ public class DataStore implements Serializable {
      * @throws Exception if an I/O error occurs during serialization
      */
         if (!DATA_DIR.exists()) DATA_DIR.mkdirs();
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(USERS_FILE))) {
+        save(USERS_FILE);
+    }
+
+    /**
+     * Persist the datastore to the given file.
+     *
+     * @param file file to write, replaced if it exists
+     * @throws Exception if an I/O error occurs during serialization
+     */
+    public synchronized void save(File file) throws Exception {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
             oos.writeObject(this);
         }
     }
@@ -195,4 +258,10 @@ public class DataStore implements Serializable {
         users.remove(username.toLowerCase());
         return true;
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // Files written before the dictionary existed migrate their tags into the current one
+        if (tagDictionary == null) tagDictionary = TagDictionary.getInstance();
+    }
 }
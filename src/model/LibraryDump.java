@@ -0,0 +1,424 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import json.JsonReader;
+import json.JsonWriter;
+
+/**
+ * Export and import of users, albums, photos and tags as JSON Lines, a
+ * format that does not depend on Java serialization and can be read and
+ * edited with ordinary tools.
+ *
+ * <p>Each line is one JSON object whose {@code type} names the record:</p>
+ * <pre>
+ * {"type":"header","format":"photos-library","version":1}
+ * {"type":"user","name":"alice","password":""}
+ * {"type":"photo","id":1,"path":"/pics/a.jpg","caption":"","date":"2024-05-01T10:00","tags":[{"name":"person","value":"Bob"}],"size":52100,"hash":"00ff00ff00ff00ff"}
+ * {"type":"album","name":"trip","sort":"DATE","photos":[1,2]}
+ * {"type":"smartAlbum","name":"bob","query":"person:bob"}
+ * </pre>
+ *
+ * <p>The records of a user follow its {@code user} line: its library
+ * photos, then its albums, which list photos by the {@code id} given in the
+ * photo records, then its smart albums. Ids only link records within the
+ * file. {@code size} and {@code hash} are present once the file size or a
+ * perceptual hash has been read, so import need not touch the files.
+ * Unknown members are ignored.</p>
+ *
+ * <p>Snapshots of a {@link Backup} may also hold partial users, marked
+ * {@code "partial":true}, which update a user restored earlier: only the
+ * listed albums and the photos they hold are given, albums that are gone
+ * follow as {@code {"type":"deletedAlbum","name":"old"}}, and the smart
+ * albums are listed in full.</p>
+ *
+ * <p>Both directions stream. Export writes each user under its lock.
+ * Import reads lines in batches and hands them to worker threads; batches
+ * of one user are applied in order, while different users are parsed and
+ * built in parallel. At most a few batches wait at any time, so memory
+ * beyond the model being built stays constant.</p>
+ *
+ * @author Prayrit
+ */
+public final class LibraryDump {
+    /** Value of the header's {@code format}. */
+    public static final String FORMAT = "photos-library";
+    /** Highest format version written and read. */
+    public static final int VERSION = 1;
+
+    /** Lines handed to a worker at a time. */
+    static final int BATCH_LINES = 4096;
+
+    private LibraryDump() {}
+
+    /**
+     * Write users to a stream, which is flushed but not closed.
+     *
+     * @param users users to export
+     * @param out destination
+     * @return records written, including the header
+     * @throws IOException on write failure
+     */
+    public static long write(Collection<User> users, OutputStream out) throws IOException {
+        JsonWriter j = writer(out);
+        long records = 1;
+        for (User u : users) {
+            synchronized (u) {
+                records += write(u, j, u.getAlbums().values(), List.of(), false);
+            }
+        }
+        j.flush();
+        return records;
+    }
+
+    /** A writer on the stream, after the header record. */
+    static JsonWriter writer(OutputStream out) throws IOException {
+        JsonWriter j = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16));
+        j.beginObject().field("type", "header").field("format", FORMAT).field("version", VERSION).endObject().newline();
+        return j;
+    }
+
+    /**
+     * Write the records of a user; the caller holds its lock. A partial
+     * user, as in an incremental {@link Backup}, is written with only some
+     * of its albums, the photos they hold and the names of albums deleted
+     * since; reading it updates the user of that name instead of creating one.
+     *
+     * @return records written
+     */
+    static long write(User u, JsonWriter j, Collection<Album> albums, Collection<String> deletedAlbums, boolean partial)
+            throws IOException {
+        j.beginObject().field("type", "user").field("name", u.getUsername()).field("password", u.getPassword());
+        if (partial) j.field("partial", true);
+        j.endObject().newline();
+        long records = 1;
+        for (String name : deletedAlbums) {
+            j.beginObject().field("type", "deletedAlbum").field("name", name).endObject().newline();
+            records++;
+        }
+        Collection<Photo> photos = u.getLibraryPhotos();
+        if (partial) {
+            photos = new LinkedHashSet<>();
+            for (Album a : albums) photos.addAll(a.getPhotos());
+        }
+        for (Photo p : photos) {
+            j.beginObject().field("type", "photo").field("id", p.getId()).field("path", p.getFilePath())
+                .field("caption", p.getCaption()).field("date", p.getDateTime());
+            j.key("tags").beginArray();
+            for (Tag t : p.getTags()) j.beginObject().field("name", t.getName()).field("value", t.getValue()).endObject();
+            j.endArray();
+            if (p.knownFileSize() >= 0) j.field("size", p.knownFileSize());
+            if (p.hasPerceptualHash()) j.field("hash", hex(p.getPerceptualHash()));
+            j.endObject().newline();
+            records++;
+        }
+        for (Album a : albums) {
+            j.beginObject().field("type", "album").field("name", a.getName()).field("sort", a.getSortOrder().name());
+            j.key("photos").beginArray();
+            for (Photo p : a.getPhotos()) j.value(p.getId());
+            j.endArray().endObject().newline();
+            records++;
+        }
+        for (SmartAlbum s : u.getSmartAlbums().values()) {
+            j.beginObject().field("type", "smartAlbum").field("name", s.getName()).field("query", s.getQuery()).endObject().newline();
+            records++;
+        }
+        return records;
+    }
+
+    private static String hex(long h) {
+        String s = Long.toHexString(h);
+        return "0000000000000000".substring(s.length()) + s;
+    }
+
+    /**
+     * Read users from a stream, which is not closed. The users are new
+     * objects, not yet in the {@link DataStore}.
+     *
+     * @param in source
+     * @return users in file order
+     * @throws IOException on read failure, or if the input is not a valid export
+     */
+    public static List<User> read(InputStream in) throws IOException { return read(in, Map.of()); }
+
+    /**
+     * Read users, updating those of {@code base} for partial user records.
+     * Distinct users are built on different threads, so base users must
+     * not be in use elsewhere.
+     *
+     * @return users in file order, including updated base users
+     */
+    static List<User> read(InputStream in, Map<String, User> base) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, t -> {
+            Thread th = new Thread(t, "library-import");
+            th.setDaemon(true);
+            return th;
+        });
+        Semaphore pending = new Semaphore(2 * threads); // batches read but not yet applied
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Builder> builders = new ArrayList<>();
+        try {
+            String line = r.readLine();
+            checkHeader(line);
+            long lineNo = 1;
+            Builder current = null;
+            List<String> batch = new ArrayList<>();
+            long batchStart = 0;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) continue;
+                String type;
+                try {
+                    type = type(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("line " + lineNo + ": " + e.getMessage());
+                }
+                if (type.equals("user")) {
+                    if (current != null) current.submit(batch, batchStart, pool, pending, failed);
+                    current = new Builder(base);
+                    builders.add(current);
+                    batch = new ArrayList<>();
+                } else if (current == null) {
+                    throw new IOException("line " + lineNo + ": " + type + " record before the first user");
+                }
+                if (batch.isEmpty()) batchStart = lineNo;
+                batch.add(line);
+                if (batch.size() == BATCH_LINES) {
+                    current.submit(batch, batchStart, pool, pending, failed);
+                    batch = new ArrayList<>();
+                }
+                if (failed.get()) break; // the bad record is reported below
+            }
+            if (current != null && !failed.get()) current.submit(batch, batchStart, pool, pending, failed);
+            List<User> users = new ArrayList<>(builders.size());
+            for (Builder b : builders) users.add(b.finish());
+            return users;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void checkHeader(String line) throws IOException {
+        String format = null;
+        long version = -1;
+        try {
+            JsonReader j = new JsonReader(line == null ? "" : line);
+            j.beginObject();
+            while (j.hasNext()) {
+                switch (j.nextName()) {
+                    case "format": format = j.nextString(); break;
+                    case "version": version = j.nextLong(); break;
+                    default: j.skipValue();
+                }
+            }
+            j.endObject();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("line 1: not a library export: " + e.getMessage());
+        }
+        if (!FORMAT.equals(format)) throw new IOException("line 1: not a library export");
+        if (version < 1 || version > VERSION) throw new IOException("line 1: unsupported version " + version);
+    }
+
+    /** The type of a record, usually its first member. */
+    private static String type(String line) {
+        JsonReader j = new JsonReader(line);
+        j.beginObject();
+        while (j.hasNext()) {
+            if (j.nextName().equals("type")) return j.nextString();
+            j.skipValue();
+        }
+        throw new IllegalArgumentException("record has no type");
+    }
+
+    /** Builds one user from its records, one batch at a time in file order. */
+    private static final class Builder {
+        private final Map<String, User> base;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private User user;
+        private boolean partial;
+        private Map<String, Photo> existing; // library of a partial user, by path
+        private final Map<Integer, Photo> photos = new HashMap<>();
+
+        Builder(Map<String, User> base) { this.base = base; }
+
+        void submit(List<String> batch, long firstLine, ExecutorService pool, Semaphore pending, AtomicBoolean failed)
+                throws InterruptedException {
+            if (batch.isEmpty()) return;
+            pending.acquire();
+            tail = tail.thenRunAsync(() -> apply(batch, firstLine), pool);
+            tail.whenComplete((v, e) -> {
+                if (e != null) failed.set(true);
+                pending.release();
+            });
+        }
+
+        User finish() throws IOException {
+            try {
+                tail.join();
+            } catch (CompletionException e) {
+                Throwable c = e.getCause();
+                throw c instanceof IOException ? (IOException) c : new IOException(c.getMessage(), c);
+            }
+            return user;
+        }
+
+        private void apply(List<String> batch, long firstLine) {
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    record(new JsonReader(batch.get(i)));
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    throw new CompletionException(new IOException("line " + (firstLine + i) + ": " + e.getMessage()));
+                }
+            }
+        }
+
+        private void record(JsonReader j) {
+            String type = null, name = null, path = null, caption = "", date = null, sort = null, query = null, hash = null;
+            String password = "";
+            boolean isPartial = false;
+            int id = 0;
+            long size = -1;
+            List<Tag> tags = new ArrayList<>();
+            int[] ids = new int[16];
+            int n = 0;
+            j.beginObject();
+            while (j.hasNext()) {
+                switch (j.nextName()) {
+                    case "type": type = j.nextString(); break;
+                    case "name": name = j.nextString(); break;
+                    case "password": password = j.nextString(); break;
+                    case "partial": isPartial = j.nextBoolean(); break;
+                    case "id": id = j.nextInt(); break;
+                    case "size": size = j.nextLong(); break;
+                    case "path": path = j.nextString(); break;
+                    case "caption": caption = j.nextString(); break;
+                    case "date": date = j.nextString(); break;
+                    case "sort": sort = j.nextString(); break;
+                    case "query": query = j.nextString(); break;
+                    case "hash": hash = j.nextStringOrNull(); break;
+                    case "tags":
+                        j.beginArray();
+                        while (j.hasNext()) tags.add(tag(j));
+                        j.endArray();
+                        break;
+                    case "photos":
+                        j.beginArray();
+                        while (j.hasNext()) {
+                            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+                            ids[n++] = j.nextInt();
+                        }
+                        j.endArray();
+                        break;
+                    default: j.skipValue();
+                }
+            }
+            j.endObject();
+            j.end();
+            if (type == null) throw new IllegalArgumentException("record has no type");
+            switch (type) {
+                case "user":
+                    partial = isPartial;
+                    if (!partial) {
+                        user = new User(require(name, "name"), password);
+                        break;
+                    }
+                    user = base.get(require(name, "name"));
+                    if (user == null) throw new IllegalArgumentException("update of unknown user " + name);
+                    // smart albums are always listed in full
+                    for (String s : new ArrayList<>(user.getSmartAlbums().keySet())) user.deleteSmartAlbum(s);
+                    existing = new HashMap<>();
+                    for (Photo p : user.getLibraryPhotos()) existing.put(p.getFilePath(), p);
+                    break;
+                case "deletedAlbum":
+                    if (!partial) throw new IllegalArgumentException("deletedAlbum outside a partial user");
+                    user.deleteAlbum(require(name, "name"));
+                    break;
+                case "photo": {
+                    LocalDateTime when = LocalDateTime.parse(require(date, "date"));
+                    Photo p = partial ? existing.get(require(path, "path")) : null;
+                    if (p != null) {
+                        update(p, caption, when, tags);
+                    } else {
+                        p = new Photo(require(path, "path"), caption, when, size);
+                        for (Tag t : tags) p.addTag(t);
+                    }
+                    if (hash != null) p.setPerceptualHash(Long.parseUnsignedLong(hash, 16));
+                    if (photos.putIfAbsent(id, p) != null) throw new IllegalArgumentException("duplicate photo id " + id);
+                    break;
+                }
+                case "album": {
+                    Album a = new Album(require(name, "name"));
+                    for (int i = 0; i < n; i++) {
+                        Photo p = photos.get(ids[i]);
+                        if (p == null) throw new IllegalArgumentException("album " + name + " refers to unknown photo " + ids[i]);
+                        a.addPhoto(p);
+                    }
+                    if (sort != null) a.setSortOrder(SortOrder.valueOf(sort));
+                    if (partial) user.replaceAlbum(a);
+                    else if (!user.restoreAlbum(a)) throw new IllegalArgumentException("duplicate album " + name);
+                    break;
+                }
+                case "smartAlbum":
+                    if (!user.createSmartAlbum(require(name, "name"), require(query, "query"))) {
+                        throw new IllegalArgumentException("duplicate album " + name);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown record type " + type);
+            }
+        }
+
+        /** Bring a photo shared with albums not in the update up to date, through its setters. */
+        private static void update(Photo p, String caption, LocalDateTime date, List<Tag> tags) {
+            p.setCaption(caption);
+            p.setDateTime(date);
+            for (Tag t : new ArrayList<>(p.getTags())) if (!tags.contains(t)) p.removeTag(t);
+            for (Tag t : tags) p.addTag(t);
+        }
+
+        private static Tag tag(JsonReader j) {
+            String name = null, value = null;
+            j.beginObject();
+            while (j.hasNext()) {
+                switch (j.nextName()) {
+                    case "name": name = j.nextString(); break;
+                    case "value": value = j.nextString(); break;
+                    default: j.skipValue();
+                }
+            }
+            j.endObject();
+            return new Tag(require(name, "tag name"), require(value, "tag value"));
+        }
+
+        private static String require(String value, String what) {
+            if (value == null) throw new IllegalArgumentException("missing " + what);
+            return value;
+        }
+    }
+}
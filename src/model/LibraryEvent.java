@@ -0,0 +1,99 @@
+package model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Change notification for a user's photo library.
+ *
+ * <p>Fired by {@link User} to its {@link LibraryListener}s whenever a photo
+ * enters or leaves the library, moves in or out of an album, or has its
+ * caption, tags or date edited. Events are delivered synchronously on the
+ * thread that made the change. Changes made by a batch operation are
+ * delivered together as a single {@link Type#BATCH} event.</p>
+ *
+ * @author Prayrit
+ */
+public final class LibraryEvent {
+    /**
+     * Kind of change.
+     */
+    public enum Type {
+        /** A photo was added to its first album of this user. */
+        PHOTO_ADDED,
+        /** A photo was removed from its last album of this user. */
+        PHOTO_REMOVED,
+        /** A photo was added to an album. */
+        ALBUM_PHOTO_ADDED,
+        /** A photo was removed from an album. */
+        ALBUM_PHOTO_REMOVED,
+        /** A photo's caption changed; {@link #getOldCaption()} holds the previous text. */
+        CAPTION_CHANGED,
+        /** Tags were added to or removed from a photo. */
+        TAGS_CHANGED,
+        /** A photo's date/time changed. */
+        DATE_CHANGED,
+        /**
+         * Several changes made by one batch operation; see {@link #getEvents()}.
+         * When it is delivered, the photos are already in their state after
+         * the whole batch.
+         */
+        BATCH
+    }
+
+    private final Type type;
+    private final Photo photo;
+    private final Album album;
+    private final String oldCaption;
+    private final List<LibraryEvent> events;
+
+    LibraryEvent(Type type, Photo photo, Album album, String oldCaption) {
+        this.type = type;
+        this.photo = photo;
+        this.album = album;
+        this.oldCaption = oldCaption;
+        this.events = Collections.singletonList(this);
+    }
+
+    LibraryEvent(List<LibraryEvent> events) {
+        this.type = Type.BATCH;
+        this.photo = null;
+        this.album = null;
+        this.oldCaption = null;
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @return kind of change
+     */
+    public Type getType() { return type; }
+
+    /**
+     * @return photo affected, or null for {@link Type#BATCH}
+     */
+    public Photo getPhoto() { return photo; }
+
+    /**
+     * @return album affected, or null for photo-level changes
+     */
+    public Album getAlbum() { return album; }
+
+    /**
+     * @return previous caption for {@link Type#CAPTION_CHANGED}, otherwise null
+     */
+    public String getOldCaption() { return oldCaption; }
+
+    /**
+     * The individual changes, in the order they were made. For an event
+     * other than {@link Type#BATCH} this is the event itself.
+     *
+     * @return changes
+     */
+    public List<LibraryEvent> getEvents() { return events; }
+
+    @Override
+    public String toString() {
+        if (type == Type.BATCH) return type + " of " + events.size();
+        return type + " " + photo.getFilePath() + (album == null ? "" : " in " + album.getName());
+    }
+}
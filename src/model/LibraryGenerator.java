@@ -0,0 +1,359 @@
+package model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Seeded generator of synthetic libraries for load and scale testing.
+ *
+ * <p>The same settings and seed always give the same users, albums,
+ * photos, captions, dates and tags. Users are named {@code user0},
+ * {@code user1}, ...; each has the configured number of albums named
+ * {@code album0}, {@code album1}, .... Every photo gets one location from a
+ * small set and up to a few persons drawn from a Zipf distribution, so a few
+ * persons are on many photos and most on few, as in a real library. Each
+ * album covers a short stretch of days placed at random within the overall
+ * date range. A fraction of each album's slots can be filled with photos
+ * from the user's earlier albums, so photos are shared between albums.</p>
+ *
+ * <p>Photo paths point under an image directory. If one is set, a small
+ * JPEG is written there for every photo, with its modification time set to
+ * the photo's date; otherwise the files do not exist and nothing touches
+ * the disk. Photos are built with known sizes, so generating a million
+ * photos does not stat a million files.</p>
+ *
+ * <pre>photos-generate --out FILE [--seed N] [--users N] [--albums N]
+ *     [--photos N] [--persons N] [--skew S] [--locations N] [--caption MIN..MAX]
+ *     [--from yyyy-MM-dd] [--days N] [--album-days N] [--shared F] [--images DIR]</pre>
+ *
+ * @author Prayrit
+ */
+public final class LibraryGenerator {
+    /** Distinct image files written; photos reuse them round-robin by seed. */
+    static final int IMAGE_VARIANTS = 64;
+    /** Side of the generated images, in pixels. */
+    static final int IMAGE_SIDE = 16;
+
+    private static final String[] WORDS = {
+        "beach", "sunset", "family", "dinner", "party", "mountain", "lake", "city", "street", "friends",
+        "birthday", "holiday", "snow", "garden", "museum", "concert", "dog", "cat", "morning", "night",
+        "river", "bridge", "market", "school", "wedding", "trip", "road", "forest", "park", "old"
+    };
+    private static final String[] LOCATIONS = {
+        "home", "paris", "rome", "london", "tokyo", "new york", "berlin", "madrid", "lisbon", "oslo",
+        "cairo", "lima", "sydney", "toronto", "seoul", "dublin"
+    };
+
+    private long seed = 1;
+    private int users = 1;
+    private int albumsPerUser = 10;
+    private int photosPerAlbum = 100;
+    private int persons = 1000;
+    private double skew = 1.0;
+    private int maxPersonsPerPhoto = 3;
+    private int locations = 8;
+    private int minCaption = 0;
+    private int maxCaption = 40;
+    private LocalDate from = LocalDate.of(2010, 1, 1);
+    private int days = 10 * 365;
+    private int albumDays = 14;
+    private double shared = 0;
+    private Path images;
+
+    /**
+     * @param seed random seed
+     * @return this generator
+     */
+    public LibraryGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param users number of users
+     * @return this generator
+     */
+    public LibraryGenerator users(int users) {
+        this.users = atLeast(users, 0, "users");
+        return this;
+    }
+
+    /**
+     * @param albums albums of each user
+     * @return this generator
+     */
+    public LibraryGenerator albumsPerUser(int albums) {
+        this.albumsPerUser = atLeast(albums, 0, "albums");
+        return this;
+    }
+
+    /**
+     * @param photos photos in each album, shared ones included
+     * @return this generator
+     */
+    public LibraryGenerator photosPerAlbum(int photos) {
+        this.photosPerAlbum = atLeast(photos, 0, "photos");
+        return this;
+    }
+
+    /**
+     * Person tags: each photo gets 0 to {@code maxPerPhoto} of them, drawn
+     * from {@code count} persons with Zipf exponent {@code skew}.
+     *
+     * @param count distinct persons
+     * @param skew Zipf exponent; 0 is uniform, 1 is typical
+     * @param maxPerPhoto most persons on one photo
+     * @return this generator
+     */
+    public LibraryGenerator persons(int count, double skew, int maxPerPhoto) {
+        this.persons = atLeast(count, 1, "persons");
+        if (skew < 0) throw new IllegalArgumentException("skew must not be negative");
+        this.skew = skew;
+        this.maxPersonsPerPhoto = atLeast(maxPerPhoto, 0, "persons per photo");
+        return this;
+    }
+
+    /**
+     * @param count distinct locations, each photo getting one at random
+     * @return this generator
+     */
+    public LibraryGenerator locations(int count) {
+        this.locations = Math.min(atLeast(count, 1, "locations"), LOCATIONS.length);
+        return this;
+    }
+
+    /**
+     * @param min shortest caption, in characters
+     * @param max longest caption, in characters
+     * @return this generator
+     */
+    public LibraryGenerator captionLength(int min, int max) {
+        if (min < 0 || max < min) throw new IllegalArgumentException("bad caption length " + min + ".." + max);
+        this.minCaption = min;
+        this.maxCaption = max;
+        return this;
+    }
+
+    /**
+     * @param from first day photos may be taken on
+     * @param days length of the whole date range
+     * @param albumDays days covered by one album
+     * @return this generator
+     */
+    public LibraryGenerator dates(LocalDate from, int days, int albumDays) {
+        this.from = from;
+        this.days = atLeast(days, 1, "days");
+        this.albumDays = Math.min(atLeast(albumDays, 1, "album days"), this.days);
+        return this;
+    }
+
+    /**
+     * @param fraction share of album slots, 0 to 1, taken by photos of the
+     *        user's earlier albums
+     * @return this generator
+     */
+    public LibraryGenerator shared(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) throw new IllegalArgumentException("shared must be between 0 and 1");
+        this.shared = fraction;
+        return this;
+    }
+
+    /**
+     * @param dir directory to write image files into, or null for none
+     * @return this generator
+     */
+    public LibraryGenerator images(Path dir) {
+        this.images = dir;
+        return this;
+    }
+
+    /**
+     * Generate a datastore, not the shared instance, holding the users.
+     * Tags go into the current {@link TagDictionary}.
+     *
+     * @return the datastore
+     * @throws IOException if an image file cannot be written
+     */
+    public DataStore generate() throws IOException {
+        DataStore ds = DataStore.create();
+        Random rnd = new Random(seed);
+        double[] personCdf = zipf(persons, skew);
+        byte[][] variants = images == null ? null : variants(rnd);
+        for (int u = 0; u < users; u++) ds.addUser(user("user" + u, rnd, personCdf, variants));
+        return ds;
+    }
+
+    private User user(String name, Random rnd, double[] personCdf, byte[][] variants) throws IOException {
+        User u = new User(name);
+        List<Photo> library = new ArrayList<>();
+        for (int a = 0; a < albumsPerUser; a++) {
+            String albumName = "album" + a;
+            u.createAlbum(albumName);
+            Album album = u.getAlbums().get(albumName);
+            Path dir = images == null ? null : Files.createDirectories(images.resolve(name).resolve(albumName));
+            LocalDateTime start = from.atStartOfDay().plusMinutes((long) rnd.nextInt(days - albumDays + 1) * 24 * 60);
+            int earlier = library.size();
+            for (int i = 0; i < photosPerAlbum; i++) {
+                // a photo drawn twice for the album gives way to a new one, so the album stays full
+                if (earlier > 0 && rnd.nextDouble() < shared && album.addPhoto(library.get(rnd.nextInt(earlier)))) continue;
+                LocalDateTime date = start.plusSeconds((long) (rnd.nextDouble() * albumDays * 24 * 60 * 60));
+                String file = String.format("%06d.jpg", i);
+                long size = 0;
+                String path;
+                if (dir == null) {
+                    path = "generated/" + name + "/" + albumName + "/" + file;
+                } else {
+                    Path p = dir.resolve(file);
+                    byte[] image = variants[rnd.nextInt(variants.length)];
+                    Files.write(p, image);
+                    Files.setLastModifiedTime(p, FileTime.from(date.atZone(ZoneId.systemDefault()).toInstant()));
+                    size = image.length;
+                    path = p.toString();
+                }
+                Photo photo = new Photo(path, caption(rnd), date, size);
+                photo.addTag(new Tag("location", LOCATIONS[rnd.nextInt(locations)]));
+                for (int k = rnd.nextInt(maxPersonsPerPhoto + 1); k > 0; k--) {
+                    photo.addTag(new Tag("person", "person" + sample(personCdf, rnd)));
+                }
+                album.addPhoto(photo);
+                library.add(photo);
+            }
+        }
+        return u;
+    }
+
+    private String caption(Random rnd) {
+        int length = minCaption + rnd.nextInt(maxCaption - minCaption + 1);
+        StringBuilder sb = new StringBuilder(length + 12);
+        while (sb.length() < length) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        sb.setLength(length);
+        return sb.toString().trim();
+    }
+
+    /** Cumulative Zipf distribution over ranks 1..n. */
+    private static double[] zipf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, s);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) cdf[k] /= sum;
+        return cdf;
+    }
+
+    /** Rank drawn from a cumulative distribution, from 0. */
+    private static int sample(double[] cdf, Random rnd) {
+        int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+
+    /** Small JPEGs of different flat colours and one bar each, to be reused by the photos. */
+    private static byte[][] variants(Random rnd) throws IOException {
+        byte[][] out = new byte[IMAGE_VARIANTS][];
+        for (int v = 0; v < out.length; v++) {
+            BufferedImage img = new BufferedImage(IMAGE_SIDE, IMAGE_SIDE, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = img.createGraphics();
+            try {
+                g.setColor(new Color(rnd.nextInt(0x1000000)));
+                g.fillRect(0, 0, IMAGE_SIDE, IMAGE_SIDE);
+                g.setColor(new Color(rnd.nextInt(0x1000000)));
+                g.fillRect(rnd.nextInt(IMAGE_SIDE), 0, 1 + rnd.nextInt(IMAGE_SIDE / 2), IMAGE_SIDE);
+            } finally {
+                g.dispose();
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            if (!ImageIO.write(img, "jpg", bos)) throw new IOException("No JPEG writer");
+            out[v] = bos.toByteArray();
+        }
+        return out;
+    }
+
+    private static int atLeast(int n, int min, String what) {
+        if (n < min) throw new IllegalArgumentException(what + " must be at least " + min);
+        return n;
+    }
+
+    /**
+     * Generate a library from the command line and save it as a datastore
+     * file, which the app reads when it is {@code users.dat} in its data
+     * directory.
+     *
+     * @param args command line
+     * @throws Exception if generating or saving fails
+     */
+    public static void main(String[] args) throws Exception {
+        LibraryGenerator g = new LibraryGenerator();
+        File out = null;
+        int persons = g.persons, maxPersons = g.maxPersonsPerPhoto;
+        double skew = g.skew;
+        LocalDate from = g.from;
+        int days = g.days, albumDays = g.albumDays;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + a);
+                String v = args[++i];
+                switch (a) {
+                    case "--out": out = new File(v); break;
+                    case "--seed": g.seed(Long.parseLong(v)); break;
+                    case "--users": g.users(Integer.parseInt(v)); break;
+                    case "--albums": g.albumsPerUser(Integer.parseInt(v)); break;
+                    case "--photos": g.photosPerAlbum(Integer.parseInt(v)); break;
+                    case "--persons": persons = Integer.parseInt(v); break;
+                    case "--skew": skew = Double.parseDouble(v); break;
+                    case "--persons-per-photo": maxPersons = Integer.parseInt(v); break;
+                    case "--locations": g.locations(Integer.parseInt(v)); break;
+                    case "--caption": {
+                        String[] r = v.split("\\.\\.", -1);
+                        if (r.length != 2) throw new IllegalArgumentException("caption length must be MIN..MAX");
+                        g.captionLength(Integer.parseInt(r[0]), Integer.parseInt(r[1]));
+                        break;
+                    }
+                    case "--from": from = LocalDate.parse(v); break;
+                    case "--days": days = Integer.parseInt(v); break;
+                    case "--album-days": albumDays = Integer.parseInt(v); break;
+                    case "--shared": g.shared(Double.parseDouble(v)); break;
+                    case "--images": g.images(Path.of(v)); break;
+                    default: throw new IllegalArgumentException("unknown option " + a);
+                }
+            }
+            if (out == null) throw new IllegalArgumentException("--out FILE is required");
+            g.persons(persons, skew, maxPersons).dates(from, days, albumDays);
+        } catch (RuntimeException ex) {
+            System.err.println("LibraryGenerator: " + ex.getMessage());
+            System.err.println("usage: LibraryGenerator --out FILE [--seed N] [--users N] [--albums N] [--photos N]"
+                + " [--persons N] [--skew S] [--persons-per-photo N] [--locations N] [--caption MIN..MAX]"
+                + " [--from yyyy-MM-dd] [--days N] [--album-days N] [--shared F] [--images DIR]");
+            System.exit(2);
+        }
+        long t = System.nanoTime();
+        DataStore ds = g.generate();
+        long photos = 0;
+        for (User u : ds.getUsers().values()) photos += u.getPhotoCount();
+        long built = System.nanoTime();
+        if (out.getParentFile() != null) out.getParentFile().mkdirs();
+        ds.save(out);
+        System.out.printf("%d users, %d photos, %d tags in %.1f s; saved %s (%d bytes) in %.1f s%n",
+            ds.getUsers().size(), photos, TagDictionary.getInstance().size(), (built - t) / 1e9,
+            out, out.length(), (System.nanoTime() - built) / 1e9);
+    }
+}
@@ -0,0 +1,18 @@
+package model;
+
+/**
+ * Receives {@link LibraryEvent}s for a user's photo library.
+ *
+ * <p>Indexes and caches register with {@link User#addLibraryListener} to
+ * stay up to date incrementally instead of rescanning the albums.</p>
+ *
+ * @author Prayrit
+ */
+public interface LibraryListener {
+    /**
+     * Called after a change has been applied to the library.
+     *
+     * @param e the change
+     */
+    void libraryChanged(LibraryEvent e);
+}
@@ -0,0 +1,298 @@
+package model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Insertion-ordered list of distinct photos with constant-time membership,
+ * backing {@link Album}.
+ *
+ * <p>Photos sit in an array of slots and a hash map gives each photo's
+ * slot, so {@link #contains(Object)}, appending and removing by photo are
+ * O(1) amortized. Removing leaves an empty slot (a tombstone) instead of
+ * shifting the rest of the array. While there are no holes a position is
+ * its slot; while there are, a Fenwick tree of live slots maps positions to
+ * slots and back in O(log n), so {@link #get(int)} and {@link #indexOf(Object)}
+ * keep {@link java.util.List} semantics without a pass over the array. The
+ * holes are squeezed out once they make up half the slots, which is O(1)
+ * amortized per removal, and before inserting by position, which shifts
+ * photos anyway. Iteration skips holes.</p>
+ *
+ * <p>As a set, it refuses duplicates: {@link #add(Photo)} returns false for
+ * a photo already present, and {@code add(int, Photo)} and
+ * {@code set(int, Photo)} throw {@link IllegalArgumentException}.</p>
+ *
+ * @author Prayrit
+ */
+final class OrderedPhotoSet extends AbstractList<Photo> implements RandomAccess {
+    private Photo[] slots = new Photo[8];
+    private int end;    // slots in use, including holes
+    private int live;   // photos present
+    private int layout; // bumped when compaction moves photos between slots
+    private int[] rank; // Fenwick tree of live photos over slots, 1-based; null while there are no holes
+    private final Map<Photo, Integer> slotOf = new HashMap<>();
+
+    OrderedPhotoSet() {}
+
+    /**
+     * @param photos initial photos in order; later duplicates are dropped
+     */
+    OrderedPhotoSet(Iterable<Photo> photos) {
+        for (Photo p : photos) add(p);
+    }
+
+    @Override
+    public int size() { return live; }
+
+    /**
+     * @return count of structural changes, for detecting edits
+     */
+    int version() { return modCount; }
+
+    @Override
+    public Photo get(int index) {
+        checkIndex(index, live);
+        return slots[slotAt(index)];
+    }
+
+    @Override
+    public boolean contains(Object o) { return slotOf.containsKey(o); }
+
+    @Override
+    public int indexOf(Object o) {
+        Integer s = slotOf.get(o);
+        if (s == null) return -1;
+        return rank == null ? s : liveBefore(s);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) { return indexOf(o); }
+
+    /**
+     * The stored photo equal to the given one (same file path), which may be
+     * a different instance.
+     *
+     * @param p photo to look up
+     * @return stored photo, or null if absent
+     */
+    Photo find(Photo p) {
+        Integer s = slotOf.get(p);
+        return s == null ? null : slots[s];
+    }
+
+    /**
+     * Append a photo unless an equal one is already present.
+     *
+     * @param p photo
+     * @return true if added
+     */
+    @Override
+    public boolean add(Photo p) {
+        if (slotOf.containsKey(p)) return false;
+        if (end == slots.length) {
+            // squeeze out holes before growing when they are a large share
+            if (live < end / 2) compact();
+            else {
+                slots = Arrays.copyOf(slots, end * 2);
+                if (rank != null) buildRank();
+            }
+        }
+        slots[end] = p;
+        if (rank != null) count(end, 1);
+        slotOf.put(p, end++);
+        live++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, Photo p) {
+        checkIndex(index, live + 1);
+        if (slotOf.containsKey(p)) throw new IllegalArgumentException("Photo already in album: " + p.getFilePath());
+        compact();
+        if (end == slots.length) slots = Arrays.copyOf(slots, end * 2);
+        System.arraycopy(slots, index, slots, index + 1, end - index);
+        slots[index] = p;
+        end++;
+        live++;
+        for (int i = index; i < end; i++) slotOf.put(slots[i], i);
+        modCount++;
+    }
+
+    @Override
+    public Photo set(int index, Photo p) {
+        checkIndex(index, live);
+        int s = slotAt(index);
+        Photo old = slots[s];
+        if (!old.equals(p) && slotOf.containsKey(p)) throw new IllegalArgumentException("Photo already in album: " + p.getFilePath());
+        slotOf.remove(old);
+        slots[s] = p;
+        slotOf.put(p, s);
+        return old;
+    }
+
+    @Override
+    public Photo remove(int index) {
+        checkIndex(index, live);
+        int s = slotAt(index);
+        Photo p = slots[s];
+        removeSlot(s);
+        return p;
+    }
+
+    @Override
+    public boolean remove(Object o) { return take(o) != null; }
+
+    /**
+     * Remove the photo equal to the given one.
+     *
+     * @param o photo to remove
+     * @return the stored photo that was removed, or null if absent
+     */
+    Photo take(Object o) {
+        Integer s = slotOf.get(o);
+        if (s == null) return null;
+        Photo p = slots[s];
+        removeSlot(s);
+        return p;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(slots, 0, end, null);
+        slotOf.clear();
+        end = 0;
+        live = 0;
+        rank = null;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<Photo> iterator() {
+        return new Iterator<>() {
+            private int cursor;          // position of the next photo
+            private int next = skip(0);  // its slot
+            private int last = -1;       // slot of the photo last returned
+            private int expected = modCount;
+            private int seenLayout = layout;
+
+            @Override
+            public boolean hasNext() { return cursor < live; }
+
+            @Override
+            public Photo next() {
+                if (expected != modCount) throw new ConcurrentModificationException();
+                if (cursor >= live) throw new NoSuchElementException();
+                resync();
+                last = next;
+                next = skip(next + 1);
+                cursor++;
+                return slots[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) throw new IllegalStateException();
+                if (expected != modCount) throw new ConcurrentModificationException();
+                resync();
+                removeSlot(last);
+                last = -1;
+                cursor--;
+                expected = modCount;
+            }
+
+            /** After a compaction, slots equal positions again. */
+            private void resync() {
+                if (seenLayout == layout) return;
+                next = cursor;
+                if (last >= 0) last = cursor - 1;
+                seenLayout = layout;
+            }
+        };
+    }
+
+    private int skip(int i) {
+        while (i < end && slots[i] == null) i++;
+        return i;
+    }
+
+    private void removeSlot(int s) {
+        slotOf.remove(slots[s]);
+        slots[s] = null;
+        live--;
+        modCount++;
+        if (s == end - 1) {
+            // trailing holes can simply be dropped
+            while (end > 0 && slots[end - 1] == null) end--;
+            if (live == end) rank = null;
+            else count(s, -1);
+            return;
+        }
+        if (rank == null) buildRank();
+        else count(s, -1);
+        if (live < end / 2) compact();
+    }
+
+    /** Slot of the photo at a position: the slot holding the (index+1)-th live photo. */
+    private int slotAt(int index) {
+        if (rank == null) return index;
+        int pos = 0, remaining = index + 1;
+        for (int step = Integer.highestOneBit(rank.length - 1); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next < rank.length && rank[next] < remaining) {
+                pos = next;
+                remaining -= rank[next];
+            }
+        }
+        return pos;
+    }
+
+    /** Live photos in slots before s, the position of the photo in slot s. */
+    private int liveBefore(int s) {
+        int n = 0;
+        for (int i = s; i > 0; i -= i & -i) n += rank[i];
+        return n;
+    }
+
+    private void count(int s, int delta) {
+        for (int i = s + 1; i < rank.length; i += i & -i) rank[i] += delta;
+    }
+
+    private void buildRank() {
+        rank = new int[slots.length + 1];
+        for (int s = 0; s < end; s++) if (slots[s] != null) rank[s + 1] = 1;
+        for (int i = 1; i < rank.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < rank.length) rank[parent] += rank[i];
+        }
+    }
+
+    /** Close the holes left by removals, renumbering the moved photos. */
+    private void compact() {
+        if (live == end) return;
+        int to = 0;
+        for (int from = 0; from < end; from++) {
+            Photo p = slots[from];
+            if (p == null) continue;
+            if (from != to) {
+                slots[to] = p;
+                slotOf.put(p, to);
+            }
+            to++;
+        }
+        Arrays.fill(slots, to, end, null);
+        end = to;
+        rank = null;
+        layout++;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+}
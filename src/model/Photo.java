@@ -1,31 +1,63 @@
 package model;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.LinkedHashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * Serializable photo model.
  *
  * <p>Wraps a file path, caption, capture date (read from the file's
- * last-modified time) and a set of tags. Instances are serialized by
- * the application to persist user albums and photos.</p>
+ * last-modified time) and a set of tags. Tags are stored as a sorted array
+ * of {@link TagDictionary} ids; {@link #getTags()} resolves them on demand.
+ * A 64-bit perceptual hash of the image, used to find near-duplicates, is
+ * stored once it has been computed. Instances are serialized by the
+ * application to persist user albums and photos.</p>
  *
  * @author Prayrit
  */
 public class Photo implements Serializable {
     private static final long serialVersionUID = 2L;
+    private static final int[] NO_TAGS = new int[0];
+
+    /**
+     * Stream layout. {@code tags} is the pre-dictionary {@code Set<Tag>} and is
+     * only read, to migrate older data files; new files store {@code tagIds}.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("filePath", String.class),
+        new ObjectStreamField("caption", String.class),
+        new ObjectStreamField("dateTime", LocalDateTime.class),
+        new ObjectStreamField("tags", Set.class),
+        new ObjectStreamField("tagIds", int[].class),
+        new ObjectStreamField("perceptualHash", long.class),
+        new ObjectStreamField("hashed", boolean.class),
+        new ObjectStreamField("fileSize", long.class),
+    };
 
     private String filePath; // absolute path or relative path for stock photos
     private String caption;
     private LocalDateTime dateTime;
-    private Set<Tag> tags = new LinkedHashSet<>();
+    private int[] tagIds = NO_TAGS; // sorted TagDictionary ids
+    private long perceptualHash;     // valid only when hashed
+    private boolean hashed;
+    private long fileSize = -1;      // read from the file on first use
+
+    transient User owner;  // user whose albums hold this photo, set by User
+    transient int id;      // dense per-user id, 0 until registered
+    transient int refs;    // number of the owner's albums holding this photo
 
     /**
      * Construct a Photo for the given file path.
@@ -38,6 +70,33 @@ public class Photo implements Serializable {
         this.dateTime = readFileDate(filePath);
     }
 
+    /** Photo with known details, as read from an export; the file is not touched. */
+    Photo(String filePath, String caption, LocalDateTime dateTime, long fileSize) {
+        this.filePath = filePath;
+        this.caption = caption;
+        this.dateTime = dateTime;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Size of the image file, read once and then remembered.
+     *
+     * @return size in bytes, 0 if the file cannot be read
+     */
+    public long getFileSize() {
+        if (fileSize < 0) {
+            try {
+                fileSize = Files.size(Path.of(filePath));
+            } catch (IOException | RuntimeException e) {
+                fileSize = 0;
+            }
+        }
+        return fileSize;
+    }
+
+    /** File size if already read, else -1; never touches the file. */
+    long knownFileSize() { return fileSize; }
+
     private LocalDateTime readFileDate(String path) {
         try {
             Path p = Path.of(path);
@@ -64,25 +123,119 @@ public class Photo implements Serializable {
      *
      * @param c caption
      */
-    public void setCaption(String c) { caption = c; }
+    public void setCaption(String c) {
+        String old = caption;
+        caption = c;
+        if (owner != null && !old.equals(c)) owner.captionChanged(this, old);
+    }
+
+    /**
+     * Dense id of this photo within its owner's library, used by search
+     * indexes. Ids are assigned when the photo is added to its first album.
+     *
+     * @return photo id, or 0 if the photo is not in any user's album
+     */
+    public int getId() { return id; }
+
+    /**
+     * Number of albums of its owner that hold this photo. The photo stays in
+     * the user's library while this is above zero.
+     *
+     * @return album count, 0 for a photo in no album
+     */
+    public int getAlbumCount() { return refs; }
 
     /**
      * @return date/time associated with the photo (derived from file)
      */
     public LocalDateTime getDateTime() { return dateTime; }
 
+    /**
+     * Set the date/time associated with the photo, e.g. to correct a file
+     * date that does not match when the picture was taken.
+     *
+     * @param d new date/time
+     */
+    public void setDateTime(LocalDateTime d) {
+        LocalDateTime old = dateTime;
+        dateTime = d;
+        if (owner != null && !old.equals(d)) owner.dateChanged(this, old);
+    }
+
+    /**
+     * @return true if a perceptual hash has been computed for this photo
+     */
+    public boolean hasPerceptualHash() { return hashed; }
+
+    /**
+     * @return perceptual hash of the image; meaningful only if {@link #hasPerceptualHash()}
+     */
+    public long getPerceptualHash() { return perceptualHash; }
+
+    /**
+     * Store the perceptual hash computed from the image file.
+     *
+     * @param h 64-bit hash
+     */
+    public void setPerceptualHash(long h) {
+        perceptualHash = h;
+        hashed = true;
+    }
+
     /**
      * @return an unmodifiable view of tags attached to the photo
      */
-    public Set<Tag> getTags() { return tags; }
+    public Set<Tag> getTags() { return new TagView(); }
+
+    /**
+     * Sorted {@link TagDictionary} ids of this photo's tags. The array is
+     * shared; callers must not modify it.
+     *
+     * @return sorted tag ids
+     */
+    public int[] getTagIds() { return tagIds; }
+
+    /**
+     * Check for a tag by dictionary id.
+     *
+     * @param id tag id
+     * @return true if the photo carries the tag
+     */
+    public boolean hasTag(int id) { return Arrays.binarySearch(tagIds, id) >= 0; }
+
+    /**
+     * Check for a tag (case-insensitive). This looks the tag up in the
+     * dictionary under its lock; scans over many photos resolve the id once
+     * and use {@link #hasTag(int)}.
+     *
+     * @param t tag to look for
+     * @return true if the photo carries the tag
+     */
+    public boolean hasTag(Tag t) {
+        int id = TagDictionary.getInstance().lookup(t.getName(), t.getValue());
+        return id >= 0 && hasTag(id);
+    }
 
     /**
-     * Add a tag to this photo. Duplicate tags (same type/value) are ignored.
+     * Add a tag to this photo. Duplicate tags (same type/value, ignoring case) are ignored.
      *
      * @param t tag to add
      * @return true if the tag was added
      */
-    public boolean addTag(Tag t) { return tags.add(t); }
+    public boolean addTag(Tag t) {
+        int id = TagDictionary.getInstance().intern(t.getName(), t.getValue());
+        int pos = Arrays.binarySearch(tagIds, id);
+        if (pos >= 0) return false;
+        int at = -pos - 1;
+        int[] grown = new int[tagIds.length + 1];
+        System.arraycopy(tagIds, 0, grown, 0, at);
+        grown[at] = id;
+        System.arraycopy(tagIds, at, grown, at + 1, tagIds.length - at);
+        int[] before = tagIds;
+        tagIds = grown;
+        tagsChanged(before);
+        return true;
+    }
 
     /**
      * Remove a tag from this photo.
@@ -90,7 +243,52 @@ public class Photo implements Serializable {
      * @param t tag to remove
      * @return true if removed
      */
-    public boolean removeTag(Tag t) { return tags.remove(t); }
+    public boolean removeTag(Tag t) {
+        int id = TagDictionary.getInstance().lookup(t.getName(), t.getValue());
+        int pos = id < 0 ? -1 : Arrays.binarySearch(tagIds, id);
+        if (pos < 0) return false;
+        int[] shrunk = tagIds.length == 1 ? NO_TAGS : new int[tagIds.length - 1];
+        System.arraycopy(tagIds, 0, shrunk, 0, pos);
+        System.arraycopy(tagIds, pos + 1, shrunk, pos, tagIds.length - pos - 1);
+        int[] before = tagIds;
+        tagIds = shrunk;
+        tagsChanged(before);
+        return true;
+    }
+
+    /**
+     * Remove every tag with the given name (case-insensitive), e.g. to
+     * replace a single-valued tag such as location.
+     *
+     * @param name tag name
+     * @return true if any tag was removed
+     */
+    public boolean removeTagsNamed(String name) {
+        TagDictionary dict = TagDictionary.getInstance();
+        int[] kept = new int[tagIds.length];
+        int n = 0;
+        for (int id : tagIds) {
+            if (!dict.tag(id).getName().equalsIgnoreCase(name)) kept[n++] = id;
+        }
+        if (n == tagIds.length) return false;
+        int[] before = tagIds;
+        tagIds = n == 0 ? NO_TAGS : Arrays.copyOf(kept, n);
+        tagsChanged(before);
+        return true;
+    }
+
+    /** Replace tag ids by {@code map[id]} without notifying the owner, when the photo moves to another dictionary. */
+    void remapTags(int[] map) {
+        if (tagIds.length == 0) return;
+        int[] mapped = new int[tagIds.length];
+        for (int i = 0; i < tagIds.length; i++) mapped[i] = map[tagIds[i]];
+        Arrays.sort(mapped);
+        tagIds = mapped;
+    }
+
+    private void tagsChanged(int[] before) {
+        if (owner != null) owner.tagsChanged(this, before);
+    }
 
     /**
      * Equality is based on the photo's file path.
@@ -113,4 +311,68 @@ public class Photo implements Serializable {
      */
     @Override
     public int hashCode() { return filePath.hashCode(); }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("filePath", filePath);
+        f.put("caption", caption);
+        f.put("dateTime", dateTime);
+        f.put("tags", null);
+        f.put("tagIds", tagIds);
+        f.put("perceptualHash", perceptualHash);
+        f.put("hashed", hashed);
+        f.put("fileSize", fileSize);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        filePath = (String) f.get("filePath", null);
+        caption = (String) f.get("caption", "");
+        dateTime = (LocalDateTime) f.get("dateTime", null);
+        int[] ids = (int[]) f.get("tagIds", null);
+        tagIds = ids == null || ids.length == 0 ? NO_TAGS : ids;
+        perceptualHash = f.get("perceptualHash", 0L);
+        hashed = f.get("hashed", false);
+        fileSize = f.get("fileSize", -1L);
+        Set<Tag> legacy = (Set<Tag>) f.get("tags", null);
+        if (legacy != null) {
+            for (Tag t : legacy) addTag(t);
+        }
+    }
+
+    /**
+     * Read-only set of the photo's tags resolved through the dictionary.
+     */
+    private final class TagView extends AbstractSet<Tag> {
+        private final int[] ids = tagIds;
+
+        @Override
+        public Iterator<Tag> iterator() {
+            return new Iterator<>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() { return i < ids.length; }
+
+                @Override
+                public Tag next() {
+                    if (i >= ids.length) throw new NoSuchElementException();
+                    return TagDictionary.getInstance().tag(ids[i++]);
+                }
+            };
+        }
+
+        @Override
+        public int size() { return ids.length; }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Tag)) return false;
+            Tag t = (Tag) o;
+            int id = TagDictionary.getInstance().lookup(t.getName(), t.getValue());
+            return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+        }
+    }
 }
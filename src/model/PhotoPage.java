@@ -0,0 +1,111 @@
+package model;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * One window of a {@link PhotoPager}: the photo ids at a range of positions
+ * and the few fields a list row displays.
+ *
+ * <p>Rows carry the photo's library id (see {@link Photo#getId()}), a label
+ * (the caption, or the file name when there is no caption) and the date.
+ * The page is a snapshot; {@link #getVersion()} tells a cache whether it is
+ * still current.</p>
+ *
+ * @author Prayrit
+ */
+public final class PhotoPage {
+    private final int offset;
+    private final int total;
+    private final long version;
+    private final int[] ids;
+    private final String[] labels;
+    private final LocalDateTime[] dates;
+
+    private PhotoPage(int offset, int total, long version, int n) {
+        this.offset = offset;
+        this.total = total;
+        this.version = version;
+        this.ids = new int[n];
+        this.labels = new String[n];
+        this.dates = new LocalDateTime[n];
+    }
+
+    /**
+     * Build a page from photos already looked up.
+     *
+     * @param offset position of the first photo in the whole sequence
+     * @param total length of the whole sequence
+     * @param version version of the sequence the page was taken from
+     * @param photos photos of the window, in order; null entries are kept as id 0
+     * @return the page
+     */
+    public static PhotoPage of(int offset, int total, long version, List<Photo> photos) {
+        PhotoPage page = new PhotoPage(offset, total, version, photos.size());
+        for (int i = 0; i < photos.size(); i++) {
+            Photo p = photos.get(i);
+            if (p == null) continue;
+            page.ids[i] = p.getId();
+            page.labels[i] = label(p);
+            page.dates[i] = p.getDateTime();
+        }
+        return page;
+    }
+
+    /**
+     * Text a list shows for a photo.
+     *
+     * @param p photo
+     * @return caption, or file name if the caption is empty
+     */
+    public static String label(Photo p) { return p.getCaption().isEmpty() ? new File(p.getFilePath()).getName() : p.getCaption(); }
+
+    /**
+     * @return position of the first row
+     */
+    public int getOffset() { return offset; }
+
+    /**
+     * @return number of rows in this page
+     */
+    public int size() { return ids.length; }
+
+    /**
+     * @return length of the whole sequence when the page was taken
+     */
+    public int getTotal() { return total; }
+
+    /**
+     * @return position just after this page, where the next page starts
+     */
+    public int getNextOffset() { return offset + ids.length; }
+
+    /**
+     * @return true if rows follow this page
+     */
+    public boolean hasMore() { return getNextOffset() < total; }
+
+    /**
+     * @return version of the sequence the page was taken from
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * @param row row within the page
+     * @return library id of the photo, 0 if it has none
+     */
+    public int getId(int row) { return ids[row]; }
+
+    /**
+     * @param row row within the page
+     * @return display label, null if the photo is gone
+     */
+    public String getLabel(int row) { return labels[row]; }
+
+    /**
+     * @param row row within the page
+     * @return photo date, null if the photo is gone
+     */
+    public LocalDateTime getDate(int row) { return dates[row]; }
+}
@@ -0,0 +1,37 @@
+package model;
+
+/**
+ * Ordered sequence of photos that can be read a window at a time, so a
+ * list view only materialises the rows it shows.
+ *
+ * <p>Implemented by {@link Album} and by search results. A reader walks the
+ * sequence with {@link #page(int, int)}, continuing from
+ * {@link PhotoPage#getNextOffset()}, and drops any pages it keeps once
+ * {@link #getVersion()} no longer matches theirs.</p>
+ *
+ * @author Prayrit
+ */
+public interface PhotoPager {
+    /**
+     * @return number of photos in the sequence
+     */
+    int size();
+
+    /**
+     * Value that changes whenever the sequence or the display fields of its
+     * photos may have changed.
+     *
+     * @return current version
+     */
+    long getVersion();
+
+    /**
+     * Read a window of the sequence.
+     *
+     * @param offset position of the first photo, 0 to {@link #size()}
+     * @param limit largest number of photos returned
+     * @return the page, shorter than limit at the end of the sequence
+     * @throws IndexOutOfBoundsException if offset is out of range
+     */
+    PhotoPage page(int offset, int limit);
+}
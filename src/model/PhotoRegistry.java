@@ -0,0 +1,72 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dense per-user photo ids and album reference counts.
+ *
+ * <p>Each distinct photo in a user's albums gets a small positive int id
+ * when it enters the library (id 0 means "not registered"). Ids are what the
+ * search indexes store. The registry also counts how many of the user's
+ * albums hold each photo, so the owner can tell when a photo leaves the
+ * library.</p>
+ *
+ * <p>The id of a photo that left is handed to the next photo to enter, most
+ * recently freed first, so the id range and the per-id arrays of the
+ * indexes stay as large as the library has been at its largest rather than
+ * growing with every add and remove. A photo keeps its old id after it
+ * left; {@code get(p.getId()) == p} tells whether it is still the
+ * holder.</p>
+ *
+ * @author Prayrit
+ */
+class PhotoRegistry {
+    private final List<Photo> byId = new ArrayList<>();
+    private int[] free = new int[16]; // ids of photos that left, reused last in first out
+    private int freeCount;
+    private int live;
+
+    PhotoRegistry() { byId.add(null); }
+
+    /**
+     * Count one more album reference.
+     *
+     * @param p photo
+     * @return true if the photo was not in the library before
+     */
+    boolean ref(Photo p) {
+        if (p.refs++ > 0) return false;
+        if (freeCount > 0) {
+            p.id = free[--freeCount];
+            byId.set(p.id, p);
+        } else {
+            p.id = byId.size();
+            byId.add(p);
+        }
+        live++;
+        return true;
+    }
+
+    /**
+     * Count one less album reference.
+     *
+     * @param p photo
+     * @return true if that was the last reference and the photo left the library
+     */
+    boolean unref(Photo p) {
+        if (p.refs == 0 || --p.refs > 0) return false;
+        byId.set(p.id, null);
+        if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = p.id;
+        live--;
+        return true;
+    }
+
+    Photo get(int id) { return id > 0 && id < byId.size() ? byId.get(id) : null; }
+
+    int limit() { return byId.size(); }
+
+    int size() { return live; }
+}
@@ -0,0 +1,132 @@
+package model;
+
+import java.io.File;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the display order of an album's photos for a {@link SortOrder}.
+ *
+ * <p>Sort keys are extracted once per photo before sorting, so comparisons
+ * read a {@code long} or compare a {@link CollationKey}'s bytes instead of
+ * calling into the photos and collating strings on every comparison. Large
+ * albums extract keys and sort on the common fork-join pool. The sort is
+ * stable: photos with equal keys keep the order they were added in.</p>
+ *
+ * @author Prayrit
+ */
+final class PhotoSorter {
+    /** Albums at least this large are sorted in parallel. */
+    static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    private static final Comparator<Key> BY_TIME = (a, b) -> a.time != b.time ? Long.compare(a.time, b.time) : Integer.compare(a.nano, b.nano);
+    private static final Comparator<Key> BY_TEXT = (a, b) -> {
+        if (a.text == null || b.text == null) return a.text == null ? (b.text == null ? 0 : 1) : -1;
+        return a.text.compareTo(b.text);
+    };
+
+    /** Precomputed sort key of one photo. */
+    private static final class Key {
+        final int pos;
+        final long time;
+        final int nano;
+        final CollationKey text; // null sorts last
+
+        Key(int pos, long time, int nano, CollationKey text) {
+            this.pos = pos;
+            this.time = time;
+            this.nano = nano;
+            this.text = text;
+        }
+    }
+
+    private PhotoSorter() {}
+
+    /**
+     * Positions of the photos in sorted order.
+     *
+     * @param photos photos in insertion order
+     * @param order sort order other than {@link SortOrder#INSERTION}
+     * @return permutation of {@code 0..photos.size()-1}
+     */
+    static int[] sort(List<Photo> photos, SortOrder order) {
+        Photo[] ps = photos.toArray(new Photo[0]);
+        if (order == SortOrder.DATE) {
+            int[] out = sortByTime(ps);
+            if (out != null) return out;
+        }
+        Key[] keys = new Key[ps.length];
+        Collator base = collator();
+        ThreadLocal<Collator> collators = ThreadLocal.withInitial(() -> (Collator) base.clone());
+        IntStream range = IntStream.range(0, ps.length);
+        if (ps.length >= PARALLEL_THRESHOLD) range = range.parallel();
+        range.forEach(i -> keys[i] = key(i, ps[i], order, collators));
+        Arrays.parallelSort(keys, order == SortOrder.DATE ? BY_TIME : BY_TEXT);
+        int[] out = new int[keys.length];
+        for (int i = 0; i < out.length; i++) out[i] = keys[i].pos;
+        return out;
+    }
+
+    /**
+     * Date order by sorting primitive longs that pack each photo's second
+     * (relative to the earliest) above its position, then ordering runs of
+     * photos taken in the same second by nanosecond.
+     *
+     * @return positions in date order, or null if the keys do not fit a long
+     */
+    private static int[] sortByTime(Photo[] ps) {
+        int n = ps.length;
+        long[] secs = new long[n];
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            secs[i] = ps[i].getDateTime().toEpochSecond(ZoneOffset.UTC);
+            min = Math.min(min, secs[i]);
+            max = Math.max(max, secs[i]);
+        }
+        int posBits = 32 - Integer.numberOfLeadingZeros(Math.max(n - 1, 1));
+        if (n > 0 && 64 - Long.numberOfLeadingZeros(max - min) + posBits > 63) return null;
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) packed[i] = (secs[i] - min) << posBits | i;
+        Arrays.parallelSort(packed);
+        int[] out = new int[n];
+        long mask = (1L << posBits) - 1;
+        for (int i = 0; i < n; i++) out[i] = (int) (packed[i] & mask);
+        // within one second, insertion-sort by nanosecond; runs are short and usually all zero
+        for (int i = 1; i < n; i++) {
+            int p = out[i];
+            int nano = ps[p].getDateTime().getNano();
+            int j = i - 1;
+            while (j >= 0 && packed[j] >>> posBits == packed[i] >>> posBits && ps[out[j]].getDateTime().getNano() > nano) {
+                out[j + 1] = out[j];
+                j--;
+            }
+            out[j + 1] = p;
+        }
+        return out;
+    }
+
+    private static Key key(int pos, Photo p, SortOrder order, ThreadLocal<Collator> collators) {
+        switch (order) {
+            case DATE:
+                return new Key(pos, p.getDateTime().toEpochSecond(ZoneOffset.UTC), p.getDateTime().getNano(), null);
+            case CAPTION:
+                String c = p.getCaption().strip();
+                return new Key(pos, 0, 0, c.isEmpty() ? null : collators.get().getCollationKey(c));
+            case FILENAME:
+                return new Key(pos, 0, 0, collators.get().getCollationKey(new File(p.getFilePath()).getName()));
+            default:
+                throw new IllegalArgumentException("Not a sorted order: " + order);
+        }
+    }
+
+    private static Collator collator() {
+        Collator c = Collator.getInstance();
+        c.setStrength(Collator.SECONDARY); // ignore case, keep accents
+        return c;
+    }
+}
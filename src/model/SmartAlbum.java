@@ -0,0 +1,52 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Album defined by a stored search query rather than a list of photos.
+ *
+ * <p>Only the name and the query text are persisted. Which photos belong to
+ * the album is worked out by the search package from the user's library
+ * (see {@code search.LiveAlbum}), so the album follows tag, caption and date
+ * edits instead of going stale like an album created from search
+ * results.</p>
+ *
+ * @author Prayrit
+ */
+public class SmartAlbum implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private final String query;
+
+    /**
+     * Construct a smart album.
+     *
+     * @param name album name
+     * @param query query text in the search query language
+     */
+    public SmartAlbum(String name, String query) {
+        this.name = name;
+        this.query = query;
+    }
+
+    /**
+     * @return album name
+     */
+    public String getName() { return name; }
+
+    /**
+     * Set the album name (caller should ensure uniqueness at the User level).
+     *
+     * @param n new name
+     */
+    public void setName(String n) { name = n; }
+
+    /**
+     * @return stored query text
+     */
+    public String getQuery() { return query; }
+
+    @Override
+    public String toString() { return name + " = " + query; }
+}
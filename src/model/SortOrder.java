@@ -0,0 +1,24 @@
+package model;
+
+/**
+ * Order in which an album shows its photos.
+ *
+ * @author Prayrit
+ */
+public enum SortOrder {
+    /** The order the photos were added in. */
+    INSERTION("Added"),
+    /** Oldest photo first. */
+    DATE("Date"),
+    /** By caption, ignoring case; photos without a caption come last. */
+    CAPTION("Caption"),
+    /** By file name, ignoring case and the directory. */
+    FILENAME("File name");
+
+    private final String label;
+
+    SortOrder(String label) { this.label = label; }
+
+    @Override
+    public String toString() { return label; }
+}
@@ -0,0 +1,147 @@
+package model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Global dictionary of tags, mapping each distinct (name, value) pair to a
+ * compact int id.
+ *
+ * <p>Photos store sorted arrays of tag ids instead of {@link Tag} objects,
+ * so every distinct tag is held in memory once and tag comparisons are
+ * integer comparisons. Lookup keys are case-folded: {@code person:Alice} and
+ * {@code person:alice} share one id, and the spelling first interned is the
+ * one displayed.</p>
+ *
+ * <p>The dictionary is a process-wide singleton persisted as part of the
+ * {@link DataStore}. Loading the shared datastore makes its dictionary the
+ * current instance; a datastore loaded on the side has its photo tag ids
+ * mapped into the current instance instead.</p>
+ *
+ * @author Prayrit
+ */
+public class TagDictionary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static TagDictionary instance;
+
+    private List<Tag> tags = new ArrayList<>();
+    // grown by doubling; entries at size and beyond are unused
+    private transient volatile Tag[] byId = new Tag[16];
+    private transient volatile int size; // written after the entry it counts
+    private transient Map<String, Integer> ids = new HashMap<>();
+    private transient Map<String, String> names = new HashMap<>();
+
+    /**
+     * Create an empty dictionary. Use {@link #getInstance()} for the shared
+     * dictionary that photos resolve against.
+     */
+    public TagDictionary() {}
+
+    /**
+     * Obtain the current process-wide dictionary.
+     *
+     * @return the shared dictionary
+     */
+    public static synchronized TagDictionary getInstance() {
+        if (instance == null) instance = new TagDictionary();
+        return instance;
+    }
+
+    static synchronized void install(TagDictionary d) { instance = d; }
+
+    /**
+     * Id for a tag, adding it to the dictionary if it is new.
+     *
+     * @param name tag name
+     * @param value tag value
+     * @return the tag's id
+     */
+    public synchronized int intern(String name, String value) {
+        String key = key(name, value);
+        Integer id = ids.get(key);
+        if (id != null) return id;
+        String canonicalName = names.computeIfAbsent(fold(name), k -> name);
+        Tag t = new Tag(canonicalName, value);
+        int newId = tags.size();
+        tags.add(t);
+        ids.put(key, newId);
+        if (newId == byId.length) byId = Arrays.copyOf(byId, newId * 2);
+        byId[newId] = t;
+        size = newId + 1;
+        return newId;
+    }
+
+    /**
+     * Id of an existing tag without adding it.
+     *
+     * @param name tag name
+     * @param value tag value
+     * @return the tag's id, or -1 if the tag has never been interned
+     */
+    public synchronized int lookup(String name, String value) {
+        Integer id = ids.get(key(name, value));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Canonical tag for an id.
+     *
+     * @param id tag id
+     * @return the tag
+     */
+    public Tag tag(int id) {
+        // reading size first makes the entry written before it visible
+        if (id >= size) throw new IndexOutOfBoundsException("No tag " + id);
+        return byId[id];
+    }
+
+    /**
+     * @return number of distinct tags interned so far (ids are {@code 0..size()-1})
+     */
+    public int size() { return size; }
+
+    /**
+     * Case-fold text for dictionary keys.
+     *
+     * @param s raw text
+     * @return folded text
+     */
+    public static String fold(String s) { return s.toLowerCase(Locale.ROOT); }
+
+    /**
+     * Map every id of this dictionary to the id of the same tag in another,
+     * interning the tags it lacks.
+     *
+     * @return ids in {@code to}, indexed by id in this dictionary
+     */
+    int[] mapInto(TagDictionary to) {
+        int n = size;
+        Tag[] from = byId;
+        int[] map = new int[n];
+        for (int i = 0; i < n; i++) map[i] = to.intern(from[i].getName(), from[i].getValue());
+        return map;
+    }
+
+    private static String key(String name, String value) { return fold(name) + '\u0000' + fold(value); }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ids = new HashMap<>();
+        names = new HashMap<>();
+        for (int i = 0; i < tags.size(); i++) {
+            Tag t = tags.get(i);
+            ids.put(key(t.getName(), t.getValue()), i);
+            names.putIfAbsent(fold(t.getName()), t.getName());
+        }
+        byId = tags.toArray(new Tag[Math.max(16, tags.size())]);
+        size = tags.size();
+    }
+}
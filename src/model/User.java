@@ -1,22 +1,59 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User holds albums and username/password (password optional).
  *
- * <p>Provides operations to create, delete and rename albums owned by the user.</p>
+ * <p>Provides operations to create, delete and rename albums owned by the user.
+ * The user also owns the library of distinct photos across its albums: it
+ * assigns each photo a dense id and notifies {@link LibraryListener}s of
+ * library changes. Smart albums, which store a query instead of photos,
+ * share the album namespace.</p>
+ *
+ * <p>Batch operations ({@link #copyAll}, {@link #moveAll},
+ * {@link #removeAll}, {@link #addTagToAll}, {@link #removeTagFromAll}) apply
+ * one change to many photos while holding this user's lock, report an
+ * outcome per photo and notify listeners once, with a single
+ * {@link LibraryEvent.Type#BATCH} event.</p>
  *
  * @author Prayrit
  */
 public class User implements Serializable {
     private static final long serialVersionUID = 3L;
 
+    private static final AtomicLong LAST_CREATED = new AtomicLong();
+
     private String username;
     private String password; // optional
     private Map<String, Album> albums = new LinkedHashMap<>();
+    private Map<String, SmartAlbum> smartAlbums = new LinkedHashMap<>(); // absent in older data files
+    // like generation but saved, for Backup
+    private long changes;
+    // tells Backup a user deleted and re-created under the same name from the old one
+    private long created = nextCreated(); // 0 in older data files
+
+    private transient PhotoRegistry registry = new PhotoRegistry();
+    private transient List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+    // written on the FX thread only, read by background searches
+    private transient volatile long generation;
+    private transient List<LibraryEvent> batched; // events held back while a batch runs
+    private transient int batchDepth;
+
+    /** The current time in milliseconds, moved on if needed so no two users or albums of a run share it. */
+    static long nextCreated() {
+        return LAST_CREATED.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
 
     /**
      * Create a user with no password.
@@ -51,6 +88,9 @@ public class User implements Serializable {
      */
     public boolean checkPassword(String p) { return password.equals(p); }
 
+    /** Password for {@link LibraryDump}; empty if none. */
+    String getPassword() { return password; }
+
     /**
      * @return map of album name to Album instances owned by this user
      */
@@ -63,8 +103,12 @@ public class User implements Serializable {
      * @return true if created, false if album already exists
      */
     public boolean createAlbum(String name) {
-        if (albums.containsKey(name)) return false;
-        albums.put(name, new Album(name));
+        if (hasAlbum(name)) return false;
+        Album a = new Album(name);
+        a.setOwner(this);
+        albums.put(name, a);
+        generation++;
+        changes++;
         return true;
     }
 
@@ -80,11 +124,22 @@ public class User implements Serializable {
         if (this.username != null && this.username.equalsIgnoreCase("stock") && "stock".equals(name)) {
             return false;
         }
-        return albums.remove(name) != null;
+        Album a = albums.remove(name);
+        if (a == null) return false;
+        a.setOwner(null);
+        beginBatch();
+        try {
+            for (Photo p : a.getPhotos()) unlinked(a, p);
+        } finally {
+            endBatch();
+        }
+        generation++;
+        changes++;
+        return true;
     }
 
     /**
-     * Rename an album for this user. Renaming the built-in stock album is
+     * Rename an album or smart album of this user. Renaming the built-in stock album is
      * blocked for the special "stock" user.
      *
      * @param oldName old album name
@@ -96,10 +151,377 @@ public class User implements Serializable {
         if (this.username != null && this.username.equalsIgnoreCase("stock") && "stock".equals(oldName)) {
             return false;
         }
-        if (!albums.containsKey(oldName) || albums.containsKey(newName)) return false;
+        if (hasAlbum(newName)) return false;
+        SmartAlbum s = smartAlbums.remove(oldName);
+        if (s != null) {
+            s.setName(newName);
+            smartAlbums.put(newName, s);
+            generation++;
+            changes++;
+            return true;
+        }
+        if (!albums.containsKey(oldName)) return false;
         Album a = albums.remove(oldName);
         a.setName(newName);
         albums.put(newName, a);
+        generation++;
+        changes++;
         return true;
     }
+
+    /**
+     * @return map of smart album name to SmartAlbum instances owned by this user
+     */
+    public Map<String, SmartAlbum> getSmartAlbums() { return smartAlbums; }
+
+    /**
+     * Create a smart album. The query text is stored as given; callers
+     * should check that it parses.
+     *
+     * @param name album name
+     * @param query query text
+     * @return true if created, false if an album of that name already exists
+     */
+    public boolean createSmartAlbum(String name, String query) {
+        if (hasAlbum(name)) return false;
+        smartAlbums.put(name, new SmartAlbum(name, query));
+        generation++;
+        changes++;
+        return true;
+    }
+
+    /**
+     * Delete a smart album. The photos it showed are not affected.
+     *
+     * @param name album name
+     * @return true if deleted
+     */
+    public boolean deleteSmartAlbum(String name) {
+        if (smartAlbums.remove(name) == null) return false;
+        generation++;
+        changes++;
+        return true;
+    }
+
+    /**
+     * @param name album name
+     * @return true if a regular or smart album has that name
+     */
+    public boolean hasAlbum(String name) { return albums.containsKey(name) || smartAlbums.containsKey(name); }
+
+    /**
+     * Copy photos into an album.
+     *
+     * @param photos photos to copy
+     * @param to target album of this user
+     * @return per-photo outcome: DONE, or UNCHANGED if already in the album
+     * @throws IllegalArgumentException if the album is not this user's
+     */
+    public synchronized BatchResult copyAll(Collection<Photo> photos, Album to) {
+        checkOwned(to);
+        BatchResult r = new BatchResult("Copy to " + to.getName());
+        beginBatch();
+        try {
+            for (Photo p : photos) r.add(p, to.addPhoto(p) ? BatchResult.Outcome.DONE : BatchResult.Outcome.UNCHANGED);
+        } finally {
+            endBatch();
+        }
+        return r;
+    }
+
+    /**
+     * Move photos from one album to another. A photo already in the target
+     * is just removed from the source.
+     *
+     * @param photos photos to move
+     * @param from source album of this user
+     * @param to target album of this user
+     * @return per-photo outcome: DONE, NOT_FOUND if not in the source, or
+     *         UNCHANGED if source and target are the same album
+     * @throws IllegalArgumentException if an album is not this user's
+     */
+    public synchronized BatchResult moveAll(Collection<Photo> photos, Album from, Album to) {
+        checkOwned(from);
+        checkOwned(to);
+        BatchResult r = new BatchResult("Move to " + to.getName());
+        beginBatch();
+        try {
+            for (Photo p : photos) {
+                if (!from.contains(p)) {
+                    r.add(p, BatchResult.Outcome.NOT_FOUND);
+                } else if (from == to) {
+                    r.add(p, BatchResult.Outcome.UNCHANGED);
+                } else {
+                    // add first so the photo never drops out of the library in between
+                    to.addPhoto(p);
+                    from.removePhoto(p);
+                    r.add(p, BatchResult.Outcome.DONE);
+                }
+            }
+        } finally {
+            endBatch();
+        }
+        return r;
+    }
+
+    /**
+     * Remove photos from an album.
+     *
+     * @param photos photos to remove
+     * @param from album of this user
+     * @return per-photo outcome: DONE, or NOT_FOUND if not in the album
+     * @throws IllegalArgumentException if the album is not this user's
+     */
+    public synchronized BatchResult removeAll(Collection<Photo> photos, Album from) {
+        checkOwned(from);
+        BatchResult r = new BatchResult("Remove from " + from.getName());
+        beginBatch();
+        try {
+            for (Photo p : photos) r.add(p, from.removePhoto(p) ? BatchResult.Outcome.DONE : BatchResult.Outcome.NOT_FOUND);
+        } finally {
+            endBatch();
+        }
+        return r;
+    }
+
+    /**
+     * Tag photos.
+     *
+     * @param photos photos to tag
+     * @param tag tag to add
+     * @param replaceName remove the photo's other values of the tag's name
+     *        first, for single-valued tags such as location
+     * @return per-photo outcome: DONE, or UNCHANGED if already tagged
+     */
+    public synchronized BatchResult addTagToAll(Collection<Photo> photos, Tag tag, boolean replaceName) {
+        BatchResult r = new BatchResult("Add tag " + tag);
+        beginBatch();
+        try {
+            // resolved once instead of per photo; -1 until the first photo interns it
+            int id = TagDictionary.getInstance().lookup(tag.getName(), tag.getValue());
+            for (Photo p : photos) {
+                if (id >= 0 && p.hasTag(id)) {
+                    r.add(p, BatchResult.Outcome.UNCHANGED);
+                    continue;
+                }
+                if (replaceName) p.removeTagsNamed(tag.getName());
+                p.addTag(tag);
+                if (id < 0) id = TagDictionary.getInstance().lookup(tag.getName(), tag.getValue());
+                r.add(p, BatchResult.Outcome.DONE);
+            }
+        } finally {
+            endBatch();
+        }
+        return r;
+    }
+
+    /**
+     * Untag photos.
+     *
+     * @param photos photos to untag
+     * @param tag tag to remove
+     * @return per-photo outcome: DONE, or UNCHANGED if the photo did not have the tag
+     */
+    public synchronized BatchResult removeTagFromAll(Collection<Photo> photos, Tag tag) {
+        BatchResult r = new BatchResult("Remove tag " + tag);
+        beginBatch();
+        try {
+            for (Photo p : photos) r.add(p, p.removeTag(tag) ? BatchResult.Outcome.DONE : BatchResult.Outcome.UNCHANGED);
+        } finally {
+            endBatch();
+        }
+        return r;
+    }
+
+    private void checkOwned(Album a) {
+        if (a == null || a.getOwner() != this) throw new IllegalArgumentException("Not an album of " + username + ": " + (a == null ? null : a.getName()));
+    }
+
+    /** Hold back events until the matching {@link #endBatch()}. */
+    private void beginBatch() {
+        if (batchDepth++ == 0) batched = new ArrayList<>();
+    }
+
+    private void endBatch() {
+        if (--batchDepth > 0) return;
+        List<LibraryEvent> events = batched;
+        batched = null;
+        if (!events.isEmpty()) fire(new LibraryEvent(events));
+    }
+
+    /**
+     * Register a listener for changes to this user's library.
+     *
+     * @param l listener
+     */
+    public void addLibraryListener(LibraryListener l) { listeners.add(l); }
+
+    /**
+     * Unregister a library listener.
+     *
+     * @param l listener
+     */
+    public void removeLibraryListener(LibraryListener l) { listeners.remove(l); }
+
+    /**
+     * Look up a photo in this user's library by its id.
+     *
+     * @param id photo id (see {@link Photo#getId()})
+     * @return the photo, or null if no photo currently has that id
+     */
+    public Photo getPhoto(int id) { return registry.get(id); }
+
+    /**
+     * Exclusive upper bound of the photo ids handed out so far.
+     *
+     * @return one more than the largest id ever assigned
+     */
+    public int getPhotoIdLimit() { return registry.limit(); }
+
+    /**
+     * @return number of distinct photos across this user's albums
+     */
+    public int getPhotoCount() { return registry.size(); }
+
+    /**
+     * Distinct photos across this user's albums, in id order.
+     *
+     * @return new list of photos
+     */
+    public List<Photo> getLibraryPhotos() {
+        List<Photo> out = new ArrayList<>(registry.size());
+        for (int id = 1; id < registry.limit(); id++) {
+            Photo p = registry.get(id);
+            if (p != null) out.add(p);
+        }
+        return out;
+    }
+
+    /**
+     * Counter that changes whenever this user's albums, photos, captions or
+     * tags change, so derived data can tell whether it is still current.
+     * It starts at 0 for every session.
+     *
+     * @return current generation
+     */
+    public long getGeneration() { return generation; }
+
+    /** Count of changes, compared by {@link Backup} to find users changed since the last backup. */
+    long getChanges() { return changes; }
+
+    /** Creation time, compared by {@link Backup} to find users re-created since the last backup. */
+    long getCreated() { return created; }
+
+    /** Called by an owned album after a photo was added to it. */
+    void linked(Album a, Photo p) {
+        p.owner = this;
+        if (registry.ref(p)) fire(new LibraryEvent(LibraryEvent.Type.PHOTO_ADDED, p, null, null));
+        fire(new LibraryEvent(LibraryEvent.Type.ALBUM_PHOTO_ADDED, p, a, null));
+    }
+
+    /** Called by an owned album after a photo was removed from it. */
+    void unlinked(Album a, Photo p) {
+        fire(new LibraryEvent(LibraryEvent.Type.ALBUM_PHOTO_REMOVED, p, a, null));
+        if (registry.unref(p)) fire(new LibraryEvent(LibraryEvent.Type.PHOTO_REMOVED, p, null, null));
+    }
+
+    /** Called by a photo of this user after its date changed. */
+    void dateChanged(Photo p, LocalDateTime before) {
+        for (Album a : albums.values()) {
+            if (a.holds(p)) {
+                a.getStats().dateChanged(before, p.getDateTime());
+                a.keyChanged(SortOrder.DATE);
+                a.photoChanged();
+            }
+        }
+        fire(new LibraryEvent(LibraryEvent.Type.DATE_CHANGED, p, null, null));
+    }
+
+    /** Called by a photo of this user after its caption changed. */
+    void captionChanged(Photo p, String before) {
+        for (Album a : albums.values()) {
+            if (a.holds(p)) {
+                a.keyChanged(SortOrder.CAPTION);
+                a.photoChanged();
+            }
+        }
+        fire(new LibraryEvent(LibraryEvent.Type.CAPTION_CHANGED, p, null, before));
+    }
+
+    /** Called by a photo of this user after its tags changed. */
+    void tagsChanged(Photo p, int[] before) {
+        for (Album a : albums.values()) {
+            if (a.holds(p)) {
+                a.getStats().tagsChanged(before, p.getTagIds());
+                a.photoChanged();
+            }
+        }
+        fire(new LibraryEvent(LibraryEvent.Type.TAGS_CHANGED, p, null, null));
+    }
+
+    void fire(LibraryEvent e) {
+        if (batched != null) {
+            batched.add(e);
+            return;
+        }
+        generation++;
+        changes++;
+        for (LibraryListener l : listeners) l.libraryChanged(e);
+    }
+
+    /**
+     * Take an album filled before it had an owner, as {@link LibraryDump}
+     * builds them; no events are fired.
+     *
+     * @param a album with no owner
+     * @return false if an album of that name exists
+     */
+    boolean restoreAlbum(Album a) {
+        if (hasAlbum(a.getName())) return false;
+        albums.put(a.getName(), a);
+        a.setOwner(this);
+        for (Photo p : a.getPhotos()) {
+            p.owner = this;
+            registry.ref(p);
+        }
+        generation++;
+        changes++;
+        return true;
+    }
+
+    /**
+     * Put an album filled before it had an owner in place of the album of
+     * the same name, keeping its position, as a {@link Backup} restore
+     * does; no events are fired. Photos may be shared with the old album.
+     *
+     * @param a album with no owner
+     */
+    void replaceAlbum(Album a) {
+        Album old = albums.put(a.getName(), a);
+        a.setOwner(this);
+        for (Photo p : a.getPhotos()) {
+            p.owner = this;
+            registry.ref(p);
+        }
+        if (old != null) {
+            old.setOwner(null);
+            for (Photo p : old.getPhotos()) registry.unref(p);
+        }
+        generation++;
+        changes++;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (smartAlbums == null) smartAlbums = new LinkedHashMap<>();
+        registry = new PhotoRegistry();
+        listeners = new CopyOnWriteArrayList<>();
+        for (Album a : albums.values()) {
+            a.setOwner(this);
+            for (Photo p : a.getPhotos()) {
+                p.owner = this;
+                registry.ref(p);
+            }
+        }
+    }
 }
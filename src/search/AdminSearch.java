@@ -0,0 +1,318 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import model.Photo;
+import model.User;
+
+/**
+ * Query over the photos of many users at once, for the admin portal.
+ *
+ * <p>The search fans out on a fork-join pool with one task per user. A
+ * user whose library is larger than {@link #SHARD_SIZE} photos is split
+ * into id ranges recursively, so idle workers steal the ranges of a few very
+ * large users instead of waiting on them. Each range is scanned with
+ * {@link Query#matches(Photo)} and its hits are handed to the
+ * {@link Listener} as soon as the range is done; scanning does not build
+ * the per-user search indexes. With {@link #useColumns(boolean)} each user's
+ * library is first turned into a {@link PhotoColumns} snapshot (reused
+ * while the library is unchanged) and row ranges are scanned with the
+ * query compiled against the columns.</p>
+ *
+ * <p>Scanning reads the users' albums without locking and is meant to run
+ * while no user session is editing them, as on the admin portal.</p>
+ *
+ * @author Prayrit
+ */
+public final class AdminSearch {
+    /** Photos scanned by one leaf task. */
+    static final int SHARD_SIZE = 4096;
+
+    /**
+     * Receives results while the search runs. Methods are called from pool
+     * threads, possibly concurrently.
+     */
+    public interface Listener {
+        /**
+         * Matches found in one range of one user's library.
+         *
+         * @param batch hits, in id order within the range
+         */
+        void hits(List<Hit> batch);
+
+        /**
+         * A user's library has been scanned completely.
+         *
+         * @param stats the user's scan statistics
+         */
+        void userDone(UserStats stats);
+
+        /**
+         * The search finished or was cancelled.
+         *
+         * @param cancelled true if {@link #cancel()} stopped it early
+         */
+        void finished(boolean cancelled);
+    }
+
+    /**
+     * One matching photo and the user whose library holds it.
+     */
+    public static final class Hit {
+        private final User user;
+        private final Photo photo;
+
+        Hit(User user, Photo photo) {
+            this.user = user;
+            this.photo = photo;
+        }
+
+        /**
+         * @return owning user
+         */
+        public User getUser() { return user; }
+
+        /**
+         * @return matching photo
+         */
+        public Photo getPhoto() { return photo; }
+
+        @Override
+        public String toString() { return user.getUsername() + ": " + photo.getFilePath(); }
+    }
+
+    /**
+     * Work done for one user.
+     */
+    public static final class UserStats {
+        private final String username;
+        private final long photos;
+        private final long matches;
+        private final long nanos;
+
+        UserStats(String username, long photos, long matches, long nanos) {
+            this.username = username;
+            this.photos = photos;
+            this.matches = matches;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return user name
+         */
+        public String getUsername() { return username; }
+
+        /**
+         * @return photos scanned
+         */
+        public long getPhotos() { return photos; }
+
+        /**
+         * @return photos that matched
+         */
+        public long getMatches() { return matches; }
+
+        /**
+         * @return scan time summed over the user's tasks, in nanoseconds
+         */
+        public long getNanos() { return nanos; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d photos, %d matches, %.1f ms", username, photos, matches, nanos / 1e6);
+        }
+    }
+
+    private final Query query;
+    private final List<Scan> scans = new ArrayList<>();
+    private final Listener listener;
+    private final ForkJoinPool pool;
+    private boolean columnar;
+    private volatile boolean cancelled;
+    private volatile ForkJoinTask<?> task;
+
+    /**
+     * Prepare a search; nothing runs until {@link #start()}.
+     *
+     * @param query query to match photos against
+     * @param users users whose libraries are searched
+     * @param listener receiver of results
+     */
+    public AdminSearch(Query query, Collection<User> users, Listener listener) {
+        this(query, users, listener, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepare a search that runs on the given pool.
+     *
+     * @param query query to match photos against
+     * @param users users whose libraries are searched
+     * @param listener receiver of results
+     * @param pool pool to run on
+     */
+    public AdminSearch(Query query, Collection<User> users, Listener listener, ForkJoinPool pool) {
+        this.query = query.rewrite();
+        this.listener = listener;
+        this.pool = pool;
+        for (User u : users) scans.add(new Scan(u));
+    }
+
+    /**
+     * Choose whether to scan columnar snapshots instead of the photo objects.
+     *
+     * @param on true to scan {@link PhotoColumns}
+     * @return this search
+     * @throws IllegalStateException if already started
+     */
+    public synchronized AdminSearch useColumns(boolean on) {
+        if (task != null) throw new IllegalStateException("Search already started");
+        columnar = on;
+        return this;
+    }
+
+    /**
+     * Start the search in the background.
+     *
+     * @return this search
+     * @throws IllegalStateException if already started
+     */
+    public synchronized AdminSearch start() {
+        if (task != null) throw new IllegalStateException("Search already started");
+        task = pool.submit(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> tasks = new ArrayList<>();
+                for (Scan s : scans) tasks.add(columnar ? new ColumnsTask(s) : new UserTask(s, 1, s.user.getPhotoIdLimit()));
+                invokeAll(tasks);
+                listener.finished(cancelled);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Wait for a started search to finish.
+     */
+    public void await() {
+        ForkJoinTask<?> t = task;
+        if (t != null) t.join();
+    }
+
+    /**
+     * Stop the search; ranges already being scanned stop at their next
+     * photo and no further hits are reported.
+     */
+    public void cancel() { cancelled = true; }
+
+    /**
+     * @return true if the search was cancelled
+     */
+    public boolean isCancelled() { return cancelled; }
+
+    /**
+     * Scan statistics so far, slowest user first.
+     *
+     * @return per-user statistics
+     */
+    public List<UserStats> getStats() {
+        List<UserStats> out = new ArrayList<>();
+        for (Scan s : scans) out.add(s.stats());
+        out.sort(Comparator.comparingLong(UserStats::getNanos).reversed());
+        return Collections.unmodifiableList(out);
+    }
+
+    /** Running totals for one user, updated by all of its tasks. */
+    private static final class Scan {
+        final User user;
+        final LongAdder photos = new LongAdder();
+        final LongAdder matches = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicInteger pending = new AtomicInteger();
+        PhotoColumns columns;
+        PhotoColumns.Matcher matcher;
+
+        Scan(User user) { this.user = user; }
+
+        UserStats stats() { return new UserStats(user.getUsername(), photos.sum(), matches.sum(), nanos.sum()); }
+    }
+
+    /** Takes a user's columnar snapshot, then scans its rows. */
+    @SuppressWarnings("serial") // never serialized
+    private final class ColumnsTask extends RecursiveAction {
+        private final Scan scan;
+
+        ColumnsTask(Scan scan) { this.scan = scan; }
+
+        @Override
+        protected void compute() {
+            if (cancelled) return;
+            long start = System.nanoTime();
+            scan.columns = PhotoColumns.forUser(scan.user);
+            scan.matcher = scan.columns.matcher(query);
+            scan.nanos.add(System.nanoTime() - start);
+            new UserTask(scan, 0, scan.columns.size()).invoke();
+        }
+    }
+
+    /**
+     * Scans the ids [lo, hi) of one user, or the rows [lo, hi) of its
+     * snapshot when scanning columns, splitting large ranges.
+     */
+    @SuppressWarnings("serial") // never serialized
+    private final class UserTask extends RecursiveAction {
+        private final Scan scan;
+        private final int lo;
+        private final int hi;
+
+        UserTask(Scan scan, int lo, int hi) {
+            this.scan = scan;
+            this.lo = lo;
+            this.hi = hi;
+            scan.pending.incrementAndGet();
+        }
+
+        @Override
+        protected void compute() {
+            if (!cancelled) {
+                if (hi - lo > SHARD_SIZE) {
+                    int mid = (lo + hi) >>> 1;
+                    invokeAll(new UserTask(scan, lo, mid), new UserTask(scan, mid, hi));
+                } else {
+                    scanRange();
+                }
+            }
+            if (scan.pending.decrementAndGet() == 0 && !cancelled) listener.userDone(scan.stats());
+        }
+
+        private void scanRange() {
+            long start = System.nanoTime();
+            List<Hit> hits = new ArrayList<>();
+            int seen = 0;
+            if (scan.columns != null) {
+                for (int r = lo; r < hi && !cancelled; r++) {
+                    if (scan.matcher.test(r)) hits.add(new Hit(scan.user, scan.user.getPhoto(scan.columns.id(r))));
+                }
+                seen = hi - lo;
+            } else {
+                for (int id = lo; id < hi && !cancelled; id++) {
+                    Photo p = scan.user.getPhoto(id);
+                    if (p == null) continue;
+                    seen++;
+                    if (query.matches(p)) hits.add(new Hit(scan.user, p));
+                }
+            }
+            scan.photos.add(seen);
+            scan.matches.add(hits.size());
+            scan.nanos.add(System.nanoTime() - start);
+            if (!hits.isEmpty() && !cancelled) listener.hits(hits);
+        }
+    }
+}
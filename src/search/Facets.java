@@ -0,0 +1,129 @@
+package search;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import model.Tag;
+import model.TagDictionary;
+
+/**
+ * Breakdown of a search result: how many matching photos carry each tag
+ * value, grouped by tag name, and how many were taken in each month.
+ *
+ * <p>Computed by {@link SearchEngine#facets(SearchResults, int)} in one
+ * pass over the result's ids, reading the index's per-photo tag ids and
+ * capture days rather than the photos. Every {@link Value} carries the query
+ * term that narrows a search to it.</p>
+ *
+ * @author Prayrit
+ */
+public final class Facets {
+    private final Map<String, List<Value>> byName;
+    private final List<Value> months;
+
+    /**
+     * One bucket of a facet.
+     */
+    public static final class Value {
+        private final String facet;
+        private final String label;
+        private final int count;
+        private final Query refinement;
+
+        Value(String facet, String label, int count, Query refinement) {
+            this.facet = facet;
+            this.label = label;
+            this.count = count;
+            this.refinement = refinement;
+        }
+
+        /**
+         * @return facet name: a tag name, or "month"
+         */
+        public String getFacet() { return facet; }
+
+        /**
+         * @return bucket label: a tag value, or yyyy-MM
+         */
+        public String getLabel() { return label; }
+
+        /**
+         * @return number of result photos in the bucket
+         */
+        public int getCount() { return count; }
+
+        /**
+         * @return query term selecting the bucket, to AND with the search
+         */
+        public Query getRefinement() { return refinement; }
+
+        @Override
+        public String toString() { return facet + ": " + label + " (" + count + ")"; }
+    }
+
+    private Facets(Map<String, List<Value>> byName, List<Value> months) {
+        this.byName = byName;
+        this.months = months;
+    }
+
+    /**
+     * Tag facets, most frequent name first, each with its most frequent
+     * values first.
+     *
+     * @return tag name to value buckets
+     */
+    public Map<String, List<Value>> getTags() { return byName; }
+
+    /**
+     * @return month buckets in chronological order
+     */
+    public List<Value> getMonths() { return months; }
+
+    /**
+     * Count the result's tags and capture months.
+     *
+     * @param tagCounts photos per tag id
+     * @param dayCounts photos per capture day (epoch day)
+     * @param topValues most values kept per tag name
+     * @return facets
+     */
+    static Facets of(int[] tagCounts, Map<Long, Integer> dayCounts, int topValues) {
+        TagDictionary dict = TagDictionary.getInstance();
+        Map<String, List<Value>> names = new HashMap<>();
+        Map<String, Integer> totals = new HashMap<>();
+        for (int id = 0; id < tagCounts.length; id++) {
+            if (tagCounts[id] == 0) continue;
+            Tag t = dict.tag(id);
+            String key = TagDictionary.fold(t.getName());
+            names.computeIfAbsent(key, k -> new ArrayList<>())
+                .add(new Value(t.getName(), t.getValue(), tagCounts[id], new Query.TagTerm(t.getName(), t.getValue())));
+            totals.merge(key, tagCounts[id], Integer::sum);
+        }
+        List<String> order = new ArrayList<>(names.keySet());
+        order.sort((a, b) -> totals.get(b) - totals.get(a) != 0 ? totals.get(b) - totals.get(a) : a.compareTo(b));
+        Map<String, List<Value>> byName = new LinkedHashMap<>();
+        for (String key : order) {
+            List<Value> values = names.get(key);
+            values.sort((a, b) -> b.count - a.count != 0 ? b.count - a.count : a.label.compareToIgnoreCase(b.label));
+            List<Value> kept = values.subList(0, Math.min(topValues, values.size()));
+            byName.put(kept.get(0).facet, Collections.unmodifiableList(new ArrayList<>(kept)));
+        }
+
+        TreeMap<YearMonth, Integer> perMonth = new TreeMap<>();
+        for (Map.Entry<Long, Integer> e : dayCounts.entrySet()) {
+            perMonth.merge(YearMonth.from(LocalDate.ofEpochDay(e.getKey())), e.getValue(), Integer::sum);
+        }
+        List<Value> months = new ArrayList<>();
+        for (Map.Entry<YearMonth, Integer> e : perMonth.entrySet()) {
+            YearMonth m = e.getKey();
+            months.add(new Value("month", m.toString(), e.getValue(), new Query.DateRange(m.atDay(1), m.atEndOfMonth())));
+        }
+        return new Facets(Collections.unmodifiableMap(byName), Collections.unmodifiableList(months));
+    }
+}
@@ -0,0 +1,129 @@
+package search;
+
+import java.util.Arrays;
+
+/**
+ * Multi-index hashing over 64-bit perceptual hashes, answering "which ids
+ * have a hash within Hamming distance k of this one".
+ *
+ * <p>Each hash is split into {@value #CHUNKS} 16-bit chunks and the id is
+ * filed under every chunk value in that chunk's table. If two hashes differ
+ * in at most k bits, then by the pigeonhole principle some chunk differs in
+ * at most k / {@value #CHUNKS} bits. A lookup therefore probes, in each
+ * table, only the buckets within that small radius of the query's chunk,
+ * then checks the full distance of the ids found. With k up to about 10 this
+ * touches a few hundred buckets of a 65536-bucket table instead of every
+ * hash, like a BK-tree but without its near-linear worst case at such
+ * distances.</p>
+ *
+ * @author Prayrit
+ */
+final class HashIndex {
+    static final int CHUNKS = 4;
+    /** Largest distance a lookup may ask for. */
+    static final int MAX_DISTANCE = 16;
+    private static final int BUCKETS = 1 << 16;
+
+    private int[][][] buckets; // [chunk][chunk value] -> ids, allocated on first add
+    private int[][] counts;
+    private long[] hashes = new long[16];
+    private final PhotoBitmap ids = new PhotoBitmap();
+
+    /**
+     * @return number of ids indexed
+     */
+    int size() { return ids.cardinality(); }
+
+    /**
+     * @param id photo id
+     * @return true if the id has an indexed hash
+     */
+    boolean contains(int id) { return ids.contains(id); }
+
+    /**
+     * Index or re-index an id's hash.
+     *
+     * @param id photo id
+     * @param hash perceptual hash
+     */
+    void add(int id, long hash) {
+        if (ids.contains(id)) {
+            if (hashes[id] == hash) return;
+            remove(id);
+        }
+        if (buckets == null) {
+            buckets = new int[CHUNKS][BUCKETS][];
+            counts = new int[CHUNKS][BUCKETS];
+        }
+        if (id >= hashes.length) hashes = Arrays.copyOf(hashes, Math.max(id + 1, hashes.length * 2));
+        hashes[id] = hash;
+        ids.add(id);
+        for (int c = 0; c < CHUNKS; c++) {
+            int v = chunk(hash, c);
+            int[] b = buckets[c][v];
+            int n = counts[c][v];
+            if (b == null) b = buckets[c][v] = new int[4];
+            else if (n == b.length) b = buckets[c][v] = Arrays.copyOf(b, n * 2);
+            b[n] = id;
+            counts[c][v] = n + 1;
+        }
+    }
+
+    /**
+     * Drop an id.
+     *
+     * @param id photo id
+     */
+    void remove(int id) {
+        if (!ids.remove(id)) return;
+        long hash = hashes[id];
+        for (int c = 0; c < CHUNKS; c++) {
+            int v = chunk(hash, c);
+            int[] b = buckets[c][v];
+            int n = counts[c][v];
+            for (int i = 0; i < n; i++) {
+                if (b[i] == id) {
+                    b[i] = b[--n];
+                    break;
+                }
+            }
+            counts[c][v] = n;
+            if (n == 0) buckets[c][v] = null;
+        }
+    }
+
+    /**
+     * Ids whose hash differs from the given one in at most k bits.
+     *
+     * @param hash query hash
+     * @param k largest Hamming distance, at most {@value #MAX_DISTANCE}
+     * @return matching ids, including any id with the query hash itself
+     */
+    PhotoBitmap within(long hash, int k) {
+        if (k < 0 || k > MAX_DISTANCE) throw new IllegalArgumentException("Distance must be 0.." + MAX_DISTANCE);
+        PhotoBitmap out = new PhotoBitmap();
+        if (buckets == null) return out;
+        int radius = k / CHUNKS;
+        for (int c = 0; c < CHUNKS; c++) probe(c, chunk(hash, c), radius, 0, hash, k, out);
+        return out;
+    }
+
+    /** Visit every chunk value within the radius, flipping bits from position {@code from} up. */
+    private void probe(int c, int v, int radius, int from, long hash, int k, PhotoBitmap out) {
+        int[] b = buckets[c][v];
+        int n = counts[c][v];
+        for (int i = 0; i < n; i++) {
+            if (PerceptualHash.distance(hashes[b[i]], hash) <= k) out.add(b[i]);
+        }
+        if (radius == 0) return;
+        for (int bit = from; bit < 16; bit++) probe(c, v ^ (1 << bit), radius - 1, bit + 1, hash, k, out);
+    }
+
+    /**
+     * @param id indexed photo id
+     * @return the id's hash
+     */
+    long hash(int id) { return hashes[id]; }
+
+    private static int chunk(long hash, int c) { return (int) (hash >>> (16 * c)) & 0xffff; }
+}
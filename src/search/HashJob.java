@@ -0,0 +1,93 @@
+package search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import model.Photo;
+import model.User;
+
+/**
+ * Background computation of the perceptual hashes a user's library is
+ * missing.
+ *
+ * <p>The photos to hash are listed when the job starts; each is decoded and
+ * hashed on a daemon thread and handed to
+ * {@link SearchEngine#setPerceptualHash(Photo, long)}, so near-duplicate
+ * lookups see it at once. Files that cannot be decoded are counted as
+ * failed and not tried again by later jobs of the same engine. Obtain
+ * jobs with {@link SearchEngine#hashLibrary(Runnable)}.</p>
+ *
+ * @author Prayrit
+ */
+public final class HashJob {
+    private final SearchEngine engine;
+    private final List<Photo> todo = new ArrayList<>();
+    private volatile int done;
+    private volatile int failed;
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+
+    HashJob(SearchEngine engine, User user, Set<Photo> skip) {
+        this.engine = engine;
+        for (Photo p : user.getLibraryPhotos()) if (!p.hasPerceptualHash() && !skip.contains(p)) todo.add(p);
+    }
+
+    /**
+     * Start hashing on a daemon thread.
+     *
+     * @param onDone run on the job's thread when it ends having hashed at
+     *        least one photo, or null
+     */
+    void start(Runnable onDone) {
+        Thread t = new Thread(() -> {
+            try {
+                for (Photo p : todo) {
+                    if (cancelled) break;
+                    if (p.getAlbumCount() == 0) continue; // left the library since the job started
+                    try {
+                        engine.setPerceptualHash(p, PerceptualHash.of(Path.of(p.getFilePath())));
+                        done++;
+                    } catch (IOException | RuntimeException ex) {
+                        engine.hashFailed(p);
+                        failed++;
+                    }
+                }
+            } finally {
+                finished = true;
+                if (onDone != null && done > 0) onDone.run();
+            }
+        }, "photo-hash");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Stop after the photo being hashed.
+     */
+    public void cancel() { cancelled = true; }
+
+    /**
+     * @return true once the job has hashed everything or was cancelled
+     */
+    public boolean isFinished() { return finished; }
+
+    /**
+     * @return number of photos the job set out to hash
+     */
+    public int getTotal() { return todo.size(); }
+
+    /**
+     * @return photos hashed so far
+     */
+    public int getDone() { return done; }
+
+    /**
+     * @return photos whose file could not be decoded
+     */
+    public int getFailed() { return failed; }
+
+    @Override
+    public String toString() { return done + "/" + todo.size() + " hashed" + (failed > 0 ? ", " + failed + " failed" : ""); }
+}
@@ -0,0 +1,50 @@
+package search;
+
+/**
+ * Running count, mean, maximum and latest value of a latency.
+ *
+ * @author Prayrit
+ */
+public final class LatencyStats {
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long lastNanos;
+
+    /**
+     * Record one measurement.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        lastNanos = nanos;
+    }
+
+    /**
+     * @return number of measurements
+     */
+    public synchronized long getCount() { return count; }
+
+    /**
+     * @return mean latency in milliseconds, 0 if nothing was recorded
+     */
+    public synchronized double getMeanMillis() { return count == 0 ? 0 : totalNanos / 1e6 / count; }
+
+    /**
+     * @return largest latency in milliseconds
+     */
+    public synchronized double getMaxMillis() { return maxNanos / 1e6; }
+
+    /**
+     * @return latest latency in milliseconds
+     */
+    public synchronized double getLastMillis() { return lastNanos / 1e6; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("last %.1f ms, mean %.1f ms, max %.1f ms over %d", getLastMillis(), getMeanMillis(), getMaxMillis(), count);
+    }
+}
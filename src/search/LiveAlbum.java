@@ -0,0 +1,150 @@
+package search;
+
+import java.time.LocalDate;
+import java.util.TreeMap;
+import model.Photo;
+import model.SmartAlbum;
+import model.User;
+
+/**
+ * Current contents of a {@link SmartAlbum}, kept up to date as the library
+ * changes.
+ *
+ * <p>The stored query is parsed when the view is created but only run the
+ * first time the contents or statistics are asked for. From then on
+ * {@link SearchEngine} passes every photo-level change to the view, which
+ * tests just that photo against the query and adds or drops its id. The
+ * number of photos per capture day is kept alongside the members, so the
+ * size and date range are read from fields rather than computed from the
+ * photos.</p>
+ *
+ * @author Prayrit
+ */
+public final class LiveAlbum {
+    private final SmartAlbum album;
+    private final Query query;
+    private final User user;
+    private final PhotoIndex index;
+    private final QueryPlanner planner;
+    private final Object lock;
+    private PhotoBitmap members;
+    private final TreeMap<Long, Integer> days = new TreeMap<>();
+    private int size;
+    private LocalDate start;
+    private LocalDate end;
+
+    LiveAlbum(SmartAlbum album, User user, PhotoIndex index, QueryPlanner planner, Object lock) {
+        this.album = album;
+        this.query = QueryParser.parse(album.getQuery()).rewrite();
+        this.user = user;
+        this.index = index;
+        this.planner = planner;
+        this.lock = lock;
+    }
+
+    /**
+     * @return the smart album shown
+     */
+    public SmartAlbum getAlbum() { return album; }
+
+    /**
+     * @return the parsed, rewritten query
+     */
+    public Query getQuery() { return query; }
+
+    /**
+     * @return number of matching photos
+     */
+    public int size() {
+        evaluate();
+        return size;
+    }
+
+    /**
+     * @return earliest capture day of the matching photos, or null if none
+     */
+    public LocalDate getStartDate() {
+        evaluate();
+        return start;
+    }
+
+    /**
+     * @return latest capture day of the matching photos, or null if none
+     */
+    public LocalDate getEndDate() {
+        evaluate();
+        return end;
+    }
+
+    /**
+     * Matching photos in library order. The result is a snapshot; later
+     * edits change the album but not results already returned.
+     *
+     * @return photos in the album
+     */
+    public SearchResults photos() {
+        evaluate();
+        synchronized (lock) {
+            PhotoBitmap ids = members.copy();
+            return new SearchResults(user, ids, ids.toArray());
+        }
+    }
+
+    /**
+     * @return true once the query has been run, so the size and date range
+     *         can be read without running it
+     */
+    public boolean isEvaluated() {
+        synchronized (lock) {
+            return members != null;
+        }
+    }
+
+    private void evaluate() {
+        synchronized (lock) {
+            if (members != null) return;
+            PhotoBitmap ids = planner.plan(query).execute(index);
+            ids.forEach(id -> countDay(index.indexedDay(id), 1));
+            size = ids.cardinality();
+            bounds();
+            members = ids;
+        }
+    }
+
+    /**
+     * Re-test one photo after it changed. Called before the index is
+     * updated, so the index still holds the photo's previous capture day.
+     *
+     * @param p photo that changed
+     * @param removed true if it left the library
+     */
+    void update(Photo p, boolean removed) {
+        int id = p.getId();
+        boolean was = members.contains(id);
+        // a photo edited after leaving the library still fires events
+        boolean is = !removed && id != 0 && user.getPhoto(id) == p && query.matches(p);
+        long day = p.getDateTime().toLocalDate().toEpochDay();
+        if (was) countDay(index.indexedDay(id), -1);
+        if (is) countDay(day, 1);
+        if (is && !was) members.add(id);
+        if (was && !is) members.remove(id);
+        if (was || is) {
+            size = members.cardinality();
+            bounds();
+        }
+    }
+
+    private void countDay(long day, int delta) {
+        int n = days.getOrDefault(day, 0) + delta;
+        if (n == 0) days.remove(day);
+        else days.put(day, n);
+    }
+
+    private void bounds() {
+        start = days.isEmpty() ? null : LocalDate.ofEpochDay(days.firstKey());
+        end = days.isEmpty() ? null : LocalDate.ofEpochDay(days.lastKey());
+    }
+
+    @Override
+    public String toString() { return album.getName() + " [" + size() + "]"; }
+}
@@ -0,0 +1,132 @@
+package search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import model.Photo;
+
+/**
+ * Background sweeper for data derived from photos that have left their
+ * user's library.
+ *
+ * <p>A photo leaves the library when it is removed from the last album that
+ * held it (its {@link Photo#getAlbumCount() album count} drops to zero).
+ * The search indexes that queries depend on are updated at once, but
+ * secondary data such as the photo's perceptual-hash index entry and
+ * cached results computed before the change are queued here instead. A
+ * daemon thread works through the queue in batches of {@link #BATCH_SIZE}
+ * photos, taking each engine's lock once per batch and pausing
+ * {@link #PAUSE_MILLIS} between batches, so deleting a large album does
+ * not hold up searches or the UI.</p>
+ *
+ * @author Prayrit
+ */
+public final class OrphanCollector {
+    /** Orphans swept per batch. */
+    static final int BATCH_SIZE = 256;
+    /** Pause between batches, in milliseconds. */
+    static final long PAUSE_MILLIS = 5;
+
+    private static final OrphanCollector INSTANCE = new OrphanCollector();
+
+    /** One queued orphan: its engine, and the id it had in the library. */
+    private static final class Orphan {
+        final SearchEngine engine;
+        final int id;
+
+        Orphan(SearchEngine engine, int id) {
+            this.engine = engine;
+            this.id = id;
+        }
+    }
+
+    private final ArrayDeque<Orphan> queue = new ArrayDeque<>();
+    private Thread worker;
+    private boolean sweeping; // a batch has left the queue but is not swept yet
+    private long swept;
+    private long batches;
+
+    private OrphanCollector() {}
+
+    /**
+     * @return the collector shared by all search engines
+     */
+    public static OrphanCollector getInstance() { return INSTANCE; }
+
+    /**
+     * Queue the derived data of a photo that left an engine's library.
+     *
+     * @param engine engine of the photo's user
+     * @param id id the photo had in the library
+     */
+    synchronized void orphaned(SearchEngine engine, int id) {
+        queue.add(new Orphan(engine, id));
+        if (worker == null) {
+            worker = new Thread(this::run, "photo-gc");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return orphans waiting to be swept
+     */
+    public synchronized int getPending() { return queue.size(); }
+
+    /**
+     * @return orphans swept so far
+     */
+    public synchronized long getSwept() { return swept; }
+
+    /**
+     * @return batches swept so far
+     */
+    public synchronized long getBatches() { return batches; }
+
+    /**
+     * Wait until every queued orphan has been swept.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (!queue.isEmpty() || sweeping) wait();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Map<SearchEngine, List<Integer>> batch = new LinkedHashMap<>();
+                synchronized (this) {
+                    while (queue.isEmpty()) wait();
+                    for (int i = 0; i < BATCH_SIZE && !queue.isEmpty(); i++) {
+                        Orphan o = queue.poll();
+                        batch.computeIfAbsent(o.engine, k -> new ArrayList<>()).add(o.id);
+                    }
+                    sweeping = true;
+                }
+                int n = 0;
+                for (Map.Entry<SearchEngine, List<Integer>> e : batch.entrySet()) {
+                    e.getKey().sweep(e.getValue());
+                    n += e.getValue().size();
+                }
+                boolean more;
+                synchronized (this) {
+                    swept += n;
+                    batches++;
+                    sweeping = false;
+                    more = !queue.isEmpty();
+                    if (!more) notifyAll();
+                }
+                if (more) Thread.sleep(PAUSE_MILLIS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized String toString() { return swept + " orphans swept in " + batches + " batches, " + queue.size() + " pending"; }
+}
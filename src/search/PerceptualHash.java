@@ -0,0 +1,101 @@
+package search;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * 64-bit difference hash ("dHash") of an image, for finding near-duplicate
+ * photos such as burst shots, edited copies and re-saved JPEGs.
+ *
+ * <p>The image is reduced to a 9x8 grid of average brightness and each bit
+ * records whether a cell is brighter than its right neighbour. Resizing,
+ * recompression and small colour or exposure edits leave most bits alone,
+ * so the Hamming distance between two hashes measures how different the
+ * pictures look. The file is decoded with source subsampling, so only
+ * about {@value #DECODE_SIZE} pixels per side are materialised even for
+ * large photos.</p>
+ *
+ * @author Prayrit
+ */
+public final class PerceptualHash {
+    /** Smallest side, in pixels, of the subsampled decode. */
+    static final int DECODE_SIZE = 64;
+    private static final int COLS = 9;
+    private static final int ROWS = 8;
+
+    private PerceptualHash() {}
+
+    /**
+     * Hash an image file.
+     *
+     * @param file image path, absolute or relative to the working directory
+     * @return 64-bit hash
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static long of(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) throw new IOException("Cannot open " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / DECODE_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return of(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Hash a decoded image.
+     *
+     * @param img image
+     * @return 64-bit hash
+     */
+    public static long of(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        long[] sum = new long[COLS * ROWS];
+        int[] n = new int[COLS * ROWS];
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            img.getRGB(0, y, w, 1, row, 0, w);
+            int cy = y * ROWS / h;
+            for (int x = 0; x < w; x++) {
+                int rgb = row[x];
+                // integer Rec. 601 luma
+                int luma = (299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114 * (rgb & 0xff)) / 1000;
+                int cell = cy * COLS + x * COLS / w;
+                sum[cell] += luma;
+                n[cell]++;
+            }
+        }
+        long hash = 0;
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLS - 1; c++) {
+                int a = r * COLS + c;
+                // compare means without dividing: sum[a]/n[a] > sum[a+1]/n[a+1]
+                boolean brighter = sum[a] * Math.max(1, n[a + 1]) > sum[a + 1] * Math.max(1, n[a]);
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param a hash
+     * @param b hash
+     * @return number of differing bits
+     */
+    public static int distance(long a, long b) { return Long.bitCount(a ^ b); }
+}
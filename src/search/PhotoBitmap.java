@@ -0,0 +1,573 @@
+package search;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of photo ids in the style of a roaring bitmap.
+ *
+ * <p>The 32-bit id space is split into chunks of 65536 ids keyed by the
+ * high 16 bits. Each non-empty chunk is held in a container chosen by its
+ * density: a sorted {@code char[]} of low bits while it holds at most 4096
+ * ids, otherwise a 1024-word {@code long[]} bitmap (8 KB either way at the
+ * crossover). AND, OR and AND NOT between two dense chunks are a loop over
+ * 64-bit words; mixed chunks probe the bitmap per array element.</p>
+ *
+ * <p>Bitmaps are mutable through {@link #add(int)} and {@link #remove(int)}
+ * so indexes can keep their posting lists as bitmaps. The binary operations
+ * never modify their operands and return a new bitmap that shares no
+ * containers with them.</p>
+ *
+ * @author Prayrit
+ */
+public final class PhotoBitmap {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Container[] NO_CONTAINERS = new Container[0];
+
+    private char[] keys = NO_KEYS;
+    private Container[] containers = NO_CONTAINERS;
+    private int size;
+
+    /**
+     * Create an empty bitmap.
+     */
+    public PhotoBitmap() {}
+
+    /**
+     * Build a bitmap from ids.
+     *
+     * @param ids non-negative ids in any order
+     * @return new bitmap
+     */
+    public static PhotoBitmap of(int... ids) {
+        PhotoBitmap b = new PhotoBitmap();
+        for (int id : ids) b.add(id);
+        return b;
+    }
+
+    /**
+     * Add an id.
+     *
+     * @param id non-negative id
+     * @return true if it was not present
+     */
+    public boolean add(int id) {
+        char hi = (char) (id >>> 16);
+        int i = find(hi);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, hi, new ArrayContainer());
+        }
+        Container c = containers[i];
+        int before = c.cardinality();
+        containers[i] = c.add((char) id);
+        return containers[i].cardinality() > before;
+    }
+
+    /**
+     * Remove an id.
+     *
+     * @param id id
+     * @return true if it was present
+     */
+    public boolean remove(int id) {
+        int i = find((char) (id >>> 16));
+        if (i < 0) return false;
+        Container c = containers[i];
+        int before = c.cardinality();
+        c = c.remove((char) id);
+        if (c.cardinality() == before) return false;
+        if (c.cardinality() == 0) delete(i);
+        else containers[i] = c;
+        return true;
+    }
+
+    /**
+     * @param id id
+     * @return true if the id is in the set
+     */
+    public boolean contains(int id) {
+        int i = find((char) (id >>> 16));
+        return i >= 0 && containers[i].contains((char) id);
+    }
+
+    /**
+     * @return number of ids in the set
+     */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) n += containers[i].cardinality();
+        return n;
+    }
+
+    /**
+     * @return true if the set has no ids
+     */
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * @return an independent copy of this set
+     */
+    public PhotoBitmap copy() {
+        PhotoBitmap r = new PhotoBitmap();
+        for (int i = 0; i < size; i++) r.append(keys[i], containers[i].copy());
+        return r;
+    }
+
+    /**
+     * Intersection of this set and another.
+     *
+     * @param o other bitmap
+     * @return new bitmap of ids in both
+     */
+    public PhotoBitmap and(PhotoBitmap o) {
+        PhotoBitmap r = new PhotoBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < o.size) {
+            if (keys[i] < o.keys[j]) i++;
+            else if (keys[i] > o.keys[j]) j++;
+            else {
+                Container c = containers[i].and(o.containers[j]);
+                if (c.cardinality() > 0) r.append(keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Union of this set and another.
+     *
+     * @param o other bitmap
+     * @return new bitmap of ids in either
+     */
+    public PhotoBitmap or(PhotoBitmap o) {
+        PhotoBitmap r = new PhotoBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < o.size) {
+            if (j == o.size || (i < size && keys[i] < o.keys[j])) {
+                r.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > o.keys[j]) {
+                r.append(o.keys[j], o.containers[j].copy());
+                j++;
+            } else {
+                r.append(keys[i], containers[i].or(o.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Difference of this set and another.
+     *
+     * @param o bitmap of ids to leave out
+     * @return new bitmap of ids in this set but not in the other
+     */
+    public PhotoBitmap andNot(PhotoBitmap o) {
+        PhotoBitmap r = new PhotoBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < o.size && o.keys[j] < keys[i]) j++;
+            Container c = j < o.size && o.keys[j] == keys[i] ? containers[i].andNot(o.containers[j]) : containers[i].copy();
+            if (c.cardinality() > 0) r.append(keys[i], c);
+        }
+        return r;
+    }
+
+    /**
+     * Union of several bitmaps, accumulated in place into one result.
+     *
+     * @param bitmaps bitmaps to combine
+     * @return new bitmap of ids in any of them
+     */
+    public static PhotoBitmap orAll(Iterable<PhotoBitmap> bitmaps) {
+        PhotoBitmap r = new PhotoBitmap();
+        for (PhotoBitmap b : bitmaps) {
+            for (int j = 0; j < b.size; j++) {
+                int i = r.find(b.keys[j]);
+                if (i >= 0) r.containers[i] = r.containers[i].or(b.containers[j]);
+                else r.insert(-i - 1, b.keys[j], b.containers[j].copy());
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Call the consumer for every id in ascending order.
+     *
+     * @param action consumer of ids
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) containers[i].forEach(keys[i] << 16, action);
+    }
+
+    /**
+     * @return iterator over the ids in ascending order
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private final int[] ids = toArray();
+            private int at;
+
+            @Override
+            public boolean hasNext() { return at < ids.length; }
+
+            @Override
+            public int nextInt() {
+                if (at == ids.length) throw new NoSuchElementException();
+                return ids[at++];
+            }
+        };
+    }
+
+    /**
+     * @return the ids in ascending order
+     */
+    public int[] toArray() {
+        int[] out = new int[cardinality()];
+        int n = 0;
+        for (int i = 0; i < size; i++) n = containers[i].fill(keys[i] << 16, out, n);
+        return out;
+    }
+
+    /**
+     * @return approximate bytes held by the containers
+     */
+    public long sizeInBytes() {
+        long n = 16 + 2L * keys.length + 8L * containers.length;
+        for (int i = 0; i < size; i++) n += containers[i].sizeInBytes();
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "PhotoBitmap[" + cardinality() + " ids in " + size + " containers]";
+    }
+
+    private int find(char hi) {
+        // ids are handed out in ascending order, so most lookups hit the last chunk
+        if (size > 0 && keys[size - 1] == hi) return size - 1;
+        return Arrays.binarySearch(keys, 0, size, hi);
+    }
+
+    private void append(char hi, Container c) { insert(size, hi, c); }
+
+    private void insert(int at, char hi, Container c) {
+        if (size == keys.length) {
+            int cap = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, cap);
+            containers = Arrays.copyOf(containers, cap);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = hi;
+        containers[at] = c;
+        size++;
+    }
+
+    private void delete(int at) {
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        System.arraycopy(containers, at + 1, containers, at, size - at - 1);
+        containers[--size] = null;
+    }
+
+    /**
+     * The low 16 bits of the ids in one chunk. Mutators return the
+     * container to use afterwards, which differs when the representation
+     * changes.
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char v);
+
+        abstract Container add(char v);
+
+        abstract Container remove(char v);
+
+        abstract Container and(Container o);
+
+        abstract Container or(Container o);
+
+        abstract Container andNot(Container o);
+
+        abstract Container copy();
+
+        abstract void forEach(int base, IntConsumer action);
+
+        abstract int fill(int base, int[] out, int at);
+
+        abstract long sizeInBytes();
+    }
+
+    /** Sorted low bits of a sparse chunk. */
+    private static final class ArrayContainer extends Container {
+        static final int MAX = 4096;
+
+        private char[] values;
+        private int n;
+
+        ArrayContainer() { this(new char[4], 0); }
+
+        ArrayContainer(char[] values, int n) {
+            this.values = values;
+            this.n = n;
+        }
+
+        @Override
+        int cardinality() { return n; }
+
+        @Override
+        boolean contains(char v) { return Arrays.binarySearch(values, 0, n, v) >= 0; }
+
+        @Override
+        Container add(char v) {
+            int at = n > 0 && values[n - 1] < v ? -n - 1 : Arrays.binarySearch(values, 0, n, v);
+            if (at >= 0) return this;
+            if (n == MAX) return toBitmap().add(v);
+            at = -at - 1;
+            if (n == values.length) values = Arrays.copyOf(values, Math.min(MAX, n * 2));
+            System.arraycopy(values, at, values, at + 1, n - at);
+            values[at] = v;
+            n++;
+            return this;
+        }
+
+        @Override
+        Container remove(char v) {
+            int at = Arrays.binarySearch(values, 0, n, v);
+            if (at < 0) return this;
+            System.arraycopy(values, at + 1, values, at, n - at - 1);
+            n--;
+            return this;
+        }
+
+        @Override
+        Container and(Container o) {
+            char[] out = new char[Math.min(n, o.cardinality())];
+            int k = 0;
+            if (o instanceof BitmapContainer) {
+                BitmapContainer b = (BitmapContainer) o;
+                for (int i = 0; i < n; i++) if (b.contains(values[i])) out[k++] = values[i];
+            } else {
+                ArrayContainer a = (ArrayContainer) o;
+                int i = 0, j = 0;
+                while (i < n && j < a.n) {
+                    if (values[i] < a.values[j]) i++;
+                    else if (values[i] > a.values[j]) j++;
+                    else { out[k++] = values[i]; i++; j++; }
+                }
+            }
+            return new ArrayContainer(out, k);
+        }
+
+        @Override
+        Container or(Container o) {
+            if (o instanceof BitmapContainer) return o.or(this);
+            ArrayContainer a = (ArrayContainer) o;
+            char[] out = new char[n + a.n];
+            int i = 0, j = 0, k = 0;
+            while (i < n || j < a.n) {
+                if (j == a.n || (i < n && values[i] < a.values[j])) out[k++] = values[i++];
+                else if (i == n || values[i] > a.values[j]) out[k++] = a.values[j++];
+                else { out[k++] = values[i++]; j++; }
+            }
+            ArrayContainer r = new ArrayContainer(out, k);
+            return k > MAX ? r.toBitmap() : r;
+        }
+
+        @Override
+        Container andNot(Container o) {
+            char[] out = new char[n];
+            int k = 0;
+            if (o instanceof BitmapContainer) {
+                BitmapContainer b = (BitmapContainer) o;
+                for (int i = 0; i < n; i++) if (!b.contains(values[i])) out[k++] = values[i];
+            } else {
+                ArrayContainer a = (ArrayContainer) o;
+                int j = 0;
+                for (int i = 0; i < n; i++) {
+                    while (j < a.n && a.values[j] < values[i]) j++;
+                    if (j == a.n || a.values[j] != values[i]) out[k++] = values[i];
+                }
+            }
+            return new ArrayContainer(out, k);
+        }
+
+        @Override
+        Container copy() { return new ArrayContainer(Arrays.copyOf(values, Math.max(1, n)), n); }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < n; i++) action.accept(base | values[i]);
+        }
+
+        @Override
+        int fill(int base, int[] out, int at) {
+            for (int i = 0; i < n; i++) out[at++] = base | values[i];
+            return at;
+        }
+
+        @Override
+        long sizeInBytes() { return 24 + 2L * values.length; }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < n; i++) b.set(values[i]);
+            return b;
+        }
+    }
+
+    /** One bit per low value of a dense chunk. */
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int card;
+
+        BitmapContainer() { this(new long[1024], 0); }
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        @Override
+        int cardinality() { return card; }
+
+        @Override
+        boolean contains(char v) { return (words[v >>> 6] & (1L << v)) != 0; }
+
+        void set(char v) {
+            long w = words[v >>> 6];
+            long nw = w | (1L << v);
+            if (w != nw) {
+                words[v >>> 6] = nw;
+                card++;
+            }
+        }
+
+        @Override
+        Container add(char v) {
+            set(v);
+            return this;
+        }
+
+        @Override
+        Container remove(char v) {
+            long w = words[v >>> 6];
+            long nw = w & ~(1L << v);
+            if (w == nw) return this;
+            words[v >>> 6] = nw;
+            card--;
+            return card <= ArrayContainer.MAX ? toArrayContainer() : this;
+        }
+
+        @Override
+        Container and(Container o) {
+            if (o instanceof ArrayContainer) return o.and(this);
+            long[] b = ((BitmapContainer) o).words;
+            long[] out = new long[1024];
+            int c = 0;
+            for (int i = 0; i < 1024; i++) {
+                out[i] = words[i] & b[i];
+                c += Long.bitCount(out[i]);
+            }
+            return shrink(out, c);
+        }
+
+        @Override
+        Container or(Container o) {
+            long[] out = words.clone();
+            if (o instanceof ArrayContainer) {
+                BitmapContainer r = new BitmapContainer(out, card);
+                ArrayContainer a = (ArrayContainer) o;
+                for (int i = 0; i < a.n; i++) r.set(a.values[i]);
+                return r;
+            }
+            long[] b = ((BitmapContainer) o).words;
+            int c = 0;
+            for (int i = 0; i < 1024; i++) {
+                out[i] |= b[i];
+                c += Long.bitCount(out[i]);
+            }
+            return new BitmapContainer(out, c);
+        }
+
+        @Override
+        Container andNot(Container o) {
+            long[] out = words.clone();
+            int c;
+            if (o instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) o;
+                c = card;
+                for (int i = 0; i < a.n; i++) {
+                    char v = a.values[i];
+                    if ((out[v >>> 6] & (1L << v)) != 0) {
+                        out[v >>> 6] &= ~(1L << v);
+                        c--;
+                    }
+                }
+            } else {
+                long[] b = ((BitmapContainer) o).words;
+                c = 0;
+                for (int i = 0; i < 1024; i++) {
+                    out[i] &= ~b[i];
+                    c += Long.bitCount(out[i]);
+                }
+            }
+            return shrink(out, c);
+        }
+
+        @Override
+        Container copy() { return new BitmapContainer(words.clone(), card); }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < 1024; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    action.accept(base | (i << 6) | Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+        }
+
+        @Override
+        int fill(int base, int[] out, int at) {
+            for (int i = 0; i < 1024; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    out[at++] = base | (i << 6) | Long.numberOfTrailingZeros(w);
+                    w &= w - 1;
+                }
+            }
+            return at;
+        }
+
+        @Override
+        long sizeInBytes() { return 24 + 8L * words.length; }
+
+        private ArrayContainer toArrayContainer() {
+            char[] out = new char[card];
+            int k = 0;
+            for (int i = 0; i < 1024; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    out[k++] = (char) ((i << 6) | Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            return new ArrayContainer(out, k);
+        }
+
+        private static Container shrink(long[] words, int card) {
+            BitmapContainer b = new BitmapContainer(words, card);
+            return card <= ArrayContainer.MAX ? b.toArrayContainer() : b;
+        }
+    }
+}
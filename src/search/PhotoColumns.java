@@ -0,0 +1,378 @@
+package search;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import model.Photo;
+import model.TagDictionary;
+import model.User;
+
+/**
+ * Column-oriented snapshot of one user's photo library.
+ *
+ * <p>Instead of one object graph per photo (path and caption strings, a
+ * date object, a tag array), the snapshot keeps one primitive array per
+ * field: capture times as epoch seconds in a {@code long[]}, file names and
+ * captions packed into shared {@code char[]}s addressed by {@code int}
+ * offsets, directories stored once each, and every photo's sorted tag ids
+ * packed into one {@code int[]}. Row {@code r} describes the photo with
+ * library id {@link #id(int)}; rows are in id order. A {@link Row} is a
+ * reusable flyweight that reads one row at a time.</p>
+ *
+ * <p>{@link #matcher(Query)} compiles a query into tests over the columns,
+ * so scans compare primitives and chars in place instead of following
+ * pointers and folding strings per photo. Case-insensitive text tests fold
+ * one char at a time, which differs from {@link Query#matches(Photo)} only
+ * for the few characters whose lower case is longer than one char.</p>
+ *
+ * <p>The snapshot is immutable and does not replace the {@link Photo}
+ * objects, which remain the editable model. {@link #forUser(User)} keeps
+ * one per user and rebuilds it when the user's library generation has
+ * moved on, so it suits read-mostly work such as the admin portal's
+ * cross-user search. Capture times are kept to the second.</p>
+ *
+ * @author Prayrit
+ */
+public final class PhotoColumns {
+    private static final Map<User, PhotoColumns> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final long generation;
+    private final int rows;
+    private final int[] ids;
+    private final long[] epochSeconds;
+    private final String[] dirs;
+    private final int[] dirOf;
+    private final char[] names;
+    private final int[] nameStart;
+    private final char[] captions;
+    private final int[] captionStart;
+    private final int[] tags;
+    private final int[] tagStart;
+
+    private PhotoColumns(User user) {
+        generation = user.getGeneration();
+        List<Photo> photos = user.getLibraryPhotos();
+        rows = photos.size();
+        ids = new int[rows];
+        epochSeconds = new long[rows];
+        dirOf = new int[rows];
+        nameStart = new int[rows + 1];
+        captionStart = new int[rows + 1];
+        tagStart = new int[rows + 1];
+        int nameLen = 0, captionLen = 0, tagLen = 0;
+        for (Photo p : photos) {
+            String path = p.getFilePath();
+            nameLen += path.length() - nameFrom(path);
+            captionLen += p.getCaption().length();
+            tagLen += p.getTagIds().length;
+        }
+        names = new char[nameLen];
+        captions = new char[captionLen];
+        tags = new int[tagLen];
+        Map<String, Integer> dirIds = new HashMap<>();
+        int n = 0, c = 0, t = 0;
+        for (int r = 0; r < rows; r++) {
+            Photo p = photos.get(r);
+            ids[r] = p.getId();
+            epochSeconds[r] = p.getDateTime().toEpochSecond(ZoneOffset.UTC);
+            String path = p.getFilePath();
+            int split = nameFrom(path);
+            dirOf[r] = dirIds.computeIfAbsent(path.substring(0, split), k -> dirIds.size());
+            path.getChars(split, path.length(), names, n);
+            n += path.length() - split;
+            nameStart[r + 1] = n;
+            String caption = p.getCaption();
+            caption.getChars(0, caption.length(), captions, c);
+            c += caption.length();
+            captionStart[r + 1] = c;
+            int[] ti = p.getTagIds();
+            System.arraycopy(ti, 0, tags, t, ti.length);
+            t += ti.length;
+            tagStart[r + 1] = t;
+        }
+        dirs = new String[dirIds.size()];
+        for (Map.Entry<String, Integer> e : dirIds.entrySet()) dirs[e.getValue()] = e.getKey();
+    }
+
+    /**
+     * Build a snapshot of the user's library as it is now.
+     *
+     * @param user user
+     * @return new snapshot
+     */
+    public static PhotoColumns of(User user) { return new PhotoColumns(user); }
+
+    /**
+     * The user's current snapshot, rebuilt if the library changed since the
+     * last call.
+     *
+     * @param user user
+     * @return up-to-date snapshot
+     */
+    public static PhotoColumns forUser(User user) {
+        PhotoColumns c = CACHE.get(user);
+        if (c == null || c.generation != user.getGeneration()) {
+            c = new PhotoColumns(user);
+            CACHE.put(user, c);
+        }
+        return c;
+    }
+
+    private static int nameFrom(String path) { return Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1; }
+
+    /**
+     * @return number of rows (photos)
+     */
+    public int size() { return rows; }
+
+    /**
+     * @return library generation the snapshot was taken at
+     */
+    public long getGeneration() { return generation; }
+
+    /**
+     * @param row row
+     * @return library id of the row's photo
+     */
+    public int id(int row) { return ids[row]; }
+
+    /**
+     * @return a flyweight positioned before the first row
+     */
+    public Row row() { return new Row(); }
+
+    /**
+     * Read-only view of one row; {@link #at(int)} moves it to another row,
+     * so one instance can walk the whole snapshot.
+     */
+    public final class Row {
+        private int r = -1;
+
+        private Row() {}
+
+        /**
+         * @param row row to view
+         * @return this view
+         */
+        public Row at(int row) {
+            if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + rows);
+            r = row;
+            return this;
+        }
+
+        /**
+         * @return library id of the photo
+         */
+        public int getId() { return ids[r]; }
+
+        /**
+         * @return file path
+         */
+        public String getFilePath() { return dirs[dirOf[r]] + new String(names, nameStart[r], nameStart[r + 1] - nameStart[r]); }
+
+        /**
+         * @return caption
+         */
+        public String getCaption() { return new String(captions, captionStart[r], captionStart[r + 1] - captionStart[r]); }
+
+        /**
+         * @return capture time, to the second
+         */
+        public LocalDateTime getDateTime() { return LocalDateTime.ofEpochSecond(epochSeconds[r], 0, ZoneOffset.UTC); }
+
+        /**
+         * @return sorted tag ids, copied out of the column
+         */
+        public int[] getTagIds() { return Arrays.copyOfRange(tags, tagStart[r], tagStart[r + 1]); }
+
+        /**
+         * @param tagId dictionary id
+         * @return true if the photo carries the tag
+         */
+        public boolean hasTag(int tagId) { return Arrays.binarySearch(tags, tagStart[r], tagStart[r + 1], tagId) >= 0; }
+    }
+
+    /**
+     * Compiled form of a query, testing rows of this snapshot.
+     */
+    public interface Matcher {
+        /**
+         * @param row row
+         * @return true if the row's photo matches
+         */
+        boolean test(int row);
+    }
+
+    /**
+     * Compile a query into a test over the columns.
+     *
+     * @param query query
+     * @return matcher for this snapshot
+     */
+    public Matcher matcher(Query query) { return compile(query.rewrite()); }
+
+    /**
+     * Ids of the photos matching a query, by scanning every row.
+     *
+     * @param query query
+     * @return matching ids
+     */
+    public PhotoBitmap scan(Query query) {
+        Matcher m = matcher(query);
+        PhotoBitmap out = new PhotoBitmap();
+        for (int r = 0; r < rows; r++) if (m.test(r)) out.add(ids[r]);
+        return out;
+    }
+
+    /**
+     * Number of photos per tag id, counted over the tag column.
+     *
+     * @return counts indexed by tag id
+     */
+    public int[] tagCounts() {
+        int[] counts = new int[TagDictionary.getInstance().size()];
+        for (int t : tags) counts[t]++;
+        return counts;
+    }
+
+    /**
+     * @return earliest capture time, or null for an empty library
+     */
+    public LocalDateTime getStartDate() {
+        if (rows == 0) return null;
+        long min = Long.MAX_VALUE;
+        for (long e : epochSeconds) min = Math.min(min, e);
+        return LocalDateTime.ofEpochSecond(min, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * @return latest capture time, or null for an empty library
+     */
+    public LocalDateTime getEndDate() {
+        if (rows == 0) return null;
+        long max = Long.MIN_VALUE;
+        for (long e : epochSeconds) max = Math.max(max, e);
+        return LocalDateTime.ofEpochSecond(max, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Approximate heap footprint of the snapshot.
+     *
+     * @return bytes
+     */
+    public long sizeInBytes() {
+        long b = 16L * 11 + 4L * (ids.length + dirOf.length + nameStart.length + captionStart.length + tags.length + tagStart.length)
+            + 8L * epochSeconds.length + 2L * (names.length + captions.length) + 16L * 10;
+        for (String d : dirs) b += 40 + d.length();
+        return b;
+    }
+
+    private Matcher compile(Query q) {
+        if (q instanceof Query.And) {
+            Matcher[] ms = compileAll(((Query.And) q).getOperands());
+            return r -> {
+                for (Matcher m : ms) if (!m.test(r)) return false;
+                return true;
+            };
+        }
+        if (q instanceof Query.Or) {
+            Matcher[] ms = compileAll(((Query.Or) q).getOperands());
+            return r -> {
+                for (Matcher m : ms) if (m.test(r)) return true;
+                return false;
+            };
+        }
+        if (q instanceof Query.Not) {
+            Matcher m = compile(((Query.Not) q).getOperand());
+            return r -> !m.test(r);
+        }
+        if (q instanceof Query.TagTerm) return tagMatcher((Query.TagTerm) q);
+        if (q instanceof Query.DateRange) {
+            Query.DateRange d = (Query.DateRange) q;
+            long lo = d.getFrom() == null ? Long.MIN_VALUE : d.getFrom().atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+            long hi = d.getTo() == null ? Long.MAX_VALUE : d.getTo().plusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC) - 1;
+            return r -> epochSeconds[r] >= lo && epochSeconds[r] <= hi;
+        }
+        if (q instanceof Query.CaptionContains) {
+            String[] tokens = ((Query.CaptionContains) q).getTokens();
+            return r -> {
+                for (String t : tokens) if (!contains(captions, captionStart[r], captionStart[r + 1], t)) return false;
+                return true;
+            };
+        }
+        if (q instanceof Query.PathContains) return pathMatcher(Query.fold(((Query.PathContains) q).getText()));
+        throw new IllegalArgumentException("Unsupported query node: " + q);
+    }
+
+    private Matcher[] compileAll(List<Query> qs) {
+        Matcher[] ms = new Matcher[qs.size()];
+        for (int i = 0; i < ms.length; i++) ms[i] = compile(qs.get(i));
+        return ms;
+    }
+
+    private Matcher tagMatcher(Query.TagTerm term) {
+        if (!term.isAnyValue()) {
+            int id = term.tagId();
+            if (id < 0) return r -> false;
+            return r -> Arrays.binarySearch(tags, tagStart[r], tagStart[r + 1], id) >= 0;
+        }
+        TagDictionary dict = TagDictionary.getInstance();
+        boolean[] named = new boolean[dict.size()];
+        for (int id = 0; id < named.length; id++) named[id] = dict.tag(id).getName().equalsIgnoreCase(term.getName());
+        return r -> {
+            for (int i = tagStart[r]; i < tagStart[r + 1]; i++) if (tags[i] < named.length && named[tags[i]]) return true;
+            return false;
+        };
+    }
+
+    /** Path test that looks in the shared directory, the file name, and across the two. */
+    private Matcher pathMatcher(String token) {
+        int len = token.length();
+        boolean[] inDir = new boolean[dirs.length];
+        boolean[][] dirEndsWith = new boolean[dirs.length][len];  // [dir][k]: dir ends with token[0, k)
+        for (int d = 0; d < dirs.length; d++) {
+            String fd = Query.fold(dirs[d]);
+            inDir[d] = fd.contains(token);
+            for (int k = 1; k < len; k++) dirEndsWith[d][k] = fd.endsWith(token.substring(0, k));
+        }
+        return r -> {
+            int d = dirOf[r];
+            if (inDir[d] || contains(names, nameStart[r], nameStart[r + 1], token)) return true;
+            for (int k = 1; k < len; k++) {
+                if (dirEndsWith[d][k] && startsWith(names, nameStart[r], nameStart[r + 1], token, k)) return true;
+            }
+            return false;
+        };
+    }
+
+    /** Case-insensitive search of a folded token in chars [from, to). */
+    private static boolean contains(char[] a, int from, int to, String token) {
+        int n = token.length();
+        if (n == 0) return true;
+        char first = token.charAt(0);
+        for (int i = from; i + n <= to; i++) {
+            if (Character.toLowerCase(a[i]) != first) continue;
+            int j = 1;
+            while (j < n && Character.toLowerCase(a[i + j]) == token.charAt(j)) j++;
+            if (j == n) return true;
+        }
+        return false;
+    }
+
+    /** True if chars [from, to) start with token[k, end), ignoring case. */
+    private static boolean startsWith(char[] a, int from, int to, String token, int k) {
+        int n = token.length() - k;
+        if (to - from < n) return false;
+        for (int j = 0; j < n; j++) if (Character.toLowerCase(a[from + j]) != token.charAt(k + j)) return false;
+        return true;
+    }
+
+    @Override
+    public String toString() { return rows + " photos, " + dirs.length + " directories, ~" + sizeInBytes() / 1024 + " KB"; }
+}
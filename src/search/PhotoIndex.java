@@ -0,0 +1,326 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import model.Photo;
+import model.Tag;
+import model.TagDictionary;
+import model.User;
+
+/**
+ * Secondary indexes over the distinct photos of one user.
+ *
+ * <p>Photos are identified by their library id ({@link Photo#getId()}). The
+ * index keeps sorted posting lists of ids per tag id and per case-folded tag
+ * name, the ids grouped by capture day for range lookups, and a
+ * {@link TrigramIndex} over captions, and {@link TagTrie}s of tag names and
+ * of the values of each name, counted by the number of photos using them,
+ * for autocompletion. It is kept up to date incrementally by
+ * {@link SearchEngine} as the library changes. Posting lists and result sets
+ * are {@link PhotoBitmap}s; results are copies the caller may keep.</p>
+ *
+ * @author Prayrit
+ */
+public final class PhotoIndex {
+    private final User user;
+    private final PhotoBitmap all = new PhotoBitmap();
+    private PhotoBitmap[] byTag = new PhotoBitmap[0];
+    private final Map<String, PhotoBitmap> byName = new HashMap<>();
+    private final TreeMap<Long, PhotoBitmap> byDay = new TreeMap<>();
+    private int[][] indexedTags = new int[16][];
+    private long[] indexedDay = new long[16];
+    private final TrigramIndex captions = new TrigramIndex();
+    private final TagTrie tagNames = new TagTrie();
+    private final Map<String, TagTrie> tagValues = new HashMap<>();
+
+    /**
+     * Index the user's current library.
+     *
+     * @param user user whose photos are indexed
+     */
+    public PhotoIndex(User user) {
+        this.user = user;
+        for (Photo p : user.getLibraryPhotos()) add(p);
+    }
+
+    /**
+     * @return number of distinct photos indexed
+     */
+    public int size() { return all.cardinality(); }
+
+    /**
+     * @param id photo id
+     * @return the photo with that id
+     */
+    public Photo photo(int id) { return user.getPhoto(id); }
+
+    /**
+     * @return every indexed id
+     */
+    public PhotoBitmap all() { return all.copy(); }
+
+    /**
+     * Ids of photos carrying the tag (or any value of the name when the
+     * term is a wildcard).
+     *
+     * @param term tag term
+     * @return matching ids; never null
+     */
+    public PhotoBitmap tagPostings(Query.TagTerm term) {
+        PhotoBitmap r = postings(term);
+        return r == null ? new PhotoBitmap() : r.copy();
+    }
+
+    /**
+     * Number of photos carrying the tag, without copying the posting list.
+     *
+     * @param term tag term
+     * @return posting list length
+     */
+    public int countTag(Query.TagTerm term) {
+        PhotoBitmap r = postings(term);
+        return r == null ? 0 : r.cardinality();
+    }
+
+    private PhotoBitmap postings(Query.TagTerm term) {
+        if (term.isAnyValue()) return byName.get(TagDictionary.fold(term.getName()));
+        int id = term.tagId();
+        return id < 0 || id >= byTag.length ? null : byTag[id];
+    }
+
+    /**
+     * Most used tag names starting with a prefix.
+     *
+     * @param prefix typed prefix
+     * @param limit largest number of suggestions
+     * @return suggestions, most used first
+     */
+    public List<TagTrie.Suggestion> suggestTagNames(String prefix, int limit) { return tagNames.suggest(prefix, limit); }
+
+    /**
+     * Most used values of a tag name starting with a prefix.
+     *
+     * @param name tag name, any case
+     * @param prefix typed prefix of the value
+     * @param limit largest number of suggestions
+     * @return suggestions, most used first
+     */
+    public List<TagTrie.Suggestion> suggestTagValues(String name, String prefix, int limit) {
+        TagTrie values = tagValues.get(TagDictionary.fold(name));
+        return values == null ? new ArrayList<>() : values.suggest(prefix, limit);
+    }
+
+    /**
+     * Facet counts of a set of photos, from the indexed tag ids and capture
+     * days of each id.
+     *
+     * @param ids photo ids
+     * @param topValues most values kept per tag name
+     * @return facets
+     */
+    public Facets facets(PhotoBitmap ids, int topValues) {
+        int[] tagCounts = new int[TagDictionary.getInstance().size()];
+        Map<Long, Integer> dayCounts = new HashMap<>();
+        ids.forEach(id -> {
+            if (!all.contains(id)) return;
+            for (int t : indexedTags[id]) tagCounts[t]++;
+            dayCounts.merge(indexedDay[id], 1, Integer::sum);
+        });
+        return Facets.of(tagCounts, dayCounts, topValues);
+    }
+
+    /**
+     * @return the caption full-text index
+     */
+    TrigramIndex captions() { return captions; }
+
+    /**
+     * Ids of photos whose caption contains every token of the predicate.
+     *
+     * @param term caption predicate
+     * @return matching ids
+     */
+    public PhotoBitmap captionMatches(Query.CaptionContains term) {
+        PhotoBitmap out = new PhotoBitmap();
+        for (int id : captions.candidates(term.getTokens())) {
+            Photo p = photo(id);
+            if (p != null && term.matches(p)) out.add(id);
+        }
+        return out;
+    }
+
+    /**
+     * Ids of photos whose capture day falls in the range.
+     *
+     * @param range date range
+     * @return matching ids
+     */
+    public PhotoBitmap dateRange(Query.DateRange range) { return PhotoBitmap.orAll(days(range).values()); }
+
+    /**
+     * Exact number of photos whose capture day falls in the range.
+     *
+     * @param range date range
+     * @return count of matching photos
+     */
+    public int countDateRange(Query.DateRange range) {
+        int n = 0;
+        for (PhotoBitmap l : days(range).values()) n += l.cardinality();
+        return n;
+    }
+
+    private NavigableMap<Long, PhotoBitmap> days(Query.DateRange range) {
+        if (range.isEmpty()) return new TreeMap<>();
+        long lo = range.getFrom() == null ? Long.MIN_VALUE : range.getFrom().toEpochDay();
+        long hi = range.getTo() == null ? Long.MAX_VALUE : range.getTo().toEpochDay();
+        return byDay.subMap(lo, true, hi, true);
+    }
+
+    /**
+     * Index a photo that entered the library.
+     *
+     * @param p photo
+     */
+    void add(Photo p) {
+        int id = p.getId();
+        if (!all.add(id)) return;
+        ensureSlot(id);
+        int[] tags = p.getTagIds();
+        for (int t : tags) {
+            tagList(t).add(id);
+            countTag(t, true);
+        }
+        for (String name : names(tags)) byName.computeIfAbsent(name, k -> new PhotoBitmap()).add(id);
+        indexedTags[id] = tags;
+        long day = p.getDateTime().toLocalDate().toEpochDay();
+        indexedDay[id] = day;
+        byDay.computeIfAbsent(day, k -> new PhotoBitmap()).add(id);
+        captions.add(id, p.getCaption());
+    }
+
+    /**
+     * Drop a photo that left the library.
+     *
+     * @param p photo
+     */
+    void remove(Photo p) {
+        int id = p.getId();
+        if (!all.remove(id)) return;
+        int[] tags = indexedTags[id];
+        for (int t : tags) {
+            tagList(t).remove(id);
+            countTag(t, false);
+        }
+        for (String name : names(tags)) removeFrom(byName, name, id);
+        indexedTags[id] = null;
+        removeFrom(byDay, indexedDay[id], id);
+        captions.remove(id, p.getCaption());
+    }
+
+    /**
+     * Re-index a photo's caption after it was edited.
+     *
+     * @param p photo
+     * @param oldCaption caption before the edit
+     */
+    void captionChanged(Photo p, String oldCaption) {
+        if (all.contains(p.getId())) captions.update(p.getId(), oldCaption, p.getCaption());
+    }
+
+    /**
+     * Re-index a photo's tags after they changed.
+     *
+     * @param p photo
+     */
+    void tagsChanged(Photo p) {
+        int id = p.getId();
+        if (!all.contains(id)) return;
+        int[] before = indexedTags[id];
+        int[] after = p.getTagIds();
+        for (int t : before) {
+            if (Arrays.binarySearch(after, t) >= 0) continue;
+            tagList(t).remove(id);
+            countTag(t, false);
+        }
+        for (int t : after) {
+            if (Arrays.binarySearch(before, t) >= 0) continue;
+            tagList(t).add(id);
+            countTag(t, true);
+        }
+        Set<String> oldNames = names(before);
+        Set<String> newNames = names(after);
+        for (String n : oldNames) if (!newNames.contains(n)) removeFrom(byName, n, id);
+        for (String n : newNames) if (!oldNames.contains(n)) byName.computeIfAbsent(n, k -> new PhotoBitmap()).add(id);
+        indexedTags[id] = after;
+    }
+
+    private void countTag(int tagId, boolean used) {
+        Tag t = TagDictionary.getInstance().tag(tagId);
+        TagTrie values = tagValues.computeIfAbsent(TagDictionary.fold(t.getName()), k -> new TagTrie());
+        if (used) {
+            tagNames.add(t.getName());
+            values.add(t.getValue());
+        } else {
+            tagNames.remove(t.getName());
+            values.remove(t.getValue());
+        }
+    }
+
+    /**
+     * Move a photo to its new capture day after its date changed.
+     *
+     * @param p photo
+     */
+    void dateChanged(Photo p) {
+        int id = p.getId();
+        if (!all.contains(id)) return;
+        long day = p.getDateTime().toLocalDate().toEpochDay();
+        if (day == indexedDay[id]) return;
+        removeFrom(byDay, indexedDay[id], id);
+        indexedDay[id] = day;
+        byDay.computeIfAbsent(day, k -> new PhotoBitmap()).add(id);
+    }
+
+    /**
+     * Capture day the photo is indexed under, which until the index sees a
+     * date change event is the day before the change.
+     *
+     * @param id indexed photo id
+     * @return epoch day
+     */
+    long indexedDay(int id) { return indexedDay[id]; }
+
+    private PhotoBitmap tagList(int tagId) {
+        if (tagId >= byTag.length) byTag = Arrays.copyOf(byTag, Math.max(tagId + 1, byTag.length * 2));
+        if (byTag[tagId] == null) byTag[tagId] = new PhotoBitmap();
+        return byTag[tagId];
+    }
+
+    private void ensureSlot(int id) {
+        if (id < indexedTags.length) return;
+        int cap = Math.max(id + 1, indexedTags.length * 2);
+        indexedTags = Arrays.copyOf(indexedTags, cap);
+        indexedDay = Arrays.copyOf(indexedDay, cap);
+    }
+
+    private static Set<String> names(int[] tags) {
+        Set<String> out = new HashSet<>();
+        TagDictionary dict = TagDictionary.getInstance();
+        for (int t : tags) out.add(TagDictionary.fold(dict.tag(t).getName()));
+        return out;
+    }
+
+    private static <K> void removeFrom(Map<K, PhotoBitmap> map, K key, int id) {
+        PhotoBitmap l = map.get(key);
+        if (l == null) return;
+        l.remove(id);
+        if (l.isEmpty()) map.remove(key);
+    }
+}
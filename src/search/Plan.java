@@ -0,0 +1,390 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import model.Photo;
+
+/**
+ * Executable query plan produced by {@link QueryPlanner}.
+ *
+ * <p>A plan is a small tree of access paths (index scans or a full scan)
+ * combined with bitmap AND, OR and AND NOT, with filters layered on top.
+ * Every node produces a {@link PhotoBitmap} of photo ids. Each node carries
+ * the planner's estimated cardinality, which {@link #explain()} prints next
+ * to the chosen access path.</p>
+ *
+ * @author Prayrit
+ */
+public abstract class Plan {
+    private final long estimate;
+
+    Plan(long estimate) { this.estimate = estimate; }
+
+    /**
+     * @return estimated number of photos this node produces
+     */
+    public long getEstimate() { return estimate; }
+
+    /**
+     * Run the plan.
+     *
+     * @param index index to read from
+     * @return ids of matching photos
+     */
+    public abstract PhotoBitmap execute(PhotoIndex index);
+
+    /**
+     * Run the plan, handing matches to the sink in batches as they are
+     * confirmed. Batches start small so the first results arrive quickly.
+     *
+     * @param index index to read from
+     * @param sink receiver of batches
+     * @return ids of matching photos
+     * @throws java.util.concurrent.CancellationException if the sink cancels the search
+     */
+    public PhotoBitmap execute(PhotoIndex index, ResultSink sink) { return candidates(index).stream(sink); }
+
+    /**
+     * Index part of a streamed run: the photos the indexes leave and the
+     * predicates still to test on them. Only this step reads the index, so
+     * a caller that must hold a lock for it can run
+     * {@link Candidates#stream(ResultSink)} after letting go.
+     *
+     * @param index index to read from
+     * @return candidates of the run
+     */
+    Candidates candidates(PhotoIndex index) { return new Candidates(execute(index), index, List.of()); }
+
+    /**
+     * Photos resolved from the index together with the predicates left to
+     * check on them; independent of the index once made.
+     */
+    static final class Candidates {
+        private final int[] ids;
+        private final Photo[] photos;
+        private final List<Query> predicates;
+
+        Candidates(PhotoBitmap bits, PhotoIndex index, List<Query> predicates) {
+            this.ids = bits.toArray();
+            this.photos = new Photo[ids.length];
+            for (int i = 0; i < ids.length; i++) photos[i] = index.photo(ids[i]);
+            this.predicates = predicates;
+        }
+
+        /**
+         * Test the predicates and hand the matches to the sink.
+         *
+         * @param sink receiver of batches
+         * @return ids of matching photos
+         * @throws java.util.concurrent.CancellationException if the sink cancels the search
+         */
+        PhotoBitmap stream(ResultSink sink) {
+            PhotoBitmap out = new PhotoBitmap();
+            Batcher batcher = new Batcher(sink);
+            for (int i = 0; i < ids.length; i++) {
+                batcher.checkCancelled();
+                Photo p = photos[i];
+                if (p != null && test(p)) {
+                    out.add(ids[i]);
+                    batcher.add(p);
+                }
+            }
+            batcher.flush();
+            return out;
+        }
+
+        /**
+         * @param id photo id
+         * @return the candidate photo with that id, or null if it is not one
+         */
+        Photo photo(int id) {
+            int i = Arrays.binarySearch(ids, id);
+            return i < 0 ? null : photos[i];
+        }
+
+        private boolean test(Photo p) {
+            for (Query q : predicates) if (!q.matches(p)) return false;
+            return true;
+        }
+    }
+
+    /**
+     * @return true if this node reads an index rather than every photo
+     */
+    abstract boolean isIndexed();
+
+    abstract void describe(StringBuilder sb, int depth);
+
+    /**
+     * Human readable plan tree, one node per line.
+     *
+     * @return explain output
+     */
+    public String explain() {
+        StringBuilder sb = new StringBuilder();
+        describe(sb, 0);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() { return explain(); }
+
+    void line(StringBuilder sb, int depth, String text) {
+        for (int i = 0; i < depth; i++) sb.append("  ");
+        sb.append(text).append("  (est. ").append(estimate).append(")\n");
+    }
+
+    /**
+     * Collects photos into batches of growing size for a sink.
+     */
+    static final class Batcher {
+        private static final int FIRST = 32;
+        private static final int MAX = 1024;
+
+        private final ResultSink sink;
+        private List<Photo> batch = new ArrayList<>();
+        private int limit = FIRST;
+
+        Batcher(ResultSink sink) { this.sink = sink; }
+
+        void checkCancelled() {
+            if (sink.isCancelled()) throw new CancellationException();
+        }
+
+        void add(Photo p) {
+            checkCancelled();
+            batch.add(p);
+            if (batch.size() >= limit) {
+                flush();
+                limit = Math.min(MAX, limit * 2);
+            }
+        }
+
+        void flush() {
+            if (batch.isEmpty()) return;
+            sink.batch(batch);
+            batch = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Posting-list lookup in the tag index.
+     */
+    static final class TagScan extends Plan {
+        private final Query.TagTerm term;
+
+        TagScan(Query.TagTerm term, long estimate) {
+            super(estimate);
+            this.term = term;
+        }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) { return index.tagPostings(term); }
+
+        @Override
+        boolean isIndexed() { return true; }
+
+        @Override
+        void describe(StringBuilder sb, int depth) {
+            line(sb, depth, "IndexScan tag " + term + (term.isAnyValue() ? " [name index]" : " [tag index]"));
+        }
+    }
+
+    /**
+     * Binary-searched range over the day-sorted index.
+     */
+    static final class DateScan extends Plan {
+        private final Query.DateRange range;
+
+        DateScan(Query.DateRange range, long estimate) {
+            super(estimate);
+            this.range = range;
+        }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) { return range.isEmpty() ? new PhotoBitmap() : index.dateRange(range); }
+
+        @Override
+        boolean isIndexed() { return true; }
+
+        @Override
+        void describe(StringBuilder sb, int depth) { line(sb, depth, "IndexRangeScan " + range + " [date index]"); }
+    }
+
+    /**
+     * Trigram lookup in the caption index, verified against the caption text.
+     */
+    static final class CaptionScan extends Plan {
+        private final Query.CaptionContains term;
+
+        CaptionScan(Query.CaptionContains term, long estimate) {
+            super(estimate);
+            this.term = term;
+        }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) { return index.captionMatches(term); }
+
+        @Override
+        boolean isIndexed() { return true; }
+
+        @Override
+        void describe(StringBuilder sb, int depth) { line(sb, depth, "IndexScan " + term + " [caption trigram index]"); }
+    }
+
+    /**
+     * Every photo of the library.
+     */
+    static final class FullScan extends Plan {
+        FullScan(long estimate) { super(estimate); }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) { return index.all(); }
+
+        @Override
+        boolean isIndexed() { return false; }
+
+        @Override
+        void describe(StringBuilder sb, int depth) { line(sb, depth, "FullScan"); }
+    }
+
+    /**
+     * Photos from the input that satisfy every predicate; predicates are
+     * checked in the given order and stop at the first failure.
+     */
+    static final class Filter extends Plan {
+        private final Plan input;
+        private final List<Query> predicates;
+
+        Filter(Plan input, List<Query> predicates, long estimate) {
+            super(estimate);
+            this.input = input;
+            this.predicates = Collections.unmodifiableList(new ArrayList<>(predicates));
+        }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) {
+            PhotoBitmap out = new PhotoBitmap();
+            input.execute(index).forEach(id -> {
+                if (test(index.photo(id))) out.add(id);
+            });
+            return out;
+        }
+
+        @Override
+        Candidates candidates(PhotoIndex index) { return new Candidates(input.execute(index), index, predicates); }
+
+        private boolean test(Photo p) {
+            for (Query q : predicates) if (!q.matches(p)) return false;
+            return true;
+        }
+
+        @Override
+        boolean isIndexed() { return input.isIndexed(); }
+
+        @Override
+        void describe(StringBuilder sb, int depth) {
+            StringBuilder text = new StringBuilder("Filter ");
+            for (int i = 0; i < predicates.size(); i++) {
+                if (i > 0) text.append(", ");
+                Query q = predicates.get(i);
+                boolean wrap = q instanceof Query.And || q instanceof Query.Or;
+                text.append(wrap ? "(" + q + ")" : q.toString());
+            }
+            line(sb, depth, text.toString());
+            input.describe(sb, depth + 1);
+        }
+    }
+
+    /**
+     * Bitmap OR of the results of several indexed plans.
+     */
+    static final class Union extends Plan {
+        private final List<Plan> inputs;
+
+        Union(List<Plan> inputs, long estimate) {
+            super(estimate);
+            this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+        }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) {
+            List<PhotoBitmap> parts = new ArrayList<>(inputs.size());
+            for (Plan p : inputs) parts.add(p.execute(index));
+            return PhotoBitmap.orAll(parts);
+        }
+
+        @Override
+        boolean isIndexed() { return true; }
+
+        @Override
+        void describe(StringBuilder sb, int depth) {
+            line(sb, depth, "BitmapOr");
+            for (Plan p : inputs) p.describe(sb, depth + 1);
+        }
+    }
+
+    /**
+     * Bitmap AND of the results of several indexed plans, smallest first;
+     * stops as soon as the intersection is empty.
+     */
+    static final class Intersect extends Plan {
+        private final List<Plan> inputs;
+
+        Intersect(List<Plan> inputs, long estimate) {
+            super(estimate);
+            this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+        }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) {
+            PhotoBitmap acc = inputs.get(0).execute(index);
+            for (int i = 1; i < inputs.size() && !acc.isEmpty(); i++) acc = acc.and(inputs.get(i).execute(index));
+            return acc;
+        }
+
+        @Override
+        boolean isIndexed() { return true; }
+
+        @Override
+        void describe(StringBuilder sb, int depth) {
+            line(sb, depth, "BitmapAnd");
+            for (Plan p : inputs) p.describe(sb, depth + 1);
+        }
+    }
+
+    /**
+     * Bitmap AND NOT: the input minus the results of the excluded plans.
+     * Over a full scan this is the complement of the excluded set.
+     */
+    static final class Difference extends Plan {
+        private final Plan input;
+        private final List<Plan> excluded;
+
+        Difference(Plan input, List<Plan> excluded, long estimate) {
+            super(estimate);
+            this.input = input;
+            this.excluded = Collections.unmodifiableList(new ArrayList<>(excluded));
+        }
+
+        @Override
+        public PhotoBitmap execute(PhotoIndex index) {
+            PhotoBitmap acc = input.execute(index);
+            for (int i = 0; i < excluded.size() && !acc.isEmpty(); i++) acc = acc.andNot(excluded.get(i).execute(index));
+            return acc;
+        }
+
+        @Override
+        boolean isIndexed() { return true; }
+
+        @Override
+        void describe(StringBuilder sb, int depth) {
+            line(sb, depth, "BitmapAndNot");
+            input.describe(sb, depth + 1);
+            for (Plan p : excluded) p.describe(sb, depth + 1);
+        }
+    }
+}
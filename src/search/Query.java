@@ -0,0 +1,415 @@
+package search;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import model.Photo;
+import model.TagDictionary;
+
+/**
+ * Abstract syntax tree for the photo search query language.
+ *
+ * <p>Queries are produced by {@link QueryParser}, normalized by
+ * {@link #rewrite()} and turned into an execution plan by
+ * {@link QueryPlanner}. Every node can also be evaluated directly against a
+ * single photo with {@link #matches(Photo)}, which is how the planner checks
+ * the predicates that are not driven by an index.</p>
+ *
+ * <p>{@link #toString()} produces a canonical textual form that parses back
+ * to an equivalent query.</p>
+ *
+ * @author Prayrit
+ */
+public abstract class Query {
+
+    /**
+     * Test whether a single photo satisfies this query.
+     *
+     * @param p photo to test
+     * @return true if the photo matches
+     */
+    public abstract boolean matches(Photo p);
+
+    /**
+     * Normalize the query: flatten nested AND/OR nodes, drop duplicate
+     * operands, push NOT down to the leaves and intersect date ranges that
+     * are combined with AND.
+     *
+     * @return an equivalent, normalized query
+     */
+    public Query rewrite() { return this; }
+
+    /**
+     * Negated form of this query with the negation pushed as far down as
+     * possible (De Morgan).
+     *
+     * @return the negation of this query
+     */
+    Query negate() { return new Not(this); }
+
+    /**
+     * Case-fold a tag name or value for comparisons.
+     *
+     * @param s raw text
+     * @return folded text
+     */
+    static String fold(String s) { return s.toLowerCase(Locale.ROOT); }
+
+    /**
+     * Quote a value for the canonical form if it would not survive the
+     * tokenizer as a bare word.
+     */
+    static String quote(String s) {
+        if (!s.isEmpty() && QueryParser.isBareWord(s)) return s;
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Conjunction of two or more queries.
+     */
+    public static final class And extends Query {
+        private final List<Query> operands;
+
+        /**
+         * @param operands queries that must all match
+         */
+        public And(List<Query> operands) { this.operands = Collections.unmodifiableList(new ArrayList<>(operands)); }
+
+        /**
+         * @return the operands of this conjunction
+         */
+        public List<Query> getOperands() { return operands; }
+
+        @Override
+        public boolean matches(Photo p) {
+            for (Query q : operands) if (!q.matches(p)) return false;
+            return true;
+        }
+
+        @Override
+        public Query rewrite() {
+            List<Query> flat = new ArrayList<>();
+            DateRange range = null;
+            for (Query q : operands) {
+                Query r = q.rewrite();
+                List<Query> parts = r instanceof And ? ((And) r).operands : List.of(r);
+                for (Query part : parts) {
+                    if (part instanceof DateRange) {
+                        range = range == null ? (DateRange) part : range.intersect((DateRange) part);
+                    } else {
+                        addDistinct(flat, part);
+                    }
+                }
+            }
+            if (range != null) flat.add(0, range);
+            return flat.size() == 1 ? flat.get(0) : new And(flat);
+        }
+
+        @Override
+        Query negate() {
+            List<Query> negated = new ArrayList<>();
+            for (Query q : operands) negated.add(q.negate());
+            return new Or(negated);
+        }
+
+        @Override
+        public String toString() { return join(operands, " AND "); }
+    }
+
+    /**
+     * Disjunction of two or more queries.
+     */
+    public static final class Or extends Query {
+        private final List<Query> operands;
+
+        /**
+         * @param operands queries of which at least one must match
+         */
+        public Or(List<Query> operands) { this.operands = Collections.unmodifiableList(new ArrayList<>(operands)); }
+
+        /**
+         * @return the operands of this disjunction
+         */
+        public List<Query> getOperands() { return operands; }
+
+        @Override
+        public boolean matches(Photo p) {
+            for (Query q : operands) if (q.matches(p)) return true;
+            return false;
+        }
+
+        @Override
+        public Query rewrite() {
+            List<Query> flat = new ArrayList<>();
+            for (Query q : operands) {
+                Query r = q.rewrite();
+                if (r instanceof Or) {
+                    for (Query part : ((Or) r).operands) addDistinct(flat, part);
+                } else {
+                    addDistinct(flat, r);
+                }
+            }
+            return flat.size() == 1 ? flat.get(0) : new Or(flat);
+        }
+
+        @Override
+        Query negate() {
+            List<Query> negated = new ArrayList<>();
+            for (Query q : operands) negated.add(q.negate());
+            return new And(negated);
+        }
+
+        @Override
+        public String toString() { return join(operands, " OR "); }
+    }
+
+    /**
+     * Negation of a query.
+     */
+    public static final class Not extends Query {
+        private final Query operand;
+
+        /**
+         * @param operand query that must not match
+         */
+        public Not(Query operand) { this.operand = operand; }
+
+        /**
+         * @return the negated query
+         */
+        public Query getOperand() { return operand; }
+
+        @Override
+        public boolean matches(Photo p) { return !operand.matches(p); }
+
+        @Override
+        public Query rewrite() {
+            Query inner = operand.rewrite();
+            if (inner instanceof Not) return ((Not) inner).operand;
+            Query pushed = inner.negate();
+            return pushed instanceof Not ? pushed : pushed.rewrite();
+        }
+
+        @Override
+        Query negate() { return operand; }
+
+        @Override
+        public String toString() {
+            boolean compound = operand instanceof And || operand instanceof Or;
+            return "NOT " + (compound ? "(" + operand + ")" : operand.toString());
+        }
+    }
+
+    /**
+     * Tag equality predicate {@code name:value}. Comparison is
+     * case-insensitive; a value of {@code *} matches any value for the name.
+     */
+    public static final class TagTerm extends Query {
+        /** Value that matches any tag value for the given name. */
+        public static final String ANY = "*";
+
+        private final String name;
+        private final String value;
+        private int id = -1;
+        private int missingAt = -1; // dictionary size when the tag was last looked up and absent
+
+        /**
+         * @param name tag name
+         * @param value tag value, or {@link #ANY}
+         */
+        public TagTerm(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        /**
+         * @return tag name as written in the query
+         */
+        public String getName() { return name; }
+
+        /**
+         * @return tag value as written in the query
+         */
+        public String getValue() { return value; }
+
+        /**
+         * @return true if this term matches any value of its tag name
+         */
+        public boolean isAnyValue() { return ANY.equals(value); }
+
+        /**
+         * Dictionary id of the tag this term names.
+         *
+         * @return tag id, or -1 if no photo has ever carried the tag
+         */
+        public int tagId() {
+            if (id >= 0) return id;
+            // the lookup takes the dictionary lock, so an absent tag is looked up
+            // again only once the dictionary has grown
+            TagDictionary dict = TagDictionary.getInstance();
+            int n = dict.size();
+            if (n == missingAt) return -1;
+            int found = dict.lookup(name, value);
+            if (found >= 0) id = found;
+            else missingAt = n;
+            return found;
+        }
+
+        @Override
+        public boolean matches(Photo p) {
+            if (!isAnyValue()) {
+                int tid = tagId();
+                return tid >= 0 && p.hasTag(tid);
+            }
+            TagDictionary dict = TagDictionary.getInstance();
+            for (int tid : p.getTagIds()) {
+                if (dict.tag(tid).getName().equalsIgnoreCase(name)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() { return quote(fold(name)) + ":" + (isAnyValue() ? ANY : quote(fold(value))); }
+    }
+
+    /**
+     * Inclusive date range predicate {@code date:from..to}. Either bound may
+     * be null for an open range.
+     */
+    public static final class DateRange extends Query {
+        private final LocalDate from;
+        private final LocalDate to;
+
+        /**
+         * @param from first day included, or null
+         * @param to last day included, or null
+         */
+        public DateRange(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return first day included, or null when open
+         */
+        public LocalDate getFrom() { return from; }
+
+        /**
+         * @return last day included, or null when open
+         */
+        public LocalDate getTo() { return to; }
+
+        /**
+         * @return true if no day can satisfy the range
+         */
+        public boolean isEmpty() { return from != null && to != null && from.isAfter(to); }
+
+        /**
+         * Intersect with another range.
+         *
+         * @param o other range
+         * @return a range covering the days in both
+         */
+        DateRange intersect(DateRange o) {
+            LocalDate f = from == null ? o.from : (o.from == null || from.isAfter(o.from) ? from : o.from);
+            LocalDate t = to == null ? o.to : (o.to == null || to.isBefore(o.to) ? to : o.to);
+            return new DateRange(f, t);
+        }
+
+        @Override
+        public boolean matches(Photo p) {
+            LocalDate d = p.getDateTime().toLocalDate();
+            return (from == null || !d.isBefore(from)) && (to == null || !d.isAfter(to));
+        }
+
+        @Override
+        public String toString() {
+            if (from != null && from.equals(to)) return "date:" + from;
+            return "date:" + (from == null ? "" : from) + ".." + (to == null ? "" : to);
+        }
+    }
+
+    /**
+     * Caption text predicate {@code caption~"text"}. Every whitespace
+     * separated token of the text must occur in the caption as a
+     * case-insensitive substring.
+     */
+    public static final class CaptionContains extends Query {
+        private final String text;
+        private final String[] tokens;
+
+        /**
+         * @param text text to search for
+         */
+        public CaptionContains(String text) {
+            this.text = text.trim();
+            this.tokens = this.text.isEmpty() ? new String[0] : fold(this.text).split("\\s+");
+        }
+
+        /**
+         * @return searched text
+         */
+        public String getText() { return text; }
+
+        /**
+         * @return case-folded tokens of the searched text
+         */
+        public String[] getTokens() { return tokens.clone(); }
+
+        @Override
+        public boolean matches(Photo p) {
+            String caption = fold(p.getCaption());
+            for (String token : tokens) if (!caption.contains(token)) return false;
+            return true;
+        }
+
+        @Override
+        public String toString() { return "caption~" + quote(text); }
+    }
+
+    /**
+     * File path predicate {@code path~"text"}: the photo's file path
+     * contains the text as a case-insensitive substring.
+     */
+    public static final class PathContains extends Query {
+        private final String text;
+        private final String folded;
+
+        /**
+         * @param text text to search for
+         */
+        public PathContains(String text) {
+            this.text = text.trim();
+            this.folded = fold(this.text);
+        }
+
+        /**
+         * @return searched text
+         */
+        public String getText() { return text; }
+
+        @Override
+        public boolean matches(Photo p) { return fold(p.getFilePath()).contains(folded); }
+
+        @Override
+        public String toString() { return "path~" + quote(text); }
+    }
+
+    private static void addDistinct(List<Query> list, Query q) {
+        String key = q.toString();
+        for (Query existing : list) if (existing.toString().equals(key)) return;
+        list.add(q);
+    }
+
+    private static String join(List<Query> operands, String sep) {
+        StringBuilder sb = new StringBuilder();
+        for (Query q : operands) {
+            if (sb.length() > 0) sb.append(sep);
+            boolean wrap = (q instanceof And || q instanceof Or) && !sep.trim().equals(q instanceof And ? "AND" : "OR");
+            sb.append(wrap ? "(" + q + ")" : q.toString());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,230 @@
+package search;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive-descent parser for the search query language.
+ *
+ * <p>Grammar (keywords are case-insensitive; juxtaposed terms are joined
+ * with AND):</p>
+ * <pre>
+ *   query   := or
+ *   or      := and ( OR and )*
+ *   and     := unary ( [AND] unary )*
+ *   unary   := NOT unary | primary
+ *   primary := '(' or ')' | term
+ *   term    := date ':' range | (caption | path) '~' text | name ':' value
+ *   range   := day | day? '..' day?        day := yyyy | yyyy-MM | yyyy-MM-dd
+ * </pre>
+ *
+ * <p>Example: {@code person:alice AND (location:paris OR location:rome)
+ * AND date:2024-01..2024-06 AND caption~"beach"}. Values containing spaces
+ * or punctuation are written in double quotes.</p>
+ *
+ * @author Prayrit
+ */
+public final class QueryParser {
+    private static final String SPECIAL = "():~\"";
+
+    private enum Kind { WORD, QUOTED, LPAREN, RPAREN, COLON, TILDE, EOF }
+
+    private static final class Token {
+        final Kind kind;
+        final String text;
+        final int pos;
+
+        Token(Kind kind, String text, int pos) {
+            this.kind = kind;
+            this.text = text;
+            this.pos = pos;
+        }
+
+        boolean isKeyword(String k) { return kind == Kind.WORD && text.equalsIgnoreCase(k); }
+    }
+
+    private final String input;
+    private final List<Token> tokens;
+    private int next;
+
+    private QueryParser(String input) {
+        this.input = input;
+        this.tokens = tokenize(input);
+    }
+
+    /**
+     * Parse a query string into an (unrewritten) query tree.
+     *
+     * @param input query text
+     * @return parsed query
+     * @throws IllegalArgumentException if the text is not a valid query; the
+     *         message names the offending position
+     */
+    public static Query parse(String input) {
+        if (input == null || input.isBlank()) throw new IllegalArgumentException("Query is empty");
+        QueryParser p = new QueryParser(input);
+        Query q = p.parseOr();
+        if (p.peek().kind != Kind.EOF) throw p.error("Unexpected '" + p.peek().text + "'");
+        return q;
+    }
+
+    /**
+     * Check whether text can be written unquoted in a query.
+     *
+     * @param s text
+     * @return true if the tokenizer would read it back as one word
+     */
+    static boolean isBareWord(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c) || SPECIAL.indexOf(c) >= 0) return false;
+        }
+        return !s.equalsIgnoreCase("AND") && !s.equalsIgnoreCase("OR") && !s.equalsIgnoreCase("NOT");
+    }
+
+    private Query parseOr() {
+        List<Query> operands = new ArrayList<>();
+        operands.add(parseAnd());
+        while (peek().isKeyword("OR")) {
+            next++;
+            operands.add(parseAnd());
+        }
+        return operands.size() == 1 ? operands.get(0) : new Query.Or(operands);
+    }
+
+    private Query parseAnd() {
+        List<Query> operands = new ArrayList<>();
+        operands.add(parseUnary());
+        while (true) {
+            Token t = peek();
+            if (t.isKeyword("AND")) {
+                next++;
+            } else if (t.kind == Kind.EOF || t.kind == Kind.RPAREN || t.isKeyword("OR")) {
+                break;
+            }
+            operands.add(parseUnary());
+        }
+        return operands.size() == 1 ? operands.get(0) : new Query.And(operands);
+    }
+
+    private Query parseUnary() {
+        if (peek().isKeyword("NOT")) {
+            next++;
+            return new Query.Not(parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Query parsePrimary() {
+        Token t = take();
+        if (t.kind == Kind.LPAREN) {
+            Query q = parseOr();
+            expect(Kind.RPAREN, "Missing ')'");
+            return q;
+        }
+        if (t.kind != Kind.WORD && t.kind != Kind.QUOTED) throw error(t, "Expected a search term");
+        Token op = take();
+        if (op.kind == Kind.TILDE) {
+            boolean path = t.text.equalsIgnoreCase("path");
+            if (!path && !t.text.equalsIgnoreCase("caption")) throw error(op, "'~' is only supported for caption and path");
+            Token v = take();
+            if (v.kind != Kind.WORD && v.kind != Kind.QUOTED) throw error(v, "Expected text after '" + t.text + "~'");
+            return path ? new Query.PathContains(v.text) : new Query.CaptionContains(v.text);
+        }
+        if (op.kind != Kind.COLON) throw error(op, "Expected ':' after '" + t.text + "'");
+        Token v = take();
+        if (v.kind != Kind.WORD && v.kind != Kind.QUOTED) throw error(v, "Expected a value after '" + t.text + ":'");
+        if (t.kind == Kind.WORD && t.text.equalsIgnoreCase("date")) return parseRange(v);
+        return new Query.TagTerm(t.text, v.text);
+    }
+
+    private Query.DateRange parseRange(Token v) {
+        String s = v.text;
+        int dots = s.indexOf("..");
+        try {
+            if (dots < 0) return new Query.DateRange(parseDay(s, false), parseDay(s, true));
+            String lo = s.substring(0, dots);
+            String hi = s.substring(dots + 2);
+            if (lo.isEmpty() && hi.isEmpty()) throw error(v, "Date range needs at least one bound");
+            return new Query.DateRange(lo.isEmpty() ? null : parseDay(lo, false), hi.isEmpty() ? null : parseDay(hi, true));
+        } catch (DateTimeParseException | NumberFormatException ex) {
+            throw error(v, "Invalid date '" + s + "' (use yyyy, yyyy-MM or yyyy-MM-dd)");
+        }
+    }
+
+    /**
+     * Parse a possibly partial date, returning the first or last day of the
+     * period it names.
+     */
+    private static LocalDate parseDay(String s, boolean end) {
+        switch (s.length()) {
+            case 4: {
+                int year = Integer.parseInt(s);
+                return end ? LocalDate.of(year, 12, 31) : LocalDate.of(year, 1, 1);
+            }
+            case 7: {
+                YearMonth ym = YearMonth.parse(s);
+                return end ? ym.atEndOfMonth() : ym.atDay(1);
+            }
+            default:
+                return LocalDate.parse(s);
+        }
+    }
+
+    private Token peek() { return tokens.get(next); }
+
+    private Token take() {
+        Token t = tokens.get(next);
+        if (t.kind != Kind.EOF) next++;
+        return t;
+    }
+
+    private void expect(Kind kind, String message) {
+        Token t = take();
+        if (t.kind != kind) throw error(t, message);
+    }
+
+    private IllegalArgumentException error(String message) { return error(peek(), message); }
+
+    private IllegalArgumentException error(Token t, String message) {
+        return new IllegalArgumentException(message + " at position " + (t.pos + 1) + " in: " + input);
+    }
+
+    private static List<Token> tokenize(String s) {
+        List<Token> out = new ArrayList<>();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                out.add(new Token(Kind.LPAREN, "(", i++));
+            } else if (c == ')') {
+                out.add(new Token(Kind.RPAREN, ")", i++));
+            } else if (c == ':') {
+                out.add(new Token(Kind.COLON, ":", i++));
+            } else if (c == '~') {
+                out.add(new Token(Kind.TILDE, "~", i++));
+            } else if (c == '"') {
+                int start = i++;
+                StringBuilder sb = new StringBuilder();
+                while (i < s.length() && s.charAt(i) != '"') {
+                    if (s.charAt(i) == '\\' && i + 1 < s.length()) i++;
+                    sb.append(s.charAt(i++));
+                }
+                if (i >= s.length()) throw new IllegalArgumentException("Unterminated quote at position " + (start + 1) + " in: " + s);
+                i++;
+                out.add(new Token(Kind.QUOTED, sb.toString(), start));
+            } else {
+                int start = i;
+                while (i < s.length() && !Character.isWhitespace(s.charAt(i)) && SPECIAL.indexOf(s.charAt(i)) < 0) i++;
+                out.add(new Token(Kind.WORD, s.substring(start, i), start));
+            }
+        }
+        out.add(new Token(Kind.EOF, "end of query", s.length()));
+        return out;
+    }
+}
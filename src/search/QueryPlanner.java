@@ -0,0 +1,183 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cost-based planner for rewritten queries.
+ *
+ * <p>The planner estimates the cardinality of every operand from the index
+ * (posting list lengths and exact date range counts). Indexed operands of a
+ * conjunction are combined as bitmaps, AND for positive operands (smallest
+ * first) and AND NOT for negated ones; the remaining operands are checked as
+ * per-photo filters, cheapest and most selective first. A disjunction of
+ * indexed operands becomes a bitmap OR, and a negated indexed operand the
+ * complement of its bitmap. Anything that cannot use an index falls back to a
+ * filtered full scan.</p>
+ *
+ * @author Prayrit
+ */
+public final class QueryPlanner {
+    /** Assumed fraction of photos matched by a caption predicate too short for the trigram index. */
+    private static final double CAPTION_SELECTIVITY = 0.1;
+    /** Assumed fraction of photos matched by a path predicate, which has no index. */
+    private static final double PATH_SELECTIVITY = 0.1;
+
+    private final PhotoIndex index;
+
+    /**
+     * @param index index whose statistics drive the estimates
+     */
+    public QueryPlanner(PhotoIndex index) { this.index = index; }
+
+    /**
+     * Rewrite and plan a query.
+     *
+     * @param query parsed query
+     * @return executable plan
+     */
+    public Plan plan(Query query) { return planNode(query.rewrite()); }
+
+    private Plan planNode(Query q) {
+        int n = index.size();
+        if (q instanceof Query.TagTerm) {
+            Query.TagTerm t = (Query.TagTerm) q;
+            return new Plan.TagScan(t, index.countTag(t));
+        }
+        if (q instanceof Query.CaptionContains) {
+            Query.CaptionContains c = (Query.CaptionContains) q;
+            if (TrigramIndex.usable(c.getTokens())) return new Plan.CaptionScan(c, index.captions().estimate(c.getTokens()));
+        }
+        if (q instanceof Query.DateRange) {
+            Query.DateRange r = (Query.DateRange) q;
+            return new Plan.DateScan(r, r.isEmpty() ? 0 : index.countDateRange(r));
+        }
+        if (q instanceof Query.Or) {
+            List<Plan> inputs = new ArrayList<>();
+            long sum = 0;
+            for (Query operand : ((Query.Or) q).getOperands()) {
+                Plan p = planNode(operand);
+                if (!p.isIndexed()) return scan(q);
+                inputs.add(p);
+                sum += p.getEstimate();
+            }
+            return new Plan.Union(inputs, Math.min(n, sum));
+        }
+        if (q instanceof Query.Not) {
+            Plan p = planNode(((Query.Not) q).getOperand());
+            if (p.isIndexed()) return new Plan.Difference(new Plan.FullScan(n), List.of(p), Math.round(n * selectivity(q)));
+        }
+        if (q instanceof Query.And) return planAnd(((Query.And) q).getOperands());
+        return scan(q);
+    }
+
+    /**
+     * Tag, date and union operands are intersected as bitmaps, negated ones
+     * subtracted with AND NOT. A caption operand only joins the bitmaps when
+     * it is the most selective input; otherwise it is cheaper to check it on
+     * the photos that survive, along with anything else that has no index.
+     */
+    private Plan planAnd(List<Query> operands) {
+        int n = index.size();
+        List<Plan> positive = new ArrayList<>();
+        List<Plan> negative = new ArrayList<>();
+        List<Query> rest = new ArrayList<>();
+        Plan caption = null;
+        Query captionQuery = null;
+        for (Query operand : operands) {
+            if (operand instanceof Query.Not) {
+                Query inner = ((Query.Not) operand).getOperand();
+                Plan p = inner instanceof Query.CaptionContains ? null : planNode(inner);
+                if (p != null && p.isIndexed()) negative.add(p); else rest.add(operand);
+                continue;
+            }
+            Plan p = operand instanceof Query.And ? null : planNode(operand);
+            if (p == null || !p.isIndexed()) {
+                rest.add(operand);
+            } else if (operand instanceof Query.CaptionContains) {
+                if (caption == null || p.getEstimate() < caption.getEstimate()) {
+                    if (captionQuery != null) rest.add(captionQuery);
+                    caption = p;
+                    captionQuery = operand;
+                } else {
+                    rest.add(operand);
+                }
+            } else {
+                positive.add(p);
+            }
+        }
+        if (caption != null) {
+            long smallest = Long.MAX_VALUE;
+            for (Plan p : positive) smallest = Math.min(smallest, p.getEstimate());
+            if (caption.getEstimate() <= smallest) positive.add(caption); else rest.add(captionQuery);
+        }
+        positive.sort(Comparator.comparingLong(Plan::getEstimate));
+        double sel = 1;
+        for (Plan p : positive) sel *= n == 0 ? 0 : p.getEstimate() / (double) n;
+        Plan plan;
+        if (positive.isEmpty()) {
+            plan = new Plan.FullScan(n);
+        } else if (positive.size() == 1) {
+            plan = positive.get(0);
+        } else {
+            plan = new Plan.Intersect(positive, Math.round(n * sel));
+        }
+        if (!negative.isEmpty()) {
+            for (Plan p : negative) sel *= n == 0 ? 0 : 1 - p.getEstimate() / (double) n;
+            plan = new Plan.Difference(plan, negative, Math.round(n * sel));
+        }
+        if (rest.isEmpty()) return plan;
+        rest.sort(Comparator.comparingDouble(r -> selectivity(r) * cost(r)));
+        for (Query r : rest) sel *= selectivity(r);
+        return new Plan.Filter(plan, rest, Math.round(n * sel));
+    }
+
+    private Plan scan(Query q) {
+        return new Plan.Filter(new Plan.FullScan(index.size()), List.of(q), Math.round(index.size() * selectivity(q)));
+    }
+
+    /**
+     * Estimated fraction of the library matched by a query, assuming
+     * independent operands.
+     */
+    double selectivity(Query q) {
+        int n = index.size();
+        if (n == 0) return 0;
+        if (q instanceof Query.TagTerm) return index.countTag((Query.TagTerm) q) / (double) n;
+        if (q instanceof Query.DateRange) {
+            Query.DateRange r = (Query.DateRange) q;
+            return r.isEmpty() ? 0 : index.countDateRange(r) / (double) n;
+        }
+        if (q instanceof Query.CaptionContains) {
+            String[] tokens = ((Query.CaptionContains) q).getTokens();
+            return TrigramIndex.usable(tokens) ? index.captions().estimate(tokens) / (double) n : CAPTION_SELECTIVITY;
+        }
+        if (q instanceof Query.PathContains) return PATH_SELECTIVITY;
+        if (q instanceof Query.Not) return 1 - selectivity(((Query.Not) q).getOperand());
+        if (q instanceof Query.And) {
+            double s = 1;
+            for (Query o : ((Query.And) q).getOperands()) s *= selectivity(o);
+            return s;
+        }
+        if (q instanceof Query.Or) {
+            double miss = 1;
+            for (Query o : ((Query.Or) q).getOperands()) miss *= 1 - selectivity(o);
+            return 1 - miss;
+        }
+        return 1;
+    }
+
+    /** Relative per-photo cost of evaluating a predicate as a filter. */
+    private static double cost(Query q) {
+        if (q instanceof Query.CaptionContains || q instanceof Query.PathContains) return 4;
+        if (q instanceof Query.Not) return cost(((Query.Not) q).getOperand());
+        if (q instanceof Query.And || q instanceof Query.Or) {
+            List<Query> ops = q instanceof Query.And ? ((Query.And) q).getOperands() : ((Query.Or) q).getOperands();
+            double c = 0;
+            for (Query o : ops) c += cost(o);
+            return c;
+        }
+        return 1;
+    }
+}
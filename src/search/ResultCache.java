@@ -0,0 +1,208 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import model.User;
+
+/**
+ * Least-recently-used cache of search results for one user.
+ *
+ * <p>Entries are keyed by the canonical text of the rewritten query with
+ * AND/OR operands sorted, so queries that differ only in spelling, case or
+ * operand order share an entry. Each entry remembers the user's {@link User#getGeneration()
+ * generation} when it was computed and is discarded on lookup once the
+ * library has changed since. The least recently used entries are evicted
+ * when either the entry limit or the memory budget is exceeded.</p>
+ *
+ * <p>Not thread-safe; {@link SearchEngine} calls it under its own lock.</p>
+ *
+ * @author Prayrit
+ */
+public final class ResultCache {
+    /** Default number of cached queries. */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    /** Default memory budget in bytes. */
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    private final User user;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long stale;
+    private long evictions;
+
+    private static final class Entry {
+        final long generation;
+        final SearchResults results;
+        final long bytes;
+
+        Entry(long generation, SearchResults results, long bytes) {
+            this.generation = generation;
+            this.results = results;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param user user whose generation validates the entries
+     * @param maxEntries largest number of entries kept
+     * @param maxBytes approximate memory budget for the cached results
+     */
+    public ResultCache(User user, int maxEntries, long maxBytes) {
+        this.user = user;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cache key of a rewritten query: its case-folded canonical text with
+     * the operands of every AND and OR in sorted order.
+     *
+     * @param q rewritten query
+     * @return key
+     */
+    public static String keyOf(Query q) {
+        if (q instanceof Query.And || q instanceof Query.Or) {
+            List<Query> operands = q instanceof Query.And ? ((Query.And) q).getOperands() : ((Query.Or) q).getOperands();
+            List<String> parts = new ArrayList<>();
+            for (Query o : operands) parts.add(keyOf(o));
+            Collections.sort(parts);
+            return (q instanceof Query.And ? "AND(" : "OR(") + String.join(", ", parts) + ")";
+        }
+        if (q instanceof Query.Not) return "NOT(" + keyOf(((Query.Not) q).getOperand()) + ")";
+        // caption and path text match case-insensitively but print as typed
+        return Query.fold(q.toString());
+    }
+
+    /**
+     * Look up the result of a query.
+     *
+     * @param key query key from {@link #keyOf(Query)}
+     * @return the cached result, or null if absent or out of date
+     */
+    public SearchResults get(String key) {
+        Entry e = entries.get(key);
+        if (e != null && e.generation != user.getGeneration()) {
+            remove(key);
+            stale++;
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.results;
+    }
+
+    /**
+     * Check for a current entry without counting a lookup.
+     *
+     * @param key query key from {@link #keyOf(Query)}
+     * @return true if a lookup would hit
+     */
+    public boolean isCached(String key) {
+        Entry e = entries.get(key);
+        return e != null && e.generation == user.getGeneration();
+    }
+
+    /**
+     * Cache the result of a query computed at the given generation. Results
+     * larger than the whole budget are not cached.
+     *
+     * @param key query key from {@link #keyOf(Query)}
+     * @param generation user generation the result was computed at
+     * @param results result to cache
+     */
+    public void put(String key, long generation, SearchResults results) {
+        if (generation != user.getGeneration()) return;
+        long size = 64 + 2L * key.length() + results.getIds().sizeInBytes() + 4L * results.size();
+        if (size > maxBytes) return;
+        remove(key);
+        entries.put(key, new Entry(generation, results, size));
+        bytes += size;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drop every entry; statistics are kept.
+     */
+    public void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Drop the entries computed before the library last changed, which
+     * would otherwise stay until looked up or evicted.
+     *
+     * @return number of entries dropped
+     */
+    public int purgeStale() {
+        int n = 0;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next().getValue();
+            if (e.generation == user.getGeneration()) continue;
+            bytes -= e.bytes;
+            it.remove();
+            stale++;
+            n++;
+        }
+        return n;
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) bytes -= old.bytes;
+    }
+
+    /**
+     * @return number of cached queries
+     */
+    public int size() { return entries.size(); }
+
+    /**
+     * @return approximate bytes held by cached results
+     */
+    public long sizeInBytes() { return bytes; }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public long getHits() { return hits; }
+
+    /**
+     * @return lookups that had to run the query, including stale entries
+     */
+    public long getMisses() { return misses; }
+
+    /**
+     * @return entries found but discarded because the library had changed
+     */
+    public long getStale() { return stale; }
+
+    /**
+     * @return entries dropped to stay within the limits
+     */
+    public long getEvictions() { return evictions; }
+
+    @Override
+    public String toString() {
+        long lookups = hits + misses;
+        return String.format("%d hits, %d misses (%d stale), %.0f%% hit rate, %d evictions, %d entries, %.1f KB",
+            hits, misses, stale, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions, entries.size(), bytes / 1024.0);
+    }
+}
@@ -0,0 +1,28 @@
+package search;
+
+import java.util.List;
+import model.Photo;
+
+/**
+ * Receiver of search results as they are found, for searches that run in
+ * the background.
+ *
+ * @author Prayrit
+ */
+public interface ResultSink {
+    /**
+     * Matches confirmed since the previous batch, in id order. Called on the
+     * searching thread.
+     *
+     * @param photos photos in the batch
+     */
+    void batch(List<Photo> photos);
+
+    /**
+     * Polled between photos; once it returns true the search stops with a
+     * {@link java.util.concurrent.CancellationException}.
+     *
+     * @return true if the search should stop
+     */
+    default boolean isCancelled() { return false; }
+}
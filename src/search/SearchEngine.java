@@ -0,0 +1,458 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import model.LibraryEvent;
+import model.LibraryListener;
+import model.Photo;
+import model.SmartAlbum;
+import model.User;
+
+/**
+ * Entry point for query-language searches over one user's photos.
+ *
+ * <p>Parses, rewrites and plans a query against the user's
+ * {@link PhotoIndex}, combining predicates as {@link PhotoBitmap}s, and
+ * returns the matches as a lazily resolved {@link SearchResults}. There is one
+ * engine per user, obtained with {@link #forUser(User)}; it listens to the
+ * user's library and keeps its indexes up to date as photos, captions and
+ * tags change. Queries with caption predicates return their results ranked
+ * by caption match quality. Results are cached per canonical query in a
+ * {@link ResultCache} until the user's library next changes. The engine
+ * also maintains the contents of the user's smart albums as
+ * {@link LiveAlbum}s, and indexes perceptual hashes to find near-duplicate
+ * photos. Derived data that queries do not depend on is dropped by the
+ * {@link OrphanCollector} after a photo leaves the library, and
+ * {@link #release(User)} drops the engine of a deleted user.</p>
+ *
+ * @author Prayrit
+ */
+public class SearchEngine implements LibraryListener {
+    private static final Map<User, SearchEngine> ENGINES = new IdentityHashMap<>();
+
+    private final User user;
+    private final PhotoIndex index;
+    private final QueryPlanner planner;
+    private final LatencyStats firstResult = new LatencyStats();
+    private final ResultCache cache;
+    private final Map<SmartAlbum, LiveAlbum> live = new IdentityHashMap<>();
+    private final HashIndex hashes = new HashIndex();
+    private HashJob hashJob;
+    // files that failed to decode, skipped by later hashing jobs of this session
+    private final Set<Photo> unreadable = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private SearchEngine(User user) {
+        this.user = user;
+        this.index = new PhotoIndex(user);
+        this.planner = new QueryPlanner(index);
+        this.cache = new ResultCache(user, ResultCache.DEFAULT_MAX_ENTRIES, ResultCache.DEFAULT_MAX_BYTES);
+        for (Photo p : user.getLibraryPhotos()) if (p.hasPerceptualHash()) hashes.add(p.getId(), p.getPerceptualHash());
+    }
+
+    /**
+     * Obtain the search engine for a user, indexing the user's library on
+     * first use.
+     *
+     * @param user user whose photos are searched
+     * @return the user's engine
+     */
+    public static synchronized SearchEngine forUser(User user) {
+        SearchEngine e = ENGINES.get(user);
+        if (e == null) {
+            e = new SearchEngine(user);
+            user.addLibraryListener(e);
+            ENGINES.put(user, e);
+        }
+        return e;
+    }
+
+    /**
+     * Obtain the search engine for a user without indexing on the calling
+     * thread. A missing engine is built on a background thread and put in
+     * place from {@code owner}, the thread that edits the library, so no
+     * change is missed; if the library changed while it was built, it is
+     * built again.
+     *
+     * @param user user whose photos are searched
+     * @param owner runs tasks on the thread that edits the user's library,
+     *        e.g. {@code Platform::runLater}
+     * @param then receives the engine, on the owner thread
+     */
+    public static void forUserLater(User user, Executor owner, Consumer<SearchEngine> then) {
+        SearchEngine existing;
+        synchronized (SearchEngine.class) {
+            existing = ENGINES.get(user);
+        }
+        if (existing != null) {
+            owner.execute(() -> then.accept(existing));
+            return;
+        }
+        Thread t = new Thread(() -> {
+            long generation = user.getGeneration();
+            SearchEngine built;
+            try {
+                built = new SearchEngine(user);
+            } catch (RuntimeException ex) {
+                // the library changed under the build; index on the owner thread instead
+                owner.execute(() -> then.accept(forUser(user)));
+                return;
+            }
+            owner.execute(() -> {
+                SearchEngine e;
+                synchronized (SearchEngine.class) {
+                    e = ENGINES.get(user);
+                    if (e == null && user.getGeneration() == generation) {
+                        user.addLibraryListener(built);
+                        ENGINES.put(user, built);
+                        e = built;
+                    }
+                }
+                if (e == null) forUserLater(user, owner, then);
+                else then.accept(e);
+            });
+        }, "search-index");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Drop a user's engine, e.g. after the user was deleted: it stops
+     * listening to the library, its hashing job is cancelled and its
+     * caches and smart album views are cleared. A later
+     * {@link #forUser(User)} builds a fresh engine.
+     *
+     * @param user user whose engine is dropped
+     * @return true if the user had an engine
+     */
+    public static synchronized boolean release(User user) {
+        SearchEngine e = ENGINES.remove(user);
+        if (e == null) return false;
+        user.removeLibraryListener(e);
+        synchronized (e) {
+            if (e.hashJob != null) e.hashJob.cancel();
+            e.live.clear();
+            e.cache.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Run a query and return the matching photos in library order, or by
+     * caption relevance when the query searches captions.
+     *
+     * @param query query text
+     * @return matching photos
+     * @throws IllegalArgumentException if the query cannot be parsed
+     */
+    public SearchResults search(String query) { return search(QueryParser.parse(query)); }
+
+    /**
+     * Run an already parsed query.
+     *
+     * @param query query tree
+     * @return matching photos
+     */
+    public synchronized SearchResults search(Query query) {
+        Query q = query.rewrite();
+        String key = ResultCache.keyOf(q);
+        SearchResults r = cache.get(key);
+        if (r != null) return r;
+        long generation = user.getGeneration();
+        r = rank(q, planner.plan(q).execute(index), index::photo);
+        cache.put(key, generation, r);
+        return r;
+    }
+
+    /**
+     * Run a query and stream its matches to a sink in batches while it
+     * runs; meant for a background thread. The engine is locked only while
+     * the indexes are read, not while predicates are tested or batches are
+     * handed over. The time until the first batch
+     * (or until completion, for an empty result) is recorded in
+     * {@link #getFirstResultLatency()}.
+     *
+     * @param query query tree
+     * @param sink receiver of batches in id order
+     * @return all matches, ranked as by {@link #search(Query)}
+     * @throws java.util.concurrent.CancellationException if the sink cancels the search
+     */
+    public SearchResults search(Query query, ResultSink sink) {
+        long start = System.nanoTime();
+        boolean[] seen = new boolean[1];
+        ResultSink timed = new ResultSink() {
+            @Override
+            public void batch(List<Photo> photos) {
+                if (!seen[0]) {
+                    seen[0] = true;
+                    firstResult.record(System.nanoTime() - start);
+                }
+                sink.batch(photos);
+            }
+
+            @Override
+            public boolean isCancelled() { return sink.isCancelled(); }
+        };
+        Query q = query.rewrite();
+        String key = ResultCache.keyOf(q);
+        SearchResults r;
+        long generation;
+        Plan.Candidates candidates;
+        // only the index lookups hold the lock; predicates and the sink run
+        // without it, so edits and autocompletion are not held up
+        synchronized (this) {
+            r = cache.get(key);
+            generation = user.getGeneration();
+            candidates = r == null ? planner.plan(q).candidates(index) : null;
+        }
+        if (r == null) {
+            r = rank(q, candidates.stream(timed), candidates::photo);
+            synchronized (this) {
+                cache.put(key, generation, r);
+            }
+        }
+        if (!seen[0]) firstResult.record(System.nanoTime() - start);
+        return r;
+    }
+
+    /**
+     * Break a result down by tag value and capture month.
+     *
+     * @param results result of a search by this engine
+     * @param topValues most values kept per tag name
+     * @return facets of the photos still in the library
+     */
+    public synchronized Facets facets(SearchResults results, int topValues) {
+        return index.facets(results.getIds(), topValues);
+    }
+
+    /**
+     * Tag names in use starting with a prefix, for autocompletion.
+     *
+     * @param prefix typed prefix, any case
+     * @param limit largest number of suggestions
+     * @return names, most used first
+     */
+    public synchronized List<TagTrie.Suggestion> suggestTagNames(String prefix, int limit) {
+        return index.suggestTagNames(prefix, limit);
+    }
+
+    /**
+     * Values in use for a tag name starting with a prefix, for
+     * autocompletion.
+     *
+     * @param name tag name, any case
+     * @param prefix typed prefix of the value, any case
+     * @param limit largest number of suggestions
+     * @return values, most used first
+     */
+    public synchronized List<TagTrie.Suggestion> suggestTagValues(String name, String prefix, int limit) {
+        return index.suggestTagValues(name, prefix, limit);
+    }
+
+    /**
+     * Live contents of one of the user's smart albums. The album's query is
+     * only run when the contents are first needed; after that each library
+     * change re-tests just the photo it concerns.
+     *
+     * @param album smart album of this engine's user
+     * @return the album's live view
+     * @throws IllegalArgumentException if the stored query cannot be parsed
+     */
+    public synchronized LiveAlbum smartAlbum(SmartAlbum album) {
+        // views of deleted smart albums are dropped here rather than tracked
+        live.keySet().removeIf(a -> user.getSmartAlbums().get(a.getName()) != a);
+        LiveAlbum v = live.get(album);
+        if (v == null) {
+            v = new LiveAlbum(album, user, index, planner, this);
+            live.put(album, v);
+        }
+        return v;
+    }
+
+    /**
+     * Store a photo's perceptual hash and index it for
+     * {@link #similar(Photo, int)}.
+     *
+     * @param p photo of this engine's user
+     * @param hash hash computed by {@link PerceptualHash}
+     */
+    public synchronized void setPerceptualHash(Photo p, long hash) {
+        p.setPerceptualHash(hash);
+        if (p.getId() != 0 && user.getPhoto(p.getId()) == p) hashes.add(p.getId(), hash);
+    }
+
+    /**
+     * Start hashing the photos that have no perceptual hash yet, unless a
+     * job is already doing so. Photos whose file could not be decoded by an
+     * earlier job are skipped.
+     *
+     * @param onDone run on the job's thread when a newly started job ends
+     *        having hashed at least one photo, or null
+     * @return the running job
+     */
+    public synchronized HashJob hashLibrary(Runnable onDone) {
+        if (hashJob == null || hashJob.isFinished()) {
+            hashJob = new HashJob(this, user, unreadable);
+            hashJob.start(onDone);
+        }
+        return hashJob;
+    }
+
+    /** Remember that a photo's file could not be decoded. */
+    synchronized void hashFailed(Photo p) { unreadable.add(p); }
+
+    /**
+     * @return the most recently started hashing job, or null if none
+     */
+    public synchronized HashJob getHashJob() { return hashJob; }
+
+    /**
+     * Photos that look like the given one: those whose perceptual hash
+     * differs in at most {@code maxDistance} bits, closest first. Only
+     * photos already hashed are found.
+     *
+     * @param p hashed photo of this engine's user
+     * @param maxDistance largest Hamming distance, at most 16
+     * @return similar photos, not including p
+     * @throws IllegalStateException if p has no perceptual hash
+     */
+    public synchronized SearchResults similar(Photo p, int maxDistance) {
+        if (!p.hasPerceptualHash()) throw new IllegalStateException("Photo has not been hashed");
+        long h = p.getPerceptualHash();
+        PhotoBitmap ids = hashes.within(h, maxDistance);
+        ids.remove(p.getId());
+        // entries of photos that left the library stay until the collector sweeps them
+        for (int id : ids.toArray()) if (user.getPhoto(id) == null) ids.remove(id);
+        int[] order = ids.toArray();
+        Integer[] boxed = new Integer[order.length];
+        for (int i = 0; i < order.length; i++) boxed[i] = order[i];
+        Arrays.sort(boxed, Comparator.comparingInt((Integer id) -> PerceptualHash.distance(hashes.hash(id), h)));
+        for (int i = 0; i < order.length; i++) order[i] = boxed[i];
+        return new SearchResults(user, ids, order);
+    }
+
+    /**
+     * @return number of indexed perceptual hashes, including those of
+     *     photos waiting for the {@link OrphanCollector}
+     */
+    public synchronized int getHashedCount() { return hashes.size(); }
+
+    /**
+     * @return the cache of recent results, for its statistics
+     */
+    public ResultCache getCache() { return cache; }
+
+    /**
+     * @return time from the start of a streamed search to its first results
+     */
+    public LatencyStats getFirstResultLatency() { return firstResult; }
+
+    /** Order matches by caption relevance when the query searches captions. */
+    private SearchResults rank(Query q, PhotoBitmap ids, IntFunction<Photo> photos) {
+        int[] order = ids.toArray();
+        List<String> tokens = new ArrayList<>();
+        captionTokens(q, tokens);
+        if (!tokens.isEmpty()) {
+            String[] t = tokens.toArray(new String[0]);
+            double[] scores = new double[order.length];
+            Integer[] ranked = new Integer[order.length];
+            for (int i = 0; i < order.length; i++) {
+                ranked[i] = i;
+                scores[i] = TrigramIndex.score(photos.apply(order[i]).getCaption(), t);
+            }
+            Arrays.sort(ranked, Comparator.comparingDouble((Integer i) -> -scores[i]));
+            int[] unranked = order.clone();
+            for (int i = 0; i < order.length; i++) order[i] = unranked[ranked[i]];
+        }
+        return new SearchResults(user, ids, order);
+    }
+
+    /**
+     * Describe how a query would be executed: the rewritten query, the
+     * chosen access paths and their estimated cardinalities.
+     *
+     * @param query query text
+     * @return multi-line explain output
+     * @throws IllegalArgumentException if the query cannot be parsed
+     */
+    public synchronized String explain(String query) {
+        Query q = QueryParser.parse(query);
+        Plan plan = planner.plan(q);
+        return "Query:     " + q.rewrite() + "\n"
+            + "Library:   " + index.size() + " photos\n"
+            + "Cache:     " + (cache.isCached(ResultCache.keyOf(q.rewrite())) ? "hit" : "miss") + "; " + cache + "\n"
+            + "Plan:\n" + plan.explain();
+    }
+
+    @Override
+    public synchronized void libraryChanged(LibraryEvent e) {
+        // a batch is applied under one acquisition of the engine lock
+        for (LibraryEvent one : e.getEvents()) apply(one);
+    }
+
+    private void apply(LibraryEvent e) {
+        switch (e.getType()) {
+            case ALBUM_PHOTO_ADDED: case ALBUM_PHOTO_REMOVED: return;
+            case PHOTO_ADDED: case PHOTO_REMOVED: break;
+            default:
+                // a photo edited after it left the library still fires events, under
+                // an id that may since have been given to another photo
+                if (user.getPhoto(e.getPhoto().getId()) != e.getPhoto()) return;
+        }
+        // smart albums first: they read the photo's old capture day from the index
+        for (LiveAlbum v : live.values()) {
+            if (v.isEvaluated()) v.update(e.getPhoto(), e.getType() == LibraryEvent.Type.PHOTO_REMOVED);
+        }
+        switch (e.getType()) {
+            case PHOTO_ADDED:
+                index.add(e.getPhoto());
+                if (e.getPhoto().hasPerceptualHash()) hashes.add(e.getPhoto().getId(), e.getPhoto().getPerceptualHash());
+                // the id may be reused before the collector swept its last holder's entry
+                else hashes.remove(e.getPhoto().getId());
+                break;
+            case PHOTO_REMOVED:
+                index.remove(e.getPhoto());
+                OrphanCollector.getInstance().orphaned(this, e.getPhoto().getId());
+                break;
+            case CAPTION_CHANGED: index.captionChanged(e.getPhoto(), e.getOldCaption()); break;
+            case TAGS_CHANGED: index.tagsChanged(e.getPhoto()); break;
+            case DATE_CHANGED: index.dateChanged(e.getPhoto()); break;
+            default: break;
+        }
+    }
+
+    /**
+     * Drop the derived data of photos that left the library; called by the
+     * {@link OrphanCollector} with a batch of their former ids.
+     *
+     * @param ids ids the photos had
+     */
+    synchronized void sweep(List<Integer> ids) {
+        for (int id : ids) {
+            // a filled slot means the id was reused, and the entry is already its new photo's
+            if (user.getPhoto(id) == null) hashes.remove(id);
+        }
+        cache.purgeStale();
+    }
+
+    /** Collect the tokens of caption predicates that are not negated. */
+    private static void captionTokens(Query q, List<String> out) {
+        if (q instanceof Query.CaptionContains) {
+            for (String t : ((Query.CaptionContains) q).getTokens()) if (!out.contains(t)) out.add(t);
+        } else if (q instanceof Query.And) {
+            for (Query o : ((Query.And) q).getOperands()) captionTokens(o, out);
+        } else if (q instanceof Query.Or) {
+            for (Query o : ((Query.Or) q).getOperands()) captionTokens(o, out);
+        }
+    }
+}
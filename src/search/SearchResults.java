@@ -0,0 +1,89 @@
+package search;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import model.Photo;
+import model.PhotoPage;
+import model.PhotoPager;
+import model.User;
+
+/**
+ * Read-only list view of a search result.
+ *
+ * <p>The result is held as a {@link PhotoBitmap} of photo ids plus the ids
+ * in display order; photos are only looked up when an element is read, so a
+ * list view showing a large result touches just the rows on screen. A photo
+ * that left the library after the search reads as {@code null}, or as the
+ * photo that has since been given its id; {@link #getVersion()} tells that
+ * the result may be stale. The result
+ * can also be read a page at a time through {@link PhotoPager}.</p>
+ *
+ * @author Prayrit
+ */
+public final class SearchResults extends AbstractList<Photo> implements RandomAccess, PhotoPager {
+    private final User user;
+    private final PhotoBitmap ids;
+    private final int[] order;
+
+    SearchResults(User user, PhotoBitmap ids, int[] order) {
+        this.user = user;
+        this.ids = ids;
+        this.order = order;
+    }
+
+    /**
+     * Create an empty result.
+     *
+     * @param user user the result belongs to
+     * @return empty result
+     */
+    public static SearchResults empty(User user) { return new SearchResults(user, new PhotoBitmap(), new int[0]); }
+
+    /**
+     * Result of the given photos in the given order, e.g. the part of a
+     * search shown before it was cancelled. Photos not in the user's
+     * library are left out.
+     *
+     * @param user user the result belongs to
+     * @param photos photos in display order
+     * @return result holding the photos
+     */
+    public static SearchResults of(User user, List<Photo> photos) {
+        PhotoBitmap ids = new PhotoBitmap();
+        int[] order = new int[photos.size()];
+        int n = 0;
+        for (Photo p : photos) {
+            if (p.getId() != 0 && user.getPhoto(p.getId()) == p && ids.add(p.getId())) order[n++] = p.getId();
+        }
+        return new SearchResults(user, ids, n == order.length ? order : Arrays.copyOf(order, n));
+    }
+
+    @Override
+    public Photo get(int index) { return user.getPhoto(order[index]); }
+
+    @Override
+    public int size() { return order.length; }
+
+    /**
+     * The result itself is fixed, but its photos' captions and dates can
+     * change, so this follows the user's library generation.
+     *
+     * @return current version
+     */
+    @Override
+    public long getVersion() { return user.getGeneration(); }
+
+    @Override
+    public PhotoPage page(int offset, int limit) {
+        if (offset < 0 || offset > order.length) throw new IndexOutOfBoundsException("Offset: " + offset + ", Size: " + order.length);
+        int end = offset + Math.min(Math.max(limit, 0), order.length - offset);
+        return PhotoPage.of(offset, order.length, getVersion(), subList(offset, end));
+    }
+
+    /**
+     * @return ids of the matching photos; callers must not modify it
+     */
+    public PhotoBitmap getIds() { return ids; }
+}
@@ -0,0 +1,236 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prefix trie of strings with usage counts, answering "most used strings
+ * starting with this prefix" for autocompletion.
+ *
+ * <p>Keys are case-folded; each key keeps the spelling it was first added
+ * with for display. Every node with more than {@value #CACHED} keys below
+ * it caches a list of the most used ones, so a suggestion walks the prefix
+ * and copies that list instead of visiting the subtree; smaller subtrees are
+ * simply visited. A count change updates the lists along the key's path.
+ * Each list also remembers the highest count it has had to leave out; while
+ * its last kept entry is at least that high the list is exact, otherwise it
+ * is rebuilt from the subtree on the next lookup.</p>
+ *
+ * @author Prayrit
+ */
+public final class TagTrie {
+    /** Entries cached per node, and the most suggestions returned at once. */
+    static final int CACHED = 16;
+
+    private final Node root = new Node();
+    private int keys;
+
+    /**
+     * One completion: the key as first spelled and its count.
+     */
+    public static final class Suggestion {
+        private final String text;
+        private final int count;
+
+        /**
+         * @param text suggested text
+         * @param count number of uses
+         */
+        public Suggestion(String text, int count) {
+            this.text = text;
+            this.count = count;
+        }
+
+        /**
+         * @return suggested text
+         */
+        public String getText() { return text; }
+
+        /**
+         * @return number of uses
+         */
+        public int getCount() { return count; }
+
+        @Override
+        public String toString() { return text + " (" + count + ")"; }
+    }
+
+    private static final class Node {
+        char[] chars = new char[0];
+        Node[] kids = new Node[0];
+        String text;
+        int count;
+        int below;
+        Node[] top;
+        int missed;
+        boolean stale;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            return i < 0 ? null : kids[i];
+        }
+
+        Node childOrAdd(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            if (i >= 0) return kids[i];
+            i = -i - 1;
+            char[] nc = new char[chars.length + 1];
+            Node[] nk = new Node[kids.length + 1];
+            System.arraycopy(chars, 0, nc, 0, i);
+            System.arraycopy(kids, 0, nk, 0, i);
+            nc[i] = c;
+            nk[i] = new Node();
+            System.arraycopy(chars, i, nc, i + 1, chars.length - i);
+            System.arraycopy(kids, i, nk, i + 1, kids.length - i);
+            chars = nc;
+            kids = nk;
+            return nk[i];
+        }
+
+        /** Reposition a key whose count changed in this node's cached list. */
+        void offer(Node key) {
+            if (top == null) return;
+            int at = -1;
+            for (int i = 0; i < top.length; i++) if (top[i] == key) at = i;
+            if (at < 0) {
+                if (key.count == 0) return;
+                if (top.length >= CACHED) {
+                    if (key.count <= top[CACHED - 1].count) {
+                        missed = Math.max(missed, key.count);
+                        return;
+                    }
+                    missed = Math.max(missed, top[CACHED - 1].count);
+                    top[CACHED - 1] = key;
+                } else {
+                    top = Arrays.copyOf(top, top.length + 1);
+                    top[top.length - 1] = key;
+                }
+                at = top.length - 1;
+            } else if (key.count == 0) {
+                Node[] nt = new Node[top.length - 1];
+                System.arraycopy(top, 0, nt, 0, at);
+                System.arraycopy(top, at + 1, nt, at, top.length - at - 1);
+                top = nt;
+                if (missed > 0) stale = true;
+                return;
+            }
+            while (at > 0 && top[at - 1].count < top[at].count) swap(at - 1, at--);
+            while (at + 1 < top.length && top[at + 1].count > top[at].count) swap(at, at++ + 1);
+            if (top.length > 0 && top[top.length - 1].count < missed) stale = true;
+        }
+
+        private void swap(int i, int j) {
+            Node t = top[i];
+            top[i] = top[j];
+            top[j] = t;
+        }
+    }
+
+    /**
+     * Count one more use of a key.
+     *
+     * @param key key as spelled by the user
+     */
+    public void add(String key) { change(key, 1); }
+
+    /**
+     * Count one less use of a key; a key whose count reaches zero is no
+     * longer suggested.
+     *
+     * @param key key
+     */
+    public void remove(String key) { change(key, -1); }
+
+    private void change(String key, int delta) {
+        String folded = key.toLowerCase(Locale.ROOT);
+        Node[] path = new Node[folded.length() + 1];
+        Node n = root;
+        path[0] = n;
+        for (int i = 0; i < folded.length(); i++) {
+            n = delta > 0 ? n.childOrAdd(folded.charAt(i)) : n.child(folded.charAt(i));
+            if (n == null) return;
+            path[i + 1] = n;
+        }
+        if (delta < 0 && n.count == 0) return;
+        int live = 0;
+        if (n.count == 0) {
+            n.text = key;
+            live = 1;
+        }
+        n.count += delta;
+        if (n.count == 0) live = -1;
+        keys += live;
+        for (Node p : path) {
+            p.below += live;
+            if (p.below <= CACHED) p.top = null;
+            else if (p.top == null) rebuild(p);
+            else p.offer(n);
+        }
+    }
+
+    /**
+     * @param key key
+     * @return current count of the key, 0 if unknown
+     */
+    public int count(String key) {
+        Node n = find(key.toLowerCase(Locale.ROOT));
+        return n == null ? 0 : n.count;
+    }
+
+    /**
+     * @return number of keys with a positive count
+     */
+    public int size() { return keys; }
+
+    /**
+     * Most used keys starting with a prefix, ignoring case.
+     *
+     * @param prefix typed prefix, may be empty
+     * @param limit largest number of suggestions, at most {@value #CACHED}
+     * @return suggestions, most used first
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        List<Suggestion> out = new ArrayList<>();
+        Node n = find(prefix.toLowerCase(Locale.ROOT));
+        if (n == null || limit <= 0) return out;
+        Node[] top;
+        if (n.top == null) {
+            top = ranked(n);
+        } else {
+            if (n.stale || (Math.min(limit, CACHED) > n.top.length && n.missed > 0)) rebuild(n);
+            top = n.top;
+        }
+        for (int i = 0; i < top.length && out.size() < limit; i++) out.add(new Suggestion(top[i].text, top[i].count));
+        return out;
+    }
+
+    private Node find(String folded) {
+        Node n = root;
+        for (int i = 0; i < folded.length() && n != null; i++) n = n.child(folded.charAt(i));
+        return n;
+    }
+
+    /** Recompute a node's cached list from its whole subtree. */
+    private static void rebuild(Node n) {
+        Node[] all = ranked(n);
+        int keep = Math.min(all.length, CACHED);
+        n.top = Arrays.copyOf(all, keep);
+        n.missed = keep < all.length ? all[keep].count : 0;
+        n.stale = false;
+    }
+
+    /** Every key below a node, most used first. */
+    private static Node[] ranked(Node n) {
+        List<Node> all = new ArrayList<>();
+        collect(n, all);
+        all.sort((a, b) -> Integer.compare(b.count, a.count));
+        return all.toArray(new Node[0]);
+    }
+
+    private static void collect(Node n, List<Node> out) {
+        if (n.count > 0) out.add(n);
+        for (Node k : n.kids) collect(k, out);
+    }
+}
@@ -0,0 +1,316 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full-text index over photo captions built from character trigrams.
+ *
+ * <p>Each caption is case-folded and every three-character window that
+ * contains no whitespace is recorded in a posting list of photo ids. A
+ * search token of three or more characters can only occur in captions that
+ * contain all of its trigrams, so the candidate set is the intersection of
+ * those posting lists (shortest first); candidates are then verified with a
+ * real substring check. Tokens shorter than three characters are checked
+ * against the candidates, or against every captioned photo if no longer
+ * token narrows the search.</p>
+ *
+ * <p>Posting lists are stored delta/varint compressed. Appending a newer id
+ * is O(1); edits to older ids are buffered and merged in batches.</p>
+ *
+ * @author Prayrit
+ */
+public class TrigramIndex {
+    private final Map<Long, PostingList> postings = new HashMap<>();
+    private final PhotoBitmap captioned = new PhotoBitmap();
+
+    /**
+     * Index the caption of a photo.
+     *
+     * @param id photo id
+     * @param caption caption text
+     */
+    void add(int id, String caption) {
+        if (caption == null || caption.isBlank()) return;
+        captioned.add(id);
+        for (long g : trigrams(fold(caption))) postings.computeIfAbsent(g, k -> new PostingList()).add(id);
+    }
+
+    /**
+     * Remove the entries recorded for a caption.
+     *
+     * @param id photo id
+     * @param caption caption text that was indexed
+     */
+    void remove(int id, String caption) {
+        if (caption == null || caption.isBlank()) return;
+        captioned.remove(id);
+        for (long g : trigrams(fold(caption))) {
+            PostingList l = postings.get(g);
+            if (l == null) continue;
+            l.remove(id);
+            if (l.size() == 0) postings.remove(g);
+        }
+    }
+
+    /**
+     * Update the index after a caption edit, touching only the trigrams
+     * that differ between the old and new text.
+     *
+     * @param id photo id
+     * @param oldCaption previously indexed caption
+     * @param newCaption current caption
+     */
+    void update(int id, String oldCaption, String newCaption) {
+        Set<Long> before = oldCaption == null ? Set.of() : trigrams(fold(oldCaption));
+        Set<Long> after = newCaption == null ? Set.of() : trigrams(fold(newCaption));
+        for (long g : before) {
+            if (after.contains(g)) continue;
+            PostingList l = postings.get(g);
+            if (l == null) continue;
+            l.remove(id);
+            if (l.size() == 0) postings.remove(g);
+        }
+        for (long g : after) if (!before.contains(g)) postings.computeIfAbsent(g, k -> new PostingList()).add(id);
+        if (newCaption == null || newCaption.isBlank()) captioned.remove(id); else captioned.add(id);
+    }
+
+    /**
+     * @param tokens case-folded search tokens
+     * @return true if at least one token is long enough to use the index
+     */
+    static boolean usable(String[] tokens) {
+        for (String t : tokens) if (t.length() >= 3) return true;
+        return false;
+    }
+
+    /**
+     * Upper bound on the number of captions containing every token: the
+     * length of the shortest posting list involved.
+     *
+     * @param tokens case-folded search tokens
+     * @return estimated match count
+     */
+    int estimate(String[] tokens) {
+        int best = captioned.cardinality();
+        for (String t : tokens) {
+            if (t.length() < 3) continue;
+            for (long g : trigrams(t)) {
+                PostingList l = postings.get(g);
+                best = Math.min(best, l == null ? 0 : l.size());
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Ids of photos that may contain every token; callers verify the
+     * candidates against the caption text.
+     *
+     * @param tokens case-folded search tokens
+     * @return sorted candidate ids
+     */
+    int[] candidates(String[] tokens) {
+        List<PostingList> lists = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (String t : tokens) {
+            if (t.length() < 3) continue;
+            for (long g : trigrams(t)) {
+                if (!seen.add(g)) continue;
+                PostingList l = postings.get(g);
+                if (l == null) return new int[0];
+                lists.add(l);
+            }
+        }
+        if (lists.isEmpty()) return captioned.toArray();
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        int[] acc = lists.get(0).toArray();
+        for (int i = 1; i < lists.size() && acc.length > 0; i++) acc = lists.get(i).retain(acc);
+        return acc;
+    }
+
+    /**
+     * @return number of distinct trigrams indexed
+     */
+    int trigramCount() { return postings.size(); }
+
+    /**
+     * @return approximate bytes held by the compressed posting lists
+     */
+    long sizeInBytes() {
+        long n = 0;
+        for (PostingList l : postings.values()) n += l.sizeInBytes();
+        return n;
+    }
+
+    /**
+     * Relevance of a caption for the searched tokens: whole-word matches
+     * score above word-prefix matches, which score above inner substrings;
+     * the tokens appearing together as a phrase and earlier positions add a
+     * bonus.
+     *
+     * @param caption caption text
+     * @param tokens case-folded search tokens
+     * @return score, higher is better
+     */
+    static double score(String caption, String[] tokens) {
+        String c = fold(caption);
+        double s = 0;
+        for (String t : tokens) {
+            int at = c.indexOf(t);
+            if (at < 0) continue;
+            boolean startsWord = at == 0 || !Character.isLetterOrDigit(c.charAt(at - 1));
+            int end = at + t.length();
+            boolean endsWord = end == c.length() || !Character.isLetterOrDigit(c.charAt(end));
+            s += startsWord && endsWord ? 3 : startsWord ? 2 : 1;
+            s += 1.0 / (1 + at);
+        }
+        if (tokens.length > 1 && c.contains(String.join(" ", tokens))) s += 2;
+        return s - c.length() / 10000.0;
+    }
+
+    static String fold(String s) { return s.toLowerCase(Locale.ROOT); }
+
+    private static Set<Long> trigrams(String s) {
+        Set<Long> out = new HashSet<>();
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            char a = s.charAt(i), b = s.charAt(i + 1), c = s.charAt(i + 2);
+            if (Character.isWhitespace(a) || Character.isWhitespace(b) || Character.isWhitespace(c)) continue;
+            out.add(((long) a << 32) | ((long) b << 16) | c);
+        }
+        return out;
+    }
+
+    /**
+     * Sorted id list stored as varint-encoded gaps, with small sorted
+     * buffers of pending insertions and deletions for ids that are not
+     * newer than the last encoded one.
+     */
+    static final class PostingList {
+        private static final int[] NONE = new int[0];
+
+        private byte[] data = new byte[4];
+        private int bytes;
+        private int count;
+        private int last;
+        private int[] adds = NONE;
+        private int[] dels = NONE;
+
+        void add(int id) {
+            int d = Arrays.binarySearch(dels, id);
+            if (d >= 0) {
+                dels = without(dels, d);
+                return;
+            }
+            if (adds.length == 0 && (count == 0 || id > last)) {
+                append(id);
+                return;
+            }
+            int a = Arrays.binarySearch(adds, id);
+            if (a < 0) adds = with(adds, -a - 1, id);
+            maybeCompact();
+        }
+
+        void remove(int id) {
+            int a = Arrays.binarySearch(adds, id);
+            if (a >= 0) {
+                adds = without(adds, a);
+                return;
+            }
+            int d = Arrays.binarySearch(dels, id);
+            if (d < 0) dels = with(dels, -d - 1, id);
+            maybeCompact();
+        }
+
+        int size() { return count + adds.length - dels.length; }
+
+        long sizeInBytes() { return data.length + 4L * (adds.length + dels.length) + 32; }
+
+        /**
+         * @return all ids in ascending order
+         */
+        int[] toArray() {
+            int[] out = new int[size()];
+            int n = 0, ai = 0, di = 0, pos = 0, prev = 0;
+            for (int i = 0; i < count; i++) {
+                int v = 0, shift = 0, b;
+                do {
+                    b = data[pos++];
+                    v |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                prev += v;
+                while (ai < adds.length && adds[ai] < prev) out[n++] = adds[ai++];
+                while (di < dels.length && dels[di] < prev) di++;
+                if (di < dels.length && dels[di] == prev) { di++; continue; }
+                out[n++] = prev;
+            }
+            while (ai < adds.length) out[n++] = adds[ai++];
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        }
+
+        /**
+         * Intersect with a sorted id array.
+         *
+         * @param sorted candidate ids
+         * @return the candidates that are also in this list
+         */
+        int[] retain(int[] sorted) {
+            int[] mine = toArray();
+            int[] out = new int[Math.min(mine.length, sorted.length)];
+            int i = 0, j = 0, n = 0;
+            while (i < mine.length && j < sorted.length) {
+                if (mine[i] < sorted[j]) i++;
+                else if (mine[i] > sorted[j]) j++;
+                else { out[n++] = mine[i]; i++; j++; }
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        private void append(int id) {
+            int v = id - last;
+            if (bytes + 5 > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, bytes + 5));
+            while ((v & ~0x7f) != 0) {
+                data[bytes++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            data[bytes++] = (byte) v;
+            last = id;
+            count++;
+        }
+
+        private void maybeCompact() {
+            if (adds.length + dels.length <= Math.max(32, count >>> 3)) return;
+            int[] ids = toArray();
+            data = new byte[Math.max(4, ids.length * 2)];
+            bytes = 0;
+            count = 0;
+            last = 0;
+            adds = NONE;
+            dels = NONE;
+            for (int id : ids) append(id);
+        }
+
+        private static int[] with(int[] a, int at, int v) {
+            int[] r = new int[a.length + 1];
+            System.arraycopy(a, 0, r, 0, at);
+            r[at] = v;
+            System.arraycopy(a, at, r, at + 1, a.length - at);
+            return r;
+        }
+
+        private static int[] without(int[] a, int at) {
+            if (a.length == 1) return NONE;
+            int[] r = new int[a.length - 1];
+            System.arraycopy(a, 0, r, 0, at);
+            System.arraycopy(a, at + 1, r, at, a.length - at - 1);
+            return r;
+        }
+    }
+}
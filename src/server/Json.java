@@ -0,0 +1,106 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal JSON text builder for API responses. Calls must nest properly:
+ * every {@link #beginObject()} and {@link #beginArray()} is closed by the
+ * matching end call, and inside objects each value follows a
+ * {@link #key(String)}.
+ *
+ * @author Prayrit
+ */
+final class Json {
+    private final StringBuilder sb = new StringBuilder();
+    private final Deque<Boolean> first = new ArrayDeque<>(); // per open container: no element yet
+    private boolean afterKey;
+
+    Json beginObject() { return open('{'); }
+
+    Json endObject() { return close('}'); }
+
+    Json beginArray() { return open('['); }
+
+    Json endArray() { return close(']'); }
+
+    Json key(String k) {
+        separate();
+        quote(k);
+        sb.append(':');
+        afterKey = true;
+        return this;
+    }
+
+    Json value(String s) {
+        separate();
+        if (s == null) sb.append("null");
+        else quote(s);
+        return this;
+    }
+
+    Json value(long n) {
+        separate();
+        sb.append(n);
+        return this;
+    }
+
+    Json value(boolean b) {
+        separate();
+        sb.append(b);
+        return this;
+    }
+
+    /** Shorthand for {@code key(k).value(v)}; null and non-numbers are written as strings. */
+    Json field(String k, Object v) {
+        key(k);
+        if (v instanceof Long || v instanceof Integer) return value(((Number) v).longValue());
+        if (v instanceof Boolean) return value((Boolean) v);
+        return value(v == null ? null : v.toString());
+    }
+
+    @Override
+    public String toString() { return sb.toString(); }
+
+    private Json open(char c) {
+        separate();
+        sb.append(c);
+        first.push(true);
+        return this;
+    }
+
+    private Json close(char c) {
+        first.pop();
+        sb.append(c);
+        return this;
+    }
+
+    private void separate() {
+        if (afterKey) {
+            afterKey = false;
+            return;
+        }
+        if (first.isEmpty()) return;
+        if (!first.peek()) sb.append(',');
+        first.pop();
+        first.push(false);
+    }
+
+    private void quote(String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
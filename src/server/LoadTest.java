@@ -0,0 +1,160 @@
+package server;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Local load generator for {@link PhotoServer}.
+ *
+ * <p>A number of clients, each on its own virtual thread, request the given
+ * URLs in turn for a fixed time, and the run is summarised as throughput
+ * and latency percentiles. Responses other than 2xx and 304 count as
+ * errors.</p>
+ *
+ * <pre>photos-loadtest [--clients N] [--seconds S] URL...</pre>
+ *
+ * @author Prayrit
+ */
+public final class LoadTest {
+    /** Outcome of a run. */
+    public static final class Report {
+        private final long requests;
+        private final long errors;
+        private final double seconds;
+        private final long[] sortedNanos;
+
+        Report(long errors, double seconds, long[] sortedNanos) {
+            this.requests = sortedNanos.length;
+            this.errors = errors;
+            this.seconds = seconds;
+            this.sortedNanos = sortedNanos;
+        }
+
+        /**
+         * @return requests completed
+         */
+        public long getRequests() { return requests; }
+
+        /**
+         * @return requests that failed or got an error status
+         */
+        public long getErrors() { return errors; }
+
+        /**
+         * @return completed requests per second
+         */
+        public double getRequestsPerSecond() { return requests / seconds; }
+
+        /**
+         * @param p percentile, 0 to 100
+         * @return latency at that percentile, in milliseconds
+         */
+        public double percentileMillis(double p) {
+            if (sortedNanos.length == 0) return 0;
+            int i = (int) Math.ceil(p / 100 * sortedNanos.length) - 1;
+            return sortedNanos[Math.max(0, Math.min(i, sortedNanos.length - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d errors, %.0f req/s, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                requests, errors, getRequestsPerSecond(), percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(100));
+        }
+    }
+
+    private LoadTest() {}
+
+    /**
+     * Run the load test from the command line and print its report.
+     *
+     * @param args command line
+     * @throws Exception if the run is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = 16;
+        double seconds = 10;
+        List<URI> urls = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--clients") && i + 1 < args.length) clients = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--seconds") && i + 1 < args.length) seconds = Double.parseDouble(args[++i]);
+            else urls.add(URI.create(args[i]));
+        }
+        if (urls.isEmpty()) {
+            System.err.println("usage: LoadTest [--clients N] [--seconds S] URL...");
+            System.exit(2);
+        }
+        System.out.println(run(urls, clients, Duration.ofMillis((long) (seconds * 1000))));
+    }
+
+    /**
+     * Request the URLs from several clients for a while.
+     *
+     * @param urls URLs, requested round-robin by every client
+     * @param clients concurrent clients
+     * @param duration how long to run
+     * @return report of the run
+     * @throws Exception if interrupted
+     */
+    public static Report run(List<URI> urls, int clients, Duration duration) throws Exception {
+        HttpClient http = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        long end = System.nanoTime() + duration.toNanos();
+        long start = System.nanoTime();
+        List<Future<long[]>> results = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                int first = c;
+                results.add(pool.submit(() -> client(http, urls, first, end)));
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        long errors = 0;
+        int n = 0;
+        List<long[]> all = new ArrayList<>();
+        for (Future<long[]> f : results) {
+            long[] r = f.get();
+            errors += r[0];
+            n += r.length - 1;
+            all.add(r);
+        }
+        long[] nanos = new long[n];
+        int k = 0;
+        for (long[] r : all) {
+            System.arraycopy(r, 1, nanos, k, r.length - 1);
+            k += r.length - 1;
+        }
+        Arrays.sort(nanos);
+        return new Report(errors, secs, nanos);
+    }
+
+    /** One client's loop; returns its error count followed by its latencies. */
+    private static long[] client(HttpClient http, List<URI> urls, int next, long end) {
+        long[] out = new long[1024];
+        int n = 1;
+        while (System.nanoTime() < end) {
+            HttpRequest req = HttpRequest.newBuilder(urls.get(next++ % urls.size())).GET().build();
+            long t = System.nanoTime();
+            try {
+                int status = http.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status >= 300 && status != 304) out[0]++;
+            } catch (Exception e) {
+                out[0]++;
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (n == out.length) out = Arrays.copyOf(out, n * 2);
+            out[n++] = System.nanoTime() - t;
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,517 @@
+package server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import export.ArchiveExport;
+import export.ArchiveFormat;
+import model.Album;
+import model.DataStore;
+import model.Photo;
+import model.PhotoPage;
+import model.PhotoPager;
+import model.SmartAlbum;
+import model.Tag;
+import model.User;
+import search.SearchEngine;
+
+/**
+ * Read-only HTTP API over the photo data, for tools that browse albums and
+ * fetch images without the desktop UI.
+ *
+ * <p>Built on the JDK's {@code com.sun.net.httpserver}; each request runs on
+ * its own virtual thread. Model reads for a user happen under the user's
+ * lock, which is also held by the user's batch operations, while image
+ * bytes are streamed from disk outside it. Responses are JSON except for
+ * images and thumbnails.</p>
+ *
+ * <pre>
+ * GET /api/users                              users
+ * GET /api/users/{user}                       a user's albums and smart albums
+ * GET /api/users/{user}/albums/{album}        a page of an album (offset, limit)
+ * GET /api/users/{user}/albums/{album}/export the album as an archive (format=zip|tar)
+ * GET /api/users/{user}/search?q=QUERY        a page of search results (offset, limit)
+ * GET /api/users/{user}/search/export?q=QUERY the search results as an archive (format=zip|tar)
+ * GET /api/users/{user}/photos/{id}           photo metadata
+ * GET /api/users/{user}/photos/{id}/image     image file
+ * GET /api/users/{user}/photos/{id}/thumbnail JPEG thumbnail (size, default 256)
+ * </pre>
+ *
+ * <p>Image and thumbnail responses carry an entity tag derived from the
+ * file's size and modification time and answer {@code If-None-Match} with
+ * 304. Images also honour a single {@code Range} (with {@code If-Range}).
+ * Photo ids are those of {@link Photo#getId()} in this server's session.
+ * Exports are streamed as they are written (see {@link ArchiveExport}),
+ * so a slow client slows the export instead of buffering it.</p>
+ *
+ * @author Prayrit
+ */
+public final class PhotoServer {
+    /** Port used when none is given. */
+    public static final int DEFAULT_PORT = 8213;
+    /** Largest page of photos returned by one request. */
+    static final int MAX_PAGE = 1000;
+    /** Page size when no limit is given. */
+    static final int DEFAULT_PAGE = 100;
+    /** Bytes of images copied per write. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** An error answered with a status code and a JSON message. */
+    static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final DataStore store;
+    private final Thumbnails thumbnails = new Thumbnails(64L << 20);
+    private HttpServer http;
+    private ExecutorService executor;
+
+    /**
+     * @param store data to serve
+     */
+    public PhotoServer(DataStore store) { this.store = store; }
+
+    /**
+     * Start listening.
+     *
+     * @param address address and port to bind; port 0 picks a free port
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalStateException if already started
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (http != null) throw new IllegalStateException("Server already started");
+        // headers and body go out in separate writes; without TCP_NODELAY each
+        // keep-alive response waits on the client's delayed ACK (~40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+        http = HttpServer.create(address, 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        http.setExecutor(executor);
+        http.createContext("/api/", this::handle);
+        http.start();
+    }
+
+    /**
+     * Stop listening, waiting up to a second for running requests.
+     */
+    public synchronized void stop() {
+        if (http == null) return;
+        http.stop(1);
+        executor.shutdown();
+        http = null;
+    }
+
+    /**
+     * @return port the server is bound to
+     * @throws IllegalStateException if not started
+     */
+    public synchronized int getPort() {
+        if (http == null) throw new IllegalStateException("Server not started");
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * Serve the datastore until the process is stopped.
+     *
+     * <pre>photos-server [--data DIR] [--bind ADDRESS] [--port PORT]</pre>
+     *
+     * @param args command line
+     * @throws IOException if the server cannot start
+     */
+    public static void main(String[] args) throws IOException {
+        String bind = "127.0.0.1";
+        int port = DEFAULT_PORT;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--data": System.setProperty("photos.data", args[i + 1]); break;
+                case "--bind": bind = args[i + 1]; break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("usage: PhotoServer [--data DIR] [--bind ADDRESS] [--port PORT]");
+                    System.exit(2);
+            }
+        }
+        PhotoServer server = new PhotoServer(DataStore.getInstance());
+        server.start(new InetSocketAddress(bind, port));
+        System.out.println("Serving photos on http://" + bind + ":" + server.getPort() + "/api/users");
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            String method = ex.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                ex.getResponseHeaders().set("Allow", "GET, HEAD");
+                throw new HttpError(405, "Method not allowed: " + method);
+            }
+            route(ex, segments(ex.getRequestURI().getRawPath()), params(ex.getRequestURI().getRawQuery()));
+        } catch (HttpError e) {
+            sendJson(ex, e.status, new Json().beginObject().field("error", e.getMessage()).endObject());
+        } catch (RuntimeException e) {
+            sendJson(ex, 500, new Json().beginObject().field("error", e.toString()).endObject());
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void route(HttpExchange ex, String[] s, Map<String, String> params) throws IOException, HttpError {
+        // s[0] is "api"
+        if (s.length == 2 && s[1].equals("users")) {
+            users(ex);
+            return;
+        }
+        if (s.length < 3 || !s[1].equals("users")) throw new HttpError(404, "No such resource");
+        User u = store.getUser(s[2]);
+        if (u == null) throw new HttpError(404, "No such user: " + s[2]);
+        if (s.length == 3) {
+            user(ex, u);
+        } else if (s.length == 5 && s[3].equals("albums")) {
+            album(ex, u, s[4], params);
+        } else if (s.length == 6 && s[3].equals("albums") && s[5].equals("export")) {
+            ArchiveFormat f = format(params);
+            ArchiveExport export;
+            synchronized (u) {
+                Album a = u.getAlbums().get(s[4]);
+                if (a == null) throw new HttpError(404, "No such album: " + s[4]);
+                List<Photo> photos = new ArrayList<>(a.size());
+                for (int i = 0; i < a.size(); i++) photos.add(a.photoAt(i));
+                export = new ArchiveExport(photos, f);
+            }
+            export(ex, s[4], export);
+        } else if (s.length == 4 && s[3].equals("search")) {
+            search(ex, u, params);
+        } else if (s.length == 5 && s[3].equals("search") && s[4].equals("export")) {
+            ArchiveFormat f = format(params);
+            String q = params.get("q");
+            if (q == null) throw new HttpError(400, "Missing parameter q");
+            ArchiveExport export;
+            synchronized (u) {
+                try {
+                    export = new ArchiveExport(SearchEngine.forUser(u).search(q), f);
+                } catch (IllegalArgumentException e) {
+                    throw new HttpError(400, e.getMessage());
+                }
+            }
+            export(ex, "search", export);
+        } else if (s.length >= 5 && s.length <= 6 && s[3].equals("photos")) {
+            Photo p;
+            Json meta = null;
+            synchronized (u) {
+                p = u.getPhoto(parseInt(s[4], "photo id"));
+                if (p != null && s.length == 5) meta = photo(new Json(), p);
+            }
+            if (p == null) throw new HttpError(404, "No such photo: " + s[4]);
+            if (meta != null) sendJson(ex, 200, meta);
+            else if (s[5].equals("image")) image(ex, p);
+            else if (s[5].equals("thumbnail")) thumbnail(ex, p, params);
+            else throw new HttpError(404, "No such resource");
+        } else {
+            throw new HttpError(404, "No such resource");
+        }
+    }
+
+    private void users(HttpExchange ex) throws IOException {
+        Json j = new Json().beginArray();
+        for (User u : store.getUsers().values()) {
+            synchronized (u) {
+                j.beginObject().field("name", u.getUsername()).field("albums", u.getAlbums().size())
+                    .field("photos", u.getPhotoCount()).endObject();
+            }
+        }
+        sendJson(ex, 200, j.endArray());
+    }
+
+    private void user(HttpExchange ex, User u) throws IOException {
+        Json j = new Json().beginObject().field("name", u.getUsername());
+        synchronized (u) {
+            j.key("albums").beginArray();
+            for (Album a : u.getAlbums().values()) {
+                j.beginObject().field("name", a.getName()).field("photos", a.size()).field("start", a.getStartDate())
+                    .field("end", a.getEndDate()).field("sort", a.getSortOrder().name()).endObject();
+            }
+            j.endArray().key("smartAlbums").beginArray();
+            for (SmartAlbum s : u.getSmartAlbums().values()) j.beginObject().field("name", s.getName()).field("query", s.getQuery()).endObject();
+            j.endArray();
+        }
+        sendJson(ex, 200, j.endObject());
+    }
+
+    private void album(HttpExchange ex, User u, String name, Map<String, String> params) throws IOException, HttpError {
+        Json j;
+        synchronized (u) {
+            Album a = u.getAlbums().get(name);
+            if (a == null) throw new HttpError(404, "No such album: " + name);
+            j = page(new Json().beginObject().field("album", a.getName()), u, a, params);
+        }
+        sendJson(ex, 200, j.endObject());
+    }
+
+    private void search(HttpExchange ex, User u, Map<String, String> params) throws IOException, HttpError {
+        String q = params.get("q");
+        if (q == null) throw new HttpError(400, "Missing parameter q");
+        Json j;
+        synchronized (u) {
+            PhotoPager results;
+            try {
+                results = SearchEngine.forUser(u).search(q);
+            } catch (IllegalArgumentException e) {
+                throw new HttpError(400, e.getMessage());
+            }
+            j = page(new Json().beginObject().field("query", q), u, results, params);
+        }
+        sendJson(ex, 200, j.endObject());
+    }
+
+    /** Append total, offset and one page of photos to an open object. */
+    private Json page(Json j, User u, PhotoPager pager, Map<String, String> params) throws HttpError {
+        int offset = params.containsKey("offset") ? parseInt(params.get("offset"), "offset") : 0;
+        int limit = params.containsKey("limit") ? parseInt(params.get("limit"), "limit") : DEFAULT_PAGE;
+        if (offset < 0 || offset > pager.size()) throw new HttpError(400, "Offset out of range: " + offset);
+        PhotoPage page = pager.page(offset, Math.min(Math.max(limit, 0), MAX_PAGE));
+        j.field("total", page.getTotal()).field("offset", page.getOffset()).field("next", page.hasMore() ? page.getNextOffset() : null);
+        j.key("photos").beginArray();
+        for (int i = 0; i < page.size(); i++) photo(j, u.getPhoto(page.getId(i)));
+        return j.endArray();
+    }
+
+    private static Json photo(Json j, Photo p) {
+        j.beginObject().field("id", p.getId()).field("path", p.getFilePath()).field("caption", p.getCaption())
+            .field("date", p.getDateTime()).field("size", p.getFileSize());
+        j.key("tags").beginArray();
+        for (Tag t : p.getTags()) j.beginObject().field("name", t.getName()).field("value", t.getValue()).endObject();
+        return j.endArray().endObject();
+    }
+
+    private void image(HttpExchange ex, Photo p) throws IOException, HttpError {
+        Path file = Path.of(p.getFilePath());
+        BasicFileAttributes attrs = attributes(file);
+        long length = attrs.size();
+        String etag = etag(attrs, "");
+        Headers h = ex.getResponseHeaders();
+        h.set("ETag", etag);
+        h.set("Accept-Ranges", "bytes");
+        h.set("Content-Type", contentType(file));
+        h.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(attrs.lastModifiedTime().toInstant(), ZoneOffset.UTC)));
+        if (notModified(ex, etag)) return;
+        long start = 0, end = length - 1;
+        int status = 200;
+        String range = ex.getRequestHeaders().getFirst("Range");
+        String ifRange = ex.getRequestHeaders().getFirst("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] r = parseRange(range, length);
+            if (r != null && r.length == 0) {
+                h.set("Content-Range", "bytes */" + length);
+                throw new HttpError(416, "Range not satisfiable: " + range);
+            }
+            if (r != null) {
+                start = r[0];
+                end = r[1];
+                status = 206;
+                h.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        if (ex.getRequestMethod().equals("HEAD") || count == 0) {
+            h.set("Content-Length", Long.toString(count));
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(status, count);
+        try (InputStream in = Files.newInputStream(file); OutputStream out = ex.getResponseBody()) {
+            in.skipNBytes(start);
+            byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, count)];
+            while (count > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, count));
+                if (n < 0) break; // file shrank while being sent
+                out.write(buf, 0, n);
+                count -= n;
+            }
+        }
+    }
+
+    private static ArchiveFormat format(Map<String, String> params) throws HttpError {
+        String name = params.getOrDefault("format", "zip");
+        ArchiveFormat f = ArchiveFormat.of(name);
+        if (f == null) throw new HttpError(400, "Unknown archive format: " + name);
+        return f;
+    }
+
+    /** Stream an archive of unknown length with chunked encoding. */
+    private void export(HttpExchange ex, String name, ArchiveExport export) throws IOException {
+        Headers h = ex.getResponseHeaders();
+        h.set("Content-Type", export.getFormat().getContentType());
+        String file = name + "." + export.getFormat().getExtension();
+        h.set("Content-Disposition", "attachment; filename=\"" + file.replaceAll("[^\\x20-\\x7e]|[\"\\\\]", "_")
+            + "\"; filename*=UTF-8''" + URLEncoder.encode(file, StandardCharsets.UTF_8).replace("+", "%20"));
+        if (ex.getRequestMethod().equals("HEAD")) {
+            ex.sendResponseHeaders(200, -1);
+            return;
+        }
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream out = ex.getResponseBody()) {
+            export.writeTo(out);
+        }
+    }
+
+    private void thumbnail(HttpExchange ex, Photo p, Map<String, String> params) throws IOException, HttpError {
+        int size = params.containsKey("size") ? parseInt(params.get("size"), "size") : Thumbnails.DEFAULT_SIZE;
+        if (size < 1 || size > Thumbnails.MAX_SIZE) throw new HttpError(400, "Thumbnail size must be 1.." + Thumbnails.MAX_SIZE);
+        Path file = Path.of(p.getFilePath());
+        String etag = etag(attributes(file), "-" + size);
+        ex.getResponseHeaders().set("ETag", etag);
+        ex.getResponseHeaders().set("Content-Type", "image/jpeg");
+        if (notModified(ex, etag)) return;
+        byte[] b;
+        try {
+            b = thumbnails.get(file, etag, size);
+        } catch (IOException e) {
+            throw new HttpError(415, "Cannot decode image: " + e.getMessage());
+        }
+        send(ex, 200, b);
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws HttpError {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new HttpError(404, "Image file missing: " + file);
+        } catch (IOException e) {
+            throw new HttpError(500, "Cannot read image file: " + e.getMessage());
+        }
+    }
+
+    private static String etag(BasicFileAttributes attrs, String suffix) {
+        return "\"" + Long.toHexString(attrs.size()) + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis()) + suffix + "\"";
+    }
+
+    /** Answer 304 if the client already has this entity. */
+    private static boolean notModified(HttpExchange ex, String etag) throws IOException {
+        String inm = ex.getRequestHeaders().getFirst("If-None-Match");
+        if (inm == null) return false;
+        for (String t : inm.split(",")) {
+            t = t.trim();
+            if (t.startsWith("W/")) t = t.substring(2);
+            if (t.equals("*") || t.equals(etag)) {
+                ex.sendResponseHeaders(304, -1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse a single byte range.
+     *
+     * @return {start, end} inclusive, an empty array if unsatisfiable, or
+     *     null if the header should be ignored (malformed or several ranges)
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return null;
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String a = spec.substring(0, dash).trim(), b = spec.substring(dash + 1).trim();
+            if (a.isEmpty()) {
+                // suffix range: the last n bytes
+                long n = Long.parseLong(b);
+                if (n < 0) return null;
+                if (n == 0 || length == 0) return new long[0];
+                return new long[] {Math.max(0, length - n), length - 1};
+            }
+            long start = Long.parseLong(a);
+            long end = b.isEmpty() ? length - 1 : Long.parseLong(b);
+            if (start < 0) return null;
+            if (start >= length) return new long[0];
+            if (end < start) return null;
+            return new long[] {start, Math.min(end, length - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return "image/jpeg";
+        if (name.endsWith(".png")) return "image/png";
+        if (name.endsWith(".gif")) return "image/gif";
+        if (name.endsWith(".bmp")) return "image/bmp";
+        return "application/octet-stream";
+    }
+
+    private static void sendJson(HttpExchange ex, int status, Json j) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        send(ex, status, j.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange ex, int status, byte[] body) throws IOException {
+        if (ex.getRequestMethod().equals("HEAD")) {
+            ex.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static int parseInt(String s, String what) throws HttpError {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Bad " + what + ": " + s);
+        }
+    }
+
+    static String[] segments(String rawPath) throws HttpError {
+        String[] s = rawPath.replaceAll("^/+|/+$", "").split("/+");
+        for (int i = 0; i < s.length; i++) s[i] = decode(s[i].replace("+", "%2B"));
+        return s;
+    }
+
+    static Map<String, String> params(String rawQuery) throws HttpError {
+        Map<String, String> m = new HashMap<>();
+        if (rawQuery == null) return m;
+        for (String kv : rawQuery.split("&")) {
+            int eq = kv.indexOf('=');
+            String k = decode(eq < 0 ? kv : kv.substring(0, eq));
+            String v = eq < 0 ? "" : decode(kv.substring(eq + 1));
+            m.putIfAbsent(k, v);
+        }
+        return m;
+    }
+
+    private static String decode(String s) throws HttpError {
+        try {
+            return URLDecoder.decode(s, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Bad percent-encoding: " + s);
+        }
+    }
+}
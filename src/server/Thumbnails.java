@@ -0,0 +1,104 @@
+package server;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Scaled-down JPEG copies of photos, kept in a size-bounded LRU cache.
+ *
+ * <p>The file is decoded with source subsampling close to the requested
+ * size, so a thumbnail of a large photo does not decode every pixel, and
+ * is then scaled to fit a square of the requested side. Entries are keyed
+ * by the file's entity tag, so an edited file gets a new thumbnail.</p>
+ *
+ * @author Prayrit
+ */
+final class Thumbnails {
+    /** Largest side a thumbnail may be requested at. */
+    static final int MAX_SIZE = 1024;
+    /** Side used when none is requested. */
+    static final int DEFAULT_SIZE = 256;
+
+    private final long maxBytes;
+    private long bytes;
+    private final Map<String, byte[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * @param maxBytes memory budget for cached thumbnails
+     */
+    Thumbnails(long maxBytes) { this.maxBytes = maxBytes; }
+
+    /**
+     * Thumbnail of an image file.
+     *
+     * @param file image file
+     * @param etag entity tag of the file's current contents
+     * @param size side of the square the thumbnail fits in
+     * @return JPEG bytes
+     * @throws IOException if the file cannot be read or decoded
+     */
+    byte[] get(Path file, String etag, int size) throws IOException {
+        String key = etag + "/" + size + "/" + file;
+        synchronized (this) {
+            byte[] b = cache.get(key);
+            if (b != null) return b;
+        }
+        byte[] b = render(file, size);
+        synchronized (this) {
+            if (cache.put(key, b) == null) bytes += b.length;
+            Iterator<byte[]> it = cache.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().length;
+                it.remove();
+            }
+        }
+        return b;
+    }
+
+    private static byte[] render(Path file, int size) throws IOException {
+        BufferedImage src;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) throw new IOException("Cannot open " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / (2 * size));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                src = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        double scale = Math.min(1.0, (double) size / Math.max(src.getWidth(), src.getHeight()));
+        int w = Math.max(1, (int) Math.round(src.getWidth() * scale));
+        int h = Math.max(1, (int) Math.round(src.getHeight() * scale));
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setColor(Color.WHITE); // transparent pixels become white in JPEG
+            g.fillRect(0, 0, w, h);
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if (!ImageIO.write(out, "jpg", bos)) throw new IOException("No JPEG writer");
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,145 @@
+package cli;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import model.DataStore;
+
+/**
+ * Exit statuses and records of {@link PhotosCli} commands, run against the
+ * scratch datastore the test task points {@code photos.data} at.
+ *
+ * @author Prayrit
+ */
+class PhotosCliTest {
+    private static final String USER = "clitest";
+
+    @TempDir
+    Path dir;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @BeforeEach
+    void scratchStore() {
+        // the store saves after every changing command; never let that be the app's data
+        assertNotNull(System.getProperty("photos.data"), "run through the test task, which sets photos.data");
+        DataStore.getInstance().deleteUser(USER);
+    }
+
+    @AfterEach
+    void removeUser() { DataStore.getInstance().deleteUser(USER); }
+
+    @Test
+    void badCommandLinesAreUsageErrors() {
+        assertEquals(PhotosCli.USAGE, run());
+        assertEquals(PhotosCli.USAGE, run("--data"));
+        assertEquals(PhotosCli.USAGE, run("--verbose", "users"));
+        assertEquals(PhotosCli.USAGE, run("frobnicate"));
+        assertEquals(PhotosCli.USAGE, run("users", "extra"));
+        assertEquals(PhotosCli.USAGE, run("import", USER, "album"));
+        assertEquals(PhotosCli.USAGE, run("backup", "dir", "--fast"));
+        assertEquals(PhotosCli.USAGE, run("restore", "dir", "0"));
+        assertTrue(err().contains("usage: PhotosCli"));
+        assertEquals("", out());
+
+        assertEquals(PhotosCli.OK, run("user-add", USER));
+        assertEquals(PhotosCli.USAGE, run("query", USER, "person:"));
+        assertEquals(PhotosCli.USAGE, run("tag", USER, "caption~x", "novalue"));
+        assertEquals(PhotosCli.USAGE, run("tag", USER, "caption~x", " :x"));
+    }
+
+    @Test
+    void failuresAreReported() throws IOException {
+        assertEquals(PhotosCli.FAILED, run("albums", "nobody"));
+        assertEquals(PhotosCli.FAILED, run("user-add", "admin"));
+        assertEquals(PhotosCli.FAILED, run("user-add", "  "));
+        assertEquals(PhotosCli.FAILED, run("user-delete", "Stock"));
+        assertEquals(PhotosCli.FAILED, run("user-delete", USER));
+        assertEquals(PhotosCli.OK, run("user-add", USER.toUpperCase()));
+        assertEquals("created\t" + USER, out().strip());
+        assertEquals(PhotosCli.FAILED, run("user-add", USER));
+        // a missing backup directory has no snapshots, but a file in its place cannot be read
+        assertEquals(PhotosCli.OK, run("backups", dir.resolve("none").toString()));
+        assertEquals(PhotosCli.FAILED, run("backups", Files.write(dir.resolve("file"), new byte[0]).toString()));
+        assertEquals(PhotosCli.FAILED, run("load", dir.resolve("none.jsonl").toString()));
+        assertEquals(PhotosCli.OK, run("user-delete", USER));
+        assertEquals("deleted\t" + USER, out().strip());
+    }
+
+    @Test
+    void importsTagsQueriesAndExports() throws IOException {
+        Path photos = Files.createDirectories(dir.resolve("photos/sub"));
+        Path a = Files.write(dir.resolve("photos/a.jpg"), new byte[] {1});
+        Path b = Files.write(photos.resolve("b.PNG"), new byte[] {2});
+        Files.write(photos.resolve("notes.txt"), new byte[] {3});
+        String missing = dir.resolve("gone.jpg").toString();
+
+        assertEquals(PhotosCli.OK, run("user-add", USER));
+        // what could be imported is, but a missing path fails the command
+        assertEquals(PhotosCli.FAILED, run("import", USER, "trip", dir.resolve("photos").toString(), missing));
+        String records = out();
+        assertTrue(records.contains("added\t" + a), records);
+        assertTrue(records.contains("added\t" + b), records);
+        assertTrue(records.contains("missing\t" + missing), records);
+        assertFalse(records.contains("notes.txt"), records);
+        assertEquals(PhotosCli.OK, run("import", USER, "trip", a.toString()));
+        assertTrue(out().contains("exists\t" + a));
+
+        assertEquals(PhotosCli.OK, run("tag", USER, "path~sub", "person:Ann"));
+        assertEquals(PhotosCli.OK, run("query", USER, "person:ann"));
+        assertEquals(1, out().strip().lines().count());
+        assertTrue(out().contains(b.toString()));
+
+        Path to = dir.resolve("export");
+        assertEquals(PhotosCli.OK, run("export", USER, "path~photos", to.toString()));
+        assertTrue(Files.exists(to.resolve("a.jpg")) && Files.exists(to.resolve("b.PNG")));
+        // a second export clashes on names; a deleted original fails its copy
+        Files.delete(a);
+        assertEquals(PhotosCli.FAILED, run("export", USER, "path~photos", to.toString()));
+        assertTrue(out().contains("failed\t" + a), out());
+        assertEquals(3, to.toFile().list().length, "b copied again under a new name");
+    }
+
+    /** A store that cannot be written fails a changing command after it ran. */
+    @Test
+    void unsavableStoreIsAnIoError() throws IOException {
+        File users = new File(System.getProperty("photos.data"), "users.dat");
+        Path saved = dir.resolve("users.dat");
+        if (users.exists()) Files.move(users.toPath(), saved);
+        Files.createDirectories(users.toPath());
+        try {
+            assertEquals(PhotosCli.IO_ERROR, run("user-add", USER));
+            assertTrue(err().contains("cannot save"));
+            assertEquals(PhotosCli.OK, run("users"), "read-only commands do not save");
+        } finally {
+            Files.delete(users.toPath());
+            if (Files.exists(saved)) Files.move(saved, users.toPath());
+        }
+    }
+
+    private int run(String... args) {
+        out.reset();
+        err.reset();
+        return PhotosCli.run(args, new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8));
+    }
+
+    private String out() { return out.toString(StandardCharsets.UTF_8); }
+
+    private String err() { return err.toString(StandardCharsets.UTF_8); }
+}
@@ -0,0 +1,126 @@
+package export;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Archives written by {@link ZipWriter}, both patched in place on a file and
+ * streamed with data descriptors, read back with {@code java.util.zip}.
+ *
+ * @author Prayrit
+ */
+class ZipWriterTest {
+    private static final FileTime MODIFIED = FileTime.fromMillis(1_600_000_000_000L);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void seekableRoundTrip() throws IOException {
+        Map<String, byte[]> entries = sample();
+        Path zip = dir.resolve("seek.zip");
+        try (FileChannel ch = FileChannel.open(zip, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            write(ch, entries);
+        }
+        assertEntries(zip, entries);
+    }
+
+    @Test
+    void streamedRoundTrip() throws IOException {
+        Map<String, byte[]> entries = sample();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(Channels.newChannel(bytes), entries);
+        Path zip = dir.resolve("stream.zip");
+        Files.write(zip, bytes.toByteArray());
+        assertEntries(zip, entries);
+    }
+
+    /** More entries than the classic end record can count need the Zip64 records. */
+    @Test
+    void zip64EntryCount() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 0xFFFF + 10; i++) entries.put("e/" + i, i % 1000 == 0 ? new byte[] {(byte) i} : new byte[0]);
+        Path seek = dir.resolve("many-seek.zip");
+        try (FileChannel ch = FileChannel.open(seek, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            write(ch, entries);
+        }
+        assertEntries(seek, entries);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(Channels.newChannel(bytes), entries);
+        Path stream = dir.resolve("many-stream.zip");
+        Files.write(stream, bytes.toByteArray());
+        assertEntries(stream, entries);
+    }
+
+    private static Map<String, byte[]> sample() {
+        Random r = new Random(6);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("empty.txt", new byte[0]);
+        entries.put("album/café 日本.jpg", random(r, 1234));
+        entries.put("album/big.jpg", random(r, 300_000));
+        entries.put("other/one.bin", random(r, 1));
+        return entries;
+    }
+
+    private static byte[] random(Random r, int n) {
+        byte[] b = new byte[n];
+        r.nextBytes(b);
+        return b;
+    }
+
+    private static void write(WritableByteChannel ch, Map<String, byte[]> entries) throws IOException {
+        ArchiveWriter w = ArchiveWriter.create(ArchiveFormat.ZIP, ch);
+        for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+            byte[] body = e.getValue();
+            w.begin(e.getKey(), body.length, MODIFIED);
+            // in pieces, as the exporter writes them
+            for (int at = 0; at < body.length; at += 65536) {
+                w.write(ByteBuffer.wrap(body, at, Math.min(65536, body.length - at)));
+            }
+            w.end();
+        }
+        w.finish();
+    }
+
+    private static void assertEntries(Path zip, Map<String, byte[]> expected) throws IOException {
+        try (ZipFile z = new ZipFile(zip.toFile(), StandardCharsets.UTF_8)) {
+            assertEquals(expected.size(), z.size());
+            Enumeration<? extends ZipEntry> all = z.entries();
+            for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+                ZipEntry entry = all.nextElement();
+                assertEquals(e.getKey(), entry.getName());
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertEquals(e.getValue().length, entry.getSize());
+                CRC32 crc = new CRC32();
+                crc.update(e.getValue());
+                assertEquals(crc.getValue(), entry.getCrc());
+                try (InputStream in = z.getInputStream(entry)) {
+                    assertArrayEquals(e.getValue(), in.readAllBytes(), e.getKey());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link JsonReader} on text from {@link JsonWriter}, on hand-written
+ * malformed input and on random corruptions of valid records.
+ *
+ * @author Prayrit
+ */
+class JsonReaderTest {
+
+    @Test
+    void readsWhatTheWriterWrites() throws IOException {
+        Random r = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            List<String> strings = new ArrayList<>();
+            for (int i = r.nextInt(5); i >= 0; i--) strings.add(text(r));
+            long n = r.nextInt(3) == 0 ? (r.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE) : r.nextLong();
+            StringWriter out = new StringWriter();
+            JsonWriter w = new JsonWriter(out);
+            w.beginObject().field("n", n).field("flag", round % 2 == 0).field("none", null);
+            w.key("skipped").beginArray().beginObject().field("deep", "x").endObject().value(1).endArray();
+            w.key("strings").beginArray();
+            for (String s : strings) w.value(s);
+            w.endArray().endObject().newline().flush();
+
+            JsonReader j = new JsonReader(out.toString());
+            j.beginObject();
+            assertEquals("n", j.nextName());
+            assertEquals(n, j.nextLong());
+            assertEquals("flag", j.nextName());
+            assertEquals(round % 2 == 0, j.nextBoolean());
+            assertEquals("none", j.nextName());
+            assertNull(j.nextStringOrNull());
+            assertEquals("skipped", j.nextName());
+            assertEquals(JsonReader.Kind.ARRAY, j.peek());
+            j.skipValue();
+            assertEquals("strings", j.nextName());
+            j.beginArray();
+            for (String s : strings) assertEquals(s, j.nextString());
+            assertFalse(j.hasNext());
+            j.endArray();
+            j.endObject();
+            j.end();
+        }
+    }
+
+    @Test
+    void readsEscapesAndSpace() {
+        JsonReader j = new JsonReader(" { \"a\\u00e9\\n\\/\" : [ -0 , \"\\ud83d\\ude00\\t\\\"\" ] }\r\n");
+        j.beginObject();
+        assertTrue(j.hasNext());
+        assertEquals("a\u00e9\n/", j.nextName());
+        j.beginArray();
+        assertEquals(0, j.nextInt());
+        assertEquals("\ud83d\ude00\t\"", j.nextString());
+        j.endArray();
+        j.endObject();
+        j.end();
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        String[] bad = {
+            "", "{", "}", "[1,2", "[1,]", "[,1]", "{\"a\":1,}", "{\"a\" 1}", "{\"a\":}", "{a:1}", "{\"a\":1}}",
+            "\"abc", "\"\\u12\"", "\"\\x\"", "\"abc\\", "tru", "nul", "[1 2]", "1 2", "]",
+            "[".repeat(64) + "]".repeat(64),
+        };
+        for (String s : bad) {
+            assertThrows(IllegalArgumentException.class, () -> readAll(s), s);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new JsonReader("-").nextLong());
+        assertThrows(IllegalArgumentException.class, () -> new JsonReader("9223372036854775808").nextLong());
+        assertThrows(IllegalArgumentException.class, () -> new JsonReader("2147483648").nextInt());
+        assertThrows(IllegalArgumentException.class, () -> new JsonReader("\"1\"").nextLong());
+        assertThrows(IllegalArgumentException.class, () -> new JsonReader("1").nextString());
+    }
+
+    /** Corrupted records may parse or not, but may only fail the documented way. */
+    @Test
+    void corruptInputOnlyThrowsIllegalArgument() {
+        Random r = new Random(8);
+        String valid = "{\"type\":\"photo\",\"id\":12,\"tags\":[{\"name\":\"a\",\"value\":\"b\\u0041\"}],"
+            + "\"size\":-3,\"hash\":null,\"x\":[true,false,1.5e3,{}]}";
+        String noise = "{}[]\",:\\u0123456789-+.eEtrufalsn \t";
+        for (int round = 0; round < 20000; round++) {
+            StringBuilder sb = new StringBuilder(valid);
+            for (int k = 1 + r.nextInt(3); k > 0 && sb.length() > 0; k--) {
+                int at = r.nextInt(sb.length());
+                switch (r.nextInt(3)) {
+                    case 0: sb.deleteCharAt(at); break;
+                    case 1: sb.insert(at, noise.charAt(r.nextInt(noise.length()))); break;
+                    default: sb.setLength(at);
+                }
+            }
+            try {
+                readAll(sb.toString());
+            } catch (IllegalArgumentException expected) {
+                // malformed
+            } catch (RuntimeException ex) {
+                fail(sb + ": " + ex);
+            }
+        }
+    }
+
+    private static void readAll(String s) {
+        JsonReader j = new JsonReader(s);
+        j.skipValue();
+        j.end();
+    }
+
+    private static String text(Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = r.nextInt(12); i > 0; i--) {
+            switch (r.nextInt(4)) {
+                case 0: sb.append((char) r.nextInt(0x20)); break;
+                case 1: sb.append("\"\\/".charAt(r.nextInt(3))); break;
+                case 2: sb.append((char) r.nextInt(0x10000)); break;
+                default: sb.append((char) ('a' + r.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+}
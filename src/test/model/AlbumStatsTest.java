@@ -0,0 +1,100 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link AlbumStats} kept up through adds, removes, batch moves and tag
+ * and date edits, checked against a recount of each album's photos, also
+ * after the user is serialized and read back.
+ *
+ * @author Prayrit
+ */
+class AlbumStatsTest {
+
+    @Test
+    void statsMatchRecount() throws Exception {
+        Random r = new Random(38);
+        User u = new User("stats");
+        String[] names = {"a", "b", "c"};
+        for (String n : names) u.createAlbum(n);
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < 80; i++) photos.add(new Photo("/photos/" + i + ".jpg", "", date(r), 100 + r.nextInt(5000)));
+        for (int step = 0; step < 5000; step++) {
+            Album a = u.getAlbums().get(names[r.nextInt(names.length)]);
+            Album b = u.getAlbums().get(names[r.nextInt(names.length)]);
+            Photo p = photos.get(r.nextInt(photos.size()));
+            switch (r.nextInt(8)) {
+                case 0: case 1: a.addPhoto(p); break;
+                case 2: a.removePhoto(p); break;
+                case 3: p.setDateTime(date(r)); break;
+                case 4: p.addTag(new Tag("statsperson", "p" + r.nextInt(5))); break;
+                case 5: p.removeTag(new Tag("statsperson", "p" + r.nextInt(5))); break;
+                case 6: if (a != b) u.moveAll(List.of(p, photos.get(r.nextInt(photos.size()))), a, b); break;
+                default: u.addTagToAll(List.of(p, photos.get(r.nextInt(photos.size()))), new Tag("statsplace", "x" + r.nextInt(3)), true);
+            }
+            if (step % 50 == 0) for (Album x : u.getAlbums().values()) check(x);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(u);
+        }
+        User copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (User) in.readObject();
+        }
+        for (String n : names) {
+            check(u.getAlbums().get(n));
+            check(copy.getAlbums().get(n));
+            assertEquals(u.getAlbums().get(n).getStats().toString(), copy.getAlbums().get(n).getStats().toString());
+        }
+    }
+
+    @Test
+    void emptyAlbumHasNoRange() {
+        User u = new User("empty");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        Photo p = new Photo("/photos/x.jpg", "", LocalDateTime.of(2020, 1, 1, 0, 0), 10);
+        a.addPhoto(p);
+        a.removePhoto(p);
+        check(a);
+        assertNull(a.getStats().getStartDate());
+        assertEquals(0, a.getStats().getTotalBytes());
+    }
+
+    private static void check(Album a) {
+        AlbumStats s = a.getStats();
+        LocalDateTime first = null, last = null;
+        long bytes = 0;
+        Map<Integer, Integer> tags = new HashMap<>();
+        for (Photo p : a.getPhotos()) {
+            bytes += p.getFileSize();
+            if (first == null || p.getDateTime().isBefore(first)) first = p.getDateTime();
+            if (last == null || p.getDateTime().isAfter(last)) last = p.getDateTime();
+            for (int t : p.getTagIds()) tags.merge(t, 1, Integer::sum);
+        }
+        assertEquals(a.getPhotos().size(), s.getCount(), a.getName());
+        assertEquals(bytes, s.getTotalBytes(), a.getName());
+        assertEquals(first, s.getStartDate(), a.getName());
+        assertEquals(last, s.getEndDate(), a.getName());
+        assertEquals(tags, s.getTagCounts(), a.getName());
+    }
+
+    private static LocalDateTime date(Random r) {
+        return LocalDateTime.of(2015 + r.nextInt(8), 1 + r.nextInt(12), 1 + r.nextInt(28), r.nextInt(24), 0);
+    }
+}
@@ -0,0 +1,161 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A chain of full and incremental {@link Backup} snapshots restored at each
+ * point and compared with the library as it was when each was taken.
+ *
+ * @author Prayrit
+ */
+class BackupTest {
+    @TempDir
+    Path dir;
+
+    private final Map<String, User> users = new LinkedHashMap<>();
+
+    private static Photo photo(String name) {
+        return new Photo("/photos/" + name + ".jpg", "", LocalDateTime.of(2021, 5, 4, 3, 2), 100);
+    }
+
+    private User user(String name, String password) {
+        User u = new User(name, password);
+        users.put(name, u);
+        return u;
+    }
+
+    private Album album(User u, String name, Photo... photos) {
+        u.createAlbum(name);
+        Album a = u.getAlbums().get(name);
+        for (Photo p : photos) a.addPhoto(p);
+        return a;
+    }
+
+    private Backup.Snapshot backup(boolean full) throws IOException {
+        return Backup.backup(new ArrayList<>(users.values()), dir, full);
+    }
+
+    @Test
+    void restoresEverySnapshotOfTheChain() throws IOException {
+        Map<Integer, Map<String, String>> expected = new TreeMap<>();
+
+        User ann = user("ann", "a");
+        Photo p1 = photo("p1"), p2 = photo("p2"), p3 = photo("p3");
+        album(ann, "trip", p1, p2);
+        album(ann, "home", p3, p1);
+        User bob = user("bob", "");
+        album(bob, "x", photo("p4"));
+        bob.createSmartAlbum("rome", "rome");
+        Backup.Snapshot s = backup(false);
+        assertTrue(s.isFull());
+        expected.put(s.getNumber(), describe(users.values()));
+
+        // photo edits reach both albums holding the photo; bob is untouched
+        p1.setCaption("first");
+        p2.addTag(new Tag("person", "alice"));
+        s = backup(false);
+        assertFalse(s.isFull());
+        assertEquals(1, s.getUsers());
+        expected.put(s.getNumber(), describe(users.values()));
+
+        ann.deleteAlbum("home");
+        album(ann, "new", photo("p5"), p1);
+        users.remove("bob");
+        album(user("carl", "c"), "c", photo("p6"));
+        s = backup(false);
+        assertEquals(List.of("bob"), s.getDeletedUsers());
+        expected.put(s.getNumber(), describe(users.values()));
+
+        assertNull(backup(false), "nothing changed");
+
+        // re-created under the same name, with a new password and nothing of the old albums
+        User ann2 = new User("ann", "b");
+        users.put("ann", ann2);
+        album(ann2, "fresh", photo("p7"));
+        s = backup(false);
+        expected.put(s.getNumber(), describe(users.values()));
+
+        for (Map.Entry<Integer, Map<String, String>> e : expected.entrySet()) {
+            assertEquals(e.getValue(), describe(Backup.restore(dir, e.getKey())), "snapshot " + e.getKey());
+        }
+        List<User> latest = Backup.restore(dir, 0);
+        assertEquals(describe(users.values()), describe(latest));
+        User restored = latest.stream().filter(u -> u.getUsername().equals("ann")).findFirst().get();
+        assertTrue(restored.checkPassword("b"));
+        assertEquals(4, Backup.list(dir).size());
+    }
+
+    /** An album re-created with as many edits as the old one had still has a new creation time. */
+    @Test
+    void recreatedAlbumWithTheSameCountIsWritten() throws IOException {
+        User u = user("ann", "");
+        album(u, "a", photo("old1"), photo("old2"));
+        long before = u.getAlbums().get("a").getChanges();
+        backup(false);
+        u.deleteAlbum("a");
+        Album again = album(u, "a", photo("new1"));
+        while (again.getChanges() < before) again.addPhoto(photo("new" + (again.getChanges() + 2)));
+        assertEquals(before, again.getChanges());
+        Backup.Snapshot s = backup(false);
+        assertEquals(1, s.getAlbums());
+        assertEquals(describe(users.values()), describe(Backup.restore(dir, 0)));
+    }
+
+    @Test
+    void fullSnapshotStartsANewBase() throws IOException {
+        User u = user("ann", "");
+        Album a = album(u, "a", photo("p1"));
+        backup(false);
+        a.addPhoto(photo("p2"));
+        backup(false);
+        Backup.Snapshot full = backup(true);
+        assertTrue(full.isFull());
+        a.addPhoto(photo("p3"));
+        backup(false);
+
+        // replay starts at the last full snapshot, so earlier ones are not needed
+        Files.delete(dir.resolve(Backup.list(dir).get(0).getFile()));
+        Files.delete(dir.resolve(Backup.list(dir).get(1).getFile()));
+        assertEquals(describe(users.values()), describe(Backup.restore(dir, 0)));
+        assertThrows(IOException.class, () -> Backup.restore(dir, 2));
+    }
+
+    /** Users by name, each as its albums, photos and smart albums in a canonical text. */
+    private static Map<String, String> describe(Iterable<User> list) {
+        Map<String, String> out = new TreeMap<>();
+        for (User u : list) {
+            StringBuilder sb = new StringBuilder();
+            for (Album a : new TreeMap<>(u.getAlbums()).values()) {
+                sb.append(a.getName()).append(':');
+                for (Photo p : a.getPhotos()) {
+                    sb.append(' ').append(p.getFilePath()).append('|').append(p.getCaption()).append('|').append(p.getDateTime());
+                    TreeSet<String> tags = new TreeSet<>();
+                    for (Tag t : p.getTags()) tags.add(t.getName() + "=" + t.getValue());
+                    sb.append(tags);
+                }
+                sb.append('\n');
+            }
+            for (SmartAlbum s : new TreeMap<>(u.getSmartAlbums()).values()) sb.append(s.getName()).append("? ").append(s.getQuery()).append('\n');
+            out.put(u.getUsername(), sb.toString());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,108 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Batch operations of {@link User}: listeners hear of a batch once, after
+ * every photo has been handled, and a moved photo never leaves the
+ * library on the way.
+ *
+ * @author Prayrit
+ */
+class BatchTest {
+    private User user;
+    private Album from;
+    private Album to;
+    private final List<Photo> photos = new ArrayList<>();
+    private final List<LibraryEvent> heard = new ArrayList<>();
+    private Runnable duringEvent = () -> {};
+
+    @BeforeEach
+    void library() {
+        user = new User("batch");
+        user.createAlbum("from");
+        user.createAlbum("to");
+        from = user.getAlbums().get("from");
+        to = user.getAlbums().get("to");
+        for (int i = 0; i < 6; i++) {
+            Photo p = new Photo("/photos/" + i + ".jpg", "", LocalDateTime.of(2020, 1, 1 + i, 0, 0), 10);
+            photos.add(p);
+            if (i < 5) from.addPhoto(p);
+        }
+        to.addPhoto(photos.get(0));
+        user.addLibraryListener(e -> {
+            heard.add(e);
+            duringEvent.run();
+        });
+    }
+
+    @Test
+    void moveIsOneEventAfterTheWholeBatch() {
+        long generation = user.getGeneration();
+        duringEvent = () -> {
+            // the listener sees the finished move, not a photo half way
+            for (int i = 0; i < 5; i++) {
+                assertTrue(to.contains(photos.get(i)));
+                assertFalse(from.contains(photos.get(i)));
+            }
+        };
+        BatchResult r = user.moveAll(photos, from, to);
+        assertEquals(5, r.count(BatchResult.Outcome.DONE));
+        assertEquals(1, r.count(BatchResult.Outcome.NOT_FOUND));
+        assertFalse(r.allDone());
+        assertEquals(1, heard.size());
+        assertEquals(generation + 1, user.getGeneration());
+        for (LibraryEvent e : heard.get(0).getEvents()) {
+            assertTrue(e.getType() == LibraryEvent.Type.ALBUM_PHOTO_ADDED || e.getType() == LibraryEvent.Type.ALBUM_PHOTO_REMOVED, e.toString());
+        }
+        assertEquals(5, user.getPhotoCount());
+    }
+
+    @Test
+    void removeReportsPhotosLeavingTheLibrary() {
+        BatchResult r = user.removeAll(photos, from);
+        assertEquals(5, r.count(BatchResult.Outcome.DONE));
+        assertEquals(1, heard.size());
+        long left = heard.get(0).getEvents().stream().filter(e -> e.getType() == LibraryEvent.Type.PHOTO_REMOVED).count();
+        // photo 0 is still in "to"
+        assertEquals(4, left);
+        assertEquals(1, user.getPhotoCount());
+    }
+
+    @Test
+    void taggingReplacesSingleValuedNamesInOneEvent() {
+        user.addTagToAll(photos.subList(0, 3), new Tag("location", "rome"), true);
+        heard.clear();
+        BatchResult r = user.addTagToAll(photos.subList(0, 5), new Tag("location", "paris"), true);
+        assertTrue(r.allDone());
+        assertEquals(1, heard.size());
+        for (Photo p : photos.subList(0, 5)) {
+            assertEquals(1, p.getTags().size());
+            assertTrue(p.hasTag(new Tag("location", "paris")));
+        }
+        assertEquals(5, user.addTagToAll(photos.subList(0, 5), new Tag("LOCATION", "Paris"), true).count(BatchResult.Outcome.UNCHANGED));
+        assertEquals(1, heard.size(), "nothing changed, nothing to hear");
+        assertEquals(5, from.getStats().getTagCount(new Tag("location", "paris")));
+    }
+
+    @Test
+    void refusesAlbumsOfOtherUsersBeforeChangingAnything() {
+        User other = new User("other");
+        other.createAlbum("x");
+        Album foreign = other.getAlbums().get("x");
+        assertThrows(IllegalArgumentException.class, () -> user.moveAll(photos, from, foreign));
+        assertThrows(IllegalArgumentException.class, () -> user.copyAll(photos, null));
+        assertEquals(5, from.getPhotos().size());
+        assertTrue(heard.isEmpty());
+    }
+}
@@ -0,0 +1,138 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * {@link LibraryGenerator} giving the same library for the same seed, down
+ * to which photos albums share and the image files written, and keeping
+ * within its settings.
+ *
+ * @author Prayrit
+ */
+class LibraryGeneratorTest {
+    private static final LocalDate FROM = LocalDate.of(2015, 3, 1);
+
+    @TempDir
+    Path dir;
+
+    private static LibraryGenerator generator(long seed) {
+        return new LibraryGenerator().seed(seed).users(3).albumsPerUser(4).photosPerAlbum(60)
+            .persons(50, 1.0, 3).locations(5).captionLength(5, 30).dates(FROM, 365, 10).shared(0.3);
+    }
+
+    @Test
+    void sameSeedGivesTheSameLibrary() throws IOException {
+        Map<String, String> first = describe(generator(50).generate());
+        assertEquals(first, describe(generator(50).generate()));
+        assertNotEquals(first, describe(generator(51).generate()));
+    }
+
+    @Test
+    void staysWithinItsSettings() throws IOException {
+        DataStore ds = generator(50).generate();
+        assertEquals(3, ds.getUsers().size());
+        int[] personCounts = new int[50];
+        for (int n = 0; n < 3; n++) {
+            User u = ds.getUser("user" + n);
+            assertEquals(4, u.getAlbums().size());
+            int slots = 0;
+            for (int a = 0; a < 4; a++) {
+                Album album = u.getAlbums().get("album" + a);
+                assertEquals(60, album.size(), "shared photos come from earlier albums only");
+                slots += album.size();
+            }
+            assertTrue(u.getPhotoCount() < slots, "some photos are shared");
+            for (Photo p : u.getLibraryPhotos()) {
+                LocalDate day = p.getDateTime().toLocalDate();
+                assertTrue(!day.isBefore(FROM) && day.isBefore(FROM.plusDays(365)), day.toString());
+                assertTrue(p.getCaption().length() <= 30, p.getCaption());
+                int locations = 0, persons = 0;
+                for (Tag t : p.getTags()) {
+                    if (t.getName().equals("location")) {
+                        locations++;
+                    } else {
+                        persons++;
+                        personCounts[Integer.parseInt(t.getValue().substring("person".length()))]++;
+                    }
+                }
+                assertEquals(1, locations);
+                assertTrue(persons <= 3);
+            }
+        }
+        // Zipf: the first person is on more photos than any far down the ranks
+        for (int k = 25; k < 50; k++) assertTrue(personCounts[0] > personCounts[k], "person" + k);
+    }
+
+    @Test
+    void writesTheSameImagesForTheSameSeed() throws IOException {
+        LibraryGenerator g = new LibraryGenerator().seed(50).albumsPerUser(2).photosPerAlbum(5);
+        User u = g.images(dir.resolve("one")).generate().getUser("user0");
+        g.images(dir.resolve("two")).generate();
+        for (Photo p : u.getLibraryPhotos()) {
+            Path file = Path.of(p.getFilePath());
+            Path twin = dir.resolve("two").resolve(dir.resolve("one").relativize(file));
+            assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(twin));
+            assertEquals(Files.size(file), p.getFileSize());
+            LocalDateTime modified = LocalDateTime.ofInstant(Files.getLastModifiedTime(file).toInstant(), ZoneId.systemDefault());
+            assertEquals(p.getDateTime().withNano(0), modified.withNano(0));
+        }
+    }
+
+    @Test
+    void rejectsBadSettings() {
+        LibraryGenerator g = new LibraryGenerator();
+        assertThrows(IllegalArgumentException.class, () -> g.users(-1));
+        assertThrows(IllegalArgumentException.class, () -> g.persons(0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> g.persons(5, -0.5, 1));
+        assertThrows(IllegalArgumentException.class, () -> g.captionLength(10, 5));
+        assertThrows(IllegalArgumentException.class, () -> g.dates(FROM, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> g.shared(Double.NaN));
+    }
+
+    /** Users by name, as their albums' photos in order; a photo seen before is written by its first place. */
+    private static Map<String, String> describe(DataStore ds) {
+        Map<String, String> out = new TreeMap<>();
+        for (User u : ds.getUsers().values()) {
+            Map<Photo, String> seen = new IdentityHashMap<>();
+            StringBuilder sb = new StringBuilder();
+            for (Album a : new TreeMap<>(u.getAlbums()).values()) {
+                sb.append(a.getName()).append(':');
+                List<Photo> photos = new ArrayList<>(a.getPhotos());
+                for (int i = 0; i < photos.size(); i++) {
+                    Photo p = photos.get(i);
+                    String first = seen.putIfAbsent(p, a.getName() + "#" + i);
+                    if (first != null) {
+                        sb.append(" =").append(first);
+                        continue;
+                    }
+                    TreeSet<String> tags = new TreeSet<>();
+                    for (Tag t : p.getTags()) tags.add(t.getName() + "=" + t.getValue());
+                    sb.append(' ').append(p.getFilePath()).append('|').append(p.getCaption()).append('|').append(p.getDateTime()).append(tags);
+                }
+                sb.append('\n');
+            }
+            out.put(u.getUsername(), sb.toString());
+        }
+        return out;
+    }
+}
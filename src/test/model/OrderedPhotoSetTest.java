@@ -0,0 +1,107 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link OrderedPhotoSet} checked against an {@link ArrayList}, with
+ * removals leaving holes that are read through by position and compacted
+ * away once they make up half the slots.
+ *
+ * @author Prayrit
+ */
+class OrderedPhotoSetTest {
+    private static final LocalDateTime DATE = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    private static Photo photo(int n) { return new Photo("/photos/" + n + ".jpg", "", DATE, 0); }
+
+    @Test
+    void randomEditsMatchList() {
+        Random r = new Random(5);
+        OrderedPhotoSet set = new OrderedPhotoSet();
+        List<Photo> model = new ArrayList<>();
+        for (int step = 0; step < 20000; step++) {
+            Photo p = photo(r.nextInt(300));
+            switch (r.nextInt(8)) {
+                case 0: case 1:
+                    assertEquals(!model.contains(p), set.add(p));
+                    if (!model.contains(p)) model.add(p);
+                    break;
+                case 2:
+                    if (model.contains(p)) break;
+                    int at = r.nextInt(model.size() + 1);
+                    set.add(at, p);
+                    model.add(at, p);
+                    break;
+                case 3: case 4:
+                    assertEquals(model.remove(p), set.remove(p));
+                    break;
+                case 5:
+                    if (model.isEmpty()) break;
+                    int i = r.nextInt(model.size());
+                    assertSame(model.remove(i), set.remove(i));
+                    break;
+                case 6:
+                    assertEquals(model.indexOf(p), set.indexOf(p));
+                    break;
+                default:
+                    if (!model.isEmpty()) {
+                        int j = r.nextInt(model.size());
+                        assertSame(model.get(j), set.get(j));
+                    }
+            }
+            assertEquals(model.size(), set.size());
+            if (step % 101 == 0) assertEquals(model, new ArrayList<>(set));
+        }
+        assertEquals(model, new ArrayList<>(set));
+    }
+
+    @Test
+    void iteratorSurvivesCompactionBetweenSteps() {
+        OrderedPhotoSet set = new OrderedPhotoSet();
+        List<Photo> model = new ArrayList<>();
+        for (int n = 0; n < 40; n++) {
+            set.add(photo(n));
+            model.add(photo(n));
+        }
+        for (int n = 0; n < 40; n += 3) {
+            set.remove(photo(n));
+            model.remove(photo(n));
+        }
+        List<Photo> seen = new ArrayList<>();
+        Iterator<Photo> it = set.iterator();
+        while (it.hasNext()) {
+            Photo p = it.next();
+            seen.add(p);
+            // removing every other photo soon leaves more holes than photos,
+            // which compacts the slots under the iterator
+            if (seen.size() % 2 == 0) {
+                it.remove();
+                model.remove(p);
+            }
+            if (!set.isEmpty()) assertEquals(model.get(model.size() - 1), set.get(set.size() - 1));
+        }
+        assertEquals(26, seen.size());
+        assertEquals(model, new ArrayList<>(set));
+    }
+
+    @Test
+    void refusesDuplicates() {
+        OrderedPhotoSet set = new OrderedPhotoSet(List.of(photo(1), photo(2), photo(1)));
+        assertEquals(List.of(photo(1), photo(2)), set);
+        assertFalse(set.add(photo(2)));
+        assertThrows(IllegalArgumentException.class, () -> set.add(0, photo(2)));
+        assertThrows(IllegalArgumentException.class, () -> set.set(0, photo(2)));
+        assertThrows(IndexOutOfBoundsException.class, () -> set.get(2));
+    }
+}
@@ -0,0 +1,114 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import search.SearchEngine;
+import search.SearchResults;
+
+/**
+ * Windows read through {@link PhotoPager} from albums in every sort order
+ * and from search results: walking the pages gives the whole sequence, the
+ * ends behave, and the version moves on with edits.
+ *
+ * @author Prayrit
+ */
+class PhotoPageTest {
+
+    @Test
+    void pagesCoverTheSequence() {
+        Random r = new Random(40);
+        User u = new User("pages");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        for (int i = 0; i < 137; i++) {
+            a.addPhoto(new Photo("/photos/" + i + ".jpg", i % 3 == 0 ? "" : "caption " + r.nextInt(50),
+                LocalDateTime.of(2020, 1 + r.nextInt(12), 1 + r.nextInt(28), 0, 0), 10));
+        }
+        for (SortOrder o : SortOrder.values()) {
+            a.setSortOrder(o);
+            List<Photo> expected = new ArrayList<>();
+            for (int i = 0; i < a.size(); i++) expected.add(a.photoAt(i));
+            assertEquals(rows(expected), walk(a, r), o.name());
+        }
+        try {
+            SearchResults results = SearchEngine.forUser(u).search("caption~caption");
+            assertEquals(rows(results), walk(results, r));
+        } finally {
+            SearchEngine.release(u);
+        }
+    }
+
+    @Test
+    void endsAndVersions() {
+        User u = new User("ends");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        Photo p = new Photo("/photos/dir/x.jpg", "", LocalDateTime.of(2020, 1, 1, 0, 0), 10);
+        a.addPhoto(p);
+        a.addPhoto(new Photo("/photos/y.jpg", "why", LocalDateTime.of(2021, 1, 1, 0, 0), 10));
+
+        PhotoPage page = a.page(0, 10);
+        assertEquals(2, page.size());
+        assertFalse(page.hasMore());
+        assertEquals("x.jpg", page.getLabel(0));
+        assertEquals("why", page.getLabel(1));
+        assertEquals(p.getId(), page.getId(0));
+        assertTrue(a.page(0, 1).hasMore());
+        assertEquals(0, a.page(2, 5).size());
+        assertEquals(0, a.page(0, -1).size());
+        assertThrows(IndexOutOfBoundsException.class, () -> a.page(3, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> a.page(-1, 1));
+
+        long v = a.getVersion();
+        a.page(0, 2);
+        assertEquals(v, a.getVersion(), "reading leaves the version");
+        p.setCaption("new");
+        assertNotEquals(v, a.getVersion());
+        v = a.getVersion();
+        a.setSortOrder(SortOrder.CAPTION);
+        assertNotEquals(v, a.getVersion());
+        assertEquals("new", a.page(0, 1).getLabel(0));
+
+        // photos gone from the sequence keep their row as id 0
+        PhotoPage gone = PhotoPage.of(0, 2, 0, Arrays.asList(p, null));
+        assertEquals(0, gone.getId(1));
+        assertNull(gone.getLabel(1));
+        assertNull(gone.getDate(1));
+    }
+
+    /** Rows of the whole sequence read in windows of random sizes, checking each page's position fields. */
+    private static List<String> walk(PhotoPager pager, Random r) {
+        List<String> out = new ArrayList<>();
+        int offset = 0;
+        while (true) {
+            PhotoPage page = pager.page(offset, 1 + r.nextInt(20));
+            assertEquals(offset, page.getOffset());
+            assertEquals(pager.size(), page.getTotal());
+            assertEquals(pager.getVersion(), page.getVersion());
+            for (int i = 0; i < page.size(); i++) out.add(page.getId(i) + "|" + page.getLabel(i) + "|" + page.getDate(i));
+            if (!page.hasMore()) break;
+            offset = page.getNextOffset();
+        }
+        assertEquals(0, pager.page(pager.size(), 5).size());
+        return out;
+    }
+
+    private static List<String> rows(List<Photo> photos) {
+        List<String> out = new ArrayList<>();
+        for (Photo p : photos) out.add(p.getId() + "|" + PhotoPage.label(p) + "|" + p.getDateTime());
+        return out;
+    }
+}
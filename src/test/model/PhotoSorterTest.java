@@ -0,0 +1,138 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.text.Collator;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link PhotoSorter} permutations checked against a stable sort of the
+ * photos by the same keys, including the packed date sort's fallback and
+ * the parallel path, and album sort orders kept through edits and saving.
+ *
+ * @author Prayrit
+ */
+class PhotoSorterTest {
+    private static final String[] CAPTIONS = {"", "  ", "apple", "Apple", "banana", "éclair", "eclair", " zebra", "Zebra"};
+
+    @Test
+    void permutationsMatchAStableSort() {
+        Random r = new Random(42);
+        List<Photo> photos = photos(r, 500, false);
+        for (SortOrder o : new SortOrder[] {SortOrder.DATE, SortOrder.CAPTION, SortOrder.FILENAME}) {
+            assertArrayEquals(expected(photos, o), PhotoSorter.sort(photos, o), o.name());
+        }
+        // dates far enough apart that seconds and positions no longer pack into a long
+        List<Photo> wide = photos(r, 300, true);
+        assertArrayEquals(expected(wide, SortOrder.DATE), PhotoSorter.sort(wide, SortOrder.DATE));
+        assertArrayEquals(new int[0], PhotoSorter.sort(new ArrayList<>(), SortOrder.DATE));
+    }
+
+    @Test
+    void largeAlbumsSortInParallel() {
+        Random r = new Random(42);
+        List<Photo> photos = photos(r, PhotoSorter.PARALLEL_THRESHOLD + 100, false);
+        assertArrayEquals(expected(photos, SortOrder.FILENAME), PhotoSorter.sort(photos, SortOrder.FILENAME));
+    }
+
+    @Test
+    void albumsKeepTheirOrderThroughEditsAndSaving() throws Exception {
+        Random r = new Random(42);
+        User u = new User("sorter");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        List<Photo> photos = photos(r, 80, false);
+        for (Photo p : photos) a.addPhoto(p);
+        for (int step = 0; step < 200; step++) {
+            Photo p = photos.get(r.nextInt(photos.size()));
+            switch (r.nextInt(5)) {
+                case 0: a.setSortOrder(SortOrder.values()[r.nextInt(SortOrder.values().length)]); break;
+                case 1: p.setCaption(CAPTIONS[r.nextInt(CAPTIONS.length)]); break;
+                case 2: p.setDateTime(date(r)); break;
+                case 3: a.removePhoto(p); break;
+                default: a.addPhoto(p);
+            }
+            assertOrder(a);
+        }
+        a.setSortOrder(SortOrder.CAPTION);
+        a.photoAt(0); // computed, so the permutation is saved with the album
+        User copy;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(u);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (User) in.readObject();
+        }
+        Album b = copy.getAlbums().get("a");
+        assertEquals(SortOrder.CAPTION, b.getSortOrder());
+        assertOrder(b);
+        List<String> before = new ArrayList<>(), after = new ArrayList<>();
+        for (int i = 0; i < a.size(); i++) before.add(a.photoAt(i).getFilePath());
+        for (int i = 0; i < b.size(); i++) after.add(b.photoAt(i).getFilePath());
+        assertEquals(before, after);
+
+        long v = b.getVersion();
+        b.photoAt(0).setCaption("~ moved");
+        assertNotEquals(v, b.getVersion());
+        assertOrder(b);
+    }
+
+    /** The album's visible order against a stable sort of its insertion order. */
+    private static void assertOrder(Album a) {
+        List<Photo> inserted = a.getPhotos();
+        int[] perm = a.getSortOrder() == SortOrder.INSERTION ? IntStream.range(0, inserted.size()).toArray() : expected(inserted, a.getSortOrder());
+        for (int i = 0; i < perm.length; i++) assertEquals(inserted.get(perm[i]), a.photoAt(i), a.getSortOrder() + " at " + i);
+    }
+
+    private static int[] expected(List<Photo> photos, SortOrder o) {
+        Collator c = Collator.getInstance();
+        c.setStrength(Collator.SECONDARY);
+        Comparator<Integer> cmp;
+        switch (o) {
+            case DATE: cmp = Comparator.comparing(i -> photos.get(i).getDateTime()); break;
+            case CAPTION:
+                cmp = (i, j) -> {
+                    String x = photos.get(i).getCaption().strip(), y = photos.get(j).getCaption().strip();
+                    if (x.isEmpty() || y.isEmpty()) return Boolean.compare(x.isEmpty(), y.isEmpty());
+                    return c.compare(x, y);
+                };
+                break;
+            default: cmp = Comparator.comparing(i -> new File(photos.get(i).getFilePath()).getName(), c);
+        }
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < photos.size(); i++) positions.add(i);
+        positions.sort(cmp);
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Photos with many equal keys: shared captions and names, and seconds shared with differing nanos. */
+    private static List<Photo> photos(Random r, int n, boolean wide) {
+        List<Photo> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String name = (r.nextBoolean() ? "IMG_" : "img_") + r.nextInt(n / 4 + 1) + ".jpg";
+            Photo p = new Photo("/photos/" + i % 7 + "/" + name, CAPTIONS[r.nextInt(CAPTIONS.length)], date(r), 1);
+            if (wide && r.nextInt(10) == 0) p.setDateTime(r.nextBoolean() ? LocalDateTime.MIN : LocalDateTime.MAX);
+            out.add(p);
+        }
+        return out;
+    }
+
+    private static LocalDateTime date(Random r) {
+        return LocalDateTime.of(2021, 6, 1 + r.nextInt(2), 12, 0, r.nextInt(3), r.nextInt(3) * 1000);
+    }
+}
@@ -0,0 +1,121 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import search.Query;
+
+/**
+ * {@link TagDictionary} case folding, growth and serialization, and the
+ * migration of photos saved before tags were interned.
+ *
+ * @author Prayrit
+ */
+class TagDictionaryTest {
+
+    @Test
+    void foldsCaseAndKeepsFirstSpelling() {
+        TagDictionary d = new TagDictionary();
+        int alice = d.intern("Person", "Alice");
+        assertEquals(alice, d.intern("person", "ALICE"));
+        assertEquals(alice, d.lookup("PERSON", "alice"));
+        assertEquals("Person", d.tag(alice).getName());
+        assertEquals("Alice", d.tag(alice).getValue());
+        // a new value under a known name takes the name's first spelling
+        int bob = d.intern("PERSON", "Bob");
+        assertNotEquals(alice, bob);
+        assertEquals("Person", d.tag(bob).getName());
+        assertEquals(-1, d.lookup("person", "carol"));
+        assertEquals(2, d.size());
+    }
+
+    @Test
+    void growsAndSurvivesSerialization() throws Exception {
+        TagDictionary d = new TagDictionary();
+        for (int i = 0; i < 5000; i++) assertEquals(i, d.intern("n" + i % 7, "v" + i));
+        assertEquals(5000, d.size());
+        for (int i = 0; i < 5000; i++) assertEquals("v" + i, d.tag(i).getValue());
+
+        TagDictionary copy = (TagDictionary) roundTrip(d);
+        assertEquals(5000, copy.size());
+        assertEquals(1234, copy.lookup("N2", "V1234"));
+        assertEquals(5000, copy.intern("new", "tag"));
+        assertEquals(5000, d.size(), "the copy is independent");
+    }
+
+    /** Older files stored a {@code Set<Tag>} in the photo's {@code tags} field. */
+    @Test
+    void migratesLegacyTagSets() throws Exception {
+        Set<Tag> legacy = new LinkedHashSet<>();
+        legacy.add(new Tag("legacyPlace", "Rome"));
+        legacy.add(new Tag("LEGACYPLACE", "rome")); // same tag in another case
+        legacy.add(new Tag("legacyPerson", "Ann"));
+        Photo saved = new Photo("/photos/legacy.jpg", "old", LocalDateTime.of(2010, 1, 1, 0, 0), 5);
+
+        // tags is the last object field of the stream, so writing the set in
+        // place of its null gives the layout an older version wrote
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(saved);
+        out.flush();
+        int end = bytes.size();
+        out.writeObject(legacy);
+        out.close();
+        byte[] b = bytes.toByteArray();
+        // the photo ends with the null and the end marker of its writeObject data
+        assertEquals(ObjectOutputStream.TC_NULL, b[end - 2]);
+        assertEquals(ObjectOutputStream.TC_ENDBLOCKDATA, b[end - 1]);
+        byte[] patched = new byte[b.length - 1];
+        System.arraycopy(b, 0, patched, 0, end - 2);
+        System.arraycopy(b, end, patched, end - 2, b.length - end);
+        patched[patched.length - 1] = ObjectOutputStream.TC_ENDBLOCKDATA;
+
+        Photo p;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(patched))) {
+            p = (Photo) in.readObject();
+        }
+        TagDictionary dict = TagDictionary.getInstance();
+        int rome = dict.lookup("legacyplace", "rome");
+        int ann = dict.lookup("legacyperson", "ann");
+        int[] expected = {rome, ann};
+        Arrays.sort(expected);
+        assertArrayEquals(expected, p.getTagIds());
+        assertTrue(p.hasTag(new Tag("LegacyPlace", "ROME")));
+        assertEquals("old", p.getCaption());
+    }
+
+    @Test
+    void queryTermFindsATagInternedAfterAMiss() {
+        Query.TagTerm term = new Query.TagTerm("lateTag", "late");
+        Photo p = new Photo("/photos/late.jpg", "", LocalDateTime.of(2010, 1, 1, 0, 0), 5);
+        assertEquals(-1, term.tagId());
+        assertEquals(-1, term.tagId());
+        p.addTag(new Tag("lateTag", "late"));
+        assertEquals(TagDictionary.getInstance().lookup("latetag", "late"), term.tagId());
+        assertTrue(term.matches(p));
+    }
+
+    private static Object roundTrip(Object o) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * {@link Facets} of search results counted against the result's photos,
+ * including after edits, with each value's refinement selecting exactly
+ * the photos it counts.
+ *
+ * @author Prayrit
+ */
+class FacetsTest {
+    private static final String[] NAMES = {"facetcolor", "facetmood", "facetplace"};
+    private static final int TOP = 3;
+
+    @Test
+    void countsMatchResultPhotos() {
+        Random r = new Random(34);
+        User u = new User("facets");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Photo p = new Photo("/photos/" + i + ".jpg");
+            p.setDateTime(LocalDateTime.of(2022, 1 + r.nextInt(6), 1 + r.nextInt(28), 12, 0));
+            for (int k = r.nextInt(4); k > 0; k--) p.addTag(tag(r));
+            a.addPhoto(p);
+            photos.add(p);
+        }
+        SearchEngine engine = SearchEngine.forUser(u);
+        try {
+            for (int round = 0; round < 40; round++) {
+                // edits after indexing must show in the counts too
+                Photo p = photos.get(r.nextInt(photos.size()));
+                if (r.nextBoolean()) p.addTag(tag(r));
+                else p.setDateTime(LocalDateTime.of(2022, 1 + r.nextInt(6), 1, 0, 0));
+                String query = round % 4 == 0 ? "date:2022" : NAMES[r.nextInt(NAMES.length)] + ":*";
+                SearchResults results = engine.search(query);
+                Facets f = engine.facets(results, TOP);
+                check(results, f);
+                for (List<Facets.Value> values : f.getTags().values()) {
+                    for (Facets.Value v : values) assertRefines(engine, query, v);
+                }
+                for (Facets.Value v : f.getMonths()) assertRefines(engine, query, v);
+            }
+        } finally {
+            SearchEngine.release(u);
+        }
+    }
+
+    private static Tag tag(Random r) {
+        String name = NAMES[r.nextInt(NAMES.length)];
+        return new Tag(name, name.substring(5) + (int) Math.abs(r.nextGaussian() * 3));
+    }
+
+    private static void check(SearchResults results, Facets f) {
+        Map<String, Map<String, Integer>> byName = new HashMap<>();
+        TreeMap<String, Integer> months = new TreeMap<>();
+        for (Photo p : results) {
+            for (Tag t : p.getTags()) {
+                if (!t.getName().startsWith("facet")) continue;
+                byName.computeIfAbsent(t.getName(), k -> new HashMap<>()).merge(t.getValue(), 1, Integer::sum);
+            }
+            months.merge(YearMonth.from(p.getDateTime()).toString(), 1, Integer::sum);
+        }
+        // names by total count, values by count, both then by text
+        List<String> names = new ArrayList<>(byName.keySet());
+        Map<String, Integer> totals = new HashMap<>();
+        for (String n : names) totals.put(n, byName.get(n).values().stream().mapToInt(Integer::intValue).sum());
+        names.sort(Comparator.comparing((String n) -> -totals.get(n)).thenComparing(n -> n));
+        List<String> facetNames = new ArrayList<>(f.getTags().keySet());
+        facetNames.removeIf(n -> !n.startsWith("facet"));
+        assertEquals(names, facetNames);
+        for (String n : names) {
+            List<Map.Entry<String, Integer>> values = new ArrayList<>(byName.get(n).entrySet());
+            values.sort(Comparator.comparing((Map.Entry<String, Integer> e) -> -e.getValue()).thenComparing(Map.Entry::getKey));
+            List<String> expected = new ArrayList<>();
+            for (Map.Entry<String, Integer> e : values.subList(0, Math.min(TOP, values.size()))) expected.add(e.getKey() + "=" + e.getValue());
+            List<String> got = new ArrayList<>();
+            for (Facets.Value v : f.getTags().get(n)) got.add(v.getLabel() + "=" + v.getCount());
+            assertEquals(expected, got, n);
+        }
+        TreeMap<String, Integer> gotMonths = new TreeMap<>();
+        for (Facets.Value v : f.getMonths()) gotMonths.put(v.getLabel(), v.getCount());
+        assertEquals(months, gotMonths);
+    }
+
+    private static void assertRefines(SearchEngine engine, String query, Facets.Value v) {
+        Query narrowed = new Query.And(List.of(QueryParser.parse(query), v.getRefinement()));
+        assertEquals(v.getCount(), engine.search(narrowed).size(), v.toString());
+    }
+}
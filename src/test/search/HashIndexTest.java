@@ -0,0 +1,75 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Hamming-distance lookups of {@link HashIndex} checked against a scan of
+ * every hash, on clusters of near-duplicates as burst shots give.
+ *
+ * @author Prayrit
+ */
+class HashIndexTest {
+
+    @Test
+    void withinMatchesScan() {
+        Random r = new Random(36);
+        long[] centers = new long[20];
+        for (int i = 0; i < centers.length; i++) centers[i] = r.nextLong();
+        HashIndex index = new HashIndex();
+        Map<Integer, Long> model = new HashMap<>();
+        for (int step = 0; step < 4000; step++) {
+            int id = r.nextInt(1500);
+            if (r.nextInt(5) == 0) {
+                index.remove(id);
+                model.remove(id);
+            } else {
+                // re-adding an id moves it to its new hash
+                long h = flip(r, centers[r.nextInt(centers.length)], r.nextInt(20));
+                index.add(id, h);
+                model.put(id, h);
+            }
+        }
+        assertEquals(model.size(), index.size());
+        for (int q = 0; q < 300; q++) {
+            long h = flip(r, centers[r.nextInt(centers.length)], r.nextInt(12));
+            int k = r.nextInt(HashIndex.MAX_DISTANCE + 1);
+            assertArrayEquals(scan(model, h, k), index.within(h, k).toArray(), "k=" + k);
+        }
+        for (Map.Entry<Integer, Long> e : model.entrySet()) assertEquals(e.getValue(), index.hash(e.getKey()));
+    }
+
+    /** Bits spread across all chunks, so no single chunk matches exactly. */
+    @Test
+    void findsHashesDifferingInEveryChunk() {
+        HashIndex index = new HashIndex();
+        long base = 0x0123456789abcdefL;
+        long spread = base ^ 0x0003_0003_0003_0003L; // eight bits, two per chunk
+        index.add(1, base);
+        index.add(2, spread);
+        index.add(3, ~base);
+        assertArrayEquals(new int[] {1}, index.within(base, 7).toArray());
+        assertArrayEquals(new int[] {1, 2}, index.within(base, 8).toArray());
+        assertArrayEquals(new int[] {3}, index.within(~base, 0).toArray());
+        assertThrows(IllegalArgumentException.class, () -> index.within(base, HashIndex.MAX_DISTANCE + 1));
+        assertEquals(0, new HashIndex().within(base, 3).cardinality());
+    }
+
+    private static long flip(Random r, long h, int bits) {
+        for (int i = 0; i < bits; i++) h ^= 1L << r.nextInt(64);
+        return h;
+    }
+
+    private static int[] scan(Map<Integer, Long> model, long h, int k) {
+        return model.entrySet().stream()
+            .filter(e -> Long.bitCount(e.getValue() ^ h) <= k)
+            .mapToInt(Map.Entry::getKey).sorted().toArray();
+    }
+}
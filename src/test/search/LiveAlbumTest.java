@@ -0,0 +1,106 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import model.Album;
+import model.Photo;
+import model.SmartAlbum;
+import model.Tag;
+import model.User;
+
+/**
+ * {@link LiveAlbum} membership kept up by library events, checked after
+ * every tag, caption, date and album edit against the query run over the
+ * whole library.
+ *
+ * @author Prayrit
+ */
+class LiveAlbumTest {
+    private static final String[] QUERIES = {
+        "person:alice",
+        "caption~beach OR location:rome",
+        "date:2021-03..2021-06 AND NOT person:bob",
+        "person:alice person:bob",
+    };
+    private static final String[] CAPTIONS = {"", "beach day", "at the Beach", "city", "beachfront"};
+
+    @Test
+    void followsEditsIncrementally() {
+        Random r = new Random(35);
+        User u = new User("live");
+        u.createAlbum("a");
+        u.createAlbum("b");
+        Album a = u.getAlbums().get("a"), b = u.getAlbums().get("b");
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Photo p = new Photo("/photos/" + i + ".jpg");
+            p.setDateTime(date(r));
+            photos.add(p);
+        }
+        for (int i = 0; i < QUERIES.length; i++) u.createSmartAlbum("s" + i, QUERIES[i]);
+        SearchEngine engine = SearchEngine.forUser(u);
+        List<LiveAlbum> views = new ArrayList<>();
+        for (SmartAlbum s : u.getSmartAlbums().values()) {
+            LiveAlbum v = engine.smartAlbum(s);
+            assertFalse(v.isEvaluated(), "queries run on first use");
+            v.size();
+            views.add(v);
+        }
+        try {
+            for (int step = 0; step < 3000; step++) {
+                Photo p = photos.get(r.nextInt(photos.size()));
+                switch (r.nextInt(7)) {
+                    case 0: (r.nextBoolean() ? a : b).addPhoto(p); break;
+                    case 1: (r.nextBoolean() ? a : b).removePhoto(p); break;
+                    case 2: p.addTag(new Tag(r.nextBoolean() ? "person" : "location", pick(r, "alice", "bob", "rome", "paris"))); break;
+                    case 3: p.removeTag(new Tag(r.nextBoolean() ? "person" : "location", pick(r, "alice", "bob", "rome", "paris"))); break;
+                    case 4: p.setCaption(CAPTIONS[r.nextInt(CAPTIONS.length)]); break;
+                    case 5: p.setDateTime(date(r)); break;
+                    default: u.addTagToAll(List.of(p, photos.get(r.nextInt(photos.size()))), new Tag("person", "alice"), false);
+                }
+                if (step % 7 == 0) for (LiveAlbum v : views) assertMatchesScan(u, v);
+            }
+            for (LiveAlbum v : views) {
+                assertTrue(v.isEvaluated());
+                assertMatchesScan(u, v);
+            }
+        } finally {
+            SearchEngine.release(u);
+        }
+    }
+
+    private static void assertMatchesScan(User u, LiveAlbum v) {
+        Query q = QueryParser.parse(v.getAlbum().getQuery()).rewrite();
+        TreeSet<Integer> ids = new TreeSet<>();
+        TreeSet<LocalDate> days = new TreeSet<>();
+        for (Photo p : u.getLibraryPhotos()) {
+            if (!q.matches(p)) continue;
+            ids.add(p.getId());
+            days.add(p.getDateTime().toLocalDate());
+        }
+        TreeSet<Integer> live = new TreeSet<>();
+        for (Photo p : v.photos()) live.add(p.getId());
+        String name = v.getAlbum().getQuery();
+        assertEquals(ids, live, name);
+        assertEquals(ids.size(), v.size(), name);
+        assertEquals(days.isEmpty() ? null : days.first(), v.getStartDate(), name);
+        assertEquals(days.isEmpty() ? null : days.last(), v.getEndDate(), name);
+    }
+
+    private static LocalDateTime date(Random r) {
+        return LocalDateTime.of(2021, 1 + r.nextInt(12), 1 + r.nextInt(28), r.nextInt(24), 0);
+    }
+
+    private static String pick(Random r, String... values) { return values[r.nextInt(values.length)]; }
+}
@@ -0,0 +1,101 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import model.Album;
+import model.Photo;
+import model.User;
+
+/**
+ * {@link OrphanCollector} sweeping the hash entries of photos that left the
+ * library, in batches, while keeping those of photos still in an album and
+ * of new photos given a swept photo's id.
+ *
+ * @author Prayrit
+ */
+class OrphanCollectorTest {
+
+    @Test
+    void sweepsHashesOfPhotosThatLeft() throws InterruptedException {
+        Random r = new Random(43);
+        OrphanCollector gc = OrphanCollector.getInstance();
+        gc.awaitIdle();
+        long swept = gc.getSwept(), batches = gc.getBatches();
+        User u = new User("orphans");
+        u.createAlbum("gone");
+        u.createAlbum("kept");
+        Album gone = u.getAlbums().get("gone"), kept = u.getAlbums().get("kept");
+        int n = 3 * OrphanCollector.BATCH_SIZE;
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Photo p = new Photo("/photos/" + i + ".jpg");
+            gone.addPhoto(p);
+            if (i % 10 == 0) kept.addPhoto(p);
+            photos.add(p);
+        }
+        SearchEngine engine = SearchEngine.forUser(u);
+        try {
+            for (Photo p : photos) engine.setPerceptualHash(p, r.nextLong());
+            assertEquals(n, engine.getHashedCount());
+
+            u.deleteAlbum("gone");
+            int left = n - kept.size();
+            gc.awaitIdle();
+            assertEquals(0, gc.getPending());
+            assertEquals(swept + left, gc.getSwept());
+            assertTrue(gc.getBatches() - batches >= (left + OrphanCollector.BATCH_SIZE - 1) / OrphanCollector.BATCH_SIZE);
+            assertEquals(kept.size(), engine.getHashedCount());
+            for (Photo p : kept.getPhotos()) assertEquals(List.of(p), withHash(engine, p.getPerceptualHash()), "still in an album");
+        } finally {
+            SearchEngine.release(u);
+        }
+    }
+
+    /** Ids are reused at once, so a new photo can take an id before the old entry is swept. */
+    @Test
+    void reusedIdsKeepTheirNewHash() throws InterruptedException {
+        Random r = new Random(43);
+        OrphanCollector gc = OrphanCollector.getInstance();
+        User u = new User("reuse");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        SearchEngine engine = SearchEngine.forUser(u);
+        try {
+            List<Photo> current = new ArrayList<>();
+            for (int step = 0; step < 2000; step++) {
+                if (!current.isEmpty() && r.nextInt(3) == 0) {
+                    a.removePhoto(current.remove(r.nextInt(current.size())));
+                } else {
+                    Photo p = new Photo("/photos/" + step + ".jpg");
+                    a.addPhoto(p);
+                    if (r.nextBoolean()) engine.setPerceptualHash(p, r.nextLong());
+                    current.add(p);
+                }
+            }
+            gc.awaitIdle();
+            int hashed = 0;
+            for (Photo p : current) {
+                if (!p.hasPerceptualHash()) continue;
+                hashed++;
+                assertEquals(List.of(p), withHash(engine, p.getPerceptualHash()), p.getFilePath());
+            }
+            assertEquals(hashed, engine.getHashedCount());
+        } finally {
+            SearchEngine.release(u);
+        }
+    }
+
+    /** Library photos indexed under a hash, found through a probe that is not in the library. */
+    private static List<Photo> withHash(SearchEngine engine, long hash) {
+        Photo probe = new Photo("/probe.jpg");
+        probe.setPerceptualHash(hash);
+        return engine.similar(probe, 0);
+    }
+}
@@ -0,0 +1,119 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link PhotoBitmap} checked against a {@link TreeSet}, with ids drawn so
+ * that chunks cross the array/bitmap threshold in both directions.
+ *
+ * @author Prayrit
+ */
+class PhotoBitmapTest {
+
+    /** Ids from a few chunks, dense enough for some to become bitmaps. */
+    private static int id(Random r) {
+        int chunk = r.nextInt(4);
+        return chunk == 3 ? r.nextInt(Integer.MAX_VALUE) : chunk << 16 | r.nextInt(chunk == 0 ? 6000 : 65536);
+    }
+
+    @Test
+    void addAndRemoveMatchSet() {
+        Random r = new Random(1);
+        PhotoBitmap b = new PhotoBitmap();
+        TreeSet<Integer> model = new TreeSet<>();
+        for (int round = 0; round < 6; round++) {
+            // grow past the 4096-entry array limit, then shrink back under it
+            for (int i = 0; i < 8000; i++) {
+                int id = id(r);
+                assertEquals(model.add(id), b.add(id));
+            }
+            check(model, b);
+            for (int i = 0; i < 9000; i++) {
+                int probe = id(r);
+                Integer present = model.ceiling(probe);
+                int id = r.nextBoolean() && present != null ? present : probe;
+                assertEquals(model.remove(id), b.remove(id));
+            }
+            check(model, b);
+        }
+    }
+
+    @Test
+    void binaryOperationsMatchSetsAndLeaveOperandsAlone() {
+        Random r = new Random(2);
+        for (int round = 0; round < 40; round++) {
+            TreeSet<Integer> x = new TreeSet<>(), y = new TreeSet<>();
+            int nx = r.nextInt(12000), ny = r.nextInt(12000);
+            for (int i = 0; i < nx; i++) x.add(id(r));
+            for (int i = 0; i < ny; i++) y.add(id(r));
+            PhotoBitmap a = bitmap(x), b = bitmap(y);
+
+            TreeSet<Integer> and = new TreeSet<>(x);
+            and.retainAll(y);
+            TreeSet<Integer> or = new TreeSet<>(x);
+            or.addAll(y);
+            TreeSet<Integer> andNot = new TreeSet<>(x);
+            andNot.removeAll(y);
+
+            check(and, a.and(b));
+            check(and, b.and(a));
+            check(or, a.or(b));
+            check(or, PhotoBitmap.orAll(List.of(a, b)));
+            check(andNot, a.andNot(b));
+            check(x, a);
+            check(y, b);
+        }
+    }
+
+    @Test
+    void resultsShareNoContainersWithOperands() {
+        PhotoBitmap a = PhotoBitmap.of(1, 2, 3, 70000);
+        PhotoBitmap b = PhotoBitmap.of(3, 4);
+        PhotoBitmap or = a.or(b);
+        or.add(5);
+        or.remove(1);
+        PhotoBitmap copy = a.copy();
+        copy.remove(70000);
+        assertArrayEquals(new int[] {1, 2, 3, 70000}, a.toArray());
+        assertArrayEquals(new int[] {3, 4}, b.toArray());
+        assertArrayEquals(new int[] {2, 3, 4, 5, 70000}, or.toArray());
+    }
+
+    @Test
+    void orAllOfNothingIsEmpty() {
+        assertTrue(PhotoBitmap.orAll(new ArrayList<>()).isEmpty());
+        assertEquals(0, new PhotoBitmap().and(PhotoBitmap.of(1)).cardinality());
+    }
+
+    private static PhotoBitmap bitmap(TreeSet<Integer> ids) {
+        PhotoBitmap b = new PhotoBitmap();
+        for (int id : ids) b.add(id);
+        return b;
+    }
+
+    private static void check(TreeSet<Integer> model, PhotoBitmap b) {
+        int[] expected = model.stream().mapToInt(Integer::intValue).toArray();
+        assertEquals(expected.length, b.cardinality());
+        assertEquals(expected.length == 0, b.isEmpty());
+        assertArrayEquals(expected, b.toArray());
+        List<Integer> seen = new ArrayList<>();
+        b.forEach(seen::add);
+        assertEquals(new ArrayList<>(model), seen);
+        PrimitiveIterator.OfInt it = b.iterator();
+        for (int id : expected) assertEquals(id, it.nextInt());
+        assertFalse(it.hasNext());
+        for (int id : expected) assertTrue(b.contains(id));
+        assertFalse(b.contains(model.isEmpty() ? 0 : model.last() + 1));
+    }
+}
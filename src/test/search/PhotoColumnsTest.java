@@ -0,0 +1,143 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.TagDictionary;
+import model.User;
+
+/**
+ * {@link PhotoColumns} snapshots read back row by row against the photos
+ * they were taken from, and compiled matchers against
+ * {@link Query#matches(Photo)}, with path tokens that span the shared
+ * directory and the file name.
+ *
+ * @author Prayrit
+ */
+class PhotoColumnsTest {
+    private static final String[] DIRS = {"/photos/Trip 2021/", "/photos/trip/", "C:\\Pics\\Rome\\", "/", ""};
+    private static final String[] WORDS = {"Beach", "sunset", "rome", "DAY", "dog"};
+
+    @Test
+    void rowsMirrorTheLibrary() {
+        Random r = new Random(41);
+        User u = library(r);
+        PhotoColumns c = PhotoColumns.of(u);
+        List<Photo> photos = u.getLibraryPhotos();
+        assertEquals(photos.size(), c.size());
+        int[] counts = new int[TagDictionary.getInstance().size()];
+        PhotoColumns.Row row = c.row();
+        for (int i = 0; i < c.size(); i++) {
+            Photo p = photos.get(i);
+            if (i > 0) assertTrue(c.id(i - 1) < c.id(i), "rows in id order");
+            row.at(i);
+            assertEquals(p.getId(), row.getId());
+            assertEquals(p.getFilePath(), row.getFilePath());
+            assertEquals(p.getCaption(), row.getCaption());
+            assertEquals(p.getDateTime().truncatedTo(ChronoUnit.SECONDS), row.getDateTime());
+            assertArrayEquals(p.getTagIds(), row.getTagIds());
+            for (int t : p.getTagIds()) {
+                assertTrue(row.hasTag(t));
+                counts[t]++;
+            }
+        }
+        assertArrayEquals(counts, c.tagCounts());
+        LocalDateTime min = photos.stream().map(Photo::getDateTime).min(LocalDateTime::compareTo).get();
+        LocalDateTime max = photos.stream().map(Photo::getDateTime).max(LocalDateTime::compareTo).get();
+        assertEquals(min.truncatedTo(ChronoUnit.SECONDS), c.getStartDate());
+        assertEquals(max.truncatedTo(ChronoUnit.SECONDS), c.getEndDate());
+    }
+
+    @Test
+    void matchersAgreeWithQueries() {
+        Random r = new Random(41);
+        User u = library(r);
+        PhotoColumns c = PhotoColumns.of(u);
+        List<Photo> photos = u.getLibraryPhotos();
+        for (int round = 0; round < 400; round++) {
+            Query q = random(r, photos, 3);
+            PhotoColumns.Matcher m = c.matcher(q);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < c.size(); i++) {
+                boolean match = q.matches(photos.get(i));
+                assertEquals(match, m.test(i), q + " on " + photos.get(i).getFilePath());
+                if (match) expected.add(photos.get(i).getId());
+            }
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), c.scan(q).toArray(), q.toString());
+        }
+    }
+
+    @Test
+    void forUserRebuildsAfterEdits() {
+        User u = library(new Random(41));
+        PhotoColumns c = PhotoColumns.forUser(u);
+        assertSame(c, PhotoColumns.forUser(u));
+        Photo p = u.getLibraryPhotos().get(0);
+        p.setCaption("changed");
+        PhotoColumns next = PhotoColumns.forUser(u);
+        assertNotSame(c, next);
+        assertEquals(u.getGeneration(), next.getGeneration());
+        assertEquals("changed", next.row().at(0).getCaption());
+        assertEquals(1, next.scan(new Query.CaptionContains("CHANGED")).cardinality());
+    }
+
+    /** 300 photos over a few directories, then every fifth removed so ids have holes. */
+    private static User library(Random r) {
+        User u = new User("columns");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        List<Photo> added = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Photo p = new Photo(DIRS[r.nextInt(DIRS.length)] + (r.nextBoolean() ? "IMG_" : "day") + i + ".JPG");
+            p.setCaption(r.nextInt(3) == 0 ? "" : WORDS[r.nextInt(WORDS.length)] + " " + WORDS[r.nextInt(WORDS.length)]);
+            p.setDateTime(LocalDateTime.of(2020, 1 + r.nextInt(12), 1 + r.nextInt(28), r.nextInt(24), r.nextInt(60), r.nextInt(60),
+                r.nextInt(1_000_000_000)));
+            for (int t = r.nextInt(4); t > 0; t--) p.addTag(new Tag(r.nextBoolean() ? "person" : "location", WORDS[r.nextInt(WORDS.length)]));
+            a.addPhoto(p);
+            added.add(p);
+        }
+        for (int i = 0; i < added.size(); i += 5) a.removePhoto(added.get(i));
+        return u;
+    }
+
+    private static Query random(Random r, List<Photo> photos, int depth) {
+        int kind = depth == 0 ? r.nextInt(4) : r.nextInt(7);
+        switch (kind) {
+            case 0: return new Query.TagTerm(r.nextBoolean() ? "person" : "LOCATION", r.nextInt(4) == 0 ? "*" : WORDS[r.nextInt(WORDS.length)].toUpperCase());
+            case 1: {
+                LocalDate from = r.nextInt(4) == 0 ? null : LocalDate.of(2020, 1 + r.nextInt(12), 1 + r.nextInt(28));
+                LocalDate to = from != null && r.nextInt(4) == 0 ? null : LocalDate.of(2020, 1 + r.nextInt(12), 1 + r.nextInt(28));
+                return new Query.DateRange(from, to);
+            }
+            case 2: return new Query.CaptionContains(WORDS[r.nextInt(WORDS.length)].toLowerCase());
+            case 3: {
+                // a piece of a real path, often crossing from the directory into the name
+                String path = photos.get(r.nextInt(photos.size())).getFilePath();
+                int from = r.nextInt(path.length()), to = Math.min(path.length(), from + 1 + r.nextInt(8));
+                String token = path.substring(from, to).trim();
+                return new Query.PathContains(token.isEmpty() ? "img" : r.nextBoolean() ? token.toUpperCase() : token);
+            }
+            case 4: return new Query.Not(random(r, photos, depth - 1));
+            default: {
+                List<Query> operands = new ArrayList<>();
+                for (int i = 2 + r.nextInt(2); i > 0; i--) operands.add(random(r, photos, depth - 1));
+                return kind == 5 ? new Query.And(operands) : new Query.Or(operands);
+            }
+        }
+    }
+}
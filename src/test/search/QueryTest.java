@@ -0,0 +1,155 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * The query language end to end: parsing and printing, the rewrite rules,
+ * the planner's choice of plan, and plans returning what a scan of the
+ * library would.
+ *
+ * @author Prayrit
+ */
+class QueryTest {
+    private static final String[] WORDS = {"beach", "sunset", "rome", "day", "dog"};
+
+    private User user;
+    private PhotoIndex index;
+    private QueryPlanner planner;
+
+    /** 200 photos: half in rome, half in paris, alice in every 40th, "sunset" in every 50th caption. */
+    @BeforeEach
+    void library() {
+        user = new User("query");
+        user.createAlbum("a");
+        Album a = user.getAlbums().get("a");
+        for (int i = 0; i < 200; i++) {
+            Photo p = new Photo("/photos/" + i + ".jpg");
+            p.setDateTime(LocalDateTime.of(2020 + i % 5, 1 + i % 12, 1, 0, 0));
+            p.setCaption(i % 50 == 0 ? "rare sunset" : "beach day");
+            p.addTag(new Tag("location", i % 2 == 0 ? "rome" : "paris"));
+            if (i % 40 == 0) p.addTag(new Tag("person", "alice"));
+            a.addPhoto(p);
+        }
+        index = new PhotoIndex(user);
+        planner = new QueryPlanner(index);
+    }
+
+    @Test
+    void parsesPrecedenceAndPrintsCanonically() {
+        assertEquals("(a:1 AND b:2) OR c:3", QueryParser.parse("a:1 b:2 OR c:3").toString());
+        assertEquals("a:1 AND (b:2 OR c:3)", QueryParser.parse("a:1 AND (b:2 or c:3)").toString());
+        assertEquals("person:alice", QueryParser.parse("Person:ALICE").toString());
+        assertEquals("date:2021-05-01..2021-05-31", QueryParser.parse("date:2021-05").toString());
+        assertEquals("date:2020-01-01..2022-12-31", QueryParser.parse("date:2020..2022").toString());
+        assertEquals("caption~\"sun set\"", QueryParser.parse("caption~\"sun set\"").toString());
+        assertTrue(QueryParser.parse("person:*") instanceof Query.TagTerm);
+        for (String bad : new String[] {"", " ", "a:1 AND", "(a:1", "a:1)", "NOT", "a:", ":b", "caption~", "date:2024-13", "date:x..y"}) {
+            assertThrows(IllegalArgumentException.class, () -> QueryParser.parse(bad), bad);
+        }
+    }
+
+    @Test
+    void rewritesToNormalForm() {
+        assertEquals("a:1", rewrite("NOT NOT a:1"));
+        assertEquals("NOT a:1 OR NOT b:2", rewrite("NOT (a:1 AND b:2)"));
+        assertEquals("NOT a:1 AND NOT b:2", rewrite("NOT (a:1 OR b:2)"));
+        assertEquals("a:1 AND b:2", rewrite("a:1 AND (b:2 AND a:1)"));
+        assertEquals("a:1 OR b:2", rewrite("a:1 OR (b:2 OR a:1)"));
+        // date ranges of a conjunction are intersected into one, placed first
+        assertEquals("date:2021-03-01..2022-12-31 AND a:1", rewrite("a:1 date:2020..2022 date:2021-03.."));
+        assertTrue(((Query.DateRange) QueryParser.parse("date:2023..2021").rewrite()).isEmpty());
+    }
+
+    @Test
+    void plannerPicksIndexesBySelectivity() {
+        // the rarer tag is intersected first
+        assertPlan("location:rome person:alice", "BitmapAnd", "IndexScan tag person:alice", "IndexScan tag location:rome");
+        assertPlan("location:rome NOT person:alice", "BitmapAndNot", "IndexScan tag location:rome", "IndexScan tag person:alice");
+        assertPlan("NOT person:alice", "BitmapAndNot", "FullScan", "IndexScan tag person:alice");
+        assertPlan("person:alice OR location:paris", "BitmapOr", "IndexScan tag person:alice", "IndexScan tag location:paris");
+        // a selective caption joins the bitmaps; a common one is checked on the survivors
+        assertPlan("caption~sunset location:rome", "BitmapAnd", "IndexScan caption~sunset", "IndexScan tag location:rome");
+        assertPlan("caption~beach person:alice", "Filter caption~beach", "IndexScan tag person:alice");
+        // no index for paths, so a disjunction with one scans everything
+        assertPlan("path~x", "Filter path~x", "FullScan");
+        assertPlan("person:alice OR path~x", "Filter (person:alice OR path~x)", "FullScan");
+        assertPlan("person:*", "IndexScan tag person:* [name index]");
+        assertPlan("date:2021-05", "IndexRangeScan date:2021-05-01..2021-05-31");
+        assertEquals(5, planner.plan(QueryParser.parse("person:alice")).getEstimate());
+        assertEquals(4, planner.plan(QueryParser.parse("date:2021-05")).getEstimate());
+    }
+
+    /** Random queries print, parse back, rewrite and plan without changing what they match. */
+    @Test
+    void randomQueriesMatchScan() {
+        Random r = new Random(26);
+        List<Photo> photos = user.getLibraryPhotos();
+        for (int round = 0; round < 500; round++) {
+            Query q = random(r, 3);
+            Query parsed = QueryParser.parse(q.toString());
+            assertEquals(q.toString(), parsed.toString());
+            Query rewritten = q.rewrite();
+            List<Integer> expected = new ArrayList<>();
+            for (Photo p : photos) {
+                boolean m = q.matches(p);
+                assertEquals(m, rewritten.matches(p), q + " => " + rewritten);
+                if (m) expected.add(p.getId());
+            }
+            int[] ids = expected.stream().mapToInt(Integer::intValue).sorted().toArray();
+            assertArrayEquals(ids, planner.plan(q).execute(index).toArray(), q.toString());
+        }
+    }
+
+    private static Query random(Random r, int depth) {
+        int kind = depth == 0 ? r.nextInt(4) : r.nextInt(7);
+        switch (kind) {
+            case 0: {
+                String[] names = {"location", "person", "Location"};
+                String[] values = {"rome", "paris", "ALICE", "*", "bob"};
+                return new Query.TagTerm(names[r.nextInt(names.length)], values[r.nextInt(values.length)]);
+            }
+            case 1: {
+                LocalDate from = r.nextInt(4) == 0 ? null : LocalDate.of(2019 + r.nextInt(7), 1 + r.nextInt(12), 1);
+                // the language needs at least one bound
+                LocalDate to = from != null && r.nextInt(4) == 0 ? null : LocalDate.of(2019 + r.nextInt(7), 1 + r.nextInt(12), 28);
+                return new Query.DateRange(from, to);
+            }
+            case 2: return new Query.CaptionContains(WORDS[r.nextInt(WORDS.length)] + (r.nextBoolean() ? "" : " " + WORDS[r.nextInt(WORDS.length)]));
+            case 3: return new Query.PathContains(String.valueOf(r.nextInt(20)));
+            case 4: return new Query.Not(random(r, depth - 1));
+            default: {
+                List<Query> operands = new ArrayList<>();
+                for (int i = 2 + r.nextInt(2); i > 0; i--) operands.add(random(r, depth - 1));
+                return kind == 5 ? new Query.And(operands) : new Query.Or(operands);
+            }
+        }
+    }
+
+    private static String rewrite(String q) { return QueryParser.parse(q).rewrite().toString(); }
+
+    /** The plan's explain lines, without estimates, start with the given texts in order. */
+    private void assertPlan(String query, String... lines) {
+        String[] explain = planner.plan(QueryParser.parse(query)).explain().split("\n");
+        assertEquals(lines.length, explain.length, String.join("\n", explain));
+        for (int i = 0; i < lines.length; i++) {
+            assertTrue(explain[i].trim().startsWith(lines[i]), query + ": " + explain[i]);
+        }
+    }
+}
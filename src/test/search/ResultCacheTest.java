@@ -0,0 +1,127 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * {@link ResultCache} keys, invalidation when the user's generation moves
+ * on, and eviction by entry count and by memory.
+ *
+ * @author Prayrit
+ */
+class ResultCacheTest {
+
+    private static String key(String q) { return ResultCache.keyOf(QueryParser.parse(q).rewrite()); }
+
+    private static User user(int photos) {
+        User u = new User("cache");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        for (int i = 0; i < photos; i++) a.addPhoto(new Photo("/photos/" + i + ".jpg"));
+        return u;
+    }
+
+    private static SearchResults results(User u, int... ids) {
+        PhotoBitmap b = PhotoBitmap.of(ids);
+        return new SearchResults(u, b, b.toArray());
+    }
+
+    @Test
+    void equivalentQueriesShareAKey() {
+        assertEquals(key("person:alice location:rome"), key("Location:ROME AND (PERSON:Alice)"));
+        assertEquals(key("a:1 OR b:2 OR a:1"), key("b:2 OR a:1"));
+        assertEquals(key("caption~Beach"), key("caption~beach"));
+        assertEquals(key("NOT (a:1 OR b:2)"), key("NOT b:2 AND NOT a:1"));
+        assertNotEquals(key("a:1 AND b:2"), key("a:1 OR b:2"));
+        assertNotEquals(key("date:2020"), key("date:2021"));
+    }
+
+    @Test
+    void entriesLapseWhenTheLibraryChanges() {
+        User u = user(3);
+        ResultCache c = new ResultCache(u, 10, 1 << 20);
+        SearchResults r = results(u, 1, 2);
+        c.put("k", u.getGeneration(), r);
+        assertSame(r, c.get("k"));
+        assertTrue(c.isCached("k"));
+
+        u.getPhoto(1).setCaption("edited");
+        assertFalse(c.isCached("k"));
+        assertNull(c.get("k"));
+        assertEquals(1, c.getStale());
+        assertEquals(0, c.size());
+
+        // a result computed before the change is not stored afterwards
+        c.put("k", u.getGeneration() - 1, r);
+        assertEquals(0, c.size());
+
+        c.put("x", u.getGeneration(), r);
+        c.put("y", u.getGeneration(), r);
+        u.getPhoto(2).addTag(new Tag("person", "alice"));
+        assertEquals(2, c.purgeStale());
+        assertEquals(0, c.sizeInBytes());
+        assertEquals(1, c.getHits());
+        assertEquals(1, c.getMisses());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        User u = user(3);
+        ResultCache c = new ResultCache(u, 2, 1 << 20);
+        long g = u.getGeneration();
+        c.put("a", g, results(u, 1));
+        c.put("b", g, results(u, 2));
+        c.get("a");
+        c.put("c", g, results(u, 3));
+        assertTrue(c.isCached("a"));
+        assertFalse(c.isCached("b"));
+        assertTrue(c.isCached("c"));
+        assertEquals(1, c.getEvictions());
+
+        // a budget for about one result keeps only the newest
+        int[] many = new int[2000];
+        for (int i = 0; i < many.length; i++) many[i] = i * 70;
+        long one = results(u, many).getIds().sizeInBytes() + 4L * many.length + 100;
+        ResultCache small = new ResultCache(u, 100, one + one / 2);
+        small.put("p", g, results(u, many));
+        small.put("q", g, results(u, many));
+        assertFalse(small.isCached("p"));
+        assertTrue(small.isCached("q"));
+        assertTrue(small.sizeInBytes() <= one + one / 2);
+        // larger than the whole budget: not cached at all
+        ResultCache tiny = new ResultCache(u, 100, 16);
+        tiny.put("p", g, results(u, many));
+        assertEquals(0, tiny.size());
+    }
+
+    @Test
+    void engineServesCachedResultsUntilAnEdit() {
+        User u = user(20);
+        SearchEngine engine = SearchEngine.forUser(u);
+        try {
+            u.getPhoto(3).addTag(new Tag("person", "alice"));
+            SearchResults first = engine.search("person:alice");
+            assertSame(first, engine.search("PERSON:Alice"));
+            assertEquals(1, first.size());
+            u.getPhoto(4).addTag(new Tag("person", "alice"));
+            SearchResults second = engine.search("person:alice");
+            assertNotSame(first, second);
+            assertEquals(2, second.size());
+            assertEquals(1, engine.getCache().getStale());
+        } finally {
+            SearchEngine.release(u);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link TagTrie} suggestions after random adds and removes, checked
+ * against counts kept in a map; enough keys share prefixes that the cached
+ * per-node lists are used, overflowed and rebuilt.
+ *
+ * @author Prayrit
+ */
+class TagTrieTest {
+
+    @Test
+    void suggestionsMatchCounts() {
+        Random r = new Random(33);
+        TagTrie trie = new TagTrie();
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, String> spelling = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 300; i++) keys.add(word(r));
+        for (int step = 0; step < 30000; step++) {
+            String key = keys.get((int) Math.abs(r.nextGaussian() * 60) % keys.size());
+            if (r.nextBoolean()) key = key.toUpperCase(Locale.ROOT);
+            String folded = key.toLowerCase(Locale.ROOT);
+            if (r.nextInt(3) > 0) {
+                trie.add(key);
+                if (counts.merge(folded, 1, Integer::sum) == 1) spelling.put(folded, key);
+            } else {
+                trie.remove(key);
+                counts.computeIfPresent(folded, (k, n) -> n == 1 ? null : n - 1);
+            }
+            if (step % 50 == 0) {
+                String w = keys.get(r.nextInt(keys.size()));
+                String prefix = w.substring(0, Math.min(w.length(), r.nextInt(3)));
+                check(trie, counts, spelling, prefix, 1 + r.nextInt(TagTrie.CACHED));
+            }
+        }
+        assertEquals(counts.size(), trie.size());
+        for (String k : keys) assertEquals(counts.getOrDefault(k, 0), trie.count(k.toUpperCase(Locale.ROOT)));
+        for (String prefix : new String[] {"", "a", "b", "ab", "zzz"}) check(trie, counts, spelling, prefix, TagTrie.CACHED);
+    }
+
+    @Test
+    void keepsFirstSpellingWhileUsed() {
+        TagTrie trie = new TagTrie();
+        trie.add("Rome");
+        trie.add("ROME");
+        trie.add("rob");
+        assertEquals("Rome (2)", trie.suggest("RO", 5).get(0).toString());
+        trie.remove("rome");
+        trie.remove("rome");
+        trie.add("rOMe");
+        assertEquals("rOMe", trie.suggest("rom", 5).get(0).getText());
+        assertTrue(trie.suggest("x", 5).isEmpty());
+        assertTrue(trie.suggest("", 0).isEmpty());
+    }
+
+    /** Counts must be the top ones in order; among equal counts any key may be chosen. */
+    private static void check(TagTrie trie, Map<String, Integer> counts, Map<String, String> spelling, String prefix, int limit) {
+        List<Integer> expected = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) if (e.getKey().startsWith(prefix)) expected.add(e.getValue());
+        expected.sort((a, b) -> b - a);
+        List<TagTrie.Suggestion> got = trie.suggest(prefix, limit);
+        assertEquals(expected.subList(0, Math.min(limit, expected.size())), got.stream().map(TagTrie.Suggestion::getCount).toList(), prefix);
+        Set<String> seen = new HashSet<>();
+        for (TagTrie.Suggestion s : got) {
+            String folded = s.getText().toLowerCase(Locale.ROOT);
+            assertTrue(folded.startsWith(prefix) && seen.add(folded), s.toString());
+            assertEquals(spelling.get(folded), s.getText());
+            assertEquals(counts.get(folded), s.getCount());
+        }
+    }
+
+    private static String word(Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1 + r.nextInt(6); i > 0; i--) sb.append((char) ('a' + r.nextInt(3)));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package search;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import model.Album;
+import model.Photo;
+import model.User;
+
+/**
+ * The varint posting lists of {@link TrigramIndex}, alone and behind the
+ * index, checked against sets, and caption searches over a library whose
+ * photo ids are reused.
+ *
+ * @author Prayrit
+ */
+class TrigramIndexTest {
+    private static final String[] WORDS = {"beach", "Bench", "sunset", "sun", "set", "rome", "roman", "dog", "doge", "x"};
+
+    @Test
+    void postingListMatchesSet() {
+        Random r = new Random(3);
+        TrigramIndex.PostingList l = new TrigramIndex.PostingList();
+        TreeSet<Integer> model = new TreeSet<>();
+        for (int step = 0; step < 50000; step++) {
+            // mostly appends of newer ids, with gaps of one to five varint bytes,
+            // mixed with inserts and deletes of older ids that go through the buffers
+            int id;
+            switch (r.nextInt(4)) {
+                case 0: case 1: {
+                    int gap = 1 + r.nextInt(1 << (7 * (1 + r.nextInt(4))));
+                    id = (int) Math.min(Integer.MAX_VALUE, (model.isEmpty() ? 0L : model.last()) + gap);
+                    break;
+                }
+                case 2: id = r.nextInt(1 << 20); break;
+                default: {
+                    Integer present = model.floor(r.nextInt(1 << 20));
+                    id = present != null ? present : model.isEmpty() ? 0 : model.first();
+                }
+            }
+            // the index only adds absent ids and removes present ones
+            if (model.contains(id)) {
+                model.remove(id);
+                l.remove(id);
+            } else {
+                model.add(id);
+                l.add(id);
+            }
+            if (step % 997 == 0) check(model, l);
+        }
+        check(model, l);
+    }
+
+    @Test
+    void postingListRetainIntersects() {
+        TrigramIndex.PostingList l = new TrigramIndex.PostingList();
+        for (int id : new int[] {5, 300, 70000, 2_000_000_000}) l.add(id);
+        l.add(7);
+        l.remove(300);
+        assertArrayEquals(new int[] {5, 7, 70000, 2_000_000_000}, l.toArray());
+        assertArrayEquals(new int[] {7, 2_000_000_000}, l.retain(new int[] {1, 7, 300, 2_000_000_000}));
+    }
+
+    @Test
+    void candidatesFollowCaptionEdits() {
+        Random r = new Random(4);
+        TrigramIndex index = new TrigramIndex();
+        Map<Integer, String> captions = new HashMap<>();
+        for (int step = 0; step < 5000; step++) {
+            int id = r.nextInt(400);
+            String before = captions.get(id);
+            String after = r.nextInt(5) == 0 ? null : caption(r);
+            if (before == null && after != null) index.add(id, after);
+            else if (before != null && after == null) index.remove(id, before);
+            else if (before != null) index.update(id, before, after);
+            if (after == null) captions.remove(id);
+            else captions.put(id, after);
+        }
+        for (String word : WORDS) {
+            String token = TrigramIndex.fold(word);
+            TreeSet<Integer> matching = new TreeSet<>();
+            for (Map.Entry<Integer, String> e : captions.entrySet()) {
+                if (TrigramIndex.fold(e.getValue()).contains(token)) matching.add(e.getKey());
+            }
+            int[] found = index.candidates(new String[] {token});
+            TreeSet<Integer> candidates = new TreeSet<>();
+            for (int id : found) candidates.add(id);
+            assertTrue(candidates.containsAll(matching), word);
+            // a three-letter token is one trigram, so its candidates are exact
+            if (token.length() == 3) assertEquals(matching, candidates, word);
+        }
+    }
+
+    /** Ids of photos that left are reused, and edits of those photos no longer reach the index. */
+    @Test
+    void reusedIdsKeepSearchesExact() {
+        Random r = new Random(28);
+        User u = new User("churn");
+        u.createAlbum("a");
+        Album a = u.getAlbums().get("a");
+        SearchEngine engine = SearchEngine.forUser(u);
+        List<Photo> gone = new ArrayList<>();
+        try {
+            for (int step = 0; step < 3000; step++) {
+                if (a.size() < 40 && (a.size() == 0 || r.nextBoolean())) {
+                    Photo p = new Photo("/photos/" + step + ".jpg");
+                    p.setCaption(caption(r));
+                    a.addPhoto(p);
+                } else {
+                    Photo p = a.photoAt(r.nextInt(a.size()));
+                    a.removePhoto(p);
+                    gone.add(p);
+                }
+                // editing a photo that left fires events under an id another photo may hold now
+                if (!gone.isEmpty()) gone.get(r.nextInt(gone.size())).setCaption(caption(r));
+            }
+            assertTrue(u.getPhotoIdLimit() <= 41, "ids reused: " + u.getPhotoIdLimit());
+            for (String word : WORDS) {
+                TreeSet<String> expected = new TreeSet<>();
+                for (Photo p : a.getPhotos()) {
+                    if (TrigramIndex.fold(p.getCaption()).contains(TrigramIndex.fold(word))) expected.add(p.getFilePath());
+                }
+                TreeSet<String> found = new TreeSet<>();
+                for (Photo p : engine.search("caption~" + word)) found.add(p.getFilePath());
+                assertEquals(expected, found, word);
+            }
+        } finally {
+            SearchEngine.release(u);
+        }
+    }
+
+    private static String caption(Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = r.nextInt(4); i >= 0; i--) sb.append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+        return sb.toString();
+    }
+
+    private static void check(TreeSet<Integer> model, TrigramIndex.PostingList l) {
+        assertEquals(model.size(), l.size());
+        assertArrayEquals(model.stream().mapToInt(Integer::intValue).toArray(), l.toArray());
+    }
+}
@@ -0,0 +1,147 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import model.DataStore;
+import model.Photo;
+import model.User;
+
+/**
+ * {@link PhotoServer} range parsing, and conditional and partial image
+ * requests against a running server.
+ *
+ * @author Prayrit
+ */
+class PhotoServerTest {
+    @TempDir
+    Path dir;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private PhotoServer server;
+    private byte[] image;
+    private String base;
+
+    @BeforeEach
+    void start() throws IOException {
+        image = new byte[1000];
+        for (int i = 0; i < image.length; i++) image[i] = (byte) i;
+        Path file = dir.resolve("a.jpg");
+        Files.write(file, image);
+        User u = new User("ann");
+        u.createAlbum("trip");
+        Photo p = new Photo(file.toString());
+        u.getAlbums().get("trip").addPhoto(p);
+        DataStore store = DataStore.create();
+        store.addUser(u);
+        server = new PhotoServer(store);
+        server.start(new InetSocketAddress("127.0.0.1", 0));
+        base = "http://127.0.0.1:" + server.getPort() + "/api/users/ann";
+        base += "/photos/" + p.getId() + "/image";
+    }
+
+    @AfterEach
+    void stop() { server.stop(); }
+
+    @Test
+    void parsesSingleRanges() {
+        assertArrayEquals(new long[] {0, 99}, PhotoServer.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] {900, 999}, PhotoServer.parseRange("bytes=900-", 1000));
+        assertArrayEquals(new long[] {990, 999}, PhotoServer.parseRange("bytes=-10", 1000));
+        assertArrayEquals(new long[] {0, 999}, PhotoServer.parseRange("bytes=-5000", 1000));
+        assertArrayEquals(new long[] {500, 999}, PhotoServer.parseRange("bytes=500-5000", 1000));
+        assertArrayEquals(new long[0], PhotoServer.parseRange("bytes=1000-", 1000));
+        assertArrayEquals(new long[0], PhotoServer.parseRange("bytes=-0", 1000));
+        assertNull(PhotoServer.parseRange("bytes=5-1", 1000));
+        assertNull(PhotoServer.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(PhotoServer.parseRange("items=0-1", 1000));
+        assertNull(PhotoServer.parseRange("bytes=x-1", 1000));
+        assertNull(PhotoServer.parseRange("bytes=5", 1000));
+    }
+
+    @Test
+    void decodesPathsAndQueries() throws Exception {
+        assertArrayEquals(new String[] {"api", "users", "a b+c"}, PhotoServer.segments("/api/users/a%20b+c/"));
+        assertEquals(Map.of("q", "a b", "x", ""), PhotoServer.params("q=a+b&x&q=ignored"));
+        for (String bad : new String[] {"x=%zz", "x=%4", "%g0=1"}) {
+            PhotoServer.HttpError e = assertThrows(PhotoServer.HttpError.class, () -> PhotoServer.params(bad));
+            assertEquals(400, e.status);
+        }
+        assertEquals(400, assertThrows(PhotoServer.HttpError.class, () -> PhotoServer.segments("/api/users/a%g0")).status);
+    }
+
+    @Test
+    void servesRangesAndConditionalRequests() throws Exception {
+        HttpResponse<byte[]> full = get(base);
+        assertEquals(200, full.statusCode());
+        assertArrayEquals(image, full.body());
+        String etag = full.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<byte[]> part = get(base, "Range", "bytes=10-19");
+        assertEquals(206, part.statusCode());
+        assertEquals("bytes 10-19/1000", part.headers().firstValue("Content-Range").orElseThrow());
+        assertArrayEquals(Arrays.copyOfRange(image, 10, 20), part.body());
+
+        // If-Range with the current tag keeps the range, a stale one sends everything
+        assertEquals(206, get(base, "Range", "bytes=-5", "If-Range", etag).statusCode());
+        HttpResponse<byte[]> stale = get(base, "Range", "bytes=-5", "If-Range", "\"0-0\"");
+        assertEquals(200, stale.statusCode());
+        assertArrayEquals(image, stale.body());
+
+        HttpResponse<byte[]> past = get(base, "Range", "bytes=2000-");
+        assertEquals(416, past.statusCode());
+        assertEquals("bytes */1000", past.headers().firstValue("Content-Range").orElseThrow());
+
+        assertEquals(304, get(base, "If-None-Match", etag).statusCode());
+        assertEquals(304, get(base, "If-None-Match", "\"other\", W/" + etag).statusCode());
+        assertEquals(200, get(base, "If-None-Match", "\"other\"").statusCode());
+    }
+
+    @Test
+    void answersBadRequestsWithClientErrors() throws Exception {
+        String path = URI.create(base).getRawPath();
+        assertEquals(400, raw(path + "?x=%zz"));
+        assertEquals(400, raw(path + "?x=%4"));
+        assertEquals(400, raw(path.replace("/ann/", "/a%g0/")));
+        assertEquals(400, get(base.replaceAll("/photos/\\d+/", "/photos/x/")).statusCode());
+        assertEquals(404, get(base.replace("/ann/", "/nobody/")).statusCode());
+    }
+
+    /** Status for a request target sent as is, which the client library would refuse to build. */
+    private int raw(String target) throws IOException {
+        try (Socket s = new Socket("127.0.0.1", server.getPort())) {
+            s.getOutputStream().write(("GET " + target + " HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+            String status = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+            return Integer.parseInt(status.split(" ")[1]);
+        }
+    }
+
+    private HttpResponse<byte[]> get(String url, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url));
+        for (int i = 0; i < headers.length; i += 2) b.header(headers[i], headers[i + 1]);
+        return client.send(b.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}